@@ -9,6 +9,7 @@ import com.boydti.fawe.bukkit.v1_12.packet.FaweChunkPacket;
 import com.boydti.fawe.bukkit.v1_12.packet.MCAChunkPacket;
 import com.boydti.fawe.example.CharFaweChunk;
 import com.boydti.fawe.example.NMSMappedFaweQueue;
+import com.boydti.fawe.example.SectionSnapshotCache;
 import com.boydti.fawe.jnbt.anvil.MCAChunk;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FawePlayer;
@@ -257,10 +258,12 @@ public abstract class BukkitQueue_0<CHUNK, CHUNKSECTIONS, SECTION> extends NMSMa
         if (lastLoad != null) {
             if (Fawe.get().getTimer().getTickStart() - lastLoad < 10000) {
                 event.setCancelled(true);
+                return;
             } else {
                 keepLoaded.remove(pair);
             }
         }
+        SectionSnapshotCache.IMP.invalidate(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
     }
 
     @Override
@@ -3,11 +3,7 @@ package com.boydti.fawe.bukkit.v0;
 import com.boydti.fawe.Fawe;
 import com.boydti.fawe.bukkit.FaweBukkit;
 import com.boydti.fawe.config.Settings;
-import com.boydti.fawe.util.FaweTimer;
-import com.boydti.fawe.util.MathMan;
-import com.boydti.fawe.util.TaskManager;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import com.boydti.fawe.util.TickLimiter;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
@@ -40,35 +36,16 @@ import org.bukkit.event.inventory.FurnaceBurnEvent;
 import org.bukkit.event.inventory.FurnaceSmeltEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 
+/**
+ * Drives the {@link TickLimiter} with Bukkit's events
+ */
 public abstract class ChunkListener implements Listener {
 
-    protected int rateLimit = 0;
-    private int[] badLimit = new int[]{Settings.IMP.TICK_LIMITER.PHYSICS_MS, Settings.IMP.TICK_LIMITER.FALLING, Settings.IMP.TICK_LIMITER.ITEMS};
+    protected final TickLimiter limiter = new TickLimiter();
 
     public ChunkListener() {
         if (Settings.IMP.TICK_LIMITER.ENABLED) {
             Bukkit.getPluginManager().registerEvents(ChunkListener.this, Fawe.<FaweBukkit>imp().getPlugin());
-            TaskManager.IMP.repeat(new Runnable() {
-                @Override
-                public void run() {
-                    rateLimit--;
-                    physicsFreeze = false;
-                    itemFreeze = false;
-                    lastZ = Integer.MIN_VALUE;
-                    physSkip = 0;
-                    physCancelPair = Long.MIN_VALUE;
-                    physCancel = false;
-
-                    counter.clear();
-                    for (Long2ObjectMap.Entry<Boolean> entry : badChunks.long2ObjectEntrySet()) {
-                        long key = entry.getLongKey();
-                        int x = MathMan.unpairIntX(key);
-                        int z = MathMan.unpairIntY(key);
-                        counter.put(key, badLimit);
-                    }
-                    badChunks.clear();
-                }
-            }, Settings.IMP.TICK_LIMITER.INTERVAL);
         }
     }
 
@@ -78,26 +55,6 @@ public abstract class ChunkListener implements Listener {
     public static boolean physicsFreeze = false;
     public static boolean itemFreeze = false;
 
-    protected Long2ObjectOpenHashMap<Boolean> badChunks = new Long2ObjectOpenHashMap<>();
-    private Long2ObjectOpenHashMap<int[]> counter = new Long2ObjectOpenHashMap<>();
-    private int lastX = Integer.MIN_VALUE, lastZ = Integer.MIN_VALUE;
-    private int[] lastCount;
-
-    public int[] getCount(int cx, int cz) {
-        if (lastX == cx && lastZ == cz) {
-            return lastCount;
-        }
-        lastX = cx;
-        lastZ = cz;
-        long pair = MathMan.pairInt(cx, cz);
-        int[] tmp = lastCount = counter.get(pair);
-        if (tmp == null) {
-            lastCount = tmp =  new int[3];
-            counter.put(pair, tmp);
-        }
-        return tmp;
-    }
-
     public void cleanup(Chunk chunk) {
         for (Entity entity : chunk.getEntities()) {
             if (entity.getType() == EntityType.DROPPED_ITEM) {
@@ -107,17 +64,8 @@ public abstract class ChunkListener implements Listener {
 
     }
 
-    protected int physSkip;
-    protected boolean physCancel;
-    protected long physCancelPair;
-
-    protected long physStart;
-    protected long physTick;
-
     private void reset() {
-        physSkip = 0;
-        physStart = System.currentTimeMillis();
-        physCancel = false;
+        limiter.interrupt();
     }
 
     @EventHandler(priority = EventPriority.LOWEST)
@@ -182,91 +130,19 @@ public abstract class ChunkListener implements Listener {
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onPhysics(BlockPhysicsEvent event) {
-        if (physCancel) {
-            Block block = event.getBlock();
-            long pair = MathMan.pairInt(block.getX() >> 4, block.getZ() >> 4);
-            if (physCancelPair == pair) {
-                event.setCancelled(true);
-                return;
-            }
-            if (badChunks.containsKey(pair)) {
-                physCancelPair = pair;
-                event.setCancelled(true);
-                return;
-            }
-        } else {
-            if ((++physSkip & 1023) != 0) return;
-            FaweTimer timer = Fawe.get().getTimer();
-            if (timer.getTick() != physTick) {
-                physTick = timer.getTick();
-                physStart = System.currentTimeMillis();
-                return;
-            } else if (System.currentTimeMillis() - physStart < Settings.IMP.TICK_LIMITER.PHYSICS_MS) {
-                return;
-            }
-        }
         if (physicsFreeze) {
             event.setCancelled(true);
             return;
         }
-        if (event.getChangedTypeId() == 0) return;
-        Exception e = new Exception();
-        int depth = getDepth(e);
-        if (depth >= 256) {
-            if (containsSetAir(e, event)) {
-                Block block = event.getBlock();
-                int cx = block.getX() >> 4;
-                int cz = block.getZ() >> 4;
-                physCancelPair = MathMan.pairInt(cx, cz);
-                    if (rateLimit <= 0) {
-                rateLimit = 20;
-                Fawe.debug("[FAWE `tick-limiter`] Detected and cancelled physics  lag source at " + block.getLocation());
-                    }
-                cancelNearby(cx, cz);
-                event.setCancelled(true);
-                physCancel = true;
-                return;
-            }
-        }
-        physSkip = 1;
-        physCancel = false;
-    }
-
-    protected boolean containsSetAir(Exception e, BlockPhysicsEvent event) {
-        for (int frame = 25; frame < 35; frame++) {
-            StackTraceElement elem = getElement(e, frame);
-            if (elem != null) {
-                String methodName = elem.getMethodName();
-                // setAir (hacky, but this needs to be efficient)
-                if (methodName.charAt(0) == 's' && methodName.length() == 6) {
-                    return true;
+        Block block = event.getBlock();
+        switch (limiter.onPhysics(block.getX() >> 4, block.getZ() >> 4)) {
+            case TRIP:
+                if (limiter.shouldLog()) {
+                    Fawe.debug("[FAWE `tick-limiter`] Detected and cancelled physics lag source at " + block.getLocation());
                 }
-            }
+            case CANCEL:
+                event.setCancelled(true);
         }
-        return false;
-    }
-
-    protected void cancelNearby(int cx, int cz) {
-        cancel(cx, cz);
-        cancel(cx + 1, cz);
-        cancel(cx - 1, cz);
-        cancel(cx, cz + 1);
-        cancel(cx, cz - 1);
-        cancel(cx - 1, cz - 1);
-        cancel(cx - 1, cz + 1);
-        cancel(cx + 1, cz - 1);
-        cancel(cx + 1, cz + 1);
-    }
-
-    private void cancel(int cx, int cz) {
-        long key = MathMan.pairInt(cx, cz);
-        badChunks.put(key, (Boolean) true);
-        counter.put(key, badLimit);
-        int[] count = getCount(cx, cz);
-        count[0] = Integer.MAX_VALUE;
-        count[1] = Integer.MAX_VALUE;
-        count[2] = Integer.MAX_VALUE;
-
     }
 
     // Falling
@@ -277,31 +153,13 @@ public abstract class ChunkListener implements Listener {
             return;
         }
         Block block = event.getBlock();
-        int x = block.getX();
-        int z = block.getZ();
-        int cx = x >> 4;
-        int cz = z >> 4;
-        int[] count = getCount(cx, cz);
-        if (count[1] >= Settings.IMP.TICK_LIMITER.FALLING) {
-            event.setCancelled(true);
-            return;
-        }
-        if (event.getEntityType() == EntityType.FALLING_BLOCK) {
-            if (++count[1] >= Settings.IMP.TICK_LIMITER.FALLING) {
-
-                // Only cancel falling blocks when it's lagging
-                if (Fawe.get().getTimer().getTPS() < 18) {
-                    cancelNearby(cx, cz);
-                    if (rateLimit <= 0) {
-                        rateLimit = 20;
-                        Fawe.debug("[FAWE `tick-limiter`] Detected and cancelled falling block lag source at " + block.getLocation());
-                    }
-                    event.setCancelled(true);
-                    return;
-                } else {
-                    count[1] = 0;
+        switch (limiter.onFalling(block.getX() >> 4, block.getZ() >> 4, event.getEntityType() == EntityType.FALLING_BLOCK)) {
+            case TRIP:
+                if (limiter.shouldLog()) {
+                    Fawe.debug("[FAWE `tick-limiter`] Detected and cancelled falling block lag source at " + block.getLocation());
                 }
-            }
+            case CANCEL:
+                event.setCancelled(true);
         }
     }
 
@@ -359,22 +217,14 @@ public abstract class ChunkListener implements Listener {
             return;
         }
         Location loc = event.getLocation();
-        int cx = loc.getBlockX() >> 4;
-        int cz = loc.getBlockZ() >> 4;
-        int[] count = getCount(cx, cz);
-        if (count[2] >= Settings.IMP.TICK_LIMITER.ITEMS) {
-            event.setCancelled(true);
-            return;
-        }
-        if (++count[2] >= Settings.IMP.TICK_LIMITER.ITEMS) {
-            cleanup(loc.getChunk());
-            cancelNearby(cx, cz);
-            if (rateLimit <= 0) {
-                rateLimit = 20;
-                Fawe.debug("[FAWE `tick-limiter`] Detected and cancelled item lag source at " + loc);
-            }
-            event.setCancelled(true);
-            return;
+        switch (limiter.onItemSpawn(loc.getBlockX() >> 4, loc.getBlockZ() >> 4)) {
+            case TRIP:
+                cleanup(loc.getChunk());
+                if (limiter.shouldLog()) {
+                    Fawe.debug("[FAWE `tick-limiter`] Detected and cancelled item lag source at " + loc);
+                }
+            case CANCEL:
+                event.setCancelled(true);
         }
     }
-}
\ No newline at end of file
+}
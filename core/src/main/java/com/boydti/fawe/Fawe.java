@@ -81,18 +81,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.management.ManagementFactory;
-import java.lang.management.MemoryMXBean;
-import java.lang.management.MemoryPoolMXBean;
-import java.lang.management.MemoryUsage;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import javax.management.InstanceAlreadyExistsException;
-import javax.management.Notification;
-import javax.management.NotificationEmitter;
-import javax.management.NotificationListener;
 
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -663,36 +656,9 @@ public class Fawe {
     }
 
     private void setupMemoryListener() {
-        if (Settings.IMP.MAX_MEMORY_PERCENT < 1 || Settings.IMP.MAX_MEMORY_PERCENT > 99) {
-            return;
-        }
         try {
-            final MemoryMXBean memBean = ManagementFactory.getMemoryMXBean();
-            final NotificationEmitter ne = (NotificationEmitter) memBean;
-
-            ne.addNotificationListener(new NotificationListener() {
-                @Override
-                public void handleNotification(final Notification notification, final Object handback) {
-                    final long heapSize = Runtime.getRuntime().totalMemory();
-                    final long heapMaxSize = Runtime.getRuntime().maxMemory();
-                    if (heapSize < heapMaxSize) {
-                        return;
-                    }
-                    MemUtil.memoryLimitedTask();
-                }
-            }, null, null);
-
-            final List<MemoryPoolMXBean> memPools = ManagementFactory.getMemoryPoolMXBeans();
-            for (final MemoryPoolMXBean mp : memPools) {
-                if (mp.isUsageThresholdSupported()) {
-                    final MemoryUsage mu = mp.getUsage();
-                    final long max = mu.getMax();
-                    if (max < 0) {
-                        continue;
-                    }
-                    final long alert = (max * Settings.IMP.MAX_MEMORY_PERCENT) / 100;
-                    mp.setUsageThreshold(alert);
-                }
+            if (MemoryGovernor.IMP.setup() == MemoryGovernor.Mode.POLLING) {
+                debug("No memory pool supports collection thresholds, the heap will be checked each tick");
             }
         } catch (Throwable e) {
             debug("====== MEMORY LISTENER ERROR ======");
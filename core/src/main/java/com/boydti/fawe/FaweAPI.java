@@ -2,8 +2,12 @@ package com.boydti.fawe;
 
 import com.boydti.fawe.config.BBC;
 import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.database.DBHandler;
+import com.boydti.fawe.database.RollbackDatabase;
 import com.boydti.fawe.example.NMSMappedFaweQueue;
 import com.boydti.fawe.example.NMSRelighter;
+import com.boydti.fawe.jnbt.SchematicPasteStreamer;
+import com.boydti.fawe.logging.rollback.RollbackOptimizedHistory;
 import com.boydti.fawe.object.FaweLocation;
 import com.boydti.fawe.object.FawePlayer;
 import com.boydti.fawe.object.FaweQueue;
@@ -15,15 +19,12 @@ import com.boydti.fawe.regions.FaweMaskManager;
 import com.boydti.fawe.util.EditSessionBuilder;
 import com.boydti.fawe.util.MainUtil;
 import com.boydti.fawe.util.MemUtil;
+import com.boydti.fawe.util.MemoryGovernor;
 import com.boydti.fawe.util.SetQueue;
 import com.boydti.fawe.util.TaskManager;
 import com.boydti.fawe.util.WEManager;
 import com.boydti.fawe.wrappers.WorldWrapper;
-import com.sk89q.jnbt.ByteArrayTag;
-import com.sk89q.jnbt.IntTag;
 import com.sk89q.jnbt.NBTInputStream;
-import com.sk89q.jnbt.ShortTag;
-import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.WorldEdit;
@@ -37,9 +38,12 @@ import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
 import com.sk89q.worldedit.internal.registry.AbstractFactory;
 import com.sk89q.worldedit.internal.registry.InputParser;
+import com.sk89q.worldedit.math.transform.AffineTransform;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.world.AbstractWorld;
 import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.registry.BlockRegistry;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -251,6 +255,16 @@ public class FaweAPI {
         return MemUtil.isMemoryLimited();
     }
 
+    /**
+     * Get the estimated memory used by each subsystem (queued chunks, clipboards, history, CFI)
+     *
+     * @return bytes per subsystem
+     * @see MemoryGovernor#getPressure()
+     */
+    public static Map<MemoryGovernor.Subsystem, Long> getMemoryUsage() {
+        return MemoryGovernor.IMP.getUsage();
+    }
+
     /**
      * Use ThreadLocalRandom instead
      *
@@ -329,7 +343,9 @@ public class FaweAPI {
 
     /**
      * Used in the RollBack to generate a list of DiskStorageHistory objects<br>
-     * - Note: An edit outside the radius may be included if it overlaps with an edit inside that depends on it.
+     * - Note: An edit outside the radius may be included if it overlaps with an edit inside that depends on it.<br>
+     * - With history.use-database, the summary index is queried and only the matching files are opened. Otherwise every
+     * file is opened (returning null if there are more than 2048)
      *
      * @param origin   - The origin location
      * @param user     - The uuid (may be null)
@@ -340,6 +356,12 @@ public class FaweAPI {
      * @return
      */
     public static List<DiskStorageHistory> getBDFiles(FaweLocation origin, UUID user, int radius, long timediff, boolean shallow) {
+        if (Settings.IMP.HISTORY.USE_DATABASE) {
+            RollbackDatabase database = DBHandler.IMP.getDatabase(origin.world);
+            if (database != null) {
+                return getBDFiles(database, origin, user, radius, timediff, shallow);
+            }
+        }
         File history = MainUtil.getFile(Fawe.imp().getDirectory(), Settings.IMP.PATHS.HISTORY + File.separator + origin.world);
         if (!history.exists()) {
             return new ArrayList<>();
@@ -413,6 +435,55 @@ public class FaweAPI {
         return result;
     }
 
+    /**
+     * Find the edits using the summary index, so only the matching history files are opened
+     */
+    private static List<DiskStorageHistory> getBDFiles(RollbackDatabase database, FaweLocation origin, UUID user, int radius, long timediff, boolean shallow) {
+        long minTime = timediff >= Integer.MAX_VALUE ? Long.MIN_VALUE : System.currentTimeMillis() - timediff;
+        RegionWrapper bounds = new RegionWrapper(
+                (int) Math.max(Integer.MIN_VALUE, (long) origin.x - radius), (int) Math.min(Integer.MAX_VALUE, (long) origin.x + radius),
+                (int) Math.max(Integer.MIN_VALUE, (long) origin.z - radius), (int) Math.min(Integer.MAX_VALUE, (long) origin.z + radius));
+        // Grow the queried area until it includes every edit overlapping an included edit
+        RegionWrapper area = new RegionWrapper(bounds.minX, bounds.maxX, bounds.minZ, bounds.maxZ);
+        List<RollbackOptimizedHistory> summaries;
+        while (true) {
+            summaries = database.getSummaries(user, minTime, area);
+            boolean grown = false;
+            for (RollbackOptimizedHistory summary : summaries) {
+                if (summary.getMinX() < area.minX || summary.getMaxX() > area.maxX || summary.getMinZ() < area.minZ || summary.getMaxZ() > area.maxZ) {
+                    area = new RegionWrapper(Math.min(area.minX, summary.getMinX()), Math.max(area.maxX, summary.getMaxX()), Math.min(area.minZ, summary.getMinZ()), Math.max(area.maxZ, summary.getMaxZ()));
+                    grown = true;
+                }
+            }
+            if (!grown) {
+                break;
+            }
+        }
+        List<RegionWrapper> regions = new ArrayList<>(Arrays.asList(bounds));
+        ArrayList<DiskStorageHistory> result = new ArrayList<>();
+        for (RollbackOptimizedHistory summary : summaries) {
+            RegionWrapper region = new RegionWrapper(summary.getMinX(), summary.getMaxX(), summary.getMinZ(), summary.getMaxZ());
+            boolean encompassed = false;
+            boolean isIn = false;
+            for (RegionWrapper allowed : regions) {
+                isIn = isIn || allowed.intersects(region);
+                if (encompassed = allowed.minX <= region.minX && allowed.maxX >= region.maxX && allowed.minZ <= region.minZ && allowed.maxZ >= region.maxZ) {
+                    break;
+                }
+            }
+            if (isIn) {
+                result.add(0, summary);
+                if (!encompassed) {
+                    regions.add(region);
+                }
+                if (shallow && result.size() > 64) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * The DiskStorageHistory class is what FAWE uses to represent the undo on disk.
      *
@@ -547,49 +618,28 @@ public class FaweAPI {
      * @deprecated Since I haven't finished it yet
      * If a schematic is too large to be pasted normally<br>
      * - Skips any block history
-     * - Ignores some block data
-     * - Not actually streaming from disk, but it does skip a lot of overhead
+     * - Ignores nbt and ids above 255
+     * - Blocks are placed while the stream is being read (see {@link SchematicPasteStreamer})
      */
     @Deprecated
     public static void streamSchematic(final InputStream is, final FaweLocation loc) throws IOException {
-        final NBTInputStream stream = new NBTInputStream(new GZIPInputStream(is));
-        Tag tag = stream.readNamedTag().getTag();
-        stream.close();
-
-        Map<String, Tag> tagMap = (Map<String, Tag>) tag.getValue();
-
-        final short width = ShortTag.class.cast(tagMap.get("Width")).getValue();
-        final short length = ShortTag.class.cast(tagMap.get("Length")).getValue();
-        final short height = ShortTag.class.cast(tagMap.get("Height")).getValue();
-        byte[] ids = ByteArrayTag.class.cast(tagMap.get("Blocks")).getValue();
-        byte[] datas = ByteArrayTag.class.cast(tagMap.get("Data")).getValue();
-
-        final String world = loc.world;
-
-        final int x_offset = loc.x + IntTag.class.cast(tagMap.get("WEOffsetX")).getValue();
-        final int y_offset = loc.y + IntTag.class.cast(tagMap.get("WEOffsetY")).getValue();
-        final int z_offset = loc.z + IntTag.class.cast(tagMap.get("WEOffsetZ")).getValue();
-
-        FaweQueue queue = SetQueue.IMP.getNewQueue(getWorld(loc.world), true, true);
-
-        for (int y = 0; y < height; y++) {
-            final int yy = y_offset + y;
-            if (yy > 255) {
-                continue;
-            }
-            final int i1 = y * width * length;
-            for (int z = 0; z < length; z++) {
-                final int i2 = (z * width) + i1;
-                final int zz = z_offset + z;
-                for (int x = 0; x < width; x++) {
-                    final int i = i2 + x;
-                    final int xx = x_offset + x;
-                    final short id = (short) (ids[i] & 0xFF);
-                    queue.setBlock(xx, yy, zz, id, datas[i]);
-                }
-            }
-        }
+        streamSchematic(is, loc, null);
+    }
 
+    /**
+     * @param is
+     * @param loc
+     * @param transform the rotation/flip around the location, or null
+     * @throws IOException
+     * @see #streamSchematic(InputStream, FaweLocation)
+     */
+    @Deprecated
+    public static void streamSchematic(final InputStream is, final FaweLocation loc, @Nullable AffineTransform transform) throws IOException {
+        World world = getWorld(loc.world);
+        FaweQueue queue = SetQueue.IMP.getNewQueue(world, true, true);
+        BlockRegistry registry = world.getWorldData().getBlockRegistry();
+        final NBTInputStream stream = new NBTInputStream(new BufferedInputStream(new GZIPInputStream(is)));
+        new SchematicPasteStreamer(stream, queue, loc.x, loc.y, loc.z, transform, registry).paste();
         queue.enqueue();
     }
 
@@ -4,11 +4,14 @@ import com.boydti.fawe.Fawe;
 import com.boydti.fawe.FaweAPI;
 import com.boydti.fawe.FaweCache;
 import com.boydti.fawe.config.BBC;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.jnbt.anvil.MCAChunk;
 import com.boydti.fawe.jnbt.anvil.MCAClipboard;
 import com.boydti.fawe.jnbt.anvil.MCAFile;
 import com.boydti.fawe.jnbt.anvil.MCAFilter;
 import com.boydti.fawe.jnbt.anvil.MCAFilterCounter;
 import com.boydti.fawe.jnbt.anvil.MCAQueue;
+import com.boydti.fawe.jnbt.anvil.filters.BlockHistogramFilter;
 import com.boydti.fawe.jnbt.anvil.filters.CountFilter;
 import com.boydti.fawe.jnbt.anvil.filters.CountIdFilter;
 import com.boydti.fawe.jnbt.anvil.filters.DeleteOldFilter;
@@ -59,6 +62,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
+import javax.annotation.Nullable;
 
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -90,6 +94,23 @@ public class AnvilCommands {
      */
     @Deprecated
     public static <G, T extends MCAFilter<G>> T runWithWorld(Player player, String folder, T filter, boolean force) {
+        return runWithWorld(player, folder, filter, force, null);
+    }
+
+    /**
+     * Run safely on an unloaded world (no selection)
+     *
+     * @param player
+     * @param folder
+     * @param filter
+     * @param force
+     * @param job    the command and arguments, so an interrupted run of the same command can resume (or null)
+     * @param <G>
+     * @param <T>
+     * @return
+     */
+    @Deprecated
+    public static <G, T extends MCAFilter<G>> T runWithWorld(Player player, String folder, T filter, boolean force, @Nullable String job) {
         boolean copy = false;
         if (FaweAPI.getWorld(folder) != null) {
             if (!force) {
@@ -103,7 +124,7 @@ public class AnvilCommands {
         if (copy) {
             return queue.filterCopy(filter, RegionWrapper.GLOBAL());
         } else {
-            return queue.filterWorld(filter);
+            return queue.filterWorld(filter, job);
         }
     }
 
@@ -137,6 +158,55 @@ public class AnvilCommands {
         return filter;
     }
 
+    /**
+     * Count the blocks in a world or selection, without modifying it
+     * - Uses the histogram index (if enabled) so only changed chunks are read
+     *
+     * @param player
+     * @param folder the world folder
+     * @param selection the selection, or null for the whole world
+     * @return
+     */
+    private static BlockHistogramFilter runHistogram(Player player, String folder, @Nullable Region selection) {
+        RegionWrapper wrappedRegion = null;
+        if (selection != null) {
+            if (!(selection instanceof CuboidRegion)) {
+                BBC.NO_REGION.send(player);
+                return null;
+            }
+            FawePlayer.wrap(player).checkAllowedRegion(selection);
+            wrappedRegion = new RegionWrapper(selection.getMinimumPoint(), selection.getMaximumPoint());
+        }
+        FaweQueue defaultQueue = SetQueue.IMP.getNewQueue(folder, true, false);
+        MCAQueue queue = new MCAQueue(defaultQueue);
+        BlockHistogramFilter filter = new BlockHistogramFilter(wrappedRegion);
+        if (wrappedRegion == null) {
+            return queue.filterWorld(filter);
+        }
+        return queue.filterRegion(filter, wrappedRegion);
+    }
+
+    private static long countBlocks(long[] histogram, Set<BaseBlock> searchBlocks, boolean useData) {
+        boolean[] allowed = new boolean[histogram.length];
+        for (BaseBlock block : searchBlocks) {
+            int id = block.getId();
+            if (useData && FaweCache.hasData(id)) {
+                allowed[FaweCache.getCombined(id, block.getData())] = true;
+            } else {
+                for (int data = 0; data < 16; data++) {
+                    allowed[FaweCache.getCombined(id, data)] = true;
+                }
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            if (allowed[i]) {
+                total += histogram[i];
+            }
+        }
+        return total;
+    }
+
     public static void recordHistory(FawePlayer fp, World world, Consumer<IAnvilHistory> run) {
         LocalSession session = fp.getSession();
         if (session == null || session.hasFastMode()) {
@@ -171,7 +241,7 @@ public class AnvilCommands {
         }
         final FaweBlockMatcher matchTo = FaweBlockMatcher.setBlocks(worldEdit.getBlocks(player, to, true));
         ReplaceSimpleFilter filter = new ReplaceSimpleFilter(matchFrom, matchTo);
-        ReplaceSimpleFilter result = runWithWorld(player, folder, filter, true);
+        ReplaceSimpleFilter result = runWithWorld(player, folder, filter, true, "replaceall " + from + " " + to + " " + useData);
         if (result != null) player.print(BBC.getPrefix() + BBC.VISITOR_BLOCK.format(result.getTotal()));
     }
 
@@ -196,7 +266,7 @@ public class AnvilCommands {
             to = ClipboardRemapper.RemapPlatform.PC;
         }
         RemapFilter filter = new RemapFilter(from, to);
-        RemapFilter result = runWithWorld(player, folder, filter, true);
+        RemapFilter result = runWithWorld(player, folder, filter, true, "remapall " + from + " " + to);
         if (result != null) player.print(BBC.getPrefix() + BBC.VISITOR_BLOCK.format(result.getTotal()));
     }
 
@@ -216,7 +286,7 @@ public class AnvilCommands {
     public void deleteAllUnvisited(Player player, String folder, int inhabitedTicks, @Optional("60000") int fileDurationMillis) throws WorldEditException {
         long chunkInactivityMillis = fileDurationMillis; // Use same value for now
         DeleteUninhabitedFilter filter = new DeleteUninhabitedFilter(fileDurationMillis, inhabitedTicks, chunkInactivityMillis);
-        DeleteUninhabitedFilter result = runWithWorld(player, folder, filter, true);
+        DeleteUninhabitedFilter result = runWithWorld(player, folder, filter, true, "deleteallunvisited " + inhabitedTicks + " " + fileDurationMillis);
         if (result != null) player.print(BBC.getPrefix() + BBC.VISITOR_BLOCK.format(result.getTotal()));
     }
 
@@ -237,7 +307,7 @@ public class AnvilCommands {
         long chunkInactivityMillis = fileDurationMillis; // Use same value for now
         DeleteUnclaimedFilter filter = new DeleteUnclaimedFilter(player.getWorld(), fileDurationMillis, inhabitedTicks, chunkInactivityMillis);
         if (debug) filter.enableDebug();
-        DeleteUnclaimedFilter result = runWithWorld(player, folder, filter, true);
+        DeleteUnclaimedFilter result = runWithWorld(player, folder, filter, true, "deleteallunclaimed " + inhabitedTicks + " " + fileDurationMillis);
         if (result != null) player.print(BBC.getPrefix() + BBC.VISITOR_BLOCK.format(result.getTotal()));
     }
 
@@ -277,7 +347,7 @@ public class AnvilCommands {
     public void deleteAllOldRegions(Player player, String folder, String time) throws WorldEditException {
         long duration = MainUtil.timeToSec(time) * 1000l;
         DeleteOldFilter filter = new DeleteOldFilter(duration);
-        DeleteOldFilter result = runWithWorld(player, folder, filter, true);
+        DeleteOldFilter result = runWithWorld(player, folder, filter, true, "deletealloldregions " + time);
         if (result != null) player.print(BBC.getPrefix() + BBC.VISITOR_BLOCK.format(result.getTotal()));
     }
 
@@ -308,7 +378,7 @@ public class AnvilCommands {
     @CommandPermissions("worldedit.anvil.trimallair")
     public void trimAllAir(Player player, String folder) throws WorldEditException {
         TrimAirFilter filter = new TrimAirFilter();
-        TrimAirFilter result = runWithWorld(player, folder, filter, true);
+        TrimAirFilter result = runWithWorld(player, folder, filter, true, "trimallair");
         if (result != null) player.print(BBC.getPrefix() + BBC.VISITOR_BLOCK.format(result.getTotal()));
     }
 
@@ -355,6 +425,11 @@ public class AnvilCommands {
     @CommandPermissions("worldedit.anvil.countall")
     public void countAll(Player player, EditSession editSession, String folder, String arg, @Switch('d') boolean useData) throws WorldEditException {
         Set<BaseBlock> searchBlocks = worldEdit.getBlocks(player, arg, true);
+        if (Settings.IMP.EXPERIMENTAL.ANVIL_HISTOGRAM_INDEX) {
+            BlockHistogramFilter histogram = runHistogram(player, folder, null);
+            if (histogram != null) player.print(BBC.getPrefix() + BBC.SELECTION_COUNT.format(countBlocks(histogram.getCounts(), searchBlocks, useData || arg.contains(":"))));
+            return;
+        }
         MCAFilterCounter filter;
         if (useData || arg.contains(":")) { // Optimize for both cases
             CountFilter counter = new CountFilter();
@@ -430,6 +505,11 @@ public class AnvilCommands {
     @CommandPermissions("worldedit.anvil.count")
     public void count(Player player, EditSession editSession, @Selection Region selection, String arg, @Switch('d') boolean useData) throws WorldEditException {
         Set<BaseBlock> searchBlocks = worldEdit.getBlocks(player, arg, true);
+        if (Settings.IMP.EXPERIMENTAL.ANVIL_HISTOGRAM_INDEX) {
+            BlockHistogramFilter histogram = runHistogram(player, Fawe.imp().getWorldName(editSession.getWorld()), selection);
+            if (histogram != null) player.print(BBC.getPrefix() + BBC.SELECTION_COUNT.format(countBlocks(histogram.getCounts(), searchBlocks, useData || arg.contains(":"))));
+            return;
+        }
         MCAFilterCounter filter;
         if (useData || arg.contains(":")) { // Optimize for both cases
             CountFilter counter = new CountFilter();
@@ -453,8 +533,38 @@ public class AnvilCommands {
         long total = 0;
         long[] count;
         MCAFilter<long[]> counts;
-        if (useData) {
+        if (Settings.IMP.EXPERIMENTAL.ANVIL_HISTOGRAM_INDEX) {
+            BlockHistogramFilter histogram = runHistogram(player, Fawe.imp().getWorldName(editSession.getWorld()), selection);
+            if (histogram == null) return;
+            counts = null;
+            long[] combined = histogram.getCounts();
+            if (useData) {
+                count = combined;
+            } else {
+                count = new long[4096];
+                for (int i = 0; i < combined.length; i++) {
+                    count[i >> 4] += combined[i];
+                }
+            }
+            for (long value : count) {
+                total += value;
+            }
+        } else if (useData) {
             counts = runWithSelection(player, editSession, selection, new MCAFilter<long[]>() {
+                @Override
+                public boolean hasSectionFilter() {
+                    return true;
+                }
+
+                @Override
+                public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, long[] counts) {
+                    for (int i = 0; i < ids.length; i++) {
+                        int id = ids[i] & 0xFF;
+                        counts[FaweCache.hasData(id) ? (id << 4) + chunk.getNibble(i, data) : id << 4]++;
+                    }
+                    return false;
+                }
+
                 @Override
                 public void applyBlock(int x, int y, int z, BaseBlock block, long[] counts) {
                     counts[block.getCombined()]++;
@@ -468,6 +578,19 @@ public class AnvilCommands {
             count = new long[Character.MAX_VALUE + 1];
         } else {
             counts = runWithSelection(player, editSession, selection, new MCAFilter<long[]>() {
+                @Override
+                public boolean hasSectionFilter() {
+                    return true;
+                }
+
+                @Override
+                public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, long[] counts) {
+                    for (byte id : ids) {
+                        counts[id & 0xFF]++;
+                    }
+                    return false;
+                }
+
                 @Override
                 public void applyBlock(int x, int y, int z, BaseBlock block, long[] counts) {
                     counts[block.getId()]++;
@@ -480,10 +603,12 @@ public class AnvilCommands {
             });
             count = new long[4096];
         }
-        for (long[] value : counts) {
-            for (int i = 0; i < value.length; i++) {
-                count[i] += value[i];
-                total += value[i];
+        if (counts != null) {
+            for (long[] value : counts) {
+                for (int i = 0; i < value.length; i++) {
+                    count[i] += value[i];
+                    total += value[i];
+                }
             }
         }
         ArrayList<long[]> map = new ArrayList<>();
@@ -217,6 +217,7 @@ public class CFICommands extends MethodCommands {
 
             fp.sendMessage(BBC.getPrefix() + "Generating");
             generator.generate();
+            Fawe.debug("Generated " + plot.getWorldName() + ": " + generator.getThroughput());
             generator.setPacketViewer(null);
             generator.setImageViewer(null);
             settings.remove();
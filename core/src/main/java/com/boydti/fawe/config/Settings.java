@@ -40,6 +40,8 @@ public class Settings extends Config {
     public boolean REGION_RESTRICTIONS = true;
     @Comment({
             "FAWE will cancel non admin edits when memory consumption exceeds this %",
+            " - Measured after garbage collection, so only counts memory which is in use",
+            " - From 20% below, edits are slowed down. From 10% below, history is written to disk and queues are flushed",
             " - Bypass with `/wea` or `//fast` or `fawe.bypass`",
             " - Disable with 100 or -1."
     })
@@ -182,6 +184,14 @@ public class Settings extends Config {
                 " - Must be in the range [64, 33554432]",
         })
         public int BUFFER_SIZE = 531441;
+        @Comment({
+                "The memory (MB) shared by all players for caching compressed history:",
+                " - Recent history is kept in memory so undo/redo doesn't need to read from disk",
+                " - When full, the least recently used history (of any player) is evicted",
+                " - Evicted in-memory history (use-disk: false) is written to disk in the background",
+                " - 0 = Disabled",
+        })
+        public int MEMORY_CACHE_MB = 128;
 
 
         @Comment({
@@ -273,6 +283,14 @@ public class Settings extends Config {
         })
         public int DISCARD_AFTER_MS = 60000;
 
+        @Comment({
+                "Share the blocks read by async edits with other edits in the same world for this long (ms)",
+                " - E.g. several players brushing the same area, or a brush reading the same chunks each use",
+                " - Changes made by FAWE are seen straight away, other changes (e.g. players) may take this long",
+                " - 0 = Disabled"
+        })
+        public int READ_CACHE_MS = 0;
+
         public static class PROGRESS {
             @Comment({"Display constant titles about the progress of a user's edit",
                     " - false = disabled",
@@ -314,6 +332,41 @@ public class Settings extends Config {
                 "[SAFE] Enable CUI without needing the mod installed (Requires ProtocolLib)",
         })
         public boolean VANILLA_CUI = false;
+        @Comment({
+                "[SAFE] Keep a block count index next to each region file (.mcah)",
+                " - Anvil count, countall and distr only rescan chunks which changed since the last query",
+                " - The index is updated when anvil commands write to a region file",
+        })
+        public boolean ANVIL_HISTOGRAM_INDEX = false;
+        @Comment({
+                "[SAFE] The number of region files to read ahead while an anvil command filters a world",
+                " - Reading is done in the background, so the disk and cpu are both used",
+                " - Limited to 1/8 of the max memory (larger files are read as before)",
+                " - 0 = Disabled",
+        })
+        public int ANVIL_PREFETCH_REGIONS = 4;
+        @Comment({
+                "[SAFE] Write modified region files to a temporary file which then replaces the original",
+                " - A crash while writing leaves the original region intact",
+                " - Anvil commands record each finished region, so running the same command again resumes where it stopped",
+        })
+        public boolean ANVIL_WRITE_AHEAD = false;
+        @Comment({
+                "[SAFE] Anvil history only stores the chunks which are modified, instead of the whole region file",
+                " - Undo writes the original chunks back into the region file",
+                " - Deleted region files are still stored whole",
+        })
+        public boolean ANVIL_CHUNK_HISTORY = false;
+        @Comment({
+                "[UNSAFE] Allow large recursive searches to be expanded on multiple threads",
+                " - Only searches which opt in, with a block mask over an extent which supports concurrent reads",
+                " - The function is applied to a whole depth layer before it's expanded, which changes the visit order",
+        })
+        public boolean PARALLEL_VISITORS = false;
+        @Comment({
+                "The number of blocks a depth layer needs before it's expanded in parallel",
+        })
+        public int PARALLEL_VISITOR_THRESHOLD = 4096;
 
     }
 
@@ -352,11 +405,18 @@ public class Settings extends Config {
     public static class TICK_LIMITER {
         @Comment("Enable the limiter")
         public boolean ENABLED = true;
-        @Comment("The interval in ticks")
+        @Comment({
+                "The interval in ticks",
+                " - Counted per chunk over a sliding window of this length",
+                " - A chunk exceeding a limit (and the chunks around it) is throttled for an interval"
+        })
         public int INTERVAL = 20;
         @Comment("Max falling blocks per interval (per chunk)")
         public int FALLING = 64;
-        @Comment("Max physics per interval (excluding redstone)")
+        @Comment({
+                "Max physics time in ms per interval (per chunk)",
+                " - Sampled, so a chunk needs a few hundred slow physics updates to exceed it"
+        })
         public int PHYSICS_MS = 10;
         @Comment("Max item spawns per interval (per chunk)")
         public int ITEMS = 256;
@@ -383,6 +443,14 @@ public class Settings extends Config {
                 " - 2-17 = Slower compression"
         })
         public int COMPRESSION_LEVEL = 1;
+        @Comment({
+                "Load .schematic files using multiple threads",
+                " - Decompression runs on its own thread",
+                " - Blocks, Data and AddBlocks are decoded into the clipboard in parallel",
+        })
+        public boolean PARALLEL_LOAD = true;
+        @Comment("Log the load time and throughput of schematics over 16MB (when loaded in parallel)")
+        public boolean DEBUG_LOAD = false;
         @Comment("Number of days to keep history on disk before deleting it")
         public int DELETE_AFTER_DAYS = 1;
     }
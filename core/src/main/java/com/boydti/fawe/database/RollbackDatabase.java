@@ -4,6 +4,7 @@ import com.boydti.fawe.Fawe;
 import com.boydti.fawe.FaweAPI;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.logging.rollback.RollbackOptimizedHistory;
+import com.boydti.fawe.object.RegionWrapper;
 import com.boydti.fawe.object.RunnableVal;
 import com.boydti.fawe.object.changeset.DiskStorageHistory;
 import com.boydti.fawe.util.MainUtil;
@@ -18,9 +19,15 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 public class RollbackDatabase {
 
@@ -35,6 +42,8 @@ public class RollbackDatabase {
     //    private String GET_EDITS_POINT;
     private String GET_EDITS;
     private String GET_EDITS_USER;
+    private String GET_SUMMARIES;
+    private String GET_SUMMARIES_USER;
     private String DELETE_EDITS_USER;
     private String DELETE_EDIT_USER;
     private String PURGE;
@@ -52,12 +61,14 @@ public class RollbackDatabase {
         this.world = world;
         this.dbLocation = MainUtil.getFile(Fawe.imp().getDirectory(), Settings.IMP.PATHS.HISTORY + File.separator + Fawe.imp().getWorldName(world) + File.separator + "summary.db");
         connection = openConnection();
-        CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `" + prefix + "edits` (`player` BLOB(16) NOT NULL,`id` INT NOT NULL,`x1` INT NOT NULL,`y1` INT NOT NULL,`z1` INT NOT NULL,`x2` INT NOT NULL,`y2` INT NOT NULL,`z2` INT NOT NULL,`time` INT NOT NULL, PRIMARY KEY (player, id))";
-        INSERT_EDIT = "INSERT OR REPLACE INTO `" + prefix + "edits` (`player`,`id`,`x1`,`y1`,`z1`,`x2`,`y2`,`z2`,`time`) VALUES(?,?,?,?,?,?,?,?,?)";
+        CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `" + prefix + "edits` (`player` BLOB(16) NOT NULL,`id` INT NOT NULL,`x1` INT NOT NULL,`y1` INT NOT NULL,`z1` INT NOT NULL,`x2` INT NOT NULL,`y2` INT NOT NULL,`z2` INT NOT NULL,`time` INT NOT NULL,`size` INT NOT NULL DEFAULT 0, PRIMARY KEY (player, id))";
+        INSERT_EDIT = "INSERT OR REPLACE INTO `" + prefix + "edits` (`player`,`id`,`x1`,`y1`,`z1`,`x2`,`y2`,`z2`,`time`,`size`) VALUES(?,?,?,?,?,?,?,?,?,?)";
         PURGE = "DELETE FROM `" + prefix + "edits` WHERE `time`<?";
 //        GET_EDITS_POINT = "SELECT `player`,`id` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=?";
         GET_EDITS = "SELECT `player`,`id` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? ORDER BY `time` DESC, `id` DESC";
         GET_EDITS_USER = "SELECT `player`,`id` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? AND `player`=? ORDER BY `time` DESC, `id` DESC";
+        GET_SUMMARIES = "SELECT `player`,`id`,`x1`,`y1`,`z1`,`x2`,`y2`,`z2`,`time`,`size` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? ORDER BY `time` ASC, `id` ASC";
+        GET_SUMMARIES_USER = "SELECT `player`,`id`,`x1`,`y1`,`z1`,`x2`,`y2`,`z2`,`time`,`size` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? AND `player`=? ORDER BY `time` ASC, `id` ASC";
         DELETE_EDITS_USER = "DELETE FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? AND `player`=?";
         DELETE_EDIT_USER = "DELETE FROM `" + prefix + "edits` WHERE `player`=? AND `id`=?";
         init();
@@ -92,6 +103,17 @@ public class RollbackDatabase {
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        // Databases created before the block count was indexed
+        try (PreparedStatement stmt = connection.prepareStatement("ALTER TABLE `" + prefix + "edits` ADD COLUMN `size` INT NOT NULL DEFAULT 0")) {
+            stmt.executeUpdate();
+        } catch (SQLException ignore) {
+            // Already has the column
+        }
+        try (PreparedStatement stmt = connection.prepareStatement("CREATE INDEX IF NOT EXISTS `" + prefix + "edits_time` ON `" + prefix + "edits` (`time`)")) {
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
     }
 
     public void addFinishTask(Runnable run) {
@@ -106,6 +128,7 @@ public class RollbackDatabase {
                     byte[] uuidBytes = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
                     stmt.setBytes(1, uuidBytes);
                     stmt.setInt(2, id);
+                    stmt.executeUpdate();
                 } catch (SQLException e) {
                     e.printStackTrace();
                 }
@@ -177,6 +200,7 @@ public class RollbackDatabase {
                         stmt.setInt(7, (int) (minTime / 1000));
                         byte[] uuidBytes = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
                         stmt.setBytes(8, uuidBytes);
+                        stmt.executeUpdate();
                     } catch (SQLException e) {
                         e.printStackTrace();
                     }
@@ -185,6 +209,60 @@ public class RollbackDatabase {
         });
     }
 
+    /**
+     * Get the summaries of the edits intersecting an area (blocking until the query has run)<br>
+     * - Only the index is read, the history files aren't opened<br>
+     * - Edits whose files have been deleted are skipped
+     *
+     * @param uuid    the user, or null for everyone
+     * @param minTime the oldest edit (ms)
+     * @param bounds  the area (x/z)
+     * @return the summaries, oldest first
+     */
+    public List<RollbackOptimizedHistory> getSummaries(@Nullable final UUID uuid, final long minTime, final RegionWrapper bounds) {
+        final World world = FaweAPI.getWorld(this.worldName);
+        FutureTask<List<RollbackOptimizedHistory>> task = new FutureTask<>(new Callable<List<RollbackOptimizedHistory>>() {
+            @Override
+            public List<RollbackOptimizedHistory> call() throws Exception {
+                List<RollbackOptimizedHistory> summaries = new ArrayList<>();
+                try (PreparedStatement stmt = connection.prepareStatement(uuid == null ? GET_SUMMARIES : GET_SUMMARIES_USER)) {
+                    stmt.setInt(1, bounds.minX);
+                    stmt.setInt(2, bounds.maxX);
+                    stmt.setInt(3, bounds.minZ);
+                    stmt.setInt(4, bounds.maxZ);
+                    stmt.setInt(5, (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, minTime / 1000)));
+                    if (uuid != null) {
+                        byte[] uuidBytes = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+                        stmt.setBytes(6, uuidBytes);
+                    }
+                    ResultSet result = stmt.executeQuery();
+                    while (result.next()) {
+                        ByteBuffer bb = ByteBuffer.wrap(result.getBytes(1));
+                        UUID player = new UUID(bb.getLong(), bb.getLong());
+                        RollbackOptimizedHistory summary = new RollbackOptimizedHistory(world, player, result.getInt(2));
+                        if (!summary.getBDFile().exists()) {
+                            continue;
+                        }
+                        summary.setDimensions(
+                                new Vector(result.getInt(3), result.getByte(4) + 128, result.getInt(5)),
+                                new Vector(result.getInt(6), result.getByte(7) + 128, result.getInt(8)));
+                        summary.setTime(result.getInt(9) * 1000L);
+                        summary.setBlockCount(result.getInt(10));
+                        summaries.add(summary);
+                    }
+                }
+                return summaries;
+            }
+        });
+        addTask(task);
+        try {
+            return task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            MainUtil.handleError(e);
+            return new ArrayList<>();
+        }
+    }
+
     public void logEdit(RollbackOptimizedHistory history) {
         historyChanges.add(history);
     }
@@ -238,6 +316,7 @@ public class RollbackDatabase {
                     stmt.setByte(7, (byte) (change.getMaxY() - 128));
                     stmt.setInt(8, change.getMaxZ());
                     stmt.setInt(9, (int) (change.getTime() / 1000));
+                    stmt.setInt(10, change.getBlockCount());
                     stmt.executeUpdate();
                     stmt.clearParameters();
                 }
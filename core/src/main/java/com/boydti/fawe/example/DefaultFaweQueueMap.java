@@ -1,9 +1,11 @@
 package com.boydti.fawe.example;
 
+import com.boydti.fawe.Fawe;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.RunnableVal;
 import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.MemoryGovernor;
 import com.boydti.fawe.util.SetQueue;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import java.util.Collection;
@@ -68,6 +70,9 @@ public class DefaultFaweQueueMap implements IFaweQueueMap {
         long pair = MathMan.pairInt(cx, cz);
         FaweChunk chunk = this.blocks.get(pair);
         if (chunk == null) {
+            if (!Fawe.isMainThread()) {
+                MemoryGovernor.IMP.throttle();
+            }
             chunk = this.getNewFaweChunk(cx, cz);
             FaweChunk previous = this.blocks.put(pair, chunk);
             if (previous != null) {
@@ -42,6 +42,8 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> impl
     public CHUNKSECTIONS lastChunkSections;
     public SECTION lastSection;
 
+    private SectionSnapshotCache.Snapshot lastSnapshot;
+    private int lastSnapshotX, lastSnapshotY, lastSnapshotZ;
 
     private World weWorld;
     private String world;
@@ -222,10 +224,17 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> impl
     }
 
     public void start(FaweChunk chunk) {
+        if (canShareReads()) {
+            SectionSnapshotCache.IMP.invalidate(getWorldName(), chunk.getX(), chunk.getZ());
+        }
         chunk.start();
     }
 
     public void end(FaweChunk chunk) {
+        if (canShareReads()) {
+            // Reads while the chunk was being set may have seen part of it
+            SectionSnapshotCache.IMP.invalidate(getWorldName(), chunk.getX(), chunk.getZ());
+        }
         if (getProgressTask() != null) {
             getProgressTask().run(ProgressType.DISPATCH, size() + 1);
         }
@@ -376,6 +385,7 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> impl
         lastSectionY = -1;
         lastChunk = null;
         lastChunkSections = null;
+        lastSnapshot = null;
         map.clear();
         runTasks();
     }
@@ -754,8 +764,52 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> impl
         return getCombinedId4Data(lastSection, x, y, z);
     }
 
+    /**
+     * @return if async reads are shared with the other queues of the world (see {@link SectionSnapshotCache})
+     */
+    protected boolean canShareReads() {
+        return true;
+    }
+
     @Override
     public int getCombinedId4Data(int x, int y, int z) throws FaweException.FaweChunkLoadException {
+        if (y < 0 || y >= FaweChunk.HEIGHT || !SectionSnapshotCache.IMP.isEnabled() || !canShareReads() || Fawe.isMainThread()) {
+            return readCombinedId4Data(x, y, z);
+        }
+        int cx = x >> 4;
+        int cz = z >> 4;
+        int cy = y >> 4;
+        SectionSnapshotCache.Snapshot snapshot = lastSnapshot;
+        if (snapshot == null || cx != lastSnapshotX || cz != lastSnapshotZ || cy != lastSnapshotY) {
+            // The cache checks the expiry, so the clock is only read when the section changes
+            snapshot = lastSnapshot = SectionSnapshotCache.IMP.get(getWorldName(), cx, cy, cz);
+            lastSnapshotX = cx;
+            lastSnapshotY = cy;
+            lastSnapshotZ = cz;
+        } else if (!snapshot.isValid() || snapshot.isExpired(getTickStart())) {
+            snapshot = lastSnapshot = SectionSnapshotCache.IMP.get(getWorldName(), cx, cy, cz);
+        }
+        int combined = snapshot.get(x, y, z);
+        if (combined != -1) {
+            return combined;
+        }
+        combined = readCombinedId4Data(x, y, z);
+        // Unloaded chunks read as air, which isn't stored
+        if (lastChunkSections != null) {
+            snapshot.set(x, y, z, combined);
+        }
+        return combined;
+    }
+
+    /**
+     * @return the time the current tick started, a coarse clock which is cheap to read for every block
+     */
+    private static long getTickStart() {
+        Fawe fawe = Fawe.get();
+        return fawe != null ? fawe.getTimer().getTickStart() : 0;
+    }
+
+    private int readCombinedId4Data(int x, int y, int z) throws FaweException.FaweChunkLoadException {
         int cx = x >> 4;
         int cz = z >> 4;
         int cy = y >> 4;
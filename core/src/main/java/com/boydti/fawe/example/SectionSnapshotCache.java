@@ -0,0 +1,207 @@
+package com.boydti.fawe.example;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.util.MathMan;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The blocks read from chunk sections, shared by the queues (i.e. edit sessions) of a world<br>
+ * - Only used for async reads, see {@link MappedFaweQueue#getCombinedId4Data(int, int, int)}<br>
+ * - A snapshot is filled in as blocks are read, so a section is never decoded further than it's used<br>
+ * - Each chunk has a version, which changes when a queue sets the chunk or the platform unloads it. Snapshots of an
+ * older version aren't used<br>
+ * - Changes made outside of FAWE (e.g. players or physics) aren't seen, so snapshots expire after
+ * {@link Settings.QUEUE#READ_CACHE_MS}
+ */
+public class SectionSnapshotCache {
+    public static final SectionSnapshotCache IMP = new SectionSnapshotCache();
+
+    /**
+     * The max number of section snapshots per world (about 8.5KB each)
+     */
+    private static final int MAX_SECTIONS = 2048;
+
+    private final ConcurrentHashMap<String, WorldCache> worlds = new ConcurrentHashMap<>();
+
+    private SectionSnapshotCache() {
+    }
+
+    /**
+     * @return if async reads should use the cache
+     */
+    public boolean isEnabled() {
+        return Settings.IMP.QUEUE.READ_CACHE_MS > 0;
+    }
+
+    /**
+     * @param world
+     * @param cx
+     * @param cy
+     * @param cz
+     * @return a current snapshot of the section (which may be empty)
+     */
+    public Snapshot get(String world, int cx, int cy, int cz) {
+        WorldCache cache = worlds.get(world);
+        if (cache == null) {
+            cache = new WorldCache();
+            WorldCache previous = worlds.putIfAbsent(world, cache);
+            if (previous != null) {
+                cache = previous;
+            }
+        }
+        return cache.get(cx, cy & 15, cz);
+    }
+
+    /**
+     * Discard the snapshots of a chunk (e.g. it's being set or unloaded)
+     *
+     * @param world
+     * @param cx
+     * @param cz
+     */
+    public void invalidate(String world, int cx, int cz) {
+        WorldCache cache = worlds.get(world);
+        if (cache != null) {
+            cache.invalidate(cx, cz);
+        }
+    }
+
+    /**
+     * Discard every snapshot (e.g. when memory is low)
+     */
+    public void clear() {
+        worlds.clear();
+    }
+
+    private static final class WorldCache {
+        private final Long2ObjectOpenHashMap<ChunkEntry> chunks = new Long2ObjectOpenHashMap<>();
+        private int sections;
+
+        synchronized Snapshot get(int cx, int cy, int cz) {
+            long now = System.currentTimeMillis();
+            if (sections >= MAX_SECTIONS) {
+                prune(now);
+            }
+            long pair = MathMan.pairInt(cx, cz);
+            ChunkEntry entry = chunks.get(pair);
+            if (entry == null) {
+                entry = new ChunkEntry();
+                chunks.put(pair, entry);
+            }
+            Snapshot snapshot = entry.sections[cy];
+            if (snapshot != null && snapshot.isValid() && !snapshot.isExpired(now)) {
+                return snapshot;
+            }
+            if (snapshot == null) {
+                sections++;
+            }
+            snapshot = new Snapshot(entry, now + Settings.IMP.QUEUE.READ_CACHE_MS);
+            entry.sections[cy] = snapshot;
+            return snapshot;
+        }
+
+        synchronized void invalidate(int cx, int cz) {
+            ChunkEntry entry = chunks.remove(MathMan.pairInt(cx, cz));
+            if (entry != null) {
+                // Snapshots held by queues see the new version
+                entry.version++;
+                sections -= entry.count();
+            }
+        }
+
+        private void prune(long now) {
+            ObjectIterator<Long2ObjectMap.Entry<ChunkEntry>> iter = chunks.long2ObjectEntrySet().fastIterator();
+            while (iter.hasNext()) {
+                ChunkEntry entry = iter.next().getValue();
+                for (int i = 0; i < entry.sections.length; i++) {
+                    Snapshot snapshot = entry.sections[i];
+                    if (snapshot != null && snapshot.expires <= now) {
+                        entry.sections[i] = null;
+                        sections--;
+                    }
+                }
+                if (entry.count() == 0) {
+                    iter.remove();
+                }
+            }
+            if (sections >= MAX_SECTIONS) {
+                // Still full, start again
+                for (ChunkEntry entry : chunks.values()) {
+                    entry.version++;
+                }
+                chunks.clear();
+                sections = 0;
+            }
+        }
+    }
+
+    private static final class ChunkEntry {
+        private final Snapshot[] sections = new Snapshot[16];
+        private volatile int version;
+
+        int count() {
+            int count = 0;
+            for (Snapshot snapshot : sections) {
+                if (snapshot != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    public static final class Snapshot {
+        private final ChunkEntry chunk;
+        private final int version;
+        private final long expires;
+        private final char[] combined = new char[4096];
+        // A bit per block, set once the combined id is stored
+        private final AtomicLongArray known = new AtomicLongArray(64);
+
+        private Snapshot(ChunkEntry chunk, long expires) {
+            this.chunk = chunk;
+            this.version = chunk.version;
+            this.expires = expires;
+        }
+
+        /**
+         * @return false if the chunk has changed since the snapshot was taken
+         */
+        public boolean isValid() {
+            return chunk.version == version;
+        }
+
+        public boolean isExpired(long now) {
+            return expires <= now;
+        }
+
+        /**
+         * @param x
+         * @param y
+         * @param z
+         * @return the combined id, or -1 if the block hasn't been read
+         */
+        public int get(int x, int y, int z) {
+            int index = ((y & 15) << 8) + ((z & 15) << 4) + (x & 15);
+            if ((known.get(index >> 6) & (1L << index)) == 0) {
+                return -1;
+            }
+            return combined[index];
+        }
+
+        public void set(int x, int y, int z, int combinedId) {
+            int index = ((y & 15) << 8) + ((z & 15) << 4) + (x & 15);
+            combined[index] = (char) combinedId;
+            long bit = 1L << index;
+            // The (volatile) bit is set after the id, so a thread seeing the bit sees the id
+            long current;
+            do {
+                current = known.get(index >> 6);
+            } while (!known.compareAndSet(index >> 6, current, current | bit));
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.RunnableVal;
 import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.MemoryGovernor;
 import com.boydti.fawe.util.SetQueue;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import java.lang.ref.Reference;
@@ -92,6 +93,9 @@ public class WeakFaweQueueMap implements IFaweQueueMap {
         Reference<FaweChunk> chunkReference = this.blocks.get(pair);
         FaweChunk chunk;
         if (chunkReference == null || (chunk = chunkReference.get()) == null) {
+            if (!Fawe.isMainThread()) {
+                MemoryGovernor.IMP.throttle();
+            }
             chunk = this.getNewFaweChunk(cx, cz);
             Reference<FaweChunk> previous = this.blocks.put(pair, new SoftReference(chunk));
             if (previous != null) {
@@ -87,4 +87,31 @@ public class NBTStreamer {
 
         public abstract void run(int index, int byteValue);
     }
+
+    /**
+     * Receives a byte array in chunks rather than one value at a time
+     * - Each chunk is a new array, so it can be handed off to another thread
+     */
+    public static abstract class ByteArrayReader extends RunnableVal2<Integer, byte[]> {
+        private final int chunkSize;
+
+        public ByteArrayReader(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        @Override
+        public void run(Integer index, byte[] value) {
+            run((int) index, value);
+        }
+
+        /**
+         * @param index the index of the first value in the chunk
+         * @param chunk the values
+         */
+        public abstract void run(int index, byte[] chunk);
+    }
 }
@@ -0,0 +1,323 @@
+package com.boydti.fawe.jnbt;
+
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.FaweQueue;
+import com.boydti.fawe.object.RunnableVal2;
+import com.boydti.fawe.util.SetQueue;
+import com.boydti.fawe.util.TaskManager;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.extent.transform.BlockTransformExtent;
+import com.sk89q.worldedit.math.transform.AffineTransform;
+import com.sk89q.worldedit.world.registry.BlockRegistry;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Pastes a schematic while it's being read (see FaweAPI#streamSchematic)<br>
+ * - Read (the calling thread): the Blocks and Data arrays are cut into slabs of up to 16 layers. A slab is handed off as
+ * soon as both arrays have been read that far<br>
+ * - Transform (a pool thread): the slab is rotated/offset and set in the queue, one 16x16 column at a time<br>
+ * - Place (the main thread): the SetQueue sends the queued chunks, and the transform waits while too many are queued<br>
+ * - Only the array which comes first in the file is held whole (1 byte per block), plus at most {@link #DEPTH} slabs<br>
+ * - Tiles, entities, biomes and AddBlocks (ids above 255) are ignored
+ */
+public class SchematicPasteStreamer extends NBTStreamer {
+    /**
+     * The number of slabs which can wait for the transform
+     */
+    public static final int DEPTH = 2;
+
+    private static final int SLAB_LAYERS = 16;
+    private static final int SLICE_SIZE = 1 << 16;
+    private static final Slab END = new Slab(0, 0, null, null);
+
+    private final FaweQueue queue;
+    private final int x, y, z;
+    // The coefficients of the transform, or null to only offset the blocks
+    private final double[] matrix;
+    private final char[] blockTransform;
+
+    private final SliceBuffer ids = new SliceBuffer();
+    private final SliceBuffer datas = new SliceBuffer();
+    private final BlockingQueue<Slab> slabs = new ArrayBlockingQueue<>(DEPTH);
+    private ForkJoinTask<?> worker;
+
+    private int width, height, length;
+    private int offsetX, offsetY, offsetZ;
+    private int nextLayer;
+
+    /**
+     * @param stream    the schematic
+     * @param queue     the queue to set the blocks in
+     * @param x         the paste position
+     * @param y
+     * @param z
+     * @param transform the transform (around the paste position), or null
+     * @param registry  the registry used to transform the block data
+     */
+    public SchematicPasteStreamer(NBTInputStream stream, FaweQueue queue, int x, int y, int z, @Nullable AffineTransform transform, BlockRegistry registry) {
+        super(stream);
+        this.queue = queue;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        if (transform == null || transform.isIdentity()) {
+            this.matrix = null;
+            this.blockTransform = null;
+        } else {
+            this.matrix = transform.coefficients();
+            // Schematic ids are a byte, so the combined id is below 4096
+            this.blockTransform = new char[4096];
+            for (int i = 0; i < blockTransform.length; i++) {
+                BaseBlock block = FaweCache.CACHE_BLOCK[i];
+                blockTransform[i] = (char) (block == null ? i : FaweCache.getCombined(BlockTransformExtent.transform(new BaseBlock(block), transform, registry)));
+            }
+        }
+    }
+
+    /**
+     * Read the stream and set the blocks in the queue<br>
+     * - Returns once every block has been set (the queue may still be sending chunks)
+     *
+     * @throws IOException
+     */
+    public void paste() throws IOException {
+        addDimensionReaders();
+        addReader("Schematic.Blocks.#", new ByteArrayReader(SLICE_SIZE) {
+            @Override
+            public void run(int index, byte[] chunk) {
+                ids.add(chunk);
+                offer();
+            }
+        });
+        addReader("Schematic.Data.#", new ByteArrayReader(SLICE_SIZE) {
+            @Override
+            public void run(int index, byte[] chunk) {
+                datas.add(chunk);
+                offer();
+            }
+        });
+        worker = TaskManager.IMP.getPublicForkJoinPool().submit(new Runnable() {
+            @Override
+            public void run() {
+                transformSlabs();
+            }
+        });
+        try {
+            readFully();
+            // The dimensions may come after the blocks
+            offer();
+            put(END);
+            worker.join();
+        } finally {
+            if (!worker.isDone()) {
+                slabs.clear();
+                slabs.offer(END);
+            }
+        }
+    }
+
+    private void addDimensionReaders() {
+        addReader("Schematic.Height", new RunnableVal2<Integer, Short>() {
+            @Override
+            public void run(Integer index, Short value) {
+                height = value;
+            }
+        });
+        addReader("Schematic.Width", new RunnableVal2<Integer, Short>() {
+            @Override
+            public void run(Integer index, Short value) {
+                width = value;
+            }
+        });
+        addReader("Schematic.Length", new RunnableVal2<Integer, Short>() {
+            @Override
+            public void run(Integer index, Short value) {
+                length = value;
+            }
+        });
+        addReader("Schematic.WEOffsetX", new RunnableVal2<Integer, Integer>() {
+            @Override
+            public void run(Integer index, Integer value) {
+                offsetX = value;
+            }
+        });
+        addReader("Schematic.WEOffsetY", new RunnableVal2<Integer, Integer>() {
+            @Override
+            public void run(Integer index, Integer value) {
+                offsetY = value;
+            }
+        });
+        addReader("Schematic.WEOffsetZ", new RunnableVal2<Integer, Integer>() {
+            @Override
+            public void run(Integer index, Integer value) {
+                offsetZ = value;
+            }
+        });
+    }
+
+    /**
+     * Hand off the slabs which both arrays have been read up to
+     */
+    private void offer() {
+        int area = width * length;
+        if (area <= 0 || height <= 0) {
+            return;
+        }
+        while (nextLayer < height) {
+            // Slabs are aligned to the sections they're pasted in (unless transformed)
+            int layers = SLAB_LAYERS - ((y + offsetY + nextLayer) & (SLAB_LAYERS - 1));
+            int maxLayer = Math.min(height, nextLayer + layers);
+            int size = (maxLayer - nextLayer) * area;
+            if (ids.available() < size || datas.available() < size) {
+                return;
+            }
+            put(new Slab(nextLayer, maxLayer, ids.take(size), datas.take(size)));
+            nextLayer = maxLayer;
+        }
+    }
+
+    private void put(Slab slab) {
+        try {
+            while (!slabs.offer(slab, 50, TimeUnit.MILLISECONDS)) {
+                if (worker.isDone()) {
+                    // Rethrows the exception the transform failed with
+                    worker.join();
+                    throw new IllegalStateException("The transform stopped early");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void transformSlabs() {
+        try {
+            Slab slab;
+            while ((slab = slabs.take()) != END) {
+                place(slab);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void place(Slab slab) {
+        int area = width * length;
+        // Columns are aligned to the chunks they're pasted in (unless transformed)
+        int startX = -((x + offsetX) & 15);
+        int startZ = -((z + offsetZ) & 15);
+        for (int tz = startZ; tz < length; tz += 16) {
+            int minZ = Math.max(0, tz);
+            int maxZ = Math.min(length, tz + 16);
+            for (int tx = startX; tx < width; tx += 16) {
+                int minX = Math.max(0, tx);
+                int maxX = Math.min(width, tx + 16);
+                for (int ly = slab.minY; ly < slab.maxY; ly++) {
+                    int yIndex = (ly - slab.minY) * area;
+                    for (int lz = minZ; lz < maxZ; lz++) {
+                        int zIndex = yIndex + lz * width;
+                        for (int lx = minX; lx < maxX; lx++) {
+                            int i = zIndex + lx;
+                            int combined = ((slab.ids[i] & 0xFF) << 4) + (slab.datas[i] & 0xF);
+                            setBlock(offsetX + lx, offsetY + ly, offsetZ + lz, combined);
+                        }
+                    }
+                }
+                awaitQueue();
+            }
+        }
+    }
+
+    private void setBlock(int rx, int ry, int rz, int combined) {
+        int bx, by, bz;
+        double[] m = matrix;
+        if (m == null) {
+            bx = x + rx;
+            by = y + ry;
+            bz = z + rz;
+        } else {
+            bx = x + (int) Math.floor(rx * m[0] + ry * m[1] + rz * m[2] + m[3] + 0.5);
+            by = y + (int) Math.floor(rx * m[4] + ry * m[5] + rz * m[6] + m[7] + 0.5);
+            bz = z + (int) Math.floor(rx * m[8] + ry * m[9] + rz * m[10] + m[11] + 0.5);
+            combined = blockTransform[combined];
+        }
+        if (by < 0 || by > 255) {
+            return;
+        }
+        queue.setBlock(bx, by, bz, combined >> 4, combined & 15);
+    }
+
+    /**
+     * Wait for the SetQueue to send the chunks, so the queue only holds the columns being pasted
+     */
+    private void awaitQueue() {
+        int limit = Math.max(Settings.IMP.QUEUE.TARGET_SIZE, 16) << 1;
+        while (queue.size() > limit && queue.getStage() != SetQueue.QueueStage.NONE) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final class Slab {
+        final int minY, maxY;
+        final byte[] ids;
+        final byte[] datas;
+
+        Slab(int minY, int maxY, byte[] ids, byte[] datas) {
+            this.minY = minY;
+            this.maxY = maxY;
+            this.ids = ids;
+            this.datas = datas;
+        }
+    }
+
+    /**
+     * The slices of an array which have been read, but not handed off
+     */
+    private static final class SliceBuffer {
+        private final ArrayDeque<byte[]> slices = new ArrayDeque<>();
+        // The position in the first slice
+        private int offset;
+        private long available;
+
+        void add(byte[] slice) {
+            slices.add(slice);
+            available += slice.length;
+        }
+
+        long available() {
+            return available;
+        }
+
+        byte[] take(int size) {
+            byte[] result = new byte[size];
+            int written = 0;
+            while (written < size) {
+                byte[] slice = slices.peek();
+                int amount = Math.min(size - written, slice.length - offset);
+                System.arraycopy(slice, offset, result, written, amount);
+                written += amount;
+                offset += amount;
+                if (offset == slice.length) {
+                    slices.poll();
+                    offset = 0;
+                }
+            }
+            available -= size;
+            return result;
+        }
+    }
+}
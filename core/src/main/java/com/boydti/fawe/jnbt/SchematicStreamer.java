@@ -6,6 +6,7 @@ import com.boydti.fawe.object.clipboard.CPUOptimizedClipboard;
 import com.boydti.fawe.object.clipboard.DiskOptimizedClipboard;
 import com.boydti.fawe.object.clipboard.FaweClipboard;
 import com.boydti.fawe.object.clipboard.MemoryOptimizedClipboard;
+import com.boydti.fawe.util.TaskManager;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.ListTag;
 import com.sk89q.jnbt.NBTInputStream;
@@ -15,7 +16,9 @@ import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinTask;
 
 public class SchematicStreamer extends NBTStreamer {
     private final UUID uuid;
@@ -30,42 +33,82 @@ public class SchematicStreamer extends NBTStreamer {
         NBTStreamReader initializer = new NBTStreamReader<Integer, Integer>() {
             @Override
             public void run(Integer length, Integer type) {
+                awaitDecode();
                 setupClipboard(length);
             }
         };
         NBTStreamReader initializer2 = new NBTStreamReader<Integer, Integer>() {
             @Override
             public void run(Integer length, Integer type) {
+                awaitDecode();
                 setupClipboard(length*2);
             }
         };
         addReader("Schematic.Blocks.?", initializer);
         addReader("Schematic.Data.?", initializer);
         addReader("Schematic.AddBlocks.?", initializer2);
-        addReader("Schematic.Blocks.#", new ByteReader() {
-            @Override
-            public void run(int index, int value) {
-                if (value != 0) fc.setId(index, value);
-            }
-        });
-        addReader("Schematic.Data.#", new ByteReader() {
-            @Override
-            public void run(int index, int value) {
-                if (value != 0) fc.setData(index, value);
-            }
-        });
-        addReader("Schematic.AddBlocks.#", new ByteReader() {
-            @Override
-            public void run(int index, int value) {
-                if (value != 0) {
-                    int first = value & 0x0F;
-                    int second = (value & 0xF0) >> 4;
-                    int gIndex = index << 1;
-                    if (first != 0) fc.setAdd(gIndex, first);
-                    if (second != 0) fc.setAdd(gIndex + 1, second);
+        if (Settings.IMP.CLIPBOARD.PARALLEL_LOAD) {
+            addReader("Schematic.Blocks.#", new ByteArrayReader(MemoryOptimizedClipboard.BLOCK_SIZE) {
+                @Override
+                public void run(final int index, final byte[] chunk) {
+                    decode(index, new Runnable() {
+                        @Override
+                        public void run() {
+                            fc.setIds(index, chunk, 0, chunk.length);
+                        }
+                    });
                 }
-            }
-        });
+            });
+            addReader("Schematic.Data.#", new ByteArrayReader(MemoryOptimizedClipboard.BLOCK_SIZE) {
+                @Override
+                public void run(final int index, final byte[] chunk) {
+                    decode(index, new Runnable() {
+                        @Override
+                        public void run() {
+                            fc.setDatas(index, chunk, 0, chunk.length);
+                        }
+                    });
+                }
+            });
+            // Each byte is two blocks
+            addReader("Schematic.AddBlocks.#", new ByteArrayReader(MemoryOptimizedClipboard.BLOCK_SIZE >> 1) {
+                @Override
+                public void run(int index, final byte[] chunk) {
+                    final int gIndex = index << 1;
+                    decode(gIndex, new Runnable() {
+                        @Override
+                        public void run() {
+                            fc.setAdds(gIndex, chunk, 0, chunk.length);
+                        }
+                    });
+                }
+            });
+        } else {
+            addReader("Schematic.Blocks.#", new ByteReader() {
+                @Override
+                public void run(int index, int value) {
+                    if (value != 0) fc.setId(index, value);
+                }
+            });
+            addReader("Schematic.Data.#", new ByteReader() {
+                @Override
+                public void run(int index, int value) {
+                    if (value != 0) fc.setData(index, value);
+                }
+            });
+            addReader("Schematic.AddBlocks.#", new ByteReader() {
+                @Override
+                public void run(int index, int value) {
+                    if (value != 0) {
+                        int first = value & 0x0F;
+                        int second = (value & 0xF0) >> 4;
+                        int gIndex = index << 1;
+                        if (first != 0) fc.setAdd(gIndex, first);
+                        if (second != 0) fc.setAdd(gIndex + 1, second);
+                    }
+                }
+            });
+        }
         ByteReader biomeReader = new ByteReader() {
             @Override
             public void run(int index, int value) {
@@ -75,6 +118,7 @@ public class SchematicStreamer extends NBTStreamer {
         NBTStreamReader<Integer, Integer> initializer23 = new NBTStreamReader<Integer, Integer>() {
             @Override
             public void run(Integer value1, Integer value2) {
+                awaitDecode();
                 if (fc == null) setupClipboard(length * width * height);
             }
         };
@@ -187,6 +231,34 @@ public class SchematicStreamer extends NBTStreamer {
     private BlockArrayClipboard clipboard;
     private FaweClipboard fc;
 
+    private final ArrayDeque<ForkJoinTask<?>> decoding = new ArrayDeque<>();
+
+    /**
+     * Decode a chunk of the Blocks/Data/AddBlocks array
+     * - Runs on the public pool if the clipboard supports concurrent bulk sets
+     * - Chunks of one array are disjoint, and readers for the next array wait for the previous one (see {@link #awaitDecode()})
+     */
+    private void decode(int index, Runnable task) {
+        int alignment = fc.getConcurrentAlignment();
+        if (alignment == 0 || index % alignment != 0) {
+            awaitDecode();
+            task.run();
+            return;
+        }
+        // Bound the number of chunks held in memory if decoding can't keep up
+        if (decoding.size() >= Settings.IMP.QUEUE.PARALLEL_THREADS << 1) {
+            decoding.poll().join();
+        }
+        decoding.add(TaskManager.IMP.getPublicForkJoinPool().submit(task));
+    }
+
+    private void awaitDecode() {
+        ForkJoinTask<?> task;
+        while ((task = decoding.poll()) != null) {
+            task.join();
+        }
+    }
+
     private FaweClipboard setupClipboard(int size) {
         if (fc != null) {
             if (fc.getDimensions().getX() == 0) {
@@ -224,6 +296,7 @@ public class SchematicStreamer extends NBTStreamer {
             addDimensionReaders();
             addBlockReaders();
             readFully();
+            awaitDecode();
             Vector min = new Vector(originX, originY, originZ);
             Vector offset = new Vector(offsetX, offsetY, offsetZ);
             Vector origin = min.subtract(offset);
@@ -234,6 +307,10 @@ public class SchematicStreamer extends NBTStreamer {
             clipboard.setOrigin(origin);
             return clipboard;
         } catch (Throwable e) {
+            try {
+                awaitDecode();
+            } catch (Throwable ignore) {
+            }
             if (fc != null) {
                 fc.close();
             }
@@ -0,0 +1,110 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.Fawe;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The region files an anvil job has finished, stored in the region folder (fawe-anvil.journal)<br>
+ * - The first line is the job, followed by the name of each finished region file<br>
+ * - If the same job is run again (e.g. after a crash or restart), the finished regions are skipped<br>
+ * - A different job replaces the journal, and the journal is deleted when the job completes<br>
+ */
+public class AnvilJournal {
+    private final File file;
+    private final String job;
+    private final Set<String> finished = new HashSet<>();
+    private FileOutputStream out;
+
+    private AnvilJournal(File file, String job) {
+        this.file = file;
+        this.job = job;
+    }
+
+    public static File getFile(File folder) {
+        return new File(folder, "fawe-anvil.journal");
+    }
+
+    /**
+     * Open the journal for a job, loading the regions it already finished
+     *
+     * @param folder the region folder
+     * @param job    the job, including anything which changes what it does (e.g. the command and arguments)
+     * @return
+     */
+    public static AnvilJournal open(File folder, String job) {
+        File file = getFile(folder);
+        AnvilJournal journal = new AnvilJournal(file, job.replace('\n', ' '));
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                if (journal.job.equals(line)) {
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            journal.finished.add(line);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Fawe.debug("Failed to read anvil journal " + file + ": " + e.getMessage());
+                journal.finished.clear();
+            }
+            if (!journal.finished.isEmpty()) {
+                Fawe.debug("Resuming anvil job `" + journal.job + "` (" + journal.finished.size() + " regions already done)");
+            }
+        }
+        return journal;
+    }
+
+    public synchronized boolean isFinished(String region) {
+        return finished.contains(region);
+    }
+
+    /**
+     * Record that a region file has been written (synced to disk before returning)
+     *
+     * @param region the file name
+     */
+    public synchronized void finish(String region) {
+        try {
+            if (out == null) {
+                boolean resume = !finished.isEmpty();
+                out = new FileOutputStream(file, resume);
+                if (!resume) {
+                    out.write((job + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            finished.add(region);
+            out.write((region + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Fawe.debug("Failed to write anvil journal " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close the journal
+     *
+     * @param complete if the job completed (the journal is deleted)
+     */
+    public synchronized void close(boolean complete) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+        if (complete) {
+            file.delete();
+        }
+    }
+}
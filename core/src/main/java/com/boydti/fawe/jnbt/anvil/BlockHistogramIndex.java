@@ -0,0 +1,215 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.FaweCache;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Block counts for each chunk of a region file, stored next to it (r.x.z.mcah)<br>
+ * - Each chunk is stored with the timestamp from the region header at the time it was counted,
+ * so a chunk which has been written since (by the server or FAWE) is detected and recounted<br>
+ * - Counts are by combined id (id << 4) + data, and only include the sections which exist<br>
+ */
+public class BlockHistogramIndex {
+    private static final int VERSION = 1;
+
+    private static final ThreadLocal<int[]> countStore = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[4096];
+        }
+    };
+
+    private final File file;
+    private final int[] timestamps = new int[1024];
+    private final char[][] ids = new char[1024][];
+    private final int[][] counts = new int[1024][];
+    private boolean dirty;
+
+    private BlockHistogramIndex(File file) {
+        this.file = file;
+    }
+
+    public static File getFile(File folder, int mcaX, int mcaZ) {
+        return new File(folder, "r." + mcaX + "." + mcaZ + ".mcah");
+    }
+
+    /**
+     * Load the index from disk, or create an empty one if it doesn't exist or can't be read
+     *
+     * @param file
+     * @return
+     */
+    public static BlockHistogramIndex load(File file) {
+        BlockHistogramIndex index = new BlockHistogramIndex(file);
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file))))) {
+                if (in.readInt() == VERSION) {
+                    for (int i = 0; i < 1024; i++) {
+                        int timestamp = in.readInt();
+                        if (timestamp == 0) {
+                            continue;
+                        }
+                        int len = in.readUnsignedShort();
+                        char[] ids = new char[len];
+                        int[] counts = new int[len];
+                        for (int j = 0; j < len; j++) {
+                            ids[j] = in.readChar();
+                            counts[j] = in.readInt();
+                        }
+                        index.timestamps[i] = timestamp;
+                        index.ids[i] = ids;
+                        index.counts[i] = counts;
+                    }
+                }
+            } catch (IOException e) {
+                // The index is only a cache, so it's rebuilt
+                Fawe.debug("Rebuilding histogram index " + file + ": " + e.getMessage());
+                Arrays.fill(index.timestamps, 0);
+                Arrays.fill(index.ids, null);
+                Arrays.fill(index.counts, null);
+                index.dirty = true;
+            }
+        }
+        return index;
+    }
+
+    private static int getIndex(int cx, int cz) {
+        return (cx & 31) + ((cz & 31) << 5);
+    }
+
+    /**
+     * Add the stored counts for a chunk to a histogram
+     *
+     * @param cx
+     * @param cz
+     * @param timestamp the current timestamp of the chunk (MCAFile.getTimestamp)
+     * @param histogram indexed by combined id
+     * @return false if the chunk isn't indexed or has changed since
+     */
+    public synchronized boolean addTo(int cx, int cz, int timestamp, long[] histogram) {
+        int i = getIndex(cx, cz);
+        if (timestamp == 0 || timestamps[i] != timestamp) {
+            return false;
+        }
+        char[] chunkIds = ids[i];
+        int[] chunkCounts = counts[i];
+        for (int j = 0; j < chunkIds.length; j++) {
+            histogram[chunkIds[j]] += chunkCounts[j];
+        }
+        return true;
+    }
+
+    /**
+     * Count the blocks in a chunk and store them
+     *
+     * @param chunk
+     * @param timestamp the timestamp of the chunk in the region header
+     */
+    public void update(MCAChunk chunk, int timestamp) {
+        if (timestamp == 0) {
+            remove(chunk.getX(), chunk.getZ());
+            return;
+        }
+        int[] combinedCounts = countStore.get();
+        Arrays.fill(combinedCounts, 0);
+        count(chunk, combinedCounts);
+        int len = 0;
+        for (int count : combinedCounts) {
+            if (count != 0) {
+                len++;
+            }
+        }
+        char[] chunkIds = new char[len];
+        int[] chunkCounts = new int[len];
+        for (int combined = 0, j = 0; combined < combinedCounts.length; combined++) {
+            int count = combinedCounts[combined];
+            if (count != 0) {
+                chunkIds[j] = (char) combined;
+                chunkCounts[j++] = count;
+            }
+        }
+        int i = getIndex(chunk.getX(), chunk.getZ());
+        synchronized (this) {
+            timestamps[i] = timestamp;
+            ids[i] = chunkIds;
+            counts[i] = chunkCounts;
+            dirty = true;
+        }
+    }
+
+    public synchronized void remove(int cx, int cz) {
+        int i = getIndex(cx, cz);
+        if (timestamps[i] != 0) {
+            timestamps[i] = 0;
+            ids[i] = null;
+            counts[i] = null;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Write the index to disk, if it has changed
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(VERSION);
+                for (int i = 0; i < 1024; i++) {
+                    out.writeInt(timestamps[i]);
+                    if (timestamps[i] == 0) {
+                        continue;
+                    }
+                    char[] chunkIds = ids[i];
+                    int[] chunkCounts = counts[i];
+                    out.writeShort(chunkIds.length);
+                    for (int j = 0; j < chunkIds.length; j++) {
+                        out.writeChar(chunkIds[j]);
+                        out.writeInt(chunkCounts[j]);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException e) {
+            Fawe.debug("Failed to save histogram index " + file + ": " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Add the blocks of a chunk to a histogram indexed by combined id
+     *
+     * @param chunk
+     * @param histogram
+     */
+    public static void count(MCAChunk chunk, int[] histogram) {
+        for (int layer = 0; layer < chunk.ids.length; layer++) {
+            byte[] layerIds = chunk.ids[layer];
+            if (layerIds == null) {
+                continue;
+            }
+            byte[] layerData = chunk.data[layer];
+            for (int i = 0; i < layerIds.length; i++) {
+                int id = layerIds[i] & 0xFF;
+                histogram[FaweCache.hasData(id) ? (id << 4) + chunk.getNibble(i, layerData) : id << 4]++;
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.boydti.fawe.jnbt.anvil;
 
 import com.boydti.fawe.Fawe;
 import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.object.collection.TiledDifferentialArray;
 import com.boydti.fawe.util.MathMan;
 import com.boydti.fawe.util.TextureUtil;
 import com.sk89q.worldedit.blocks.BlockID;
@@ -27,39 +28,40 @@ public final class HeightMapMCADrawer {
 
     public BufferedImage draw() {
         BufferedImage img = new BufferedImage(gen.getWidth(), gen.getLength(), BufferedImage.TYPE_INT_RGB);
-        final char[] overlay = gen.overlay == null ? gen.floor.get() : gen.overlay.get();
-        final char[] floor = gen.floor.get();
-        final char[] main = gen.main.get();
-        final byte[] heights = gen.heights.get();
-        final byte[] biomes = gen.biomes.get();
+        final TiledDifferentialArray overlay = gen.overlay == null ? gen.floor : gen.overlay;
+        final TiledDifferentialArray floor = gen.floor;
+        final TiledDifferentialArray main = gen.main;
+        final TiledDifferentialArray heights = gen.heights;
+        final TiledDifferentialArray biomes = gen.biomes;
         final int waterHeight = gen.primtives.waterHeight;
         final int width = gen.getWidth();
         final int length = gen.getLength();
+        final int area = gen.getArea();
 
         int[] raw = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
 
         int parallelism = pool.getParallelism();
-        int size = (heights.length + parallelism - 1) / parallelism;
+        int size = (area + parallelism - 1) / parallelism;
         for (int i = 0; i < parallelism; i++) {
             int start = i * size;
-            int end = Math.min(heights.length, start + size);
+            int end = Math.min(area, start + size);
             pool.submit((Runnable) () -> {
                 for (int index = start; index < end; index ++) {
-                    int height = (heights[index] & 0xFF);
+                    int height = (heights.getByte(index) & 0xFF);
                     char combined;
-                    if ((combined = overlay[index]) == 0) {
+                    if ((combined = overlay.getChar(index)) == 0) {
                         height--;
-                        combined = floor[index];
+                        combined = floor.getChar(index);
                         if (combined == 0) {
                             height--;
-                            combined = main[index];
+                            combined = main.getChar(index);
                         }
                     }
                     // draw combined
                     int color;
                     switch (combined >> 4) {
                         case 2:
-                            color = getAverageBiomeColor(biomes, width, index);
+                            color = getAverageBiomeColor(biomes, width, area, index);
                             break;
                         case 78:
                             color = (0xDD << 16) + (0xDD << 8) + (0xDD << 0);
@@ -68,7 +70,7 @@ public final class HeightMapMCADrawer {
                             color = tu.getColor(FaweCache.CACHE_BLOCK[combined]);
                             break;
                     }
-                    int slope = getSlope(heights, width, index, height);
+                    int slope = getSlope(heights, width, area, index, height);
                     if (slope != 0) {
                         slope = (slope << 3) + (slope << 2);
                         int r = MathMan.clamp(((color >> 16) & 0xFF) + slope, 0, 255);
@@ -102,10 +104,10 @@ public final class HeightMapMCADrawer {
         return img;
     }
 
-    private final int getAverageBiomeColor(byte[] biomes, int width, int index) {
-        int c0 = tu.getBiome(biomes[index] & 0xFF).grassCombined;
-        int c2 = getBiome(biomes, index + 1 + width, index);
-        int c1 = getBiome(biomes, index - 1 - width, index);
+    private final int getAverageBiomeColor(TiledDifferentialArray biomes, int width, int area, int index) {
+        int c0 = tu.getBiome(biomes.getByte(index) & 0xFF).grassCombined;
+        int c2 = getBiome(biomes, area, index + 1 + width, index);
+        int c1 = getBiome(biomes, area, index - 1 - width, index);
 //        int c3 = getBiome(biomes, index + width, index);
 //        int c4 = getBiome(biomes, index - width, index);
         int r = ((c0 >> 16) & 0xFF) + ((c1 >> 16) & 0xFF) + ((c2 >> 16) & 0xFF);// + ((c3 >> 16) & 0xFF) + ((c4 >> 16) & 0xFF);
@@ -117,26 +119,26 @@ public final class HeightMapMCADrawer {
         return (r << 16) + (g << 8) + (b);
     }
 
-    private final int getBiome(byte[] biomes, int newIndex, int index) {
-        if (newIndex < 0 || newIndex >= biomes.length) newIndex = index;
-        int biome = biomes[newIndex] & 0xFF;
+    private final int getBiome(TiledDifferentialArray biomes, int area, int newIndex, int index) {
+        if (newIndex < 0 || newIndex >= area) newIndex = index;
+        int biome = biomes.getByte(newIndex) & 0xFF;
         return tu.getBiome(biome).grassCombined;
     }
 
-    private int getSlope(byte[] heights, int width, int index, int height) {
+    private int getSlope(TiledDifferentialArray heights, int width, int area, int index, int height) {
         return (
-                + getHeight(heights, index + 1, height)
-//                + getHeight(heights, index + width, height)
-                + getHeight(heights, index + width + 1, height)
-                - getHeight(heights, index - 1, height)
-//                - getHeight(heights, index - width, height)
-                - getHeight(heights, index - width - 1, height)
+                + getHeight(heights, area, index + 1, height)
+//                + getHeight(heights, area, index + width, height)
+                + getHeight(heights, area, index + width + 1, height)
+                - getHeight(heights, area, index - 1, height)
+//                - getHeight(heights, area, index - width, height)
+                - getHeight(heights, area, index - width - 1, height)
         );
     }
 
-    private int getHeight(byte[] heights, int index, int height) {
-        if (index < 0 || index >= heights.length) return height;
-        return heights[index] & 0xFF;
+    private int getHeight(TiledDifferentialArray heights, int area, int index, int height) {
+        if (index < 0 || index >= area) return height;
+        return heights.getByte(index) & 0xFF;
     }
 }
 
@@ -2,7 +2,10 @@ package com.boydti.fawe.jnbt.anvil;
 
 import com.boydti.fawe.Fawe;
 import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.example.SimpleCharFaweChunk;
+import com.boydti.fawe.jnbt.anvil.generator.GenBase;
+import com.boydti.fawe.jnbt.anvil.generator.Resource;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FaweInputStream;
 import com.boydti.fawe.object.FaweLocation;
@@ -14,15 +17,17 @@ import com.boydti.fawe.object.PseudoRandom;
 import com.boydti.fawe.object.RunnableVal2;
 import com.boydti.fawe.object.change.StreamChange;
 import com.boydti.fawe.object.changeset.CFIChangeSet;
-import com.boydti.fawe.object.collection.DifferentialArray;
+import com.boydti.fawe.object.collection.AtomicBitSet;
 import com.boydti.fawe.object.collection.DifferentialBlockBuffer;
 import com.boydti.fawe.object.collection.IterableThreadLocal;
 import com.boydti.fawe.object.collection.LocalBlockVector2DSet;
 import com.boydti.fawe.object.collection.SummedAreaTable;
+import com.boydti.fawe.object.collection.TiledDifferentialArray;
 import com.boydti.fawe.object.exception.FaweException;
 import com.boydti.fawe.object.queue.LazyFaweChunk;
 import com.boydti.fawe.object.schematic.Schematic;
 import com.boydti.fawe.util.CachedTextureUtil;
+import com.boydti.fawe.util.MemoryGovernor;
 import com.boydti.fawe.util.RandomTextureUtil;
 import com.boydti.fawe.util.ReflectionUtils;
 import com.boydti.fawe.util.SetQueue;
@@ -61,11 +66,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import javax.annotation.Nullable;
 
 public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, FaweQueue, StreamChange, Closeable, Drawable {
@@ -79,11 +90,18 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     };
 
     private final DifferentialBlockBuffer blocks;
-    protected final DifferentialArray<byte[]> heights;
-    protected final DifferentialArray<byte[]> biomes;
-    protected final DifferentialArray<char[]> floor;
-    protected final DifferentialArray<char[]> main;
-    protected DifferentialArray<char[]> overlay;
+    protected final TiledDifferentialArray heights;
+    protected final TiledDifferentialArray biomes;
+    protected final TiledDifferentialArray floor;
+    protected final TiledDifferentialArray main;
+    protected TiledDifferentialArray overlay;
+
+    // Null if the layers are kept on the heap
+    private final File tileFolder;
+    private final int maxTiles;
+
+    // Chunks modified since the last update (bit = chunkZ * chunksX + chunkX), set by the layers from any thread
+    private final AtomicBitSet dirtyChunks;
 
     protected final CFIPrimtives primtives = new CFIPrimtives();
     private CFIPrimtives oldPrimitives = new CFIPrimtives();
@@ -105,7 +123,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             }
             try {
                 for (Field field : CFIPrimtives.class.getDeclaredFields()) {
-                    if (field.get(this) != field.get(obj)) return false;
+                    if (!Objects.equals(field.get(this), field.get(obj))) return false;
                 }
             } catch (IllegalAccessException e) {
                 e.printStackTrace();
@@ -162,6 +180,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
 
     @Override
     public void undoChanges(FaweInputStream in) throws IOException {
+        resetSentChunks();
         heights.undoChanges(in);
         biomes.undoChanges(in);
         floor.undoChanges(in);
@@ -181,6 +200,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
 
     @Override
     public void redoChanges(FaweInputStream in) throws IOException {
+        resetSentChunks();
         heights.redoChanges(in);
         biomes.redoChanges(in);
         floor.redoChanges(in);
@@ -220,6 +240,9 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     private Vector2D chunkOffset = Vector2D.ZERO;
     private EditSession editSession;
     // end
+    // The chunks (and primitives) the packet viewer was last sent, so unchanged chunks aren't resent
+    private int sentMinCX, sentMinCZ, sentMaxCX = -1, sentMaxCZ = -1;
+    private CFIPrimtives sentPrimitives;
 
     public HeightMapMCAGenerator(BufferedImage img, File regionFolder) {
         this(img.getWidth(), img.getHeight(), regionFolder);
@@ -229,17 +252,57 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     public HeightMapMCAGenerator(int width, int length, File regionFolder) {
         super(width, length, regionFolder);
         int area = getArea();
+        dirtyChunks = new AtomicBitSet(((width + 15) >> 4) * ((length + 15) >> 4));
 
         blocks = new DifferentialBlockBuffer(width, length);
-        heights = new DifferentialArray(new byte[getArea()]);
-        biomes = new DifferentialArray(new byte[getArea()]);
-        floor = new DifferentialArray(new char[getArea()]);
-        main = new DifferentialArray(new char[getArea()]);
+        blocks.setDirtyChunks(dirtyChunks);
+
+        // Each layer is 1 or 2 bytes per column, plus the same again for the changes
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        long layerBytes = (long) area * (1 + 1 + 2 + 2 + 2) * 2;
+        if (layerBytes > maxMemory / 2) {
+            tileFolder = new File(regionFolder.getParentFile(), "cfi-tiles" + File.separator + UUID.randomUUID());
+            long tileBytes = TiledDifferentialArray.TILE_SIZE * TiledDifferentialArray.TILE_SIZE * 2 * 2;
+            maxTiles = (int) Math.max(4, (maxMemory / 4) / (tileBytes * 5));
+            Fawe.debug("Storing " + width + "x" + length + " CFI layers on disk: " + tileFolder);
+        } else {
+            tileFolder = null;
+            maxTiles = 0;
+        }
 
         char stone = (char) FaweCache.getCombined(1, 0);
         char grass = (char) FaweCache.getCombined(2, 0);
-        Arrays.fill(main.getCharArray(), stone);
-        Arrays.fill(floor.getCharArray(), grass);
+        heights = createLayer("heights", false, 0);
+        biomes = createLayer("biomes", false, 0);
+        floor = createLayer("floor", true, grass);
+        main = createLayer("main", true, stone);
+        MemoryGovernor.IMP.track(MemoryGovernor.Subsystem.CFI, this);
+    }
+
+    /**
+     * @return the estimated bytes used by the layers on the heap (not including the blocks)
+     */
+    public long getSizeInMemory() {
+        long total = heights.getSizeInMemory() + biomes.getSizeInMemory() + floor.getSizeInMemory() + main.getSizeInMemory();
+        TiledDifferentialArray overlay = this.overlay;
+        if (overlay != null) {
+            total += overlay.getSizeInMemory();
+        }
+        return total;
+    }
+
+    private TiledDifferentialArray createLayer(String name, boolean chars, int defaultValue) {
+        File file = tileFolder != null ? new File(tileFolder, name + ".dat") : null;
+        TiledDifferentialArray layer = new TiledDifferentialArray(getWidth(), getLength(), chars, defaultValue, file, maxTiles);
+        layer.setDirtyChunks(dirtyChunks);
+        return layer;
+    }
+
+    private TiledDifferentialArray getOverlay() {
+        if (overlay == null) {
+            overlay = createLayer("overlay", true, 0);
+        }
+        return overlay;
     }
 
     public Metadatable getMetaData() {
@@ -261,6 +324,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
 
     public void setPacketViewer(FawePlayer player) {
         this.player = player;
+        resetSentChunks();
         if (player != null) {
             FaweLocation pos = player.getLocation();
             this.chunkOffset = new Vector2D(pos.x >> 4, pos.z >> 4);
@@ -312,9 +376,25 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             int ecx = Math.min(lenCX - 1, pcx + 10);
             int ecz = Math.min(lenCZ - 1, pcz + 10);
 
+            // Taken before sending, so chunks changed while sending are sent next update
+            // Dirty chunks outside the view are sent when they come into view
+            BitSet dirty = dirtyChunks.getAndClear();
+            // The primitives (e.g. water height) affect every chunk
+            if (!primtives.equals(sentPrimitives)) {
+                try {
+                    sentPrimitives = (CFIPrimtives) primtives.clone();
+                } catch (CloneNotSupportedException neverHappens) { neverHappens.printStackTrace(); }
+                dirty.set(0, lenCX * lenCZ);
+            }
+
             MCAChunk chunk = new MCAChunk(this, 0, 0);
             for (int cz = scz; cz <= ecz; cz++) {
                 for (int cx = scx; cx <= ecx; cx++) {
+                    // Chunks which were already in view are only resent if they changed
+                    boolean wasSent = cx >= sentMinCX && cx <= sentMaxCX && cz >= sentMinCZ && cz <= sentMaxCZ;
+                    if (wasSent && !dirty.get(cz * lenCX + cx)) {
+                        continue;
+                    }
                     final int finalCX = cx;
                     final int finalCZ = cz;
                     TaskManager.IMP.getPublicForkJoinPool().submit((Runnable) () -> {
@@ -331,9 +411,19 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
 //                    packetQueue.sendChunkUpdate(toSend, player);
                 }
             }
+            sentMinCX = scx;
+            sentMinCZ = scz;
+            sentMaxCX = ecx;
+            sentMaxCZ = ecz;
         }
     }
 
+    private void resetSentChunks() {
+        sentMinCX = sentMinCZ = 0;
+        sentMaxCX = sentMaxCZ = -1;
+        sentPrimitives = null;
+    }
+
     public TextureUtil getRawTextureUtil() {
         if (textureUtil == null) {
             textureUtil = Fawe.get().getTextureUtil();
@@ -400,64 +490,81 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     }
 
     public void smooth(Vector2D min, Vector2D max, int radius, int iterations) {
-        char snowLayer = 78 << 4;
-        char snowBlock = 80;
+        smooth(min.getBlockX(), min.getBlockZ(), max.getBlockX(), max.getBlockZ(), radius, iterations, null);
+    }
 
-        char[] floor = this.floor.get();
-        byte[] heights = this.heights.get();
+    private interface SmoothFilter {
+        boolean test(int x, int z, int index);
+    }
 
+    /**
+     * Smooth the heights of a rectangle, a strip of rows at a time<br>
+     * - The summed area table only covers the strip (plus the radius), so huge maps aren't copied whole<br>
+     * - Each iteration reads the heights before it changes them, as if the whole rectangle was in one table
+     *
+     * @param filter which columns to change, or null for all
+     */
+    private void smooth(int minX, int minZ, int maxX, int maxZ, int radius, int iterations, SmoothFilter filter) {
         int width = getWidth();
-        int length = getLength();
-
-        int minX = min.getBlockX();
-        int minZ = min.getBlockZ();
-
-        int maxX = max.getBlockX();
-        int maxZ = max.getBlockZ();
-
-        int tableWidth = (maxX - minX + 1);
-        int tableLength = (maxZ - minZ + 1);
-        int smoothArea = tableWidth * tableLength;
-
-        long[] copy = new long[smoothArea];
-        char[] layers = new char[smoothArea];
-
-        SummedAreaTable table = new SummedAreaTable(copy, layers, tableWidth, radius);
+        int tableWidth = maxX - minX + 1;
+        int tableLength = maxZ - minZ + 1;
+        int stripRows = Math.max(16, (1 << 20) / tableWidth);
         for (int j = 0; j < iterations; j++) {
-
-            { // Copy to table
-                int localIndex = 0;
-                int zIndex = (minZ * getWidth());
-                for (int z = minZ; z <= maxZ; z++, zIndex += getWidth()) {
-                    int index = zIndex + minX;
-                    for (int x = minX; x <= maxX; x++, index++, localIndex++) {
-                        char combined = floor[index];
-                        int id = combined >> 4;
-                        if (id == 78) {
-                            layers[localIndex] = (char) (((heights[index] & 0xFF) << 3) + (floor[index] & 0x7) - 7);
-                        } else {
-                            layers[localIndex] = (char) (((heights[index] & 0xFF) << 3));
+            // The rows the next strip reads, as they were before this strip changed them
+            char[] carry = null;
+            int carryRows = 0;
+            for (int stripZ = 0; stripZ < tableLength; stripZ += stripRows) {
+                int endZ = Math.min(tableLength, stripZ + stripRows);
+                int top = Math.max(0, stripZ - radius);
+                int bottom = Math.min(tableLength, endZ + radius);
+                char[] layers = new char[(bottom - top) * tableWidth];
+                if (carry != null) {
+                    System.arraycopy(carry, 0, layers, 0, carry.length);
+                }
+                { // Copy to table
+                    int localIndex = carryRows * tableWidth;
+                    for (int z = top + carryRows; z < bottom; z++) {
+                        int index = (minZ + z) * width + minX;
+                        for (int x = 0; x < tableWidth; x++, index++, localIndex++) {
+                            layers[localIndex] = getLayerHeight(index);
                         }
                     }
                 }
-            }
-            // Process table
-            table.processSummedAreaTable();
-            { // Copy from table
-                int localIndex = 0;
-                int zIndex = (minZ * getWidth());
-                for (int z = minZ, localZ = 0; z <= maxZ; z++, localZ++, zIndex += getWidth()) {
-                    int index = zIndex + minX;
-                    for (int x = minX, localX = 0; x <= maxX; x++, localX++, index++, localIndex++) {
-                        int y = heights[index] & 0xFF;
-                        int newHeight = table.average(localX, localZ, localIndex);
-                        setLayerHeight(index, newHeight);
+                if (endZ < tableLength) {
+                    int nextTop = Math.max(0, endZ - radius);
+                    carryRows = bottom - nextTop;
+                    carry = Arrays.copyOfRange(layers, (nextTop - top) * tableWidth, layers.length);
+                }
+                // Process table
+                SummedAreaTable table = new SummedAreaTable(new long[layers.length], layers, tableWidth, radius);
+                table.processSummedAreaTable();
+                // Copy from table
+                for (int z = stripZ; z < endZ; z++) {
+                    int localZ = z - top;
+                    int localIndex = localZ * tableWidth;
+                    int index = (minZ + z) * width + minX;
+                    for (int x = 0; x < tableWidth; x++, index++, localIndex++) {
+                        if (filter == null || filter.test(minX + x, minZ + z, index)) {
+                            int newHeight = table.average(x, localZ, localIndex);
+                            setLayerHeight(index, newHeight);
+                        }
                     }
                 }
             }
         }
     }
 
+    private final char getLayerHeight(int index) {
+        char combined = floor.getChar(index);
+        int id = combined >> 4;
+        int height = heights.getByte(index) & 0xFF;
+        if (id == 78) {
+            return (char) ((height << 3) + (combined & 0x7) - 7);
+        } else {
+            return (char) (height << 3);
+        }
+    }
+
     private final void setLayerHeight(int index, int height) {
         int blockHeight = (height) >> 3;
         int layerHeight = (height) & 0x7;
@@ -465,7 +572,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     }
 
     private final void setLayerHeight(int index, int blockHeight, int layerHeight) {
-        int floorId = floor.get()[index] >> 4;
+        int floorId = floor.getChar(index) >> 4;
         if (floorId == 78 || floorId == 80) {
             if (layerHeight != 0) {
                 this.heights.setByte(index, (byte) (blockHeight + 1));
@@ -481,64 +588,21 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     }
 
     private void smooth(BufferedImage img, Mask mask, boolean white, int radius, int iterations) {
-        char snowLayer = 78 << 4;
-        char snowBlock = 80;
-
-        char[] floor = this.floor.get();
-        byte[] heights = this.heights.get();
-
-        long[] copy = new long[heights.length];
-        char[] layers = new char[heights.length];
-
-        this.floor.record(() -> HeightMapMCAGenerator.this.heights.record(() -> {
-            int width = getWidth();
-            int length = getLength();
-            SummedAreaTable table = new SummedAreaTable(copy, layers, width, radius);
-            for (int j = 0; j < iterations; j++) {
-                for (int i = 0; i < heights.length; i++) {
-                    char combined = floor[i];
-                    int id = combined >> 4;
-                    if (id == 78) {
-                        layers[i] = (char) (((heights[i] & 0xFF) << 3) + (floor[i] & 0x7) - 7);
-                    } else {
-                        layers[i] = (char) (((heights[i] & 0xFF) << 3));
-                    }
-                }
-                int index = 0;
-                table.processSummedAreaTable();
-                if (img != null) {
-                    for (int z = 0; z < getLength(); z++) {
-                        for (int x = 0; x < getWidth(); x++, index++) {
-                            int height = img.getRGB(x, z) & 0xFF;
-                            if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                                int newHeight = table.average(x, z, index);
-                                setLayerHeight(index, newHeight);
-                            }
-                        }
-                    }
-                } else if (mask != null) {
-                    for (int z = 0; z < getLength(); z++) {
-                        mutable.mutZ(z);
-                        for (int x = 0; x < getWidth(); x++, index++) {
-                            int y = heights[index] & 0xFF;
-                            mutable.mutX(x);
-                            mutable.mutY(y);
-                            if (mask.test(mutable)) {
-                                int newHeight = table.average(x, z, index);
-                                setLayerHeight(index, newHeight);
-                            }
-                        }
-                    }
-                } else {
-                    for (int z = 0; z < getLength(); z++) {
-                        for (int x = 0; x < getWidth(); x++, index++) {
-                            int newHeight = table.average(x, z, index);
-                            setLayerHeight(index, newHeight);
-                        }
-                    }
-                }
-            }
-        }));
+        SmoothFilter filter = null;
+        if (img != null) {
+            filter = (x, z, index) -> {
+                int height = img.getRGB(x, z) & 0xFF;
+                return height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height;
+            };
+        } else if (mask != null) {
+            filter = (x, z, index) -> {
+                mutable.mutX(x);
+                mutable.mutY(heights.getByte(index) & 0xFF);
+                mutable.mutZ(z);
+                return mask.test(mutable);
+            };
+        }
+        smooth(0, 0, getWidth() - 1, getLength() - 1, radius, iterations, filter);
     }
 
     public void setHeight(BufferedImage img) {
@@ -670,6 +734,107 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         addOres(new CuboidRegion(new Vector(0, 0, 0), new Vector(getWidth() -1, 255, getLength() -1)), mask);
     }
 
+    @Override
+    public void generate(Region region, GenBase gen) throws WorldEditException {
+        populate(region, gen.getChunkRadius(), (chunkX, chunkZ) -> gen.generate(new Vector2D(chunkX, chunkZ), this));
+    }
+
+    @Override
+    public void spawnResource(Region region, Resource gen, int rarity, int frequency) throws WorldEditException {
+        // Each chunk has its own seed, so the result doesn't depend on the order chunks are populated in
+        long seed = PseudoRandom.random.nextLong();
+        long seedX = PseudoRandom.random.nextLong();
+        long seedZ = PseudoRandom.random.nextLong();
+        populate(region, gen.getChunkRadius(), (chunkX, chunkZ) -> {
+            PseudoRandom random = new PseudoRandom(seedX * chunkX ^ seedZ * chunkZ ^ seed);
+            for (int i = 0; i < frequency; i++) {
+                if (random.nextInt(100) > rarity) {
+                    continue;
+                }
+                int x = (chunkX << 4) + random.nextInt(16);
+                int z = (chunkZ << 4) + random.nextInt(16);
+                gen.spawn(random, x, z);
+            }
+        });
+    }
+
+    private interface ChunkPopulator {
+        void populate(int chunkX, int chunkZ) throws WorldEditException;
+    }
+
+    /**
+     * Populate the chunks of a region (caves, ores, schematics)<br>
+     * - Chunks are split into phases, where chunks in the same phase are at least 2 * radius + 2 chunks apart, so they
+     * can't change the same blocks (or the blocks next to the ones another changes)<br>
+     * - Phases are run in order, and the chunks of each phase in parallel on the shared pool. The result is the same as populating the
+     * phases on one thread, which is done for tiled layers (a tile may be evicted while another thread is using it)<br>
+     * - A negative radius populates every chunk in order on this thread
+     *
+     * @param region
+     * @param radius the number of chunks around each chunk which the populator may change
+     * @param populator
+     * @throws WorldEditException
+     */
+    private void populate(Region region, int radius, ChunkPopulator populator) throws WorldEditException {
+        List<Vector2D> chunks = new ArrayList<>(region.getChunks());
+        Collections.sort(chunks, (a, b) -> a.getBlockZ() != b.getBlockZ() ? Integer.compare(a.getBlockZ(), b.getBlockZ()) : Integer.compare(a.getBlockX(), b.getBlockX()));
+        int spacing = radius < 0 ? 0 : radius * 2 + 2;
+        if (spacing == 0 || (long) spacing * spacing >= chunks.size()) {
+            for (Vector2D chunk : chunks) {
+                populator.populate(chunk.getBlockX(), chunk.getBlockZ());
+            }
+            return;
+        }
+        List<Vector2D>[] phases = new List[spacing * spacing];
+        for (Vector2D chunk : chunks) {
+            int phase = Math.floorMod(chunk.getBlockZ(), spacing) * spacing + Math.floorMod(chunk.getBlockX(), spacing);
+            List<Vector2D> list = phases[phase];
+            if (list == null) {
+                list = phases[phase] = new ArrayList<>();
+            }
+            list.add(chunk);
+        }
+        int threads = Settings.IMP.QUEUE.PARALLEL_THREADS;
+        if (threads <= 1 || heights.isTiled()) {
+            for (List<Vector2D> phase : phases) {
+                if (phase == null) continue;
+                for (Vector2D chunk : phase) {
+                    populator.populate(chunk.getBlockX(), chunk.getBlockZ());
+                }
+            }
+            return;
+        }
+        ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<Vector2D> phase : phases) {
+            if (phase == null) continue;
+            futures.clear();
+            for (Vector2D chunk : phase) {
+                futures.add(pool.submit(() -> {
+                    populator.populate(chunk.getBlockX(), chunk.getBlockZ());
+                    return null;
+                }));
+            }
+            // Wait for the whole phase, so a failed phase isn't still writing when this returns
+            Throwable error = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) error = e.getCause();
+                } catch (InterruptedException e) {
+                    if (error == null) error = e;
+                }
+            }
+            if (error != null) {
+                if (error instanceof InterruptedException) Thread.currentThread().interrupt();
+                if (error instanceof WorldEditException) throw (WorldEditException) error;
+                if (error instanceof RuntimeException) throw (RuntimeException) error;
+                throw new RuntimeException(error);
+            }
+        }
+    }
+
     @Override
     public Vector getMinimumPoint() {
         return new Vector(0, 0, 0);
@@ -690,7 +855,8 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         return this.setBiome(position.getBlockX(), position.getBlockZ(), biome);
     }
 
-    private boolean setBlock(int x, int y, int z, char combined) {
+    // Synchronized, as chunks may be populated on several threads
+    private synchronized boolean setBlock(int x, int y, int z, char combined) {
         int index = z * getWidth() + x;
         if (index < 0 || index >= getArea()) return false;
         int height = heights.getByte(index) & 0xFF;
@@ -742,7 +908,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     }
 
     @Override
-    public boolean setBiome(int x, int z, BaseBiome biome) {
+    public synchronized boolean setBiome(int x, int z, BaseBiome biome) {
         int index = z * getWidth() + x;
         if (index < 0 || index >= getArea()) return false;
         biomes.setByte(index, (byte) biome.getId());
@@ -907,6 +1073,13 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         }
         player = null;
         chunkOffset = null;
+        resetSentChunks();
+        heights.close();
+        biomes.close();
+        floor.close();
+        main.close();
+        if (overlay != null) overlay.close();
+        if (tileFolder != null) tileFolder.delete();
     }
 
     @Override
@@ -1067,21 +1240,15 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     public void setBiome(BufferedImage img, byte biome, boolean white) {
         if (img.getWidth() != getWidth() || img.getHeight() != getLength())
             throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
-        biomes.record(new Runnable() {
-            @Override
-            public void run() {
-                byte[] biomeArr = biomes.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int height = img.getRGB(x, z) & 0xFF;
-                        if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                            biomeArr[index] = biome;
-                        }
-                    }
+        int index = 0;
+        for (int z = 0; z < getLength(); z++) {
+            for (int x = 0; x < getWidth(); x++, index++) {
+                int height = img.getRGB(x, z) & 0xFF;
+                if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                    biomes.setByte(index, biome);
                 }
             }
-        });
+        }
     }
 
     public BufferedImage draw() {
@@ -1109,35 +1276,29 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         int heightIndex = img.getHeight() - 1;
         int maxIndex = getArea() - 1;
 
-        biomes.record(() -> floor.record(() -> main.record(() -> {
-            char[] mainArr = main.get();
-            char[] floorArr = floor.get();
-            byte[] biomesArr = biomes.get();
-
-            int index = 0;
-            int[] buffer = new int[2];
-            for (int z = 0; z < img.getHeight(); z++) {
-                mutable.mutZ(z);
-                for (int x = 0; x < img.getWidth(); x++, index++) {
-                    if (mask != null) {
-                        mutable.mutX(z);
-                        mutable.mutY(heights.getByte(index) & 0xFF);
-                        if (!mask.test(mutable)) continue;
-                    }
-                    if (imgMask != null) {
-                        int height = imgMask.getRGB(x, z) & 0xFF;
-                        if (height != 255 && (height <= 0 || !whiteOnly || PseudoRandom.random.nextInt(256) > height)) continue;
-                    }
-                    int color = img.getRGB(x, z);
-                    if (textureUtil.getIsBlockCloserThanBiome(buffer, color, primtives.biomePriority)) {
-                        char combined = (char) buffer[0];
-                        mainArr[index] = combined;
-                        floorArr[index] = combined;
-                    }
-                    biomesArr[index] = (byte) buffer[1];
+        int index = 0;
+        int[] buffer = new int[2];
+        for (int z = 0; z < img.getHeight(); z++) {
+            mutable.mutZ(z);
+            for (int x = 0; x < img.getWidth(); x++, index++) {
+                if (mask != null) {
+                    mutable.mutX(z);
+                    mutable.mutY(heights.getByte(index) & 0xFF);
+                    if (!mask.test(mutable)) continue;
+                }
+                if (imgMask != null) {
+                    int height = imgMask.getRGB(x, z) & 0xFF;
+                    if (height != 255 && (height <= 0 || !whiteOnly || PseudoRandom.random.nextInt(256) > height)) continue;
                 }
+                int color = img.getRGB(x, z);
+                if (textureUtil.getIsBlockCloserThanBiome(buffer, color, primtives.biomePriority)) {
+                    char combined = (char) buffer[0];
+                    main.setChar(index, combined);
+                    floor.setChar(index, combined);
+                }
+                biomes.setByte(index, (byte) buffer[1]);
             }
-        })));
+        }
     }
 
     public void setBlockAndBiomeColor(BufferedImage img) {
@@ -1148,26 +1309,20 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         int heightIndex = img.getHeight() - 1;
         int maxIndex = getArea() - 1;
 
-        biomes.record(() -> floor.record(() -> main.record(() -> {
-            char[] mainArr = main.get();
-            char[] floorArr = floor.get();
-            byte[] biomesArr = biomes.get();
-
-            int[] buffer = new int[2];
-            int index = 0;
-            for (int y = 0; y < img.getHeight(); y++) {
-                boolean yBiome = y > 0 && y < heightIndex;
-                for (int x = 0; x < img.getWidth(); x++, index++) {
-                    int color = img.getRGB(x, y);
-                    if (textureUtil.getIsBlockCloserThanBiome(buffer, color, primtives.biomePriority)) {
-                        char combined = (char) buffer[0];
-                        mainArr[index] = combined;
-                        floorArr[index] = combined;
-                    }
-                    biomesArr[index] = (byte) buffer[1];
+        int[] buffer = new int[2];
+        int index = 0;
+        for (int y = 0; y < img.getHeight(); y++) {
+            boolean yBiome = y > 0 && y < heightIndex;
+            for (int x = 0; x < img.getWidth(); x++, index++) {
+                int color = img.getRGB(x, y);
+                if (textureUtil.getIsBlockCloserThanBiome(buffer, color, primtives.biomePriority)) {
+                    char combined = (char) buffer[0];
+                    main.setChar(index, combined);
+                    floor.setChar(index, combined);
                 }
+                biomes.setByte(index, (byte) buffer[1]);
             }
-        })));
+        }
     }
 
     public void setBiomeColor(BufferedImage img) {
@@ -1175,23 +1330,17 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
         TextureUtil textureUtil = getTextureUtil();
 
-        biomes.record(new Runnable() {
-            @Override
-            public void run() {
-                byte[] biomesArr = biomes.get();
-                int index = 0;
-                for (int y = 0; y < img.getHeight(); y++) {
-                    for (int x = 0; x < img.getWidth(); x++) {
-                        int color = img.getRGB(x, y);
-                        TextureUtil.BiomeColor biome = textureUtil.getNearestBiome(color);
-                        if (biome != null) {
-                            biomesArr[index] = (byte) biome.id;
-                        }
-                        index++;
-                    }
-                }
+        int index = 0;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int color = img.getRGB(x, y);
+                TextureUtil.BiomeColor biome = textureUtil.getNearestBiome(color);
+                if (biome != null) {
+                    biomes.setByte(index, (byte) biome.id);
+                }
+                index++;
             }
-        });
+        }
     }
 
     public void setColor(BufferedImage img, BufferedImage mask, boolean white) {
@@ -1202,26 +1351,21 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         primtives.modifiedMain = true;
         TextureUtil textureUtil = getTextureUtil();
 
-        floor.record(() -> main.record(() -> {
-            char[] mainArr = main.get();
-            char[] floorArr = floor.get();
-
-            int index = 0;
-            for (int z = 0; z < getLength(); z++) {
-                for (int x = 0; x < getWidth(); x++, index++) {
-                    int height = mask.getRGB(x, z) & 0xFF;
-                    if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                        int color = img.getRGB(x, z);
-                        BaseBlock block = textureUtil.getNearestBlock(color);
-                        if (block != null) {
-                            char combined = (char) block.getCombined();
-                            mainArr[index] = combined;
-                            floorArr[index] = combined;
-                        }
+        int index = 0;
+        for (int z = 0; z < getLength(); z++) {
+            for (int x = 0; x < getWidth(); x++, index++) {
+                int height = mask.getRGB(x, z) & 0xFF;
+                if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                    int color = img.getRGB(x, z);
+                    BaseBlock block = textureUtil.getNearestBlock(color);
+                    if (block != null) {
+                        char combined = (char) block.getCombined();
+                        main.setChar(index, combined);
+                        floor.setChar(index, combined);
                     }
                 }
             }
-        }));
+        }
     }
 
     public void setColor(BufferedImage img, Mask mask) {
@@ -1231,28 +1375,23 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         TextureUtil textureUtil = getTextureUtil();
 
 
-        floor.record(() -> main.record(() -> {
-            char[] mainArr = main.get();
-            char[] floorArr = floor.get();
-
-            int index = 0;
-            for (int z = 0; z < getLength(); z++) {
-                mutable.mutZ(z);
-                for (int x = 0; x < getWidth(); x++, index++) {
-                    mutable.mutX(x);
-                    mutable.mutY(heights.getByte(index) & 0xFF);
-                    if (mask.test(mutable)) {
-                        int color = img.getRGB(x, z);
-                        BaseBlock block = textureUtil.getNearestBlock(color);
-                        if (block != null) {
-                            char combined = (char) block.getCombined();
-                            mainArr[index] = combined;
-                            floorArr[index] = combined;
-                        }
+        int index = 0;
+        for (int z = 0; z < getLength(); z++) {
+            mutable.mutZ(z);
+            for (int x = 0; x < getWidth(); x++, index++) {
+                mutable.mutX(x);
+                mutable.mutY(heights.getByte(index) & 0xFF);
+                if (mask.test(mutable)) {
+                    int color = img.getRGB(x, z);
+                    BaseBlock block = textureUtil.getNearestBlock(color);
+                    if (block != null) {
+                        char combined = (char) block.getCombined();
+                        main.setChar(index, combined);
+                        floor.setChar(index, combined);
                     }
                 }
             }
-        }));
+        }
     }
 
     public void setColor(BufferedImage img) {
@@ -1261,24 +1400,19 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         primtives.modifiedMain = true;
         TextureUtil textureUtil = getTextureUtil();
 
-        floor.record(() -> main.record(() -> {
-            char[] mainArr = main.get();
-            char[] floorArr = floor.get();
-
-            int index = 0;
-            for (int z = 0; z < img.getHeight(); z++) {
-                for (int x = 0; x < img.getWidth(); x++) {
-                    int color = img.getRGB(x, z);
-                    BaseBlock block = textureUtil.getNearestBlock(color);
-                    if (block != null) {
-                        char combined = (char) block.getCombined();
-                        mainArr[index] = combined;
-                        floorArr[index] = combined;
-                    }
-                    index++;
+        int index = 0;
+        for (int z = 0; z < img.getHeight(); z++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int color = img.getRGB(x, z);
+                BaseBlock block = textureUtil.getNearestBlock(color);
+                if (block != null) {
+                    char combined = (char) block.getCombined();
+                    main.setChar(index, combined);
+                    floor.setChar(index, combined);
                 }
+                index++;
             }
-        }));
+        }
     }
 
     public void setColorWithGlass(BufferedImage img) {
@@ -1286,23 +1420,18 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
         TextureUtil textureUtil = getTextureUtil();
 
-        floor.record(() -> main.record(() -> {
-            char[] mainArr = main.get();
-            char[] floorArr = floor.get();
-
-            int index = 0;
-            for (int y = 0; y < img.getHeight(); y++) {
-                for (int x = 0; x < img.getWidth(); x++) {
-                    int color = img.getRGB(x, y);
-                    char[] layer = textureUtil.getNearestLayer(color);
-                    if (layer != null) {
-                        floorArr[index] = layer[0];
-                        mainArr[index] = layer[1];
-                    }
-                    index++;
-                }
+        int index = 0;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int color = img.getRGB(x, y);
+                char[] layer = textureUtil.getNearestLayer(color);
+                if (layer != null) {
+                    floor.setChar(index, layer[0]);
+                    main.setChar(index, layer[1]);
+                }
+                index++;
             }
-        }));
+        }
     }
 
     public void setBiome(Mask mask, byte biome) {
@@ -1326,25 +1455,19 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         } else {
             if (img.getWidth() != getWidth() || img.getHeight() != getLength())
                 throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
-            if (overlay == null) {
-                overlay = new DifferentialArray<>(new char[getArea()]);
-            }
-
-            overlay.record(() -> {
-                char[] overlayArr = overlay.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    mutable.mutZ(z);
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int height = img.getRGB(x, z) & 0xFF;
-                        if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                            mutable.mutX(x);
-                            mutable.mutY(height);
-                            overlayArr[index] = (char) pattern.apply(mutable).getCombined();
-                        }
+            TiledDifferentialArray overlay = getOverlay();
+            int index = 0;
+            for (int z = 0; z < getLength(); z++) {
+                mutable.mutZ(z);
+                for (int x = 0; x < getWidth(); x++, index++) {
+                    int height = img.getRGB(x, z) & 0xFF;
+                    if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                        mutable.mutX(x);
+                        mutable.mutY(height);
+                        overlay.setChar(index, (char) pattern.apply(mutable).getCombined());
                     }
                 }
-            });
+            }
 
         }
     }
@@ -1357,21 +1480,18 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                 throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
             primtives.modifiedMain = true;
 
-            main.record(() -> {
-                char[] mainArr = main.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    mutable.mutZ(z);
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int height = img.getRGB(x, z) & 0xFF;
-                        if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                            mutable.mutX(x);
-                            mutable.mutY(height);
-                            mainArr[index] = (char) pattern.apply(mutable).getCombined();
-                        }
+            int index = 0;
+            for (int z = 0; z < getLength(); z++) {
+                mutable.mutZ(z);
+                for (int x = 0; x < getWidth(); x++, index++) {
+                    int height = img.getRGB(x, z) & 0xFF;
+                    if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                        mutable.mutX(x);
+                        mutable.mutY(height);
+                        main.setChar(index, (char) pattern.apply(mutable).getCombined());
                     }
                 }
-            });
+            }
         }
     }
 
@@ -1382,21 +1502,18 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             if (img.getWidth() != getWidth() || img.getHeight() != getLength())
                 throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
 
-            floor.record(() -> {
-                char[] floorArr = floor.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    mutable.mutZ(z);
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int height = img.getRGB(x, z) & 0xFF;
-                        if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                            mutable.mutX(x);
-                            mutable.mutY(height);
-                            floorArr[index] = (char) pattern.apply(mutable).getCombined();
-                        }
+            int index = 0;
+            for (int z = 0; z < getLength(); z++) {
+                mutable.mutZ(z);
+                for (int x = 0; x < getWidth(); x++, index++) {
+                    int height = img.getRGB(x, z) & 0xFF;
+                    if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                        mutable.mutX(x);
+                        mutable.mutY(height);
+                        floor.setChar(index, (char) pattern.apply(mutable).getCombined());
                     }
                 }
-            });
+            }
         }
     }
 
@@ -1408,24 +1525,20 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                 throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
             primtives.modifiedMain = true;
 
-            main.record(() -> floor.record(() -> {
-                char[] floorArr = floor.get();
-                char[] mainArr = main.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    mutable.mutZ(z);
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int height = img.getRGB(x, z) & 0xFF;
-                        if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                            mutable.mutX(x);
-                            mutable.mutY(height);
-                            char combined = (char) pattern.apply(mutable).getCombined();
-                            mainArr[index] = combined;
-                            floorArr[index] = combined;
-                        }
+            int index = 0;
+            for (int z = 0; z < getLength(); z++) {
+                mutable.mutZ(z);
+                for (int x = 0; x < getWidth(); x++, index++) {
+                    int height = img.getRGB(x, z) & 0xFF;
+                    if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                        mutable.mutX(x);
+                        mutable.mutY(height);
+                        char combined = (char) pattern.apply(mutable).getCombined();
+                        main.setChar(index, combined);
+                        floor.setChar(index, combined);
                     }
                 }
-            }));
+            }
         }
     }
 
@@ -1434,7 +1547,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             setOverlay(mask, (char) ((BaseBlock) pattern).getCombined());
         } else {
             int index = 0;
-            if (overlay == null) overlay = new DifferentialArray<>(new char[getArea()]);
+            TiledDifferentialArray overlay = getOverlay();
             for (int z = 0; z < getLength(); z++) {
                 mutable.mutZ(z);
                 for (int x = 0; x < getWidth(); x++, index++) {
@@ -1511,26 +1624,23 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     }
 
     public void setBiome(int biome) {
-        biomes.record(() -> Arrays.fill(biomes.get(), (byte) biome));
+        biomes.fill(biome);
     }
 
     public void setFloor(Pattern value) {
         if (value instanceof BaseBlock) {
             setFloor(((BaseBlock) value).getCombined());
         } else {
-            floor.record(() -> {
-                char[] floorArr = floor.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    mutable.mutZ(z);
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int y = heights.getByte(index) & 0xFF;
-                        mutable.mutX(x);
-                        mutable.mutY(y);
-                        floorArr[index] = (char) value.apply(mutable).getCombined();
-                    }
+            int index = 0;
+            for (int z = 0; z < getLength(); z++) {
+                mutable.mutZ(z);
+                for (int x = 0; x < getWidth(); x++, index++) {
+                    int y = heights.getByte(index) & 0xFF;
+                    mutable.mutX(x);
+                    mutable.mutY(y);
+                    floor.setChar(index, (char) value.apply(mutable).getCombined());
                 }
-            });
+            }
         }
     }
 
@@ -1538,22 +1648,18 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         if (value instanceof BaseBlock) {
             setColumn(((BaseBlock) value).getCombined());
         } else {
-            main.record(() -> floor.record(() -> {
-                char[] floorArr = floor.get();
-                char[] mainArr = main.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    mutable.mutZ(z);
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int y = heights.getByte(index) & 0xFF;
-                        mutable.mutX(x);
-                        mutable.mutY(y);
-                        char combined = (char) value.apply(mutable).getCombined();
-                        mainArr[index] = combined;
-                        floorArr[index] = combined;
-                    }
+            int index = 0;
+            for (int z = 0; z < getLength(); z++) {
+                mutable.mutZ(z);
+                for (int x = 0; x < getWidth(); x++, index++) {
+                    int y = heights.getByte(index) & 0xFF;
+                    mutable.mutX(x);
+                    mutable.mutY(y);
+                    char combined = (char) value.apply(mutable).getCombined();
+                    main.setChar(index, combined);
+                    floor.setChar(index, combined);
                 }
-            }));
+            }
         }
     }
 
@@ -1561,40 +1667,34 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
         if (value instanceof BaseBlock) {
             setMain(((BaseBlock) value).getCombined());
         } else {
-            main.record(() -> {
-                char[] mainArr = main.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    mutable.mutZ(z);
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int y = heights.getByte(index) & 0xFF;
-                        mutable.mutX(x);
-                        mutable.mutY(y);
-                        mainArr[index] = (char) value.apply(mutable).getCombined();
-                    }
+            int index = 0;
+            for (int z = 0; z < getLength(); z++) {
+                mutable.mutZ(z);
+                for (int x = 0; x < getWidth(); x++, index++) {
+                    int y = heights.getByte(index) & 0xFF;
+                    mutable.mutX(x);
+                    mutable.mutY(y);
+                    main.setChar(index, (char) value.apply(mutable).getCombined());
                 }
-            });
+            }
         }
     }
 
     public void setOverlay(Pattern value) {
-        if (overlay == null) overlay = new DifferentialArray<>(new char[getArea()]);
+        TiledDifferentialArray overlay = getOverlay();
         if (value instanceof BaseBlock) {
             setOverlay(((BaseBlock) value).getCombined());
         } else {
-            overlay.record(() -> {
-                char[] overlayArr = overlay.get();
-                int index = 0;
-                for (int z = 0; z < getLength(); z++) {
-                    mutable.mutZ(z);
-                    for (int x = 0; x < getWidth(); x++, index++) {
-                        int y = heights.getByte(index) & 0xFF;
-                        mutable.mutX(x);
-                        mutable.mutY(y);
-                        overlayArr[index] = (char) value.apply(mutable).getCombined();
-                    }
+            int index = 0;
+            for (int z = 0; z < getLength(); z++) {
+                mutable.mutZ(z);
+                for (int x = 0; x < getWidth(); x++, index++) {
+                    int y = heights.getByte(index) & 0xFF;
+                    mutable.mutX(x);
+                    mutable.mutY(y);
+                    overlay.setChar(index, (char) value.apply(mutable).getCombined());
                 }
-            });
+            }
         }
     }
 
@@ -1609,9 +1709,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     }
 
     public void setHeights(int value) {
-        heights.record(() -> {
-            Arrays.fill(heights.get(), (byte) value);
-        });
+        heights.fill(value);
     }
 
     @Override
@@ -1621,11 +1719,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
 
     @Override
     public MCAChunk write(MCAChunk chunk, int csx, int cex, int csz, int cez) {
-        byte[] heights = this.heights.get();
-        byte[] biomes = this.biomes.get();
-        char[] main = this.main.get();
-        char[] floor = this.floor.get();
-        char[] overlay = this.overlay != null ? this.overlay.get() : null;
+        TiledDifferentialArray overlay = this.overlay;
         try {
             int[] indexes = indexStore.get();
             for (int i = 0; i < chunk.ids.length; i++) {
@@ -1645,13 +1739,13 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                 index = (z & 15) << 4;
                 for (int x = csx; x <= cex; x++, index++, globalIndex++) {
                     indexes[index] = globalIndex;
-                    int height = heights[globalIndex] & 0xFF;
+                    int height = heights.getByte(globalIndex) & 0xFF;
                     heightMap[index] = height;
                     maxY = Math.max(maxY, height);
                     minY = Math.min(minY, height);
                 }
             }
-            boolean hasOverlay = this.overlay != null;
+            boolean hasOverlay = overlay != null;
             if (hasOverlay) {
                 maxY++;
             }
@@ -1695,7 +1789,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                         index = (z & 15) << 4;
                         for (int x = csx; x <= cex; x++, index++) {
                             globalIndex = indexes[index];
-                            char mainCombined = main[globalIndex];
+                            char mainCombined = main.getChar(globalIndex);
                             byte id = (byte) FaweCache.getId(mainCombined);
                             int data = FaweCache.getData(mainCombined);
                             if (data != 0) {
@@ -1732,7 +1826,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                             diff = 16;
                         } else if (height >= startY) {
                             diff = height - startY;
-                            char floorCombined = floor[globalIndex];
+                            char floorCombined = floor.getChar(globalIndex);
                             int id = FaweCache.getId(floorCombined);
                             int floorIndex = index + ((height & 15) << 8);
                             layerIds[floorIndex] = (byte) id;
@@ -1741,7 +1835,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                                 chunk.setNibble(floorIndex, layerDatas, data);
                             }
                             if (hasOverlay && height >= startY - 1 && height < endY) {
-                                char overlayCombined = overlay[globalIndex];
+                                char overlayCombined = overlay.getChar(globalIndex);
                                 id = FaweCache.getId(overlayCombined);
                                 int overlayIndex = index + (((height + 1) & 15) << 8);
                                 layerIds[overlayIndex] = (byte) id;
@@ -1751,7 +1845,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                                 }
                             }
                         } else if (hasOverlay && height == startY - 1) {
-                            char overlayCombined = overlay[globalIndex];
+                            char overlayCombined = overlay.getChar(globalIndex);
                             int id = FaweCache.getId(overlayCombined);
                             int overlayIndex = index + (((height + 1) & 15) << 8);
                             layerIds[overlayIndex] = (byte) id;
@@ -1763,7 +1857,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                         } else {
                             continue;
                         }
-                        char mainCombined = main[globalIndex];
+                        char mainCombined = main.getChar(globalIndex);
                         byte id = (byte) FaweCache.getId(mainCombined);
                         int data = FaweCache.getData(mainCombined);
                         if (data != 0) {
@@ -1844,10 +1938,10 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                         int gi = indexes[index];
                         int height = heightMap[index];
                         int min = height;
-                        if (x > 0) min = Math.min(heights[gi - 1] & 0xFF, min);
-                        if (x < getWidth() - 1) min = Math.min(heights[gi + 1] & 0xFF, min);
-                        if (z > 0) min = Math.min(heights[gi - getWidth()] & 0xFF, min);
-                        if (z < getLength() - 1) min = Math.min(heights[gi + getWidth()] & 0xFF, min);
+                        if (x > 0) min = Math.min(heights.getByte(gi - 1) & 0xFF, min);
+                        if (x < getWidth() - 1) min = Math.min(heights.getByte(gi + 1) & 0xFF, min);
+                        if (z > 0) min = Math.min(heights.getByte(gi - getWidth()) & 0xFF, min);
+                        if (z < getLength() - 1) min = Math.min(heights.getByte(gi + getWidth()) & 0xFF, min);
                         minArr[index] = (byte) min;
                     }
                 }
@@ -1875,7 +1969,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
 
 
                                 if (min < max) {
-                                    char floorCombined = floor[globalIndex];
+                                    char floorCombined = floor.getChar(globalIndex);
                                     final byte id = (byte) FaweCache.getId(floorCombined);
                                     final int data = FaweCache.getData(floorCombined);
                                     for (int y = min; y < max; y++) {
@@ -1910,7 +2004,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
                                 int min = (minArr[index] & 0xFF) - primtives.worldThickness;
                                 int localMin = min - startY;
                                 if (localMin > 0) {
-                                    char floorCombined = floor[globalIndex];
+                                    char floorCombined = floor.getChar(globalIndex);
                                     final byte id = (byte) FaweCache.getId(floorCombined);
                                     final int data = FaweCache.getData(floorCombined);
 
@@ -1934,7 +2028,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             }
 
             for (int i = 0; i < 256; i++) {
-                chunk.biomes[i] = biomes[indexes[i]];
+                chunk.biomes[i] = biomes.getByte(indexes[i]);
             }
 
 
@@ -1970,7 +2064,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
 
     private void setOverlay(Mask mask, char combined) {
         int index = 0;
-        if (overlay == null) overlay = new DifferentialArray<>(new char[getArea()]);
+        TiledDifferentialArray overlay = getOverlay();
         for (int z = 0; z < getLength(); z++) {
             mutable.mutZ(z);
             for (int x = 0; x < getWidth(); x++, index++) {
@@ -2033,7 +2127,7 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
     }
 
     private void setFloor(int value) {
-        floor.record(() -> Arrays.fill(floor.get(), (char) value));
+        floor.fill(value);
     }
 
     private void setColumn(int value) {
@@ -2043,30 +2137,27 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
 
     private void setMain(int value) {
         primtives.modifiedMain = true;
-        main.record(() -> Arrays.fill(main.get(), (char) value));
+        main.fill(value);
     }
 
     private void setOverlay(int value) {
-        if (overlay == null) overlay = new DifferentialArray<>(new char[getArea()]);
-        overlay.record(() -> Arrays.fill(overlay.get(), (char) value));
+        getOverlay().fill(value);
     }
 
     private void setOverlay(BufferedImage img, char combined, boolean white) {
         if (img.getWidth() != getWidth() || img.getHeight() != getLength())
             throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
-        if (overlay == null) overlay = new DifferentialArray<>(new char[getArea()]);
+        TiledDifferentialArray overlay = getOverlay();
 
-        overlay.record(() -> {
-            int index = 0;
-            for (int z = 0; z < getLength(); z++) {
-                for (int x = 0; x < getWidth(); x++, index++) {
-                    int height = img.getRGB(x, z) & 0xFF;
-                    if (height == 255 || height > 0 && white && PseudoRandom.random.nextInt(256) <= height) {
-                        overlay.get()[index] = combined;
-                    }
+        int index = 0;
+        for (int z = 0; z < getLength(); z++) {
+            for (int x = 0; x < getWidth(); x++, index++) {
+                int height = img.getRGB(x, z) & 0xFF;
+                if (height == 255 || height > 0 && white && PseudoRandom.random.nextInt(256) <= height) {
+                    overlay.setChar(index, combined);
                 }
             }
-        });
+        }
     }
 
     private void setMain(BufferedImage img, char combined, boolean white) {
@@ -2074,34 +2165,30 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
         primtives.modifiedMain = true;
 
-        main.record(() -> {
-            int index = 0;
-            for (int z = 0; z < getLength(); z++) {
-                for (int x = 0; x < getWidth(); x++, index++) {
-                    int height = img.getRGB(x, z) & 0xFF;
-                    if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                        main.get()[index] = combined;
-                    }
+        int index = 0;
+        for (int z = 0; z < getLength(); z++) {
+            for (int x = 0; x < getWidth(); x++, index++) {
+                int height = img.getRGB(x, z) & 0xFF;
+                if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                    main.setChar(index, combined);
                 }
             }
-        });
+        }
     }
 
     private void setFloor(BufferedImage img, char combined, boolean white) {
         if (img.getWidth() != getWidth() || img.getHeight() != getLength())
             throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
 
-        floor.record(() -> {
-            int index = 0;
-            for (int z = 0; z < getLength(); z++) {
-                for (int x = 0; x < getWidth(); x++, index++) {
-                    int height = img.getRGB(x, z) & 0xFF;
-                    if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                        floor.get()[index] = combined;
-                    }
+        int index = 0;
+        for (int z = 0; z < getLength(); z++) {
+            for (int x = 0; x < getWidth(); x++, index++) {
+                int height = img.getRGB(x, z) & 0xFF;
+                if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                    floor.setChar(index, combined);
                 }
             }
-        });
+        }
     }
 
     private void setColumn(BufferedImage img, char combined, boolean white) {
@@ -2109,18 +2196,16 @@ public class HeightMapMCAGenerator extends MCAWriter implements SimpleWorld, Faw
             throw new IllegalArgumentException("Input image dimensions do not match the current height map!");
         primtives.modifiedMain = true;
 
-        main.record(() -> floor.record(() -> {
-            int index = 0;
-            for (int z = 0; z < getLength(); z++) {
-                for (int x = 0; x < getWidth(); x++, index++) {
-                    int height = img.getRGB(x, z) & 0xFF;
-                    if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
-                        main.get()[index] = combined;
-                        floor.get()[index] = combined;
-                    }
+        int index = 0;
+        for (int z = 0; z < getLength(); z++) {
+            for (int x = 0; x < getWidth(); x++, index++) {
+                int height = img.getRGB(x, z) & 0xFF;
+                if (height == 255 || height > 0 && !white && PseudoRandom.random.nextInt(256) <= height) {
+                    main.setChar(index, combined);
+                    floor.setChar(index, combined);
                 }
             }
-        }));
+        }
     }
 
     @Override
@@ -1,6 +1,7 @@
 package com.boydti.fawe.jnbt.anvil;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.jnbt.NBTStreamer;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.RunnableVal;
@@ -9,22 +10,30 @@ import com.boydti.fawe.object.collection.IterableThreadLocal;
 import com.boydti.fawe.object.exception.FaweException;
 import com.boydti.fawe.object.io.BufferedRandomAccessFile;
 import com.boydti.fawe.object.io.FastByteArrayInputStream;
-import com.boydti.fawe.util.MainUtil;
 import com.boydti.fawe.util.MathMan;
 import com.sk89q.jnbt.NBTInputStream;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -52,6 +61,8 @@ public class MCAFile {
     private final File file;
     private RandomAccessFile raf;
     private byte[] locations;
+    private byte[] timestamps;
+    private volatile byte[] fileData;
     private boolean deleted;
     private final int X, Z;
     private final Int2ObjectOpenHashMap<MCAChunk> chunks = new Int2ObjectOpenHashMap<>();
@@ -98,6 +109,8 @@ public class MCAFile {
             chunks.clear();
         }
         locations = null;
+        timestamps = null;
+        fileData = null;
         IterableThreadLocal.clean(byteStore1);
         IterableThreadLocal.clean(byteStore2);
         IterableThreadLocal.clean(byteStore3);
@@ -124,18 +137,35 @@ public class MCAFile {
     }
 
     /**
-     * Loads the location header from disk
+     * Set the contents of the file (e.g. read ahead by a {@link RegionPrefetcher})<br>
+     * - Chunks are read from this instead of the file, until the file is written to<br>
+     * - Must be set before the file is initialized
+     *
+     * @param fileData
+     */
+    public void setFileData(byte[] fileData) {
+        this.fileData = fileData;
+    }
+
+    /**
+     * Loads the location and timestamp headers from disk
      */
     public void init() {
         try {
             if (raf == null) {
                 this.locations = new byte[4096];
+                this.timestamps = new byte[4096];
                 this.raf = new RandomAccessFile(file, "rw");
                 if (raf.length() < 8192) {
                     raf.setLength(8192);
+                    fileData = null;
+                } else if (fileData != null && fileData.length >= 8192) {
+                    System.arraycopy(fileData, 0, locations, 0, 4096);
+                    System.arraycopy(fileData, 4096, timestamps, 0, 4096);
                 } else {
                     raf.seek(0);
                     raf.readFully(locations);
+                    raf.readFully(timestamps);
                 }
             }
         } catch (Throwable e) {
@@ -159,6 +189,20 @@ public class MCAFile {
         return raf;
     }
 
+    /**
+     * @return the file, opened again (see {@link #init()}) if a write ahead has replaced it
+     */
+    private RandomAccessFile getOpenFile() {
+        RandomAccessFile current = raf;
+        if (current == null) {
+            synchronized (this) {
+                init();
+                current = raf;
+            }
+        }
+        return current;
+    }
+
     public File getFile() {
         return file;
     }
@@ -195,9 +239,15 @@ public class MCAFile {
         if (offset == 0) {
             return null;
         }
-        NBTInputStream nis = getChunkIS(offset);
-        MCAChunk chunk = new MCAChunk(nis, queue, cx, cz, size);
-        nis.close();
+        Inflater inflater = RegionCompression.getInflater();
+        MCAChunk chunk;
+        try {
+            NBTInputStream nis = getChunkIS(offset, inflater);
+            chunk = new MCAChunk(nis, queue, cx, cz, size);
+            nis.close();
+        } finally {
+            RegionCompression.release(inflater);
+        }
         int pair = MathMan.pair((short) (cx & 31), (short) (cz & 31));
         synchronized (chunks) {
             chunks.put(pair, chunk);
@@ -273,6 +323,14 @@ public class MCAFile {
         }
     }
 
+    /**
+     * @return the last time the chunk was written (seconds since the epoch), or 0 if the chunk doesn't exist
+     */
+    public int getTimestamp(int cx, int cz) {
+        int i = ((cx & 31) << 2) + ((cz & 31) << 7);
+        return ((timestamps[i] & 0xFF) << 24) + ((timestamps[i + 1] & 0xFF) << 16) + ((timestamps[i + 2] & 0xFF) << 8) + (timestamps[i + 3] & 0xFF);
+    }
+
     public int getOffset(int cx, int cz) {
         int i = ((cx & 31) << 2) + ((cz & 31) << 7);
         int offset = (((locations[i] & 0xFF) << 16) + ((locations[i + 1] & 0xFF) << 8) + ((locations[i + 2] & 0xFF)));
@@ -300,21 +358,67 @@ public class MCAFile {
         if (offset == 0) {
             return null;
         }
-        synchronized (raf) {
-            raf.seek(offset);
-            int size = raf.readInt();
-            int compression = raf.read();
+        byte[] fileData = this.fileData;
+        if (fileData != null && offset + 4 <= fileData.length) {
+            int size = ((fileData[offset] & 0xFF) << 24) + ((fileData[offset + 1] & 0xFF) << 16) + ((fileData[offset + 2] & 0xFF) << 8) + (fileData[offset + 3] & 0xFF);
+            int start = offset + 5;
+            if (size >= 0 && start + size <= fileData.length) {
+                return Arrays.copyOfRange(fileData, start, start + size);
+            }
+        }
+        RandomAccessFile current = getOpenFile();
+        synchronized (current) {
+            current.seek(offset);
+            int size = current.readInt();
+            int compression = current.read();
             byte[] data = new byte[size];
-            raf.readFully(data);
+            current.readFully(data);
             return data;
         }
     }
 
-    private NBTInputStream getChunkIS(int offset) throws IOException {
+    /**
+     * Write a chunk as it is stored in a region file (e.g. to undo an anvil operation)<br>
+     * - The chunk is written over its old sectors if it fits, otherwise it's appended to the file<br>
+     * - The region must not be used by a queue or the server meanwhile
+     *
+     * @param cx
+     * @param cz
+     * @param raw the length, compression type and data of the chunk, or null to remove the chunk
+     * @throws IOException
+     */
+    public void setChunkRaw(int cx, int cz, byte[] raw) throws IOException {
+        init();
+        synchronized (raf) {
+            fileData = null;
+            int pair = MathMan.pair((short) (cx & 31), (short) (cz & 31));
+            synchronized (chunks) {
+                chunks.remove(pair);
+            }
+            if (raw == null) {
+                writeHeader(raf, cx, cz, 0, 0, false);
+                return;
+            }
+            int sectors = (raw.length + RegionCompression.SECTOR_SIZE - 1) >> RegionCompression.SECTOR_BITS;
+            int offset = getOffset(cx, cz);
+            if (offset == 0 || getSize(cx, cz) < sectors << RegionCompression.SECTOR_BITS) {
+                offset = (int) Math.max(8192, (raf.length() + RegionCompression.SECTOR_SIZE - 1) & -RegionCompression.SECTOR_SIZE);
+            }
+            long end = offset + ((long) sectors << RegionCompression.SECTOR_BITS);
+            if (raf.length() < end) {
+                raf.setLength(end);
+            }
+            raf.seek(offset);
+            raf.write(raw);
+            writeHeader(raf, cx, cz, offset >> RegionCompression.SECTOR_BITS, sectors, true);
+        }
+    }
+
+    private NBTInputStream getChunkIS(int offset, Inflater inflater) throws IOException {
         try {
             byte[] data = getChunkCompressedBytes(offset);
             FastByteArrayInputStream bais = new FastByteArrayInputStream(data);
-            InflaterInputStream iis = new InflaterInputStream(bais, new Inflater(), 1);
+            InflaterInputStream iis = new InflaterInputStream(bais, inflater, 1);
             fieldBuf2.set(iis, byteStore2.get());
             BufferedInputStream bis = new BufferedInputStream(iis);
             NBTInputStream nis = new NBTInputStream(bis);
@@ -337,10 +441,10 @@ public class MCAFile {
 
     public void streamChunk(byte[] data, RunnableVal<NBTStreamer> withStream) throws IOException {
         if (data != null) {
+            Inflater inflater = RegionCompression.getInflater();
             try {
-                FastByteArrayInputStream nbtIn = new FastByteArrayInputStream(data);
                 FastByteArrayInputStream bais = new FastByteArrayInputStream(data);
-                InflaterInputStream iis = new InflaterInputStream(bais, new Inflater(), 1);
+                InflaterInputStream iis = new InflaterInputStream(bais, inflater, 1);
                 fieldBuf2.set(iis, byteStore2.get());
                 BufferedInputStream bis = new BufferedInputStream(iis);
                 NBTInputStream nis = new NBTInputStream(bis);
@@ -350,6 +454,8 @@ public class MCAFile {
                 streamer.readQuick();
             } catch (IllegalAccessException unlikely) {
                 unlikely.printStackTrace();
+            } finally {
+                RegionCompression.release(inflater);
             }
         }
     }
@@ -383,8 +489,7 @@ public class MCAFile {
             return null;
         }
         byte[] uncompressed = chunk.toBytes(byteStore3.get());
-        byte[] compressed = MainUtil.compress(uncompressed, byteStore2.get(), null);
-        return compressed;
+        return RegionCompression.compress(uncompressed, uncompressed.length);
     }
 
     private byte[] getChunkBytes(int cx, int cz) throws Exception {
@@ -424,27 +529,165 @@ public class MCAFile {
         raf.write((offsetMedium >> 8));
         raf.write((offsetMedium >> 0));
         raf.write(sizeByte);
-        raf.seek(i + 4096);
+        // Chunks which are only moved keep their timestamp
+        int time;
         if (offsetMedium == 0 && sizeByte == 0) {
-            raf.writeInt(0);
+            time = 0;
+        } else if (writeTime) {
+            time = (int) (System.currentTimeMillis() / 1000L);
         } else {
-            raf.writeInt((int) (System.currentTimeMillis() / 1000L));
+            return;
         }
+        timestamps[i] = (byte) (time >> 24);
+        timestamps[i + 1] = (byte) (time >> 16);
+        timestamps[i + 2] = (byte) (time >> 8);
+        timestamps[i + 3] = (byte) (time);
+        raf.seek(i + 4096);
+        raf.writeInt(time);
     }
 
-    public void close(ForkJoinPool pool) {
-        if (raf == null) return;
-        synchronized (raf) {
+    /**
+     * Write the region to a temporary file, then replace the region file with it<br>
+     * - Chunks are written sequentially in header order, so nothing is moved around inside the region file<br>
+     * - The temporary file is synced before it's renamed, so a crash leaves either the old or the new region<br>
+     *
+     * @param compressedMap the modified chunks which already exist
+     * @param append        the modified chunks which are new
+     */
+    private void writeAhead(Int2ObjectOpenHashMap<byte[]> compressedMap, Int2ObjectOpenHashMap<byte[]> append) throws IOException {
+        byte[] newLocations = new byte[4096];
+        byte[] newTimestamps = timestamps.clone();
+        byte[][] data = new byte[1024][];
+        int[] lengths = new int[1024];
+        int time = (int) (System.currentTimeMillis() / 1000L);
+        int sector = 2;
+        for (int i = 0; i < 4096; i += 4) {
+            int cx = (i >> 2) & 31;
+            int cz = i >> 7;
+            int pair = MathMan.pair((short) cx, (short) cz);
+            byte[] bytes = compressedMap.get(pair);
+            if (bytes == null) {
+                bytes = append.get(pair);
+            }
+            int length;
+            if (bytes != null) {
+                // Compressed data + compression type
+                length = bytes.length + 1;
+                newTimestamps[i] = (byte) (time >> 24);
+                newTimestamps[i + 1] = (byte) (time >> 16);
+                newTimestamps[i + 2] = (byte) (time >> 8);
+                newTimestamps[i + 3] = (byte) (time);
+            } else {
+                MCAChunk cached = getCachedChunk(cx, cz);
+                int offset = getOffset(cx, cz);
+                if (offset == 0 || (cached != null && cached.isDeleted())) {
+                    Arrays.fill(newTimestamps, i, i + 4, (byte) 0);
+                    continue;
+                }
+                // The stored length already includes the compression type
+                bytes = getChunkCompressedBytes(offset);
+                length = bytes.length;
+            }
+            int sectors = RegionCompression.getSectors(length - 1);
+            data[i >> 2] = bytes;
+            lengths[i >> 2] = length;
+            newLocations[i] = (byte) (sector >> 16);
+            newLocations[i + 1] = (byte) (sector >> 8);
+            newLocations[i + 2] = (byte) (sector);
+            newLocations[i + 3] = (byte) sectors;
+            sector += sectors;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            out.write(newLocations);
+            out.write(newTimestamps);
+            byte[] padding = new byte[RegionCompression.SECTOR_SIZE];
+            for (int i = 0; i < data.length; i++) {
+                byte[] bytes = data[i];
+                if (bytes == null) {
+                    continue;
+                }
+                int length = lengths[i];
+                out.writeInt(length);
+                out.write(RegionCompression.TYPE_ZLIB);
+                out.write(bytes, 0, length - 1);
+                int written = length + 4;
+                int remainder = -written & (RegionCompression.SECTOR_SIZE - 1);
+                out.write(padding, 0, remainder);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        // The old file is replaced, so it's opened again (by getOpenFile) if it's used after
+        raf.close();
+        raf = null;
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(file.getParentFile());
+        locations = newLocations;
+        timestamps = newTimestamps;
+    }
+
+    /**
+     * Sync a directory, so a rename inside it survives a crash<br>
+     * - Not every platform can open a directory (e.g. Windows), in which case this does nothing
+     */
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Update the block histogram index (if one is used) with the chunks that were written
+     */
+    private void updateHistogramIndex() {
+        File indexFile = BlockHistogramIndex.getFile(file.getParentFile(), X, Z);
+        if (!Settings.IMP.EXPERIMENTAL.ANVIL_HISTOGRAM_INDEX && !indexFile.exists()) {
+            return;
+        }
+        BlockHistogramIndex index = BlockHistogramIndex.load(indexFile);
+        for (MCAChunk chunk : getCachedChunks()) {
+            if (chunk.isDeleted()) {
+                index.remove(chunk.getX(), chunk.getZ());
+            } else if (chunk.isModified()) {
+                index.update(chunk, getTimestamp(chunk.getX(), chunk.getZ()));
+            }
+        }
+        index.save();
+    }
+
+    /**
+     * Write any changes, then close the file
+     *
+     * @param pool
+     * @return false if the changes could not be written
+     */
+    public boolean close(ForkJoinPool pool) {
+        RandomAccessFile current = raf;
+        if (current == null) return true;
+        synchronized (current) {
+            if (raf == null) {
+                return true;
+            }
+            boolean success = flush(pool);
+            // The write ahead closes the file itself
             if (raf != null) {
-                flush(pool);
                 try {
                     raf.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-                raf = null;
-                locations = null;
             }
+            raf = null;
+            locations = null;
+            fileData = null;
+            return success;
         }
     }
 
@@ -466,14 +709,20 @@ public class MCAFile {
     /**
      * Write the chunk to the file
      * @param pool
+     * @return false if the file (or a chunk) could not be written, the error is printed
      */
-    public void flush(ForkJoinPool pool) {
-        synchronized (raf) {
+    public boolean flush(ForkJoinPool pool) {
+        boolean success = true;
+        // If a chunk could not be compressed (it keeps its old data)
+        final AtomicBoolean failed = new AtomicBoolean();
+        synchronized (getOpenFile()) {
+            // Chunks are moved around in the file, so they're read from the file from now on
+            fileData = null;
             // If the file is marked as deleted, nothing is written
             if (isDeleted()) {
                 clear();
                 file.delete();
-                return;
+                return true;
             }
 
             boolean wait; // If the flush method needs to wait for the pool
@@ -516,6 +765,7 @@ public class MCAFile {
                                         map.put(pair, compressed);
                                     }
                                 } catch (Throwable e) {
+                                    failed.set(true);
                                     e.printStackTrace();
                                 }
                             }
@@ -525,7 +775,21 @@ public class MCAFile {
             }
 
             // If any changes were detected
-            if (modified) {
+            if (modified && Settings.IMP.EXPERIMENTAL.ANVIL_WRITE_AHEAD) {
+                pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                try {
+                    writeAhead(compressedMap, append);
+                    file.setLastModified(now);
+                } catch (Throwable e) {
+                    success = false;
+                    e.printStackTrace();
+                }
+                updateHistogramIndex();
+                if (wait) {
+                    pool.shutdown();
+                    pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+            } else if (modified) {
                 file.setLastModified(now);
 
                 // Load the offset data into the offset map
@@ -574,7 +838,7 @@ public class MCAFile {
                             // If the previous offset marks the current write position (start) then we only write the header
                             if (offset == start) {
                                 if (cached == null || !cached.isModified()) {
-                                    writeHeader(raf, cx, cz, start >> 12, size >> 12, true);
+                                    writeHeader(raf, cx, cz, start >> 12, size >> 12, false);
                                     start += size;
                                     written = start + size;
                                     continue;
@@ -626,7 +890,7 @@ public class MCAFile {
                         // Write the chunk + chunk header
                         writeSafe(raf, start, newBytes);
                         // Write the location data (beginning of file)
-                        writeHeader(raf, cx, cz, start >> 12, newSize, true);
+                        writeHeader(raf, cx, cz, start >> 12, newSize, compressedMap.containsKey(pair));
 
                         written = start + newBytes.length + 5;
                         start += newSize << 12;
@@ -654,8 +918,10 @@ public class MCAFile {
                     }
                     raf.close();
                 } catch (Throwable e) {
+                    success = false;
                     e.printStackTrace();
                 }
+                updateHistogramIndex();
                 if (wait) {
                     pool.shutdown();
                     pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
@@ -665,5 +931,6 @@ public class MCAFile {
         IterableThreadLocal.clean(byteStore1);
         IterableThreadLocal.clean(byteStore2);
         IterableThreadLocal.clean(byteStore3);
+        return success && !failed.get();
     }
 }
@@ -85,6 +85,36 @@ public class MCAFilter<T> extends IterableThreadLocal<T> {
     public void applyBlock(int x, int y, int z, BaseBlock block, T cache) {
     }
 
+    /**
+     * Whether this filter operates on whole sections<br>
+     * - If true, applySection is called for each section instead of applyBlock for each block<br>
+     * - applyBlock is still used for sections which are only partially inside a filtered region<br>
+     *
+     * @return
+     */
+    public boolean hasSectionFilter() {
+        return false;
+    }
+
+    /**
+     * Make changes to a 16x16x16 section using the raw arrays<br>
+     * - The section coordinates are chunk.getX(), layer, chunk.getZ()<br>
+     * - ids[index] is the block id, where index = (y << 8) | (z << 4) | x (local coordinates)<br>
+     * - data holds the nibbles for the same index (see MCAChunk.getNibble / setNibble)<br>
+     * - Only called if hasSectionFilter() returns true<br>
+     * - Note: Performance is critical here<br>
+     *
+     * @param chunk
+     * @param layer
+     * @param ids
+     * @param data
+     * @param cache
+     * @return false if the section was left untouched, true if it was modified
+     */
+    public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, T cache) {
+        return false;
+    }
+
     /**
      * Do something with the MCAChunk after block filtering<br>
      *
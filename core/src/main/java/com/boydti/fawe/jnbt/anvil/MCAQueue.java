@@ -1,12 +1,14 @@
 package com.boydti.fawe.jnbt.anvil;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.example.CharFaweChunk;
 import com.boydti.fawe.example.NMSMappedFaweQueue;
 import com.boydti.fawe.example.NullFaweChunk;
 import com.boydti.fawe.jnbt.anvil.filters.DelegateMCAFilter;
 import com.boydti.fawe.jnbt.anvil.history.IAnvilHistory;
 import com.boydti.fawe.jnbt.anvil.history.NullAnvilHistory;
+import com.boydti.fawe.jnbt.anvil.history.RegionDelta;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FawePlayer;
 import com.boydti.fawe.object.FaweQueue;
@@ -18,6 +20,7 @@ import com.boydti.fawe.util.MainUtil;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.world.biome.BaseBiome;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -25,13 +28,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk, FaweChunk> {
 
@@ -39,6 +46,11 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
     private NMSMappedFaweQueue parentNMS;
     private final boolean hasSky;
     private final File saveFolder;
+
+    // Statistics of the last filterWorld (updated by the thread which traverses the files)
+    private volatile long filterTime;
+    private volatile long ioWaitTime;
+    private volatile int filteredFiles;
     private final ThreadLocal<MutableMCABackedBaseBlock> blockStore = new ThreadLocal<MutableMCABackedBaseBlock>() {
         @Override
         protected MutableMCABackedBaseBlock initialValue() {
@@ -70,6 +82,12 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
         this.hasSky = hasSky;
     }
 
+    @Override
+    protected boolean canShareReads() {
+        // The region files aren't the loaded chunks
+        return false;
+    }
+
     @Override
     public FaweChunk loadChunk(FaweQueue faweQueue, int x, int z, boolean generate) {
         return getFaweChunk(x, z);
@@ -298,6 +316,8 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                 setMCA(original.getX(), original.getZ(), region, () -> task.addFileChange(originalFile), true, true);
                 return;
             } else if (copyFile.exists()) {
+                // The chunks which are rewritten, so the history can record only those
+                int[] changed = getChangedChunks(copy);
                 // If the task is the normal delete task, we can do a normal file move
                 copy.close(pool);
                 if (task.getClass() == NullAnvilHistory.class) {
@@ -307,8 +327,12 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                     } catch (IOException ignore) {}
                 }
                 setMCA(original.getX(), original.getZ(), region, () -> {
-                    task.addFileChange(originalFile);
-                    if (!copyFile.renameTo(originalFile)) {
+                    if (!task.addChunkChanges(originalFile, changed)) {
+                        task.addFileChange(originalFile);
+                    }
+                    try {
+                        Files.move(copyFile.toPath(), originalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException e) {
                         Fawe.debug("Failed to copy (2)");
                     }
                 }, true, true);
@@ -318,6 +342,16 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
         copyFile.delete();
     }
 
+    private int[] getChangedChunks(MCAFile file) {
+        IntArrayList changed = new IntArrayList();
+        for (MCAChunk chunk : file.getCachedChunks()) {
+            if (chunk.isModified() || chunk.isDeleted()) {
+                changed.add(RegionDelta.getIndex(chunk.getX(), chunk.getZ()));
+            }
+        }
+        return changed.toIntArray();
+    }
+
     public <G, T extends MCAFilter<G>> T filterCopy(final T filter, RegionWrapper region) {
         return filterCopy(filter, region, new NullAnvilHistory());
     }
@@ -416,11 +450,18 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                     tz = Math.min(tz, region.maxZ);
                     int minLayer = region.minY >> 4;
                     int maxLayer = region.maxY >> 4;
+                    boolean fullColumns = filter.hasSectionFilter() && tx - bx == 15 && tz - bz == 15;
                     for (int layer = minLayer; layer <= maxLayer; layer++) {
                         if (chunk.doesSectionExist(layer)) {
-                            mutableBlock.setArrays(layer);
                             int yStart = layer << 4;
                             int yEnd = yStart + 15;
+                            if (fullColumns && yStart >= region.minY && yEnd <= region.maxY) {
+                                if (filter.applySection(chunk, layer, chunk.ids[layer], chunk.data[layer], value)) {
+                                    chunk.setModified();
+                                }
+                                continue;
+                            }
+                            mutableBlock.setArrays(layer);
                             yStart = Math.max(yStart, region.minY);
                             yEnd = Math.min(yEnd, region.maxY);
                             for (int y = yStart, y0 = (yStart & 15); y <= yEnd; y++, y0++) {
@@ -466,7 +507,7 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                         }
                     }
                 }
-            });
+            }, null);
         } else {
             this.filterWorld(delegate);
         }
@@ -486,13 +527,26 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
         return filter;
     }
 
-    private <G, T extends MCAFilter<G>> RunnableVal2<Path, BasicFileAttributes> filterFunction(final T filter, ForkJoinPool pool) {
+    private static boolean isRegionFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".mca") || name.endsWith(".mcapm");
+    }
+
+    /**
+     * @param failed set if a region could not be filtered or written (it's not recorded as finished in the journal)
+     */
+    private <G, T extends MCAFilter<G>> RunnableVal2<Path, BasicFileAttributes> filterFunction(final T filter, ForkJoinPool pool, @Nullable RegionPrefetcher prefetcher, @Nullable AnvilJournal journal, final AtomicBoolean failed) {
         return new RunnableVal2<Path, BasicFileAttributes>() {
             @Override
             public void run(Path path, BasicFileAttributes attr) {
+                if (!isRegionFile(path)) {
+                    return;
+                }
+                long start = System.nanoTime();
                 try {
+                    byte[] fileData = prefetcher != null ? prefetcher.next(path) : null;
                     String name = path.getFileName().toString();
-                    if (!name.endsWith(".mca") && !name.endsWith(".mcapm")) {
+                    if (journal != null && journal.isFinished(name)) {
                         return;
                     }
                     if (!filter.appliesFile(path, attr)) {
@@ -504,6 +558,7 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                     if (filter.appliesFile(mcaX, mcaZ)) {
                         File file = path.toFile();
                         final MCAFile original = new MCAFile(MCAQueue.this, file);
+                        original.setFileData(fileData);
                         final MCAFile finalFile = filter.applyFile(original);
                         if (finalFile != null && !finalFile.isDeleted()) {
                             finalFile.init();
@@ -530,8 +585,15 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                                                             mutableBlock.setChunk(chunk);
                                                             int bx = cx << 4;
                                                             int bz = cz << 4;
+                                                            boolean sections = filter.hasSectionFilter();
                                                             for (int layer = 0; layer < chunk.ids.length; layer++) {
                                                                 if (chunk.doesSectionExist(layer)) {
+                                                                    if (sections) {
+                                                                        if (filter.applySection(chunk, layer, chunk.ids[layer], chunk.data[layer], value)) {
+                                                                            chunk.setModified();
+                                                                        }
+                                                                        continue;
+                                                                    }
                                                                     mutableBlock.setArrays(layer);
                                                                     int yStart = layer << 4;
                                                                     int index = 0;
@@ -564,50 +626,116 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                             pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
                             filter.finishFile(finalFile, filter.get());
                         } else {
-                            if (original.isDeleted()) {
-                                try {
-                                    original.close(pool);
-                                    file.delete();
-                                } catch (Throwable ignore) {
-                                    ignore.printStackTrace();
-                                }
-                            }
                             pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
                         }
-                        original.close(pool);
+                        if (!original.close(pool)) {
+                            failed.set(true);
+                            Fawe.debug("Failed to write " + file + ", it will be filtered again if the job is resumed");
+                            return;
+                        }
                         if (original.isDeleted()) {
                             file.delete();
                         }
+                        if (journal != null) {
+                            journal.finish(name);
+                        }
                     }
-                } catch (Throwable ignore) {
-                    ignore.printStackTrace();
+                } catch (Throwable e) {
+                    failed.set(true);
+                    e.printStackTrace();
+                } finally {
+                    filterTime += System.nanoTime() - start;
+                    if (prefetcher != null) {
+                        ioWaitTime = prefetcher.getWaitTime();
+                    }
+                    filteredFiles++;
                 }
             }
         };
     }
 
-    private <G, T extends MCAFilter<G>> T filterWorld(final T filter, RunnableVal2<Path, RunnableVal2<Path, BasicFileAttributes>> traverser) {
+    private <G, T extends MCAFilter<G>> T filterWorld(final T filter, RunnableVal2<Path, RunnableVal2<Path, BasicFileAttributes>> traverser, @Nullable String job) {
         File folder = getSaveFolder();
+        AnvilJournal journal = job != null && Settings.IMP.EXPERIMENTAL.ANVIL_WRITE_AHEAD ? AnvilJournal.open(folder, job) : null;
+        final AtomicBoolean failed = new AtomicBoolean();
         final ForkJoinPool pool = new ForkJoinPool();
         filter.withPool(pool, this);
-        RunnableVal2<Path, BasicFileAttributes> task = filterFunction(filter, pool);
-        traverser.run(folder.toPath(), task);
+        filterTime = 0;
+        ioWaitTime = 0;
+        filteredFiles = 0;
+        int prefetch = Settings.IMP.EXPERIMENTAL.ANVIL_PREFETCH_REGIONS;
+        if (prefetch > 0) {
+            // The files are listed first, so the next ones can be read while the current one is filtered
+            final List<Path> paths = new ArrayList<>();
+            final List<BasicFileAttributes> attributes = new ArrayList<>();
+            traverser.run(folder.toPath(), new RunnableVal2<Path, BasicFileAttributes>() {
+                @Override
+                public void run(Path path, BasicFileAttributes attr) {
+                    if (isRegionFile(path)) {
+                        paths.add(path);
+                        attributes.add(attr);
+                    }
+                }
+            });
+            long[] sizes = new long[paths.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = attributes.get(i).size();
+            }
+            RegionPrefetcher prefetcher = new RegionPrefetcher(paths, sizes, prefetch, Runtime.getRuntime().maxMemory() >> 3);
+            try {
+                RunnableVal2<Path, BasicFileAttributes> task = filterFunction(filter, pool, prefetcher, journal, failed);
+                for (int i = 0; i < paths.size(); i++) {
+                    task.run(paths.get(i), attributes.get(i));
+                }
+            } finally {
+                prefetcher.close();
+            }
+        } else {
+            RunnableVal2<Path, BasicFileAttributes> task = filterFunction(filter, pool, null, journal, failed);
+            traverser.run(folder.toPath(), task);
+        }
         pool.shutdown();
         try {
             pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         } catch (Throwable e) {
             e.printStackTrace();
         }
+        if (journal != null) {
+            // Kept if a region failed, so resuming the job retries it
+            journal.close(!failed.get());
+        }
         return filter;
     }
 
+    /**
+     * @return the number of region files filtered by the last (or current) filterWorld, the time spent filtering them,
+     * and how much of that was spent waiting for files to be read ahead
+     */
+    public String getFilterStatistics() {
+        long filterMs = filterTime / 1000000;
+        long waitMs = ioWaitTime / 1000000;
+        return filteredFiles + " regions, cpu " + MainUtil.secToTime(Math.max(0, filterMs - waitMs) / 1000) + ", io wait " + MainUtil.secToTime(waitMs / 1000);
+    }
+
     public <G, T extends MCAFilter<G>> T filterWorld(final T filter) {
+        return filterWorld(filter, (String) null);
+    }
+
+    /**
+     * Filter the world, recording each region file when it's done (if write-ahead is enabled)<br>
+     * - If the same job was interrupted, the regions it finished are skipped
+     *
+     * @param filter
+     * @param job    a description of the job, which changes if the filter would do something different
+     * @return
+     */
+    public <G, T extends MCAFilter<G>> T filterWorld(final T filter, @Nullable String job) {
         return filterWorld(filter, new RunnableVal2<Path, RunnableVal2<Path, BasicFileAttributes>>() {
             @Override
             public void run(Path value1, RunnableVal2<Path, BasicFileAttributes> value2) {
                 MainUtil.traverse(value1, value2);
             }
-        });
+        }, job);
     }
 
     public <G, T extends MCAFilter<G>> T filterWorld(final T filter, Comparator<File> comparator) {
@@ -616,7 +744,7 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
             public void run(Path value1, RunnableVal2<Path, BasicFileAttributes> value2) {
                 MainUtil.forEachFile(value1, value2, comparator);
             }
-        });
+        }, null);
     }
 
     @Override
@@ -1,13 +1,16 @@
 package com.boydti.fawe.jnbt.anvil;
 
 import com.boydti.fawe.object.collection.IterableThreadLocal;
-import com.boydti.fawe.object.io.BufferedRandomAccessFile;
-import com.boydti.fawe.util.MainUtil;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.Deflater;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class MCAWriter {
     private File folder;
@@ -16,6 +19,10 @@ public abstract class MCAWriter {
     private final int area;
     private int OX, OZ;
 
+    private final LongAdder writtenChunks = new LongAdder();
+    private final LongAdder writtenBytes = new LongAdder();
+    private long writeTime;
+
 
     public MCAWriter(int width, int length, File regionFolder) {
         this.folder = regionFolder;
@@ -74,6 +81,9 @@ public abstract class MCAWriter {
             folder.mkdirs();
         }
         final ForkJoinPool pool = new ForkJoinPool();
+        long startTime = System.currentTimeMillis();
+        writtenChunks.reset();
+        writtenBytes.reset();
         int bcx = 0;
         int bcz = 0;
         int tcx = (width - 1) >> 4;
@@ -92,20 +102,6 @@ public abstract class MCAWriter {
                 return new byte[500000];
             }
         };
-        final ThreadLocal<byte[]> byteStore2 = new ThreadLocal<byte[]>() {
-            @Override
-            protected byte[] initialValue() {
-                return new byte[500000];
-            }
-        };
-        final ThreadLocal<Deflater> deflateStore = new ThreadLocal<Deflater>() {
-            @Override
-            protected Deflater initialValue() {
-                Deflater deflater = new Deflater(Deflater.BEST_SPEED, false);
-                return deflater;
-            }
-        };
-        byte[] fileBuf = new byte[1 << 16];
         int mcaXMin = 0;
         int mcaZMin = 0;
         int mcaXMax = mcaXMin + ((width - 1) >> 9);
@@ -113,14 +109,11 @@ public abstract class MCAWriter {
 
         for (int mcaZ = mcaXMin; mcaZ <= mcaZMax; mcaZ++) {
             for (int mcaX = mcaXMin; mcaX <= mcaXMax; mcaX++) {
-                final int fmcaX = mcaX;
-                final int fmcaZ = mcaZ;
                 File file = new File(folder, "r." + (mcaX + (getOffsetX() >> 9)) + "." + (mcaZ + (getOffsetZ() >> 9)) + ".mca");
                 if (!file.exists()) {
                     file.createNewFile();
                 }
-                final BufferedRandomAccessFile raf = new BufferedRandomAccessFile(file, "rw", fileBuf);
-                final byte[] header = new byte[4096];
+                // Each chunk is compressed into its sectors (as stored in the file)
                 final byte[][] compressed = new byte[1024][];
                 int bx = mcaX << 9;
                 int bz = mcaZ << 9;
@@ -149,9 +142,10 @@ public abstract class MCAWriter {
                                             chunk.setLoc(null, fcx + (getOffsetX() >> 4), fcz + (getOffsetZ() >> 4));
                                             // Compress
                                             byte[] bytes = chunk.toBytes(byteStore1.get());
-                                            byte[] compressedBytes = MainUtil.compress(bytes, byteStore2.get(), deflateStore.get());
-                                            int blocks = (compressed.length + 4095) >> 12;
-                                            compressed[((fcx & 31)) + ((fcz & 31) << 5)] = compressedBytes.clone();
+                                            byte[] sectors = RegionCompression.compressSectors(bytes, bytes.length);
+                                            compressed[((fcx & 31)) + ((fcz & 31) << 5)] = sectors;
+                                            writtenChunks.increment();
+                                            writtenBytes.add(sectors.length);
                                         }
                                     } catch (Throwable e) {
                                         e.printStackTrace();
@@ -166,47 +160,9 @@ public abstract class MCAWriter {
                     @Override
                     public void run() {
                         try {
-                            int totalLength = 8192;
-                            for (int i = 0; i < compressed.length; i++) {
-                                byte[] compressedBytes = compressed[i];
-                                if (compressedBytes != null) {
-                                    int blocks = ((4095 + compressedBytes.length + 5) / 4096) * 4096;
-                                    totalLength += blocks;
-                                }
-                            }
-                            raf.setLength(totalLength);
-                            int offset = 8192;
-                            for (int i = 0; i < compressed.length; i++) {
-                                byte[] compressedBytes = compressed[i];
-                                if (compressedBytes != null) {
-                                    // Set header
-                                    int index = i << 2;
-                                    int offsetMedium = offset >> 12;
-                                    int blocks = ((4095 + compressedBytes.length + 5) / 4096);
-                                    header[index] = (byte) (offsetMedium >> 16);
-                                    header[index + 1] = (byte) ((offsetMedium >> 8));
-                                    header[index + 2] = (byte) ((offsetMedium >> 0));
-                                    header[index + 3] = (byte) (blocks);
-                                    // Write bytes
-                                    int cx = (fmcaX << 5) + (i & 31);
-                                    int cz = (fmcaZ << 5) + (i >> 5);
-                                    raf.seek(offset);
-                                    raf.writeInt(compressedBytes.length + 1);
-                                    raf.write(2);
-                                    raf.write(compressedBytes);
-                                    offset += blocks * 4096;
-                                }
-                            }
-                            raf.seek(0);
-                            raf.write(header);
+                            writeRegion(file, compressed);
                         } catch (IOException e) {
                             e.printStackTrace();
-                        } finally {
-                            try {
-                                raf.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
                         }
                     }
                 });
@@ -215,7 +171,48 @@ public abstract class MCAWriter {
         pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         pool.shutdown();
         IterableThreadLocal.clean(byteStore1);
-        IterableThreadLocal.clean(byteStore2);
-        IterableThreadLocal.clean(deflateStore);
+        writeTime = System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Write a region file with one gathering write
+     *
+     * @param file
+     * @param compressed the sectors of each chunk (or null)
+     * @throws IOException
+     */
+    private void writeRegion(File file, byte[][] compressed) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RegionCompression.SECTOR_SIZE << 1);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        buffers.add(header);
+        int offset = 2;
+        for (int i = 0; i < compressed.length; i++) {
+            byte[] sectors = compressed[i];
+            if (sectors != null) {
+                int blocks = sectors.length >> RegionCompression.SECTOR_BITS;
+                header.putInt(i << 2, (offset << 8) + blocks);
+                buffers.add(ByteBuffer.wrap(sectors));
+                offset += blocks;
+            }
+        }
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[buffers.size()]);
+        long totalLength = (long) offset << RegionCompression.SECTOR_BITS;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(totalLength);
+            FileChannel channel = raf.getChannel();
+            long written = 0;
+            while (written < totalLength) {
+                written += channel.write(array);
+            }
+        }
+    }
+
+    /**
+     * @return the number of chunks and MB written by the last generate, and the chunks per second
+     */
+    public String getThroughput() {
+        long chunks = writtenChunks.longValue();
+        long millis = Math.max(1, writeTime);
+        return chunks + " chunks, " + (writtenBytes.longValue() >> 20) + "MB in " + millis + "ms (" + (chunks * 1000 / millis) + " chunks/s)";
     }
 }
@@ -0,0 +1,152 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Zlib compression for region files<br>
+ * - Deflaters and Inflaters are pooled, as each one holds native memory which is only freed by end() (or the finalizer)<br>
+ * - Chunks are compressed into a reusable per thread buffer, so the only copy is the returned array<br>
+ * - {@link #compressSectors(byte[], int)} returns the chunk as it is stored in the region file (length, type, data),
+ * padded to a multiple of the sector size, so a region can be written with one gathering write<br>
+ */
+public final class RegionCompression {
+    public static final int SECTOR_BITS = 12;
+    public static final int SECTOR_SIZE = 1 << SECTOR_BITS;
+    // The length (int) and compression type (byte) before the chunk data
+    public static final int CHUNK_HEADER_SIZE = 5;
+    public static final byte TYPE_ZLIB = 2;
+
+    private static final int MAX_POOLED = 64;
+
+    private static final ArrayDeque<Deflater> DEFLATERS = new ArrayDeque<>();
+    private static final ArrayDeque<Inflater> INFLATERS = new ArrayDeque<>();
+
+    private static final ThreadLocal<byte[]> bufferStore = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SECTOR_SIZE << 4];
+        }
+    };
+
+    private RegionCompression() {
+    }
+
+    /**
+     * @return a Deflater (best speed, zlib header) which should be released after use
+     */
+    public static Deflater getDeflater() {
+        synchronized (DEFLATERS) {
+            Deflater deflater = DEFLATERS.poll();
+            if (deflater != null) {
+                return deflater;
+            }
+        }
+        return new Deflater(Deflater.BEST_SPEED, false);
+    }
+
+    public static void release(Deflater deflater) {
+        deflater.reset();
+        synchronized (DEFLATERS) {
+            if (DEFLATERS.size() < MAX_POOLED) {
+                DEFLATERS.add(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * @return an Inflater (zlib header) which should be released after use
+     */
+    public static Inflater getInflater() {
+        synchronized (INFLATERS) {
+            Inflater inflater = INFLATERS.poll();
+            if (inflater != null) {
+                return inflater;
+            }
+        }
+        return new Inflater(false);
+    }
+
+    public static void release(Inflater inflater) {
+        inflater.reset();
+        synchronized (INFLATERS) {
+            if (INFLATERS.size() < MAX_POOLED) {
+                INFLATERS.add(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * @param length
+     * @return the number of sectors needed to store a chunk with this compressed length
+     */
+    public static int getSectors(int length) {
+        return (length + CHUNK_HEADER_SIZE + SECTOR_SIZE - 1) >> SECTOR_BITS;
+    }
+
+    /**
+     * @param input
+     * @param length the number of bytes of the input to compress
+     * @return the zlib compressed bytes
+     */
+    public static byte[] compress(byte[] input, int length) {
+        int end = deflate(input, length, 0);
+        return Arrays.copyOf(bufferStore.get(), end);
+    }
+
+    /**
+     * Compress a chunk into the format stored in the region file:<br>
+     * - int: compressed length + 1<br>
+     * - byte: compression type (2 = zlib)<br>
+     * - compressed bytes, then zero padding to a multiple of {@link #SECTOR_SIZE}<br>
+     *
+     * @param input
+     * @param length the number of bytes of the input to compress
+     * @return the padded sectors
+     */
+    public static byte[] compressSectors(byte[] input, int length) {
+        int end = deflate(input, length, CHUNK_HEADER_SIZE);
+        byte[] buffer = bufferStore.get();
+        int compressedLength = end - CHUNK_HEADER_SIZE;
+        byte[] sectors = new byte[getSectors(compressedLength) << SECTOR_BITS];
+        System.arraycopy(buffer, CHUNK_HEADER_SIZE, sectors, CHUNK_HEADER_SIZE, compressedLength);
+        int value = compressedLength + 1;
+        sectors[0] = (byte) (value >> 24);
+        sectors[1] = (byte) (value >> 16);
+        sectors[2] = (byte) (value >> 8);
+        sectors[3] = (byte) (value);
+        sectors[4] = TYPE_ZLIB;
+        return sectors;
+    }
+
+    /**
+     * Compress into the buffer of this thread (which may be replaced with a larger one)
+     *
+     * @return the end of the compressed bytes in the buffer
+     */
+    private static int deflate(byte[] input, int length, int offset) {
+        Deflater deflater = getDeflater();
+        try {
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+            byte[] buffer = bufferStore.get();
+            int index = offset;
+            while (!deflater.finished()) {
+                if (index == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                    bufferStore.set(buffer);
+                }
+                index += deflater.deflate(buffer, index, buffer.length - index);
+            }
+            return index;
+        } finally {
+            release(deflater);
+        }
+    }
+}
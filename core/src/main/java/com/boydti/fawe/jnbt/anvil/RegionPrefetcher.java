@@ -0,0 +1,120 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads region files ahead of the one being filtered, on background threads<br>
+ * - Files must be requested in the order they were given<br>
+ * - At most maxFiles files (and maxBytes) are read ahead. A file larger than maxBytes isn't read ahead<br>
+ * - The time spent waiting for a file which hasn't been read yet is recorded as the I/O wait
+ */
+public class RegionPrefetcher implements Closeable {
+    private static final int IO_THREADS = 2;
+
+    private final Path[] files;
+    private final long[] sizes;
+    private final Future<byte[]>[] reads;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final ExecutorService executor;
+
+    private int index;
+    private int next;
+    private long queuedBytes;
+    private long waitNanos;
+
+    /**
+     * @param files    the files, in the order they will be requested
+     * @param sizes    the size of each file
+     * @param maxFiles the maximum number of files to read ahead
+     * @param maxBytes the maximum number of bytes to read ahead
+     */
+    public RegionPrefetcher(List<Path> files, long[] sizes, int maxFiles, long maxBytes) {
+        this.files = files.toArray(new Path[files.size()]);
+        this.sizes = sizes;
+        this.reads = new Future[this.files.length];
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.executor = Executors.newFixedThreadPool(Math.min(IO_THREADS, maxFiles), r -> {
+            Thread thread = new Thread(r, "FAWE region prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fill();
+    }
+
+    private void fill() {
+        while (next < files.length && next - index < maxFiles) {
+            long size = sizes[next];
+            if (size > maxBytes) {
+                next++;
+                continue;
+            }
+            if (queuedBytes + size > maxBytes) {
+                break;
+            }
+            final Path path = files[next];
+            queuedBytes += size;
+            reads[next++] = executor.submit(() -> Files.readAllBytes(path));
+        }
+    }
+
+    /**
+     * Get the contents of the next file
+     *
+     * @param path the file, which must be the next one
+     * @return the contents, or null if the file wasn't read ahead (or couldn't be read)
+     */
+    public byte[] next(Path path) {
+        if (index >= files.length || !files[index].equals(path)) {
+            return null;
+        }
+        int i = index++;
+        Future<byte[]> read = reads[i];
+        reads[i] = null;
+        byte[] data = null;
+        if (read != null) {
+            long start = System.nanoTime();
+            try {
+                data = read.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // The file will be read by the MCAFile instead
+                if (!(e.getCause() instanceof IOException)) {
+                    e.printStackTrace();
+                }
+            }
+            waitNanos += System.nanoTime() - start;
+            queuedBytes -= sizes[i];
+        }
+        fill();
+        return data;
+    }
+
+    /**
+     * @return the time spent waiting for files to be read (nanoseconds)
+     */
+    public long getWaitTime() {
+        return waitNanos;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
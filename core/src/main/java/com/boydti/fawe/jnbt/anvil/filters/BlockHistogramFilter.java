@@ -0,0 +1,115 @@
+package com.boydti.fawe.jnbt.anvil.filters;
+
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.jnbt.anvil.BlockHistogramIndex;
+import com.boydti.fawe.jnbt.anvil.MCAChunk;
+import com.boydti.fawe.jnbt.anvil.MCAFile;
+import com.boydti.fawe.jnbt.anvil.MCAFilter;
+import com.boydti.fawe.object.RegionWrapper;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import javax.annotation.Nullable;
+
+/**
+ * Count every block (by combined id) in a world or region<br>
+ * - Uses the BlockHistogramIndex for chunks which haven't changed since they were last counted<br>
+ * - Chunks which are only partially inside the region are always scanned<br>
+ */
+public class BlockHistogramFilter extends MCAFilter<long[]> {
+    private final RegionWrapper region;
+    private final boolean useIndex;
+
+    private MCAFile file;
+    private BlockHistogramIndex index;
+
+    public BlockHistogramFilter(@Nullable RegionWrapper region) {
+        this.region = region;
+        this.useIndex = Settings.IMP.EXPERIMENTAL.ANVIL_HISTOGRAM_INDEX;
+    }
+
+    private boolean isFullChunk(int cx, int cz) {
+        if (region == null) {
+            return true;
+        }
+        int bx = cx << 4;
+        int bz = cz << 4;
+        return region.minX <= bx && region.maxX >= bx + 15 && region.minZ <= bz && region.maxZ >= bz + 15 && region.minY <= 0 && region.maxY >= 255;
+    }
+
+    @Override
+    public MCAFile applyFile(MCAFile file) {
+        this.file = file;
+        if (useIndex) {
+            index = BlockHistogramIndex.load(BlockHistogramIndex.getFile(file.getFile().getParentFile(), file.getX(), file.getZ()));
+        }
+        return file;
+    }
+
+    @Override
+    public boolean appliesChunk(int cx, int cz) {
+        // Unchanged chunks are counted from the index, without being read
+        return index == null || !isFullChunk(cx, cz) || !index.addTo(cx, cz, file.getTimestamp(cx, cz), get());
+    }
+
+    @Override
+    public MCAChunk applyChunk(MCAChunk chunk, long[] histogram) {
+        if (!isFullChunk(chunk.getX(), chunk.getZ())) {
+            return chunk;
+        }
+        if (index != null) {
+            index.update(chunk, file.getTimestamp(chunk.getX(), chunk.getZ()));
+        }
+        for (int layer = 0; layer < chunk.ids.length; layer++) {
+            byte[] ids = chunk.ids[layer];
+            if (ids != null) {
+                applySection(chunk, layer, ids, chunk.data[layer], histogram);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasSectionFilter() {
+        return true;
+    }
+
+    @Override
+    public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, long[] histogram) {
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i] & 0xFF;
+            histogram[FaweCache.hasData(id) ? (id << 4) + chunk.getNibble(i, data) : id << 4]++;
+        }
+        return false;
+    }
+
+    @Override
+    public void applyBlock(int x, int y, int z, BaseBlock block, long[] histogram) {
+        histogram[block.getCombined()]++;
+    }
+
+    @Override
+    public void finishFile(MCAFile file, long[] cache) {
+        if (index != null) {
+            index.save();
+            index = null;
+        }
+    }
+
+    @Override
+    public long[] init() {
+        return new long[Character.MAX_VALUE + 1];
+    }
+
+    /**
+     * @return the number of blocks for each combined id
+     */
+    public long[] getCounts() {
+        long[] total = new long[Character.MAX_VALUE + 1];
+        for (long[] value : getAll()) {
+            for (int i = 0; i < value.length; i++) {
+                total[i] += value[i];
+            }
+        }
+        return total;
+    }
+}
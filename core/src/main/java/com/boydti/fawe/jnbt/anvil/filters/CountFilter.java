@@ -25,27 +25,40 @@ public class CountFilter extends MCAFilterCounter {
     }
 
     @Override
-    public MCAChunk applyChunk(MCAChunk chunk, MutableLong count) {
-        for (int layer = 0; layer < chunk.ids.length; layer++) {
-            byte[] ids = chunk.ids[layer];
-            if (ids == null) {
+    public boolean hasSectionFilter() {
+        return true;
+    }
+
+    @Override
+    public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] datas, MutableLong count) {
+        int total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i] & 0xFF;
+            if (!allowedId[id]) {
                 continue;
             }
-            byte[] datas = chunk.data[layer];
-            for (int i = 0; i < ids.length; i++) {
-                int id = ids[i] & 0xFF;
-                if (!allowedId[id]) {
-                    continue;
-                }
-                int combined = (id) << 4;
-                if (FaweCache.hasData(id)) {
-                    combined += chunk.getNibble(i, datas);
-                }
-                if (allowed[combined]) {
-                    count.increment();
-                }
+            int combined = (id) << 4;
+            if (FaweCache.hasData(id)) {
+                combined += chunk.getNibble(i, datas);
+            }
+            if (allowed[combined]) {
+                total++;
             }
         }
-        return null;
+        count.add(total);
+        return false;
+    }
+
+    @Override
+    public void applyBlock(int x, int y, int z, BaseBlock block, MutableLong count) {
+        int id = block.getId();
+        if (allowedId[id] && allowed[FaweCache.getCombined(id, block.getData())]) {
+            count.increment();
+        }
+    }
+
+    @Override
+    public void finishChunk(MCAChunk chunk, MutableLong count) {
+        // Nothing is modified, so only the matched blocks are counted
     }
 }
@@ -23,17 +23,31 @@ public class CountIdFilter extends MCAFilterCounter {
     }
 
     @Override
-    public MCAChunk applyChunk(MCAChunk chunk, MutableLong count) {
-        for (int layer = 0; layer < chunk.ids.length; layer++) {
-            byte[] ids = chunk.ids[layer];
-            if (ids != null) {
-                for (byte i : ids) {
-                    if (allowedId[i & 0xFF]) {
-                        count.increment();
-                    }
-                }
+    public boolean hasSectionFilter() {
+        return true;
+    }
+
+    @Override
+    public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, MutableLong count) {
+        int total = 0;
+        for (byte i : ids) {
+            if (allowedId[i & 0xFF]) {
+                total++;
             }
         }
-        return null;
+        count.add(total);
+        return false;
+    }
+
+    @Override
+    public void applyBlock(int x, int y, int z, BaseBlock block, MutableLong count) {
+        if (allowedId[block.getId()]) {
+            count.increment();
+        }
+    }
+
+    @Override
+    public void finishChunk(MCAChunk chunk, MutableLong count) {
+        // Nothing is modified, so only the matched blocks are counted
     }
 }
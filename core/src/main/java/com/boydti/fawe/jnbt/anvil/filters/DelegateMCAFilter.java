@@ -49,6 +49,16 @@ public class DelegateMCAFilter<T> extends MCAFilter<T> {
         filter.applyBlock(x, y, z, block, cache);
     }
 
+    @Override
+    public boolean hasSectionFilter() {
+        return filter.hasSectionFilter();
+    }
+
+    @Override
+    public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, T cache) {
+        return filter.applySection(chunk, layer, ids, data, cache);
+    }
+
     @Override
     public void finishChunk(MCAChunk chunk, T cache) {
         filter.finishChunk(chunk, cache);
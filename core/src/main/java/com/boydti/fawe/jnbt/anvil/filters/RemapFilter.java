@@ -29,14 +29,34 @@ public class RemapFilter extends MCAFilterCounter {
     private BlockVectorSet pLocs = new BlockVectorSet();
     private int dimension;
 
+    // Blocks which need their tile, light or position, so they use applyBlock rather than the raw arrays
+    private final boolean[] special = new boolean[256];
+    private final ThreadLocal<MutableMCABackedBaseBlock> blockStore = new ThreadLocal<MutableMCABackedBaseBlock>() {
+        @Override
+        protected MutableMCABackedBaseBlock initialValue() {
+            return new MutableMCABackedBaseBlock();
+        }
+    };
+
     public RemapFilter(ClipboardRemapper remapper) {
         this.remapper = remapper;
         this.from = null;
+        initSpecial();
     }
 
     public RemapFilter(ClipboardRemapper.RemapPlatform from, ClipboardRemapper.RemapPlatform to) {
         this.remapper = new ClipboardRemapper(from, to);
         this.from = from;
+        initSpecial();
+    }
+
+    private void initSpecial() {
+        special[218] = true;
+        if (from == ClipboardRemapper.RemapPlatform.PC) {
+            for (int id : new int[]{90, 29, 33, 44, 182, 158, 53, 67, 108, 109, 114, 128, 134, 135, 136, 156, 163, 164, 180, 203, 198}) {
+                special[id] = true;
+            }
+        }
     }
 
     @Override
@@ -52,6 +72,51 @@ public class RemapFilter extends MCAFilterCounter {
         return super.applyChunk(chunk, cache);
     }
 
+    @Override
+    public boolean hasSectionFilter() {
+        return true;
+    }
+
+    @Override
+    public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, MutableLong cache) {
+        boolean modified = false;
+        MutableMCABackedBaseBlock block = null;
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i] & 0xFF;
+            boolean remap = remapper.hasRemap(id);
+            if (!remap && !special[id]) {
+                continue;
+            }
+            int combined = id << 4;
+            if (FaweCache.hasData(id)) {
+                combined += chunk.getNibble(i, data);
+            }
+            int newCombined = remapper.remapCombined(combined);
+            int newId = newCombined >> 4;
+            if (special[id] || special[newId]) {
+                if (block == null) {
+                    block = blockStore.get();
+                    block.setChunk(chunk);
+                    block.setArrays(layer);
+                }
+                block.setIndex(i);
+                int x = (chunk.getX() << 4) + (i & 15);
+                int y = (layer << 4) + (i >> 8);
+                int z = (chunk.getZ() << 4) + ((i >> 4) & 15);
+                block.setX(x);
+                block.setY(y);
+                block.setZ(z);
+                applyBlock(x, y, z, block, cache);
+            } else if (newCombined != combined) {
+                ids[i] = (byte) newId;
+                chunk.setNibble(i, data, newCombined & 15);
+                cache.add(1);
+                modified = true;
+            }
+        }
+        return modified;
+    }
+
     public List<CompoundTag> getPortals() {
         return portals;
     }
@@ -1,6 +1,9 @@
 package com.boydti.fawe.jnbt.anvil.filters;
 
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.jnbt.anvil.MCAChunk;
 import com.boydti.fawe.jnbt.anvil.MCAFilterCounter;
+import com.boydti.fawe.jnbt.anvil.MutableMCABackedBaseBlock;
 import com.boydti.fawe.object.mask.FaweBlockMatcher;
 import com.boydti.fawe.object.number.MutableLong;
 import com.sk89q.worldedit.blocks.BaseBlock;
@@ -8,10 +11,53 @@ import com.sk89q.worldedit.blocks.BaseBlock;
 public class ReplaceSimpleFilter extends MCAFilterCounter {
     private final FaweBlockMatcher to;
     private final FaweBlockMatcher from;
+    // The from matcher only depends on the id and data, so it can be evaluated once per combined id
+    private final boolean[] matches = new boolean[256 << 4];
+    private final ThreadLocal<MutableMCABackedBaseBlock> blockStore = new ThreadLocal<MutableMCABackedBaseBlock>() {
+        @Override
+        protected MutableMCABackedBaseBlock initialValue() {
+            return new MutableMCABackedBaseBlock();
+        }
+    };
 
     public ReplaceSimpleFilter(FaweBlockMatcher from, FaweBlockMatcher to) {
         this.from = from;
         this.to = to;
+        for (int combined = 0; combined < matches.length; combined++) {
+            matches[combined] = from.apply(FaweCache.CACHE_BLOCK[combined]);
+        }
+    }
+
+    @Override
+    public boolean hasSectionFilter() {
+        return true;
+    }
+
+    @Override
+    public boolean applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, MutableLong count) {
+        MutableMCABackedBaseBlock block = null;
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i] & 0xFF;
+            int combined = id << 4;
+            if (FaweCache.hasData(id)) {
+                combined += chunk.getNibble(i, data);
+            }
+            if (matches[combined]) {
+                if (block == null) {
+                    block = blockStore.get();
+                    block.setChunk(chunk);
+                    block.setArrays(layer);
+                }
+                // The replacement may be random or clear tiles, so it's applied to the block
+                block.setIndex(i);
+                block.setX((chunk.getX() << 4) + (i & 15));
+                block.setY((layer << 4) + (i >> 8));
+                block.setZ((chunk.getZ() << 4) + ((i >> 4) & 15));
+                to.apply(block);
+                count.increment();
+            }
+        }
+        return block != null;
     }
 
     @Override
@@ -39,8 +39,8 @@ public class CavesGen extends GenBase {
         this.caveSystemPocketMaxSize = caveSystemPocketMaxSize;
     }
 
-    protected void generateLargeCaveNode(long seed, Vector2D pos, Extent chunk, double x, double y, double z) throws WorldEditException {
-        generateCaveNode(seed, pos, chunk, x, y, z, 1.0F + PseudoRandom.random.nextDouble() * 6.0F, 0.0F, 0.0F, -1, -1, 0.5D);
+    protected void generateLargeCaveNode(long seed, Vector2D pos, Extent chunk, double x, double y, double z, double size) throws WorldEditException {
+        generateCaveNode(seed, pos, chunk, x, y, z, size, 0.0F, 0.0F, -1, -1, 0.5D);
     }
 
     protected void generateCaveNode(long seed, Vector2D chunkPos, Extent chunk, double x, double y, double z, double paramdouble1, double paramdouble2, double paramdouble3, int angle, int maxAngle, double paramDouble4) throws WorldEditException {
@@ -237,7 +237,9 @@ public class CavesGen extends GenBase {
             int count = this.caveSystemFrequency;
             boolean largeCaveSpawned = false;
             if (random.nextInt(100) <= this.individualCaveRarity) {
-                generateLargeCaveNode(random.nextLong(), originChunk, chunk, x, y, z);
+                // The size is from the seeded random, so the cave is the same in each chunk it crosses
+                long seed = random.nextLong();
+                generateLargeCaveNode(seed, originChunk, chunk, x, y, z, 1.0F + random.nextDouble() * 6.0F);
                 largeCaveSpawned = true;
             }
 
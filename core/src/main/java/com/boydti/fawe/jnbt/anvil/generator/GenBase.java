@@ -9,13 +9,17 @@ import com.sk89q.worldedit.extent.Extent;
 public abstract class GenBase {
 
     private final int checkAreaSize;
-    private final PseudoRandom random;
+    // Each adjacent chunk reseeds the random, so chunks can be generated on several threads
+    private final ThreadLocal<PseudoRandom> random = new ThreadLocal<PseudoRandom>() {
+        @Override
+        protected PseudoRandom initialValue() {
+            return new PseudoRandom();
+        }
+    };
     private final long seed;
     private final long worldSeed1, worldSeed2;
-    private MutableBlockVector2D mutable = new MutableBlockVector2D();
 
     public GenBase(int area) {
-        this.random = new PseudoRandom();
         this.checkAreaSize = area;
         this.seed = PseudoRandom.random.nextLong();
         this.worldSeed1 = PseudoRandom.random.nextLong();
@@ -26,11 +30,26 @@ public abstract class GenBase {
         return checkAreaSize;
     }
 
+    /**
+     * @return the random for the current thread, seeded for the adjacent chunk being generated
+     */
     public PseudoRandom getRandom() {
-        return random;
+        return random.get();
+    }
+
+    /**
+     * The number of chunks around the origin chunk which generateChunk may change<br>
+     * - Chunks which are further apart than this can be generated at the same time
+     *
+     * @return
+     */
+    public int getChunkRadius() {
+        return 0;
     }
 
     public void generate(Vector2D chunkPos, Extent chunk) throws WorldEditException {
+        PseudoRandom random = this.random.get();
+        MutableBlockVector2D mutable = new MutableBlockVector2D();
         int i = this.checkAreaSize;
         int chunkX = chunkPos.getBlockX();
         int chunkZ = chunkPos.getBlockZ();
@@ -39,7 +58,7 @@ public abstract class GenBase {
             mutable.mutX(x);
             for (int z = chunkZ - i; z <= chunkZ + i; z++) {
                 mutable.mutZ(z);
-                this.random.setSeed(worldSeed1 * x ^ worldSeed2 * z ^ seed);
+                random.setSeed(worldSeed1 * x ^ worldSeed2 * z ^ seed);
                 generateChunk(mutable, chunkPos, chunk);
             }
         }
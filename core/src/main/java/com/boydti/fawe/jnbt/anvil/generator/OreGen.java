@@ -18,7 +18,7 @@ public class OreGen extends Resource {
     private final Pattern pattern;
     private final Extent extent;
     private final Mask mask;
-    private MutableBlockVector mutable = new MutableBlockVector();
+    private final boolean threadSafe;
 
     private double ONE_2 = 1 / 2F;
     private double ONE_8 = 1 / 8F;
@@ -36,10 +36,21 @@ public class OreGen extends Resource {
         this.mask = mask;
         this.pattern = pattern;
         this.extent = extent;
+        this.threadSafe = isThreadSafe(mask) && isThreadSafe(pattern);
+    }
+
+    @Override
+    public int getChunkRadius() {
+        if (!threadSafe) {
+            return -1;
+        }
+        // The vein is centered 8 blocks from the spawn position
+        return ((int) (23.5 + maxSizeO8 + maxSizeO16)) >> 4;
     }
 
     @Override
     public boolean spawn(PseudoRandom rand, int x, int z) throws WorldEditException {
+        MutableBlockVector mutable = new MutableBlockVector();
         int y = rand.nextInt(minY, maxY);
         if (!mask.test(mutable.setComponents(x, y, z))) {
             return false;
@@ -115,4 +126,4 @@ public class OreGen extends Resource {
         }
         return true;
     }
-}
\ No newline at end of file
+}
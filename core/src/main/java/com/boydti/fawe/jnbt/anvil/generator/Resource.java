@@ -1,11 +1,61 @@
 package com.boydti.fawe.jnbt.anvil.generator;
 
 import com.boydti.fawe.object.PseudoRandom;
+import com.boydti.fawe.object.mask.MaskOptimizer;
 import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.pattern.BlockPattern;
+import com.sk89q.worldedit.function.pattern.Pattern;
+import com.sk89q.worldedit.function.pattern.RandomPattern;
 
 public abstract class Resource {
     public Resource() {
     }
 
     public abstract boolean spawn(PseudoRandom random, int x, int z) throws WorldEditException;
+
+    /**
+     * The number of chunks around the spawn chunk which spawn may change<br>
+     * - Resources which can be spawned from several threads at once should override this, keeping any state per call<br>
+     * - A negative radius (the default) means the resource is always spawned on one thread
+     *
+     * @return
+     */
+    public int getChunkRadius() {
+        return -1;
+    }
+
+    /**
+     * If a mask can be tested from several threads at once<br>
+     * - Most masks cache results or reuse a vector, so only block masks are
+     *
+     * @param mask
+     * @return
+     */
+    protected static boolean isThreadSafe(Mask mask) {
+        return MaskOptimizer.isTable(mask);
+    }
+
+    /**
+     * If a pattern can be applied from several threads at once<br>
+     * - Most patterns reuse a vector or buffer, so only blocks (and random picks of blocks) are
+     *
+     * @param pattern
+     * @return
+     */
+    protected static boolean isThreadSafe(Pattern pattern) {
+        if (pattern instanceof BaseBlock || pattern instanceof BlockPattern) {
+            return true;
+        }
+        if (pattern instanceof RandomPattern) {
+            for (Pattern next : ((RandomPattern) pattern).getPatterns()) {
+                if (!isThreadSafe(next)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
 }
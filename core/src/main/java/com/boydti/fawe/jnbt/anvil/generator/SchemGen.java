@@ -21,8 +21,6 @@ public class SchemGen extends Resource {
     private final boolean randomRotate;
     private final Mask mask;
 
-    private MutableBlockVector mutable = new MutableBlockVector();
-
     public SchemGen(Mask mask, Extent extent, WorldData worldData, List<ClipboardHolder> clipboards, boolean randomRotate) {
         this.mask = mask;
         this.extent = extent;
@@ -31,30 +29,27 @@ public class SchemGen extends Resource {
         this.randomRotate = randomRotate;
     }
 
+    // Not spawned in parallel (see Resource#getChunkRadius), as clipboards cache the last position read
     @Override
     public boolean spawn(PseudoRandom random, int x, int z) throws WorldEditException {
-        mutable.mutX(x);
-        mutable.mutZ(z);
+        MutableBlockVector mutable = new MutableBlockVector(x, 0, z);
         int y = extent.getNearestSurfaceTerrainBlock(x, z, mutable.getBlockY(), 0, 255);
         if (y == -1) return false;
         mutable.mutY(y);
+        // The clipboard is picked with the spawn random, so the result doesn't depend on the order chunks are spawned in
+        ClipboardHolder holder = clipboards.get(random.random(clipboards.size()));
+        Transform transform = randomRotate ? new AffineTransform().rotateY(random.random(4) * 90) : holder.getTransform();
         if (!mask.test(mutable)) {
             return false;
         }
         mutable.mutY(y + 1);
-        ClipboardHolder holder = clipboards.get(PseudoRandom.random.random(clipboards.size()));
-        if (randomRotate) {
-            holder.setTransform(new AffineTransform().rotateY(PseudoRandom.random.random(4) * 90));
-        }
         Clipboard clipboard = holder.getClipboard();
         Schematic schematic = new Schematic(clipboard);
-        Transform transform = holder.getTransform();
         if (transform.isIdentity()) {
             schematic.paste(extent, mutable, false);
         } else {
             schematic.paste(extent, worldData, mutable, false, transform);
         }
-        mutable.mutY(y);
         return true;
     }
 }
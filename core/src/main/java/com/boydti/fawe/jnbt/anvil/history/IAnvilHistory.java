@@ -6,4 +6,16 @@ public interface IAnvilHistory {
     default boolean addFileChange(File originalMCAFile) {
         return originalMCAFile.delete();
     }
+
+    /**
+     * Record the chunks an operation rewrote, instead of the whole region file<br>
+     * - Called before the modified copy replaces the original file
+     *
+     * @param originalMCAFile
+     * @param chunks          the rewritten chunks, see {@link RegionDelta#getIndex(int, int)}
+     * @return false if the chunks weren't recorded (the whole file is then passed to {@link #addFileChange(File)})
+     */
+    default boolean addChunkChanges(File originalMCAFile, int[] chunks) {
+        return false;
+    }
 }
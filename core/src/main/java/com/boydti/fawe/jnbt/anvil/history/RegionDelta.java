@@ -0,0 +1,147 @@
+package com.boydti.fawe.jnbt.anvil.history;
+
+import com.boydti.fawe.jnbt.anvil.MCAFile;
+import com.boydti.fawe.jnbt.anvil.RegionCompression;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The original data of the chunks an anvil operation rewrote in a region file (see {@link IAnvilHistory#addChunkChanges})<br>
+ * - Chunks are stored as they are in the region file (length, compression type, compressed data), so nothing is
+ * decompressed or recompressed<br>
+ * - The file starts with an index (chunk, length) followed by the data. A length of 0 marks a chunk which didn't exist<br>
+ * - Undo writes the chunks back into the region, see {@link #apply(File, MCAFile)}
+ */
+public final class RegionDelta {
+    public static final String EXTENSION = ".delta";
+
+    private static final byte[] ABSENT = new byte[0];
+
+    private RegionDelta() {
+    }
+
+    /**
+     * @param x the chunk x
+     * @param z the chunk z
+     * @return the index of the chunk in its region
+     */
+    public static int getIndex(int x, int z) {
+        return (x & 31) + ((z & 31) << 5);
+    }
+
+    /**
+     * Save the chunks of a region file<br>
+     * - If the delta already exists (the region was recorded before), the chunks it has are kept
+     *
+     * @param mcaFile the original region file
+     * @param indexes the chunks to save, see {@link #getIndex(int, int)}
+     * @param file    the delta file
+     * @throws IOException
+     */
+    public static void record(File mcaFile, int[] indexes, File file) throws IOException {
+        Int2ObjectOpenHashMap<byte[]> chunks = readChunks(mcaFile, indexes);
+        if (file.exists()) {
+            chunks.putAll(read(file));
+        }
+        write(file, chunks);
+    }
+
+    /**
+     * Write the saved chunks back into a region file<br>
+     * - The region must not be used by a queue or the server meanwhile (see FaweQueue#setMCA)
+     *
+     * @param file   the delta file
+     * @param region
+     * @throws IOException
+     */
+    public static void apply(File file, MCAFile region) throws IOException {
+        Int2ObjectOpenHashMap<byte[]> chunks = read(file);
+        region.init();
+        try {
+            for (Int2ObjectMap.Entry<byte[]> entry : chunks.int2ObjectEntrySet()) {
+                int index = entry.getIntKey();
+                byte[] raw = entry.getValue();
+                region.setChunkRaw(index & 31, index >> 5, raw.length == 0 ? null : raw);
+            }
+        } finally {
+            region.clear();
+        }
+    }
+
+    private static Int2ObjectOpenHashMap<byte[]> readChunks(File mcaFile, int[] indexes) throws IOException {
+        Int2ObjectOpenHashMap<byte[]> chunks = new Int2ObjectOpenHashMap<>(indexes.length);
+        try (RandomAccessFile raf = new RandomAccessFile(mcaFile, "r")) {
+            byte[] locations = new byte[4096];
+            if (raf.length() >= locations.length) {
+                raf.readFully(locations);
+            }
+            for (int index : indexes) {
+                int i = index << 2;
+                int sector = ((locations[i] & 0xFF) << 16) + ((locations[i + 1] & 0xFF) << 8) + (locations[i + 2] & 0xFF);
+                int sectors = locations[i + 3] & 0xFF;
+                byte[] raw = ABSENT;
+                if (sector != 0 && sectors != 0) {
+                    long offset = (long) sector << RegionCompression.SECTOR_BITS;
+                    raf.seek(offset);
+                    int length = raf.readInt();
+                    // A corrupt chunk can't be read by the server either
+                    if (length > 0 && length + 4 <= sectors << RegionCompression.SECTOR_BITS && offset + length + 4 <= raf.length()) {
+                        raw = new byte[length + 4];
+                        raw[0] = (byte) (length >> 24);
+                        raw[1] = (byte) (length >> 16);
+                        raw[2] = (byte) (length >> 8);
+                        raw[3] = (byte) (length);
+                        raf.readFully(raw, 4, length);
+                    }
+                }
+                chunks.put(index, raw);
+            }
+        }
+        return chunks;
+    }
+
+    private static Int2ObjectOpenHashMap<byte[]> read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            int[] indexes = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                indexes[i] = in.readShort();
+                lengths[i] = in.readInt();
+            }
+            Int2ObjectOpenHashMap<byte[]> chunks = new Int2ObjectOpenHashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] raw = lengths[i] == 0 ? ABSENT : new byte[lengths[i]];
+                in.readFully(raw);
+                chunks.put(indexes[i], raw);
+            }
+            return chunks;
+        }
+    }
+
+    private static void write(File file, Int2ObjectOpenHashMap<byte[]> chunks) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            out.writeInt(chunks.size());
+            for (Int2ObjectMap.Entry<byte[]> entry : chunks.int2ObjectEntrySet()) {
+                out.writeShort(entry.getIntKey());
+                out.writeInt(entry.getValue().length);
+            }
+            for (Int2ObjectMap.Entry<byte[]> entry : chunks.int2ObjectEntrySet()) {
+                out.write(entry.getValue());
+            }
+            out.flush();
+            // The original chunks are replaced once this returns
+            fos.getFD().sync();
+        }
+    }
+}
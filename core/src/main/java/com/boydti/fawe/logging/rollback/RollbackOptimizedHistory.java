@@ -20,6 +20,8 @@ public class RollbackOptimizedHistory extends DiskStorageHistory {
     private int minZ;
     private int maxZ;
 
+    private int blockCount;
+
     public RollbackOptimizedHistory(World world, UUID uuid, int index) {
         super(world, uuid, index);
         this.time = System.currentTimeMillis();
@@ -81,9 +83,21 @@ public class RollbackOptimizedHistory extends DiskStorageHistory {
         this.time = time;
     }
 
+    /**
+     * @return the number of blocks changed (as indexed when the edit was closed)
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public void setBlockCount(int blockCount) {
+        this.blockCount = blockCount;
+    }
+
     @Override
     public boolean close() {
         if (super.close()) {
+            blockCount = size();
             // Save to DB
             RollbackDatabase db = DBHandler.IMP.getDatabase(getWorld());
             if (db != null) {
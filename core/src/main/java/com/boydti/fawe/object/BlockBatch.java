@@ -0,0 +1,132 @@
+package com.boydti.fawe.object;
+
+/**
+ * A batch of blocks (without NBT) within a single chunk, stored in primitive arrays<br>
+ * - Used to set or get blocks through the extent chain with one call per chunk, rather than per block<br>
+ * - Each entry is a position and a combined id (id << 4 + data). For getBlocks the ids are filled in by the extent<br>
+ * - Extents remove the entries they don't pass on (e.g. outside the region or unchanged), so a batch shouldn't be reused
+ * without calling {@link #clear()}<br>
+ */
+public class BlockBatch {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int[] positions;
+    private final int[] combined;
+    private int size;
+    private int chunkX, chunkZ;
+    private int minY, maxY;
+
+    public BlockBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public BlockBatch(int capacity) {
+        this.positions = new int[capacity];
+        this.combined = new int[capacity];
+        clear();
+    }
+
+    /**
+     * Add a block to the batch
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param combinedId4Data the block to set (or anything, for getBlocks)
+     * @return false if the batch is full, or the block is in a different chunk
+     */
+    public boolean add(int x, int y, int z, int combinedId4Data) {
+        int cx = x >> 4;
+        int cz = z >> 4;
+        if (size == 0) {
+            chunkX = cx;
+            chunkZ = cz;
+        } else if (size == positions.length || cx != chunkX || cz != chunkZ) {
+            return false;
+        }
+        if (y < minY) minY = y;
+        if (y > maxY) maxY = y;
+        positions[size] = (y << 8) + ((z & 15) << 4) + (x & 15);
+        combined[size++] = combinedId4Data;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+        minY = Integer.MAX_VALUE;
+        maxY = Integer.MIN_VALUE;
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * @return the lowest y added since the batch was cleared
+     */
+    public int getMinY() {
+        return minY;
+    }
+
+    /**
+     * @return the highest y added since the batch was cleared
+     */
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public int getX(int index) {
+        return (chunkX << 4) + (positions[index] & 15);
+    }
+
+    public int getY(int index) {
+        return positions[index] >> 8;
+    }
+
+    public int getZ(int index) {
+        return (chunkZ << 4) + ((positions[index] >> 4) & 15);
+    }
+
+    public int getCombined(int index) {
+        return combined[index];
+    }
+
+    public void setCombined(int index, int combinedId4Data) {
+        combined[index] = combinedId4Data;
+    }
+
+    /**
+     * Move an entry to a lower index, used to compact the batch while removing entries:<br>
+     * - for each kept entry i: move(i, kept++), then truncate(kept)<br>
+     *
+     * @param from
+     * @param to
+     */
+    public void move(int from, int to) {
+        positions[to] = positions[from];
+        combined[to] = combined[from];
+    }
+
+    /**
+     * Remove every entry from the index onwards
+     *
+     * @param size the new size
+     */
+    public void truncate(int size) {
+        if (size < this.size) {
+            this.size = size;
+        }
+    }
+}
@@ -38,6 +38,16 @@ public class FaweLimit {
                 return true;
             }
 
+            @Override
+            public int MAX_CHANGES(int amount) {
+                return amount;
+            }
+
+            @Override
+            public int MAX_CHECKS(int amount) {
+                return amount;
+            }
+
             @Override
             public boolean MAX_ENTITIES() {
                 return true;
@@ -72,6 +82,18 @@ public class FaweLimit {
         return MAX_CHANGES-- > 0;
     }
 
+    /**
+     * Take a number of changes at once (e.g. for a batch of blocks)
+     *
+     * @param amount
+     * @return the number of changes allowed (less than the amount if the limit was reached)
+     */
+    public int MAX_CHANGES(int amount) {
+        int allowed = Math.max(0, Math.min(amount, MAX_CHANGES));
+        MAX_CHANGES -= allowed < amount ? allowed + 1 : amount;
+        return allowed;
+    }
+
     public boolean MAX_FAILS() {
         return MAX_FAILS-- > 0;
     }
@@ -80,6 +102,18 @@ public class FaweLimit {
         return MAX_CHECKS-- > 0;
     }
 
+    /**
+     * Take a number of checks at once (e.g. for a batch of blocks)
+     *
+     * @param amount
+     * @return the number of checks allowed (less than the amount if the limit was reached)
+     */
+    public int MAX_CHECKS(int amount) {
+        int allowed = Math.max(0, Math.min(amount, MAX_CHECKS));
+        MAX_CHECKS -= allowed < amount ? allowed + 1 : amount;
+        return allowed;
+    }
+
     public boolean MAX_ITERATIONS() {
         return MAX_ITERATIONS-- > 0;
     }
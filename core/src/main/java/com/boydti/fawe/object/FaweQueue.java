@@ -6,6 +6,7 @@ import com.boydti.fawe.config.BBC;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.example.NullRelighter;
 import com.boydti.fawe.example.Relighter;
+import com.boydti.fawe.object.changeset.HistoryCache;
 import com.boydti.fawe.object.exception.FaweException;
 import com.boydti.fawe.util.MainUtil;
 import com.boydti.fawe.util.MathMan;
@@ -380,9 +381,8 @@ public interface FaweQueue extends HasFaweQueue, Extent {
         // Clear block placement
         clear();
         Fawe.get().getWorldEdit().clearSessions();
-        // GC
-        System.gc();
-        System.gc();
+        // Write cached history to disk
+        HistoryCache.IMP.evictAll();
         // Unload chunks
     }
 
@@ -90,6 +90,52 @@ public class HistoryExtent extends AbstractDelegateExtent {
         return getExtent().setBlock(x, y, z, block);
     }
 
+    /**
+     * Record the blocks which change, then pass them on (unchanged blocks are removed from the batch)
+     */
+    @Override
+    public int setBlocks(BlockBatch batch) throws WorldEditException {
+        int size = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int x = batch.getX(i);
+            int y = batch.getY(i);
+            int z = batch.getZ(i);
+            int combinedTo = batch.getCombined(i);
+            int combined = queue.getCombinedId4DataDebug(x, y, z, 0, session);
+            int id = (combined >> 4);
+            if (id == (combinedTo >> 4) && (!FaweCache.hasData(id) || combined == combinedTo)) {
+                continue;
+            }
+            try {
+                if (!FaweCache.hasNBT(id)) {
+                    if (FaweCache.hasNBT(combinedTo >> 4)) {
+                        this.changeSet.add(x, y, z, combined, FaweCache.CACHE_BLOCK[combinedTo]);
+                    } else {
+                        this.changeSet.add(x, y, z, combined, combinedTo);
+                    }
+                } else {
+                    try {
+                        CompoundTag tag = queue.getTileEntity(x, y, z);
+                        this.changeSet.add(x, y, z, new BaseBlock(id, combined & 0xF, tag), FaweCache.CACHE_BLOCK[combinedTo]);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        this.changeSet.add(x, y, z, combined, FaweCache.CACHE_BLOCK[combinedTo]);
+                    }
+                }
+            } catch (FaweException ignore) {
+                continue;
+            }
+            batch.move(i, size++);
+        }
+        batch.truncate(size);
+        return setExtentBlocks(batch);
+    }
+
+    @Override
+    public void getBlocks(BlockBatch batch) {
+        getExtentBlocks(batch);
+    }
+
     @Override
     public boolean setBlock(final Vector location, final BaseBlock block) throws WorldEditException {
         return setBlock(location.getBlockX(), location.getBlockY(), location.getBlockZ(), block);
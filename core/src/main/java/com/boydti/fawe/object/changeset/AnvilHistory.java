@@ -3,6 +3,7 @@ package com.boydti.fawe.object.changeset;
 import com.boydti.fawe.Fawe;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.jnbt.anvil.history.IAnvilHistory;
+import com.boydti.fawe.jnbt.anvil.history.RegionDelta;
 import com.boydti.fawe.util.MainUtil;
 import com.google.common.base.Function;
 import com.google.common.collect.Iterators;
@@ -53,6 +54,25 @@ public class AnvilHistory extends FaweChangeSet implements IAnvilHistory {
         return false;
     }
 
+    @Override
+    public boolean addChunkChanges(File originalMCAFile, int[] chunks) {
+        if (!Settings.IMP.EXPERIMENTAL.ANVIL_CHUNK_HISTORY) {
+            return false;
+        }
+        File delta = new File(folder, originalMCAFile.getName() + RegionDelta.EXTENSION);
+        boolean exists = delta.exists();
+        try {
+            RegionDelta.record(originalMCAFile, chunks, delta);
+        } catch (IOException e) {
+            e.printStackTrace();
+            delta.delete();
+            // The whole file is recorded instead
+            return false;
+        }
+        if (size != -1 && !exists) size++;
+        return true;
+    }
+
     @Override
     public void add(int x, int y, int z, int combinedFrom, int combinedTo) {
         throw new UnsupportedOperationException("Only anvil operations are supported");
@@ -0,0 +1,106 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.object.FaweChunk;
+import java.util.Arrays;
+
+/**
+ * The block changes to a chunk, computed from the previous and next chunk (see FaweChangeSet#addChangeTask)<br>
+ * - Computed on a worker thread, then added to the change set in the order the chunks were set<br>
+ * - A change set may also encode the changes off the lock, see {@link FaweChangeSet#encodeChunkDiff(ChunkDiff)}
+ */
+public class ChunkDiff {
+    private final FaweChunk previous;
+    private final FaweChunk next;
+    private final int bx, bz;
+    // (position, from, to) for each change, where position is (y << 8) + (z << 4) + x
+    private char[] changes;
+    private int size;
+    private byte[] encoded;
+
+    public ChunkDiff(FaweChunk previous, FaweChunk next, int layers) {
+        this.previous = previous;
+        this.next = next;
+        this.bx = previous.getX() << 4;
+        this.bz = previous.getZ() << 4;
+        this.changes = new char[96];
+        for (int layer = 0; layer < layers; layer++) {
+            char[] currentLayer = next.getIdArray(layer);
+            char[] previousLayer = previous.getIdArray(layer);
+            if (currentLayer == null) {
+                continue;
+            }
+            int startIndex = layer << 12;
+            for (int index = 0; index < 4096; index++) {
+                int combinedIdCurrent = currentLayer[index];
+                switch (combinedIdCurrent) {
+                    case 0:
+                        continue;
+                    case 1:
+                        combinedIdCurrent = 0;
+                    default:
+                        char combinedIdPrevious = previousLayer != null ? previousLayer[index] : 0;
+                        if (combinedIdCurrent != combinedIdPrevious) {
+                            add(startIndex + index, combinedIdPrevious, combinedIdCurrent);
+                        }
+                }
+            }
+        }
+    }
+
+    private void add(int position, int combinedFrom, int combinedTo) {
+        int i = size * 3;
+        if (i + 3 > changes.length) {
+            changes = Arrays.copyOf(changes, changes.length << 1);
+        }
+        changes[i] = (char) position;
+        changes[i + 1] = (char) combinedFrom;
+        changes[i + 2] = (char) combinedTo;
+        size++;
+    }
+
+    public FaweChunk getPrevious() {
+        return previous;
+    }
+
+    public FaweChunk getNext() {
+        return next;
+    }
+
+    /**
+     * @return the number of block changes
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getX(int i) {
+        return bx + (changes[i * 3] & 15);
+    }
+
+    public int getY(int i) {
+        return changes[i * 3] >> 8;
+    }
+
+    public int getZ(int i) {
+        return bz + ((changes[i * 3] >> 4) & 15);
+    }
+
+    public int getCombinedFrom(int i) {
+        return changes[i * 3 + 1];
+    }
+
+    public int getCombinedTo(int i) {
+        return changes[i * 3 + 2];
+    }
+
+    /**
+     * @return the changes as encoded by the change set, or null
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    public void setEncoded(byte[] encoded) {
+        this.encoded = encoded;
+    }
+}
@@ -130,6 +130,9 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
     }
 
     public void deleteFiles() {
+        for (File file : new File[]{bdFile, bioFile, nbtfFile, nbttFile, entfFile, enttFile}) {
+            HistoryCache.IMP.invalidate(file);
+        }
         bdFile.delete();
         nbtfFile.delete();
         nbttFile.delete();
@@ -257,6 +260,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         synchronized (this) {
             bdFile.getParentFile().mkdirs();
             bdFile.createNewFile();
+            HistoryCache.IMP.invalidate(bdFile);
             osBD = getCompressedOS(new FileOutputStream(bdFile));
             writeHeader(osBD, x, y, z);
             return osBD;
@@ -271,6 +275,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         synchronized (this) {
             bioFile.getParentFile().mkdirs();
             bioFile.createNewFile();
+            HistoryCache.IMP.invalidate(bioFile);
             osBIO = getCompressedOS(new FileOutputStream(bioFile));
             return osBIO;
         }
@@ -283,6 +288,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         }
         enttFile.getParentFile().mkdirs();
         enttFile.createNewFile();
+        HistoryCache.IMP.invalidate(enttFile);
         osENTCT = new NBTOutputStream((DataOutput) getCompressedOS(new FileOutputStream(enttFile)));
         return osENTCT;
     }
@@ -294,6 +300,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         }
         entfFile.getParentFile().mkdirs();
         entfFile.createNewFile();
+        HistoryCache.IMP.invalidate(entfFile);
         osENTCF = new NBTOutputStream((DataOutput) getCompressedOS(new FileOutputStream(entfFile)));
         return osENTCF;
     }
@@ -305,6 +312,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         }
         nbttFile.getParentFile().mkdirs();
         nbttFile.createNewFile();
+        HistoryCache.IMP.invalidate(nbttFile);
         osNBTT = new NBTOutputStream((DataOutput) getCompressedOS(new FileOutputStream(nbttFile)));
         return osNBTT;
     }
@@ -316,6 +324,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         }
         nbtfFile.getParentFile().mkdirs();
         nbtfFile.createNewFile();
+        HistoryCache.IMP.invalidate(nbtfFile);
         osNBTF = new NBTOutputStream((DataOutput) getCompressedOS(new FileOutputStream(nbtfFile)));
         return osNBTF;
     }
@@ -325,7 +334,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!bdFile.exists()) {
             return null;
         }
-        FaweInputStream is = MainUtil.getCompressedIS(new FileInputStream(bdFile));
+        FaweInputStream is = MainUtil.getCompressedIS(HistoryCache.IMP.getInputStream(bdFile));
         readHeader(is);
         return is;
     }
@@ -335,7 +344,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!bioFile.exists()) {
             return null;
         }
-        FaweInputStream is = MainUtil.getCompressedIS(new FileInputStream(bioFile));
+        FaweInputStream is = MainUtil.getCompressedIS(HistoryCache.IMP.getInputStream(bioFile));
         return is;
     }
 
@@ -344,7 +353,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!enttFile.exists()) {
             return null;
         }
-        return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(enttFile)));
+        return new NBTInputStream(MainUtil.getCompressedIS(HistoryCache.IMP.getInputStream(enttFile)));
     }
 
     @Override
@@ -352,7 +361,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!entfFile.exists()) {
             return null;
         }
-        return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(entfFile)));
+        return new NBTInputStream(MainUtil.getCompressedIS(HistoryCache.IMP.getInputStream(entfFile)));
     }
 
     @Override
@@ -360,7 +369,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!nbttFile.exists()) {
             return null;
         }
-        return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(nbttFile)));
+        return new NBTInputStream(MainUtil.getCompressedIS(HistoryCache.IMP.getInputStream(nbttFile)));
     }
 
     @Override
@@ -368,7 +377,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!nbtfFile.exists()) {
             return null;
         }
-        return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(nbtfFile)));
+        return new NBTInputStream(MainUtil.getCompressedIS(HistoryCache.IMP.getInputStream(nbtfFile)));
     }
 
     public DiskStorageSummary summarize(RegionWrapper requiredRegion, boolean shallow) {
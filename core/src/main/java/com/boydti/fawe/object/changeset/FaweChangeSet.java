@@ -25,6 +25,8 @@ import com.sk89q.worldedit.history.changeset.ChangeSet;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.biome.BaseBiome;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -40,6 +42,11 @@ public abstract class FaweChangeSet implements ChangeSet {
     protected AtomicInteger waitingCombined = new AtomicInteger(0);
     protected AtomicInteger waitingAsync = new AtomicInteger(0);
 
+    private final AtomicInteger diffSequence = new AtomicInteger(0);
+    // The chunk diffs waiting for an earlier chunk to be added (guarded by this)
+    private final Int2ObjectOpenHashMap<ChunkDiff> pendingDiffs = new Int2ObjectOpenHashMap<>();
+    private int nextDiff;
+
     public static FaweChangeSet getDefaultChangeSet(World world, UUID uuid) {
         if (Settings.IMP.HISTORY.USE_DISK) {
             return new DiskStorageHistory(world, uuid);
@@ -245,104 +252,32 @@ public abstract class FaweChangeSet implements ChangeSet {
         }
     }
 
+    /**
+     * Add the history for each chunk the queue sets<br>
+     * - The changes to a chunk are computed (and encoded, see {@link #encodeChunkDiff(ChunkDiff)}) on a worker thread<br>
+     * - They're then added under the change set lock, in the order the chunks were set
+     *
+     * @param queue
+     */
     public void addChangeTask(FaweQueue queue) {
         queue.setChangeTask(new RunnableVal2<FaweChunk, FaweChunk>() {
             @Override
             public void run(final FaweChunk previous, final FaweChunk next) {
                 FaweChangeSet.this.waitingCombined.incrementAndGet();
+                final int sequence = diffSequence.getAndIncrement();
                 Runnable run = new Runnable() {
                     @Override
                     public void run() {
+                        ChunkDiff diff = null;
                         try {
-                            int cx = previous.getX();
-                            int cz = previous.getZ();
-                            int bx = cx << 4;
-                            int bz = cz << 4;
-                            synchronized (FaweChangeSet.this) {
-                                // Biome changes
-                                if (previous.getBiomeArray() != null) {
-                                    byte[] previousBiomes = previous.getBiomeArray();
-                                    byte[] nextBiomes = next.getBiomeArray();
-                                    int index = 0;
-                                    for (int z = 0; z < 16; z++) {
-                                        int zz = bz + z;
-                                        for (int x = 0; x < 16; x++) {
-                                            byte idFrom = previousBiomes[index];
-                                            byte idTo = nextBiomes[index];
-                                            if (idFrom != idTo && idTo != 0) {
-                                                addBiomeChange(bx + x, zz, FaweCache.getBiome(idFrom & 0xFF), FaweCache.getBiome(idTo & 0xFF));
-                                            }
-                                            index++;
-                                        }
-                                    }
-                                    // TODO
-                                }
-                                // Block changes
-                                for (int layer = 0; layer < layers; layer++) {
-                                    char[] currentLayer = next.getIdArray(layer);
-                                    char[] previousLayer = previous.getIdArray(layer);
-                                    if (currentLayer == null) {
-                                        continue;
-                                    }
-                                    int startY = layer << 4;
-                                    int index = 0;
-                                    for (int y = 0; y < 16; y++) {
-                                        int yy = y + startY;
-                                        for (int z = 0; z < 16; z++) {
-                                            int zz = z + bz;
-                                            for (int x = 0; x < 16; x++, index++) {
-                                                int xx = x + bx;
-                                                int combinedIdCurrent = currentLayer[index];
-                                                switch (combinedIdCurrent) {
-                                                    case 0:
-                                                        continue;
-                                                    case 1:
-                                                        combinedIdCurrent = 0;
-                                                    default:
-                                                        char combinedIdPrevious = previousLayer != null ? previousLayer[index] : 0;
-                                                        if (combinedIdCurrent != combinedIdPrevious) {
-                                                            add(xx, yy, zz, combinedIdPrevious, combinedIdCurrent);
-                                                        }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                                // Tile changes
-                                {
-                                    // Tiles created
-                                    Map<Short, CompoundTag> tiles = next.getTiles();
-                                    if (!tiles.isEmpty()) {
-                                        for (Map.Entry<Short, CompoundTag> entry : tiles.entrySet()) {
-                                            addTileCreate(entry.getValue());
-                                        }
-                                    }
-                                    // Tiles removed
-                                    tiles = previous.getTiles();
-                                    if (!tiles.isEmpty()) {
-                                        for (Map.Entry<Short, CompoundTag> entry : tiles.entrySet()) {
-                                            addTileRemove(entry.getValue());
-                                        }
-                                    }
-                                }
-                                // Entity changes
-                                {
-                                    // Entities created
-                                    Set<CompoundTag> entities = next.getEntities();
-                                    if (!entities.isEmpty()) {
-                                        for (CompoundTag entityTag : entities) {
-                                            addEntityCreate(entityTag);
-                                        }
-                                    }
-                                    // Entities removed
-                                    entities = previous.getEntities();
-                                    if (!entities.isEmpty()) {
-                                        for (CompoundTag entityTag : entities) {
-                                            addEntityRemove(entityTag);
-                                        }
-                                    }
-                                }
-                            }
+                            diff = new ChunkDiff(previous, next, layers);
+                            encodeChunkDiff(diff);
+                        } catch (Throwable e) {
+                            MainUtil.handleError(e);
+                        }
+                        try {
+                            // A failed (null) diff still takes its turn, so the chunks after it are added
+                            appendChunkDiff(sequence, diff);
                         } catch (Throwable e) {
                             MainUtil.handleError(e);
                         } finally {
@@ -365,4 +300,107 @@ public abstract class FaweChangeSet implements ChangeSet {
             }
         });
     }
-}
\ No newline at end of file
+
+    private synchronized void appendChunkDiff(int sequence, ChunkDiff diff) {
+        pendingDiffs.put(sequence, diff);
+        // Add every diff which is next in order (this one may still be waiting for an earlier chunk)
+        while (pendingDiffs.containsKey(nextDiff)) {
+            diff = pendingDiffs.remove(nextDiff++);
+            if (diff != null) {
+                try {
+                    addChunkDiff(diff);
+                } catch (Throwable e) {
+                    MainUtil.handleError(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encode the block changes of a chunk, before the change set lock is acquired<br>
+     * - Called from any thread, so this should only use the diff (and thread safe state)<br>
+     * - The result can be stored with {@link ChunkDiff#setEncoded(byte[])} and used by {@link #addBlockChanges(ChunkDiff)}
+     *
+     * @param diff
+     * @throws IOException
+     */
+    protected void encodeChunkDiff(ChunkDiff diff) throws IOException {
+    }
+
+    /**
+     * Add the block changes of a chunk (called under the change set lock)
+     *
+     * @param diff
+     */
+    protected void addBlockChanges(ChunkDiff diff) {
+        for (int i = 0, size = diff.size(); i < size; i++) {
+            add(diff.getX(i), diff.getY(i), diff.getZ(i), diff.getCombinedFrom(i), diff.getCombinedTo(i));
+        }
+    }
+
+    /**
+     * Add the changes to a chunk (called under the change set lock)
+     *
+     * @param diff
+     */
+    protected void addChunkDiff(ChunkDiff diff) {
+        FaweChunk previous = diff.getPrevious();
+        FaweChunk next = diff.getNext();
+        int bx = previous.getX() << 4;
+        int bz = previous.getZ() << 4;
+        // Biome changes
+        if (previous.getBiomeArray() != null) {
+            byte[] previousBiomes = previous.getBiomeArray();
+            byte[] nextBiomes = next.getBiomeArray();
+            int index = 0;
+            for (int z = 0; z < 16; z++) {
+                int zz = bz + z;
+                for (int x = 0; x < 16; x++) {
+                    byte idFrom = previousBiomes[index];
+                    byte idTo = nextBiomes[index];
+                    if (idFrom != idTo && idTo != 0) {
+                        addBiomeChange(bx + x, zz, FaweCache.getBiome(idFrom & 0xFF), FaweCache.getBiome(idTo & 0xFF));
+                    }
+                    index++;
+                }
+            }
+            // TODO
+        }
+        // Block changes
+        addBlockChanges(diff);
+        // Tile changes
+        {
+            // Tiles created
+            Map<Short, CompoundTag> tiles = next.getTiles();
+            if (!tiles.isEmpty()) {
+                for (Map.Entry<Short, CompoundTag> entry : tiles.entrySet()) {
+                    addTileCreate(entry.getValue());
+                }
+            }
+            // Tiles removed
+            tiles = previous.getTiles();
+            if (!tiles.isEmpty()) {
+                for (Map.Entry<Short, CompoundTag> entry : tiles.entrySet()) {
+                    addTileRemove(entry.getValue());
+                }
+            }
+        }
+        // Entity changes
+        {
+            // Entities created
+            Set<CompoundTag> entities = next.getEntities();
+            if (!entities.isEmpty()) {
+                for (CompoundTag entityTag : entities) {
+                    addEntityCreate(entityTag);
+                }
+            }
+            // Entities removed
+            entities = previous.getEntities();
+            if (!entities.isEmpty()) {
+                for (CompoundTag entityTag : entities) {
+                    addEntityRemove(entityTag);
+                }
+            }
+        }
+    }
+}
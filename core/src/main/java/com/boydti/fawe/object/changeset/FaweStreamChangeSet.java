@@ -8,6 +8,7 @@ import com.boydti.fawe.object.change.MutableBlockChange;
 import com.boydti.fawe.object.change.MutableEntityChange;
 import com.boydti.fawe.object.change.MutableFullBlockChange;
 import com.boydti.fawe.object.change.MutableTileChange;
+import com.boydti.fawe.object.io.FastByteArrayOutputStream;
 import com.boydti.fawe.util.MainUtil;
 import com.boydti.fawe.util.MathMan;
 import com.sk89q.jnbt.CompoundTag;
@@ -33,6 +34,14 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
 
     private FaweStreamIdDelegate idDel;
     private FaweStreamPositionDelegate posDel;
+    // If block changes can be encoded off the lock, see encodeChunkDiff
+    private final boolean encodeDiffs = !isAddOverridden();
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    };
 
     public FaweStreamChangeSet(World world) {
         this(world, Settings.IMP.HISTORY.COMPRESSION_LEVEL, Settings.IMP.HISTORY.STORE_REDO, Settings.IMP.HISTORY.SMALL_EDITS);
@@ -88,8 +97,13 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
 
     private void setupStreamDelegates(int mode) {
         this.mode = mode;
+        idDel = createIdDelegate(mode);
+        posDel = createPositionDelegate(mode);
+    }
+
+    private static FaweStreamIdDelegate createIdDelegate(int mode) {
         if (mode == 3 || mode == 4) {
-            idDel = new FaweStreamIdDelegate() {
+            return new FaweStreamIdDelegate() {
                 @Override
                 public void writeChange(OutputStream stream, int combinedFrom, int combinedTo) throws IOException {
                     stream.write((combinedFrom) & 0xff);
@@ -122,7 +136,7 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
                 }
             };
         } else {
-            idDel = new FaweStreamIdDelegate() {
+            return new FaweStreamIdDelegate() {
                 @Override
                 public void writeChange(OutputStream stream, int combinedFrom, int to) throws IOException {
                     stream.write((combinedFrom) & 0xff);
@@ -144,8 +158,11 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
                 }
             };
         }
+    }
+
+    private static FaweStreamPositionDelegate createPositionDelegate(int mode) {
         if (mode == 1 || mode == 4) { // small
-            posDel = new FaweStreamPositionDelegate() {
+            return new FaweStreamPositionDelegate() {
                 int lx, ly, lz;
 
                 @Override
@@ -184,7 +201,7 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
                 }
             };
         } else {
-            posDel = new FaweStreamPositionDelegate() {
+            return new FaweStreamPositionDelegate() {
                 byte[] buffer = new byte[5];
                 int lx, ly, lz;
 
@@ -332,6 +349,58 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
         }
     }
 
+    @Override
+    protected void encodeChunkDiff(ChunkDiff diff) throws IOException {
+        int size = diff.size();
+        if (!encodeDiffs || size < 2) {
+            return;
+        }
+        // Positions are relative to the previous change, so the origin isn't needed
+        FaweStreamPositionDelegate pos = createPositionDelegate(mode);
+        FaweStreamIdDelegate id = createIdDelegate(mode);
+        pos.write(DISCARD, diff.getX(0), diff.getY(0), diff.getZ(0));
+        FastByteArrayOutputStream out = new FastByteArrayOutputStream(size * 9);
+        for (int i = 1; i < size; i++) {
+            pos.write(out, diff.getX(i), diff.getY(i), diff.getZ(i));
+            id.writeChange(out, diff.getCombinedFrom(i), diff.getCombinedTo(i));
+        }
+        diff.setEncoded(out.toByteArray());
+    }
+
+    @Override
+    protected void addBlockChanges(ChunkDiff diff) {
+        byte[] encoded = diff.getEncoded();
+        if (encoded == null) {
+            super.addBlockChanges(diff);
+            return;
+        }
+        // The first change is added normally, so the rest follow on from it
+        add(diff.getX(0), diff.getY(0), diff.getZ(0), diff.getCombinedFrom(0), diff.getCombinedTo(0));
+        int last = diff.size() - 1;
+        blockSize += last;
+        try {
+            int x = diff.getX(last);
+            int y = diff.getY(last);
+            int z = diff.getZ(last);
+            getBlockOS(x, y, z).write(encoded);
+            // Continue the next change from the last one
+            posDel.write(DISCARD, x - originX, y, z - originZ);
+        } catch (Throwable e) {
+            MainUtil.handleError(e);
+        }
+    }
+
+    /**
+     * @return if a subclass changes how blocks are added (so chunk diffs can't be encoded in advance)
+     */
+    private boolean isAddOverridden() {
+        try {
+            return getClass().getMethod("add", int.class, int.class, int.class, int.class, int.class).getDeclaringClass() != FaweStreamChangeSet.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
     @Override
     public void addBiomeChange(int x, int z, BaseBiome from, BaseBiome to) {
         blockSize++;
@@ -0,0 +1,252 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.io.FastByteArraysInputStream;
+import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.TaskManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A global, size bounded cache for history shared by all sessions
+ * - Recent in-memory history (MemoryOptimizedHistory) stays resident and compressed
+ * - Recently read history files (DiskStorageHistory) are kept in memory so repeated undo/redo won't hit the disk
+ * - A cached file is only used while its length and last modified time are unchanged
+ * - When the budget is exceeded, the least recently used entry (of any player) is evicted
+ * - Evicted in-memory history is written to disk asynchronously instead of being discarded
+ */
+public class HistoryCache {
+
+    public static final HistoryCache IMP = new HistoryCache();
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Object, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<File, CachedFile> files = new HashMap<>();
+    private long bytesResident;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong bytesSpilled = new AtomicLong();
+
+    private File spillDirectory;
+
+    private static final class CachedFile {
+        private final byte[] data;
+        private final long length;
+        private final long modified;
+
+        private CachedFile(byte[] data, long length, long modified) {
+            this.data = data;
+            this.length = length;
+            this.modified = modified;
+        }
+
+        private boolean matches(long length, long modified) {
+            return this.length == length && this.modified == modified;
+        }
+    }
+
+    public boolean isEnabled() {
+        return Settings.IMP.HISTORY.MEMORY_CACHE_MB > 0;
+    }
+
+    public long getBudget() {
+        return Math.max(0, (long) Settings.IMP.HISTORY.MEMORY_CACHE_MB) << 20;
+    }
+
+    /**
+     * Keep a closed in-memory change set resident until the budget is exceeded
+     * @param changeSet
+     */
+    public void add(MemoryOptimizedHistory changeSet) {
+        if (!isEnabled()) {
+            return;
+        }
+        long size = changeSet.getSizeInMemory();
+        synchronized (this) {
+            Long previous = entries.put(changeSet, size);
+            if (previous != null) {
+                bytesResident -= previous;
+            }
+            bytesResident += size;
+            trim();
+        }
+    }
+
+    /**
+     * Mark a change set as recently used (e.g. on undo or redo)
+     * @param changeSet
+     */
+    public synchronized void touch(FaweChangeSet changeSet) {
+        entries.get(changeSet);
+    }
+
+    public synchronized void remove(FaweChangeSet changeSet) {
+        Long size = entries.remove(changeSet);
+        if (size != null) {
+            bytesResident -= size;
+        }
+    }
+
+    /**
+     * Open a (compressed) history file, using the cached bytes if present
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public InputStream getInputStream(File file) throws IOException {
+        if (!isEnabled()) {
+            return new FileInputStream(file);
+        }
+        long length = file.length();
+        long modified = file.lastModified();
+        synchronized (this) {
+            CachedFile cached = files.get(file);
+            if (cached != null) {
+                if (cached.matches(length, modified)) {
+                    entries.get(file);
+                    hits.incrementAndGet();
+                    return new FastByteArraysInputStream(new byte[][]{cached.data});
+                }
+                // The file was changed since it was cached
+                invalidate(file);
+            }
+        }
+        misses.incrementAndGet();
+        // Don't let a single file flush the whole cache
+        if (length > getBudget() >> 2) {
+            return new FileInputStream(file);
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        // Only cache the bytes if the file didn't change while it was read
+        if (data.length == length && file.lastModified() == modified) {
+            synchronized (this) {
+                CachedFile previous = files.put(file, new CachedFile(data, length, modified));
+                if (previous == null) {
+                    entries.put(file, (long) data.length);
+                    bytesResident += data.length;
+                } else {
+                    Long size = entries.put(file, (long) data.length);
+                    bytesResident += data.length - (size == null ? 0 : size);
+                }
+                trim();
+            }
+        }
+        return new FastByteArraysInputStream(new byte[][]{data});
+    }
+
+    /**
+     * Discard the cached bytes for a file (e.g. it is being rewritten or deleted)
+     * @param file
+     */
+    public synchronized void invalidate(File file) {
+        if (files.remove(file) != null) {
+            Long size = entries.remove(file);
+            if (size != null) {
+                bytesResident -= size;
+            }
+        }
+    }
+
+    /**
+     * Evict every entry (e.g. when memory is low), writing in-memory history to disk
+     */
+    public synchronized void evictAll() {
+        trim(0);
+    }
+
+    private void trim() {
+        trim(getBudget());
+    }
+
+    private void trim(long budget) {
+        Iterator<Map.Entry<Object, Long>> iter = entries.entrySet().iterator();
+        while (bytesResident > budget && iter.hasNext()) {
+            Map.Entry<Object, Long> entry = iter.next();
+            iter.remove();
+            bytesResident -= entry.getValue();
+            Object key = entry.getKey();
+            if (key instanceof File) {
+                files.remove(key);
+            } else if (key instanceof MemoryOptimizedHistory) {
+                final MemoryOptimizedHistory changeSet = (MemoryOptimizedHistory) key;
+                TaskManager.IMP.async(new Runnable() {
+                    @Override
+                    public void run() {
+                        long size = changeSet.spill(getSpillDirectory());
+                        if (size > 0) {
+                            spilled.incrementAndGet();
+                            bytesSpilled.addAndGet(size);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Where evicted in-memory history is written<br>
+     * - Anything left over from a previous run is deleted, as in-memory history doesn't persist restarts
+     * @return
+     */
+    public synchronized File getSpillDirectory() {
+        if (spillDirectory == null) {
+            spillDirectory = MainUtil.getFile(Fawe.imp().getDirectory(), Settings.IMP.PATHS.HISTORY + File.separator + ".spill");
+            if (spillDirectory.exists()) {
+                MainUtil.deleteDirectory(spillDirectory);
+            }
+            spillDirectory.mkdirs();
+        }
+        return spillDirectory;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long hit = hits.get();
+        long total = hit + misses.get();
+        return total == 0 ? 0 : hit / (double) total;
+    }
+
+    public synchronized long getBytesResident() {
+        return bytesResident;
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getBytesSpilled() {
+        return bytesSpilled.get();
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryCache{" +
+                "entries=" + getEntries() +
+                ", resident=" + (getBytesResident() >> 20) + "MB/" + (getBudget() >> 20) + "MB" +
+                ", hitRate=" + ((int) (getHitRate() * 1000)) / 10d + "%" +
+                ", spilled=" + getSpilled() + " (" + (getBytesSpilled() >> 20) + "MB)" +
+                '}';
+    }
+}
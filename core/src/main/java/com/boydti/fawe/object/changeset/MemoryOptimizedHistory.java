@@ -6,21 +6,29 @@ import com.boydti.fawe.object.FaweOutputStream;
 import com.boydti.fawe.object.io.FastByteArrayOutputStream;
 import com.boydti.fawe.object.io.FastByteArraysInputStream;
 import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.MemoryGovernor;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NBTOutputStream;
 import com.sk89q.worldedit.world.World;
 import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ChangeSet optimized for low memory usage
- * - No disk usage
+ * - No disk usage (unless evicted from the {@link HistoryCache})
  * - High CPU usage
  * - Low memory usage
  */
 public class MemoryOptimizedHistory extends FaweStreamChangeSet {
 
+    private static final AtomicInteger SPILL_ID = new AtomicInteger();
+
     private byte[][] ids;
     private FastByteArrayOutputStream idsStream;
     private FaweOutputStream idsStreamZip;
@@ -45,12 +53,19 @@ public class MemoryOptimizedHistory extends FaweStreamChangeSet {
     private FastByteArrayOutputStream tileRStream;
     private NBTOutputStream tileRStreamZip;
 
+    // Set once the streams have been evicted to disk
+    private File idsFile, biomeFile, entCFile, entRFile, tileCFile, tileRFile;
+    private int spilledSize;
+    private boolean deleted;
+
     public MemoryOptimizedHistory(World world) {
         super(world);
+        MemoryGovernor.IMP.track(MemoryGovernor.Subsystem.HISTORY, this);
     }
 
     public MemoryOptimizedHistory(String world) {
         super(world);
+        MemoryGovernor.IMP.track(MemoryGovernor.Subsystem.HISTORY, this);
     }
 
     @Override
@@ -124,7 +139,7 @@ public class MemoryOptimizedHistory extends FaweStreamChangeSet {
     @Override
     public int getCompressedSize() {
         if (ids == null) {
-            return 0;
+            return spilledSize;
         }
         int count = 0;
         for (byte[] array : ids) {
@@ -135,7 +150,115 @@ public class MemoryOptimizedHistory extends FaweStreamChangeSet {
 
     @Override
     public long getSizeInMemory() {
-        return 92 + getCompressedSize();
+        return 92 + (ids == null ? 0 : getCompressedSize());
+    }
+
+    @Override
+    public long getSizeOnDisk() {
+        return ids == null ? spilledSize : 0;
+    }
+
+    /**
+     * Write the compressed streams to disk and release them from memory<br>
+     * - The change set can still be undone/redone afterwards
+     *
+     * @param folder
+     * @return the number of bytes written
+     */
+    public long spill(File folder) {
+        byte[][] ids, biomes, entC, entR, tileC, tileR;
+        int size;
+        synchronized (this) {
+            if (deleted || this.ids == null && this.biomes == null && this.entC == null && this.entR == null && this.tileC == null && this.tileR == null) {
+                return 0;
+            }
+            ids = this.ids;
+            biomes = this.biomes;
+            entC = this.entC;
+            entR = this.entR;
+            tileC = this.tileC;
+            tileR = this.tileR;
+            size = getCompressedSize();
+        }
+        String name = Integer.toString(SPILL_ID.incrementAndGet());
+        try {
+            File idsFile = write(folder, name + ".bd", ids);
+            File biomeFile = write(folder, name + ".bio", biomes);
+            File entCFile = write(folder, name + ".entt", entC);
+            File entRFile = write(folder, name + ".entf", entR);
+            File tileCFile = write(folder, name + ".nbtt", tileC);
+            File tileRFile = write(folder, name + ".nbtf", tileR);
+            synchronized (this) {
+                this.idsFile = idsFile;
+                this.biomeFile = biomeFile;
+                this.entCFile = entCFile;
+                this.entRFile = entRFile;
+                this.tileCFile = tileCFile;
+                this.tileRFile = tileRFile;
+                if (deleted) {
+                    deleteFiles();
+                    return 0;
+                }
+                this.spilledSize = size;
+                this.ids = null;
+                this.biomes = null;
+                this.entC = null;
+                this.entR = null;
+                this.tileC = null;
+                this.tileR = null;
+            }
+            long total = 0;
+            for (File file : new File[]{idsFile, biomeFile, entCFile, entRFile, tileCFile, tileRFile}) {
+                if (file != null) {
+                    total += file.length();
+                }
+            }
+            return total;
+        } catch (IOException e) {
+            MainUtil.handleError(e);
+            return 0;
+        }
+    }
+
+    private File write(File folder, String name, byte[][] data) throws IOException {
+        if (data == null) {
+            return null;
+        }
+        File file = new File(folder, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (byte[] array : data) {
+                out.write(array);
+            }
+        }
+        return file;
+    }
+
+    private InputStream open(byte[][] data, File file) throws IOException {
+        if (data != null) {
+            return new FastByteArraysInputStream(data);
+        }
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        return null;
+    }
+
+    private void deleteFiles() {
+        for (File file : new File[]{idsFile, biomeFile, entCFile, entRFile, tileCFile, tileRFile}) {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    public void delete() {
+        synchronized (this) {
+            deleted = true;
+            ids = biomes = entC = entR = tileC = tileR = null;
+            deleteFiles();
+        }
+        HistoryCache.IMP.remove(this);
     }
 
     @Override
@@ -154,10 +277,14 @@ public class MemoryOptimizedHistory extends FaweStreamChangeSet {
 
     @Override
     public FaweInputStream getBiomeIS() throws IOException {
-        if (biomes == null) {
+        InputStream is;
+        synchronized (this) {
+            is = open(biomes, biomeFile);
+        }
+        if (is == null) {
             return null;
         }
-        FaweInputStream result = MainUtil.getCompressedIS(new FastByteArraysInputStream(biomes));
+        FaweInputStream result = MainUtil.getCompressedIS(is);
         return result;
     }
 
@@ -175,10 +302,14 @@ public class MemoryOptimizedHistory extends FaweStreamChangeSet {
 
     @Override
     public FaweInputStream getBlockIS() throws IOException {
-        if (ids == null) {
+        InputStream is;
+        synchronized (this) {
+            is = open(ids, idsFile);
+        }
+        if (is == null) {
             return null;
         }
-        FaweInputStream result = MainUtil.getCompressedIS(new FastByteArraysInputStream(ids));
+        FaweInputStream result = MainUtil.getCompressedIS(is);
         readHeader(result);
         return result;
     }
@@ -221,21 +352,37 @@ public class MemoryOptimizedHistory extends FaweStreamChangeSet {
 
     @Override
     public NBTInputStream getEntityCreateIS() throws IOException {
-        return entC == null ? null : new NBTInputStream(MainUtil.getCompressedIS(new FastByteArraysInputStream(entC)));
+        InputStream is;
+        synchronized (this) {
+            is = open(entC, entCFile);
+        }
+        return is == null ? null : new NBTInputStream(MainUtil.getCompressedIS(is));
     }
 
     @Override
     public NBTInputStream getEntityRemoveIS() throws IOException {
-        return entR == null ? null : new NBTInputStream(MainUtil.getCompressedIS(new FastByteArraysInputStream(entR)));
+        InputStream is;
+        synchronized (this) {
+            is = open(entR, entRFile);
+        }
+        return is == null ? null : new NBTInputStream(MainUtil.getCompressedIS(is));
     }
 
     @Override
     public NBTInputStream getTileCreateIS() throws IOException {
-        return tileC == null ? null : new NBTInputStream(MainUtil.getCompressedIS(new FastByteArraysInputStream(tileC)));
+        InputStream is;
+        synchronized (this) {
+            is = open(tileC, tileCFile);
+        }
+        return is == null ? null : new NBTInputStream(MainUtil.getCompressedIS(is));
     }
 
     @Override
     public NBTInputStream getTileRemoveIS() throws IOException {
-        return tileR == null ? null : new NBTInputStream(MainUtil.getCompressedIS(new FastByteArraysInputStream(tileR)));
+        InputStream is;
+        synchronized (this) {
+            is = open(tileR, tileRFile);
+        }
+        return is == null ? null : new NBTInputStream(MainUtil.getCompressedIS(is));
     }
 }
@@ -1,6 +1,8 @@
 package com.boydti.fawe.object.changeset;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.jnbt.anvil.MCAFile;
+import com.boydti.fawe.jnbt.anvil.history.RegionDelta;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.HasFaweQueue;
 import com.boydti.fawe.object.RegionWrapper;
@@ -10,6 +12,7 @@ import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.history.UndoContext;
 import com.sk89q.worldedit.history.change.Change;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -46,6 +49,11 @@ public class MutableAnvilChange implements Change {
     }
 
     public void perform(FaweQueue queue) {
+        String name = source.getFileName().toString();
+        if (name.endsWith(RegionDelta.EXTENSION)) {
+            performDelta(queue, destDir.resolve(name.substring(0, name.length() - RegionDelta.EXTENSION.length())));
+            return;
+        }
         Path dest = destDir.resolve(source.getFileName());
         try {
             Files.move(source, dest, StandardCopyOption.ATOMIC_MOVE);
@@ -64,6 +72,27 @@ public class MutableAnvilChange implements Change {
         }
     }
 
+    private void performDelta(FaweQueue queue, Path dest) {
+        // The source is reused by the iterator
+        Path delta = source;
+        int[] coords = MainUtil.regionNameToCoords(dest.toString());
+        queue.setMCA(coords[0], coords[1], RegionWrapper.GLOBAL(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File file = dest.toFile();
+                    if (!file.exists()) {
+                        file.createNewFile();
+                    }
+                    RegionDelta.apply(delta.toFile(), new MCAFile(queue, file));
+                    Files.delete(delta);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, false, true);
+    }
+
     @Override
     public void redo(UndoContext context) throws WorldEditException {
         throw new UnsupportedOperationException("Redo not supported");
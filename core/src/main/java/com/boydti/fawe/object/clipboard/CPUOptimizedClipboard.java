@@ -161,6 +161,31 @@ public class CPUOptimizedClipboard extends FaweClipboard {
         datas[index] = (byte) value;
     }
 
+    @Override
+    public void setIds(int index, byte[] ids, int offset, int length) {
+        System.arraycopy(ids, offset, this.ids, index, length);
+    }
+
+    @Override
+    public void setDatas(int index, byte[] datas, int offset, int length) {
+        System.arraycopy(datas, offset, this.datas, index, length);
+    }
+
+    @Override
+    public void setAdds(int index, byte[] add, int offset, int length) {
+        synchronized (this) {
+            if (this.add == null) {
+                this.add = new byte[volume];
+            }
+        }
+        super.setAdds(index, add, offset, length);
+    }
+
+    @Override
+    public int getConcurrentAlignment() {
+        return 1;
+    }
+
     private int ylast;
     private int ylasti;
     private int zlast;
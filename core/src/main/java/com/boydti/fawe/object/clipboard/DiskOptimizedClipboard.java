@@ -54,13 +54,15 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
 
     private final HashMap<IntegerTrio, CompoundTag> nbtMap;
     private final HashSet<ClipboardEntity> entities;
-    private final File file;
+    private File file;
 
     private RandomAccessFile braf;
     private MappedByteBuffer mbb;
 
     private FileChannel fc;
     private boolean hasBiomes;
+    private boolean mapped;
+    private boolean deleteOnClose;
 
     public DiskOptimizedClipboard(int width, int height, int length, UUID uuid) {
         this(width, height, length, MainUtil.getFile(Fawe.get() != null ? Fawe.imp().getDirectory() : new File("."), Settings.IMP.PATHS.CLIPBOARD + File.separator + uuid + ".bd"));
@@ -89,10 +91,93 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
         }
     }
 
+    /**
+     * Map the clipboard section of an existing file copy-on-write (see {@link com.boydti.fawe.object.schematic.MappedFormat})
+     * - Blocks are read straight from the OS page cache, which is shared by everything mapping the same file
+     * - Changes stay private to this clipboard and are never written back to the file
+     * - A file which can't be written is copied to a new clipboard file instead
+     *
+     * @param file
+     * @param hasBiomes if the blocks are followed by biomes
+     */
+    public DiskOptimizedClipboard(File file, boolean hasBiomes) {
+        try {
+            nbtMap = new HashMap<>();
+            entities = new HashSet<>();
+            this.file = file;
+            // A private mapping needs a writable channel, nothing is written back to the file
+            boolean writable = file.canWrite();
+            this.braf = new RandomAccessFile(file, writable ? "rw" : "r");
+            braf.seek(2);
+            width = braf.readChar();
+            height = braf.readChar();
+            length = braf.readChar();
+            area = width * length;
+            volume = width * length * height;
+            this.hasBiomes = hasBiomes;
+            this.mapped = true;
+            long size = HEADER_SIZE + ((long) volume << 1) + (hasBiomes ? area : 0);
+            this.fc = braf.getChannel();
+            if (writable) {
+                this.mbb = fc.map(FileChannel.MapMode.PRIVATE, 0, size);
+            } else {
+                // Read only files are copied instead
+                this.mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                unmap(size);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public File getFile() {
         return file;
     }
 
+    /**
+     * @return if this clipboard is a private mapping of a saved file
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Delete the file when this clipboard is closed (e.g. a temporary copy of a stream)
+     * @param deleteOnClose
+     */
+    public void setDeleteOnClose(boolean deleteOnClose) {
+        this.deleteOnClose = deleteOnClose;
+    }
+
+    /**
+     * Copy a mapped clipboard (including its private changes) to a new clipboard file, which can then be resized
+     * - The mapped file is left unchanged (or deleted if it was temporary)
+     * - The copy is kept like any other disk clipboard
+     * @param size the size of the new file
+     * @throws IOException
+     */
+    private void unmap(long size) throws IOException {
+        File copy = MainUtil.getFile(Fawe.imp() != null ? Fawe.imp().getDirectory() : new File("."), Settings.IMP.PATHS.CLIPBOARD + File.separator + UUID.randomUUID() + ".bd");
+        File parent = copy.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        RandomAccessFile copyRaf = new RandomAccessFile(copy, "rw");
+        copyRaf.setLength(Math.max(size, mbb.capacity()));
+        FileChannel copyFc = copyRaf.getChannel();
+        MappedByteBuffer copyMbb = copyFc.map(FileChannel.MapMode.READ_WRITE, 0, copyRaf.length());
+        ByteBuffer source = mbb.duplicate();
+        source.clear();
+        copyMbb.put(source);
+        close();
+        this.file = copy;
+        this.braf = copyRaf;
+        this.fc = copyFc;
+        this.mbb = copyMbb;
+        this.mapped = false;
+        this.deleteOnClose = false;
+    }
+
     private void init() throws IOException {
         if (this.fc == null) {
             this.fc = braf.getChannel();
@@ -103,6 +188,11 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
     private boolean initBiome() {
         if (!hasBiomes) {
             try {
+                if (mapped) {
+                    unmap(HEADER_SIZE + ((long) volume << 1) + area);
+                    hasBiomes = true;
+                    return true;
+                }
                 hasBiomes = true;
                 close();
                 this.braf = new RandomAccessFile(file, "rw");
@@ -238,7 +328,10 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
             area = width * length;
             volume = width * length * height;
             long size = width * height * length * 2l + HEADER_SIZE + (hasBiomes() ? area : 0);
-            if (braf.length() < size) {
+            if (mapped && mbb.capacity() < size) {
+                unmap(size);
+            }
+            if (!mapped && braf.length() < size) {
                 close();
                 this.braf = new RandomAccessFile(file, "rw");
                 braf.setLength(size);
@@ -254,7 +347,9 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
 
     @Override
     public void flush() {
-        mbb.force();
+        if (!mapped) {
+            mbb.force();
+        }
     }
 
     public DiskOptimizedClipboard(int width, int height, int length) {
@@ -297,14 +392,21 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
     public void close() {
         try {
             if (mbb != null) {
-                mbb.force();
+                if (!mapped) {
+                    mbb.force();
+                }
                 fc.close();
                 braf.close();
-                file.setWritable(true);
+                if (!mapped) {
+                    file.setWritable(true);
+                }
                 closeDirectBuffer(mbb);
                 mbb = null;
                 fc = null;
                 braf = null;
+                if (deleteOnClose) {
+                    file.delete();
+                }
             }
         } catch (IOException e) {
             MainUtil.handleError(e);
@@ -555,6 +657,36 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
         mbb.put(index, (byte) ((id & 0xF0) + data));
     }
 
+    @Override
+    public void setIds(int index, byte[] ids, int offset, int length) {
+        int pos = HEADER_SIZE + (index << 1);
+        for (int i = offset, end = offset + length; i < end; i++, pos += 2) {
+            int id = ids[i] & 0xFF;
+            if (id != 0) {
+                char combined = mbb.getChar(pos);
+                mbb.putChar(pos, (char) ((combined & 0xF00F) + (id << 4)));
+            }
+        }
+    }
+
+    @Override
+    public void setDatas(int index, byte[] datas, int offset, int length) {
+        int pos = HEADER_SIZE + (index << 1) + 1;
+        for (int i = offset, end = offset + length; i < end; i++, pos += 2) {
+            int data = datas[i] & 0xFF;
+            if (data != 0) {
+                byte id = mbb.get(pos);
+                mbb.put(pos, (byte) ((id & 0xF0) + data));
+            }
+        }
+    }
+
+    @Override
+    public int getConcurrentAlignment() {
+        // Absolute puts to disjoint positions of the mapped buffer
+        return 1;
+    }
+
     @Override
     public Entity createEntity(Extent world, double x, double y, double z, float yaw, float pitch, BaseEntity entity) {
         FaweClipboard.ClipboardEntity ret = new ClipboardEntity(world, x, y, z, yaw, pitch, entity);
@@ -43,6 +43,77 @@ public abstract class FaweClipboard {
 
     public abstract void setAdd(int index, int id);
 
+    /**
+     * Set a range of ids from a raw (schematic ordered) array
+     * - Zero values are skipped
+     * - See {@link #getConcurrentAlignment()} for calling this from multiple threads
+     *
+     * @param index  the first block index
+     * @param ids    the raw ids
+     * @param offset the offset in the array
+     * @param length the number of values
+     */
+    public void setIds(int index, byte[] ids, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int value = ids[offset + i] & 0xFF;
+            if (value != 0) {
+                setId(index + i, value);
+            }
+        }
+    }
+
+    /**
+     * Set a range of data values from a raw (schematic ordered) array
+     * - Zero values are skipped
+     *
+     * @param index  the first block index
+     * @param datas  the raw data values
+     * @param offset the offset in the array
+     * @param length the number of values
+     */
+    public void setDatas(int index, byte[] datas, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int value = datas[offset + i] & 0xFF;
+            if (value != 0) {
+                setData(index + i, value);
+            }
+        }
+    }
+
+    /**
+     * Set a range of add values from a raw (schematic ordered) nibble array
+     * - Each byte is two blocks, the low nibble being the first
+     *
+     * @param index  the first block index (twice the offset into the AddBlocks array)
+     * @param add    the raw nibble array
+     * @param offset the offset in the array
+     * @param length the number of bytes
+     */
+    public void setAdds(int index, byte[] add, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int value = add[offset + i];
+            if (value != 0) {
+                int first = value & 0x0F;
+                int second = (value & 0xF0) >> 4;
+                int gIndex = index + (i << 1);
+                if (first != 0) setAdd(gIndex, first);
+                if (second != 0) setAdd(gIndex + 1, second);
+            }
+        }
+    }
+
+    /**
+     * The alignment (in blocks) required to call the bulk setters from multiple threads<br>
+     * - Concurrent calls must cover disjoint ranges, each starting at a multiple of this value
+     * - Calls for ids, data and add values must not overlap with each other
+     * - 0 if the bulk setters may only be used from a single thread
+     *
+     * @return the alignment
+     */
+    public int getConcurrentAlignment() {
+        return 0;
+    }
+
     public abstract boolean setTile(int x, int y, int z, CompoundTag tag);
 
     public abstract Entity createEntity(Extent world, double x, double y, double z, float yaw, float pitch, BaseEntity entity);
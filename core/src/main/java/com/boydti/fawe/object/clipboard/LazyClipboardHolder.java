@@ -1,5 +1,6 @@
 package com.boydti.fawe.object.clipboard;
 
+import com.boydti.fawe.object.schematic.MappedFormat;
 import com.boydti.fawe.object.schematic.StructureFormat;
 import com.google.common.io.ByteSource;
 import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
@@ -8,6 +9,7 @@ import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
 import com.sk89q.worldedit.extent.clipboard.io.SchematicReader;
 import com.sk89q.worldedit.world.registry.WorldData;
+import java.io.File;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.UUID;
@@ -39,6 +41,12 @@ public class LazyClipboardHolder extends URIClipboardHolder {
     public synchronized Clipboard getClipboard() {
         if (clipboard == null) {
             try {
+                URI uri = getUri();
+                if (format == ClipboardFormat.MAPPED && uri != null && "file".equals(uri.getScheme())) {
+                    // Map the file directly rather than reading it
+                    this.clipboard = new MappedFormat(new File(uri)).read(getWorldData(), uuid);
+                    return clipboard;
+                }
                 try (InputStream in = source.openBufferedStream()) {
                     final ClipboardReader reader = format.getReader(in);
                     final Clipboard clipboard;
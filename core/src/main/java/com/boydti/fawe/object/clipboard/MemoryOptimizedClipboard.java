@@ -5,6 +5,7 @@ import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.jnbt.NBTStreamer;
 import com.boydti.fawe.object.IntegerTrio;
 import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.MemoryGovernor;
 import com.boydti.fawe.util.ReflectionUtils;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.IntTag;
@@ -17,6 +18,7 @@ import com.sk89q.worldedit.entity.Entity;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.world.biome.BaseBiome;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -39,6 +41,19 @@ public class MemoryOptimizedClipboard extends FaweClipboard {
     private byte[][] add;
 
     private byte[] buffer = new byte[MainUtil.getMaxCompressedLength(BLOCK_SIZE)];
+    // Buffers for the bulk setters, which may be called from several threads
+    private final ThreadLocal<byte[]> blockStore = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BLOCK_SIZE];
+        }
+    };
+    private final ThreadLocal<byte[]> compressedStore = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[MainUtil.getMaxCompressedLength(BLOCK_SIZE)];
+        }
+    };
     private byte[] biomes = null;
 
     private final HashMap<IntegerTrio, CompoundTag> nbtMapLoc;
@@ -76,6 +91,7 @@ public class MemoryOptimizedClipboard extends FaweClipboard {
         nbtMapIndex = new HashMap<>();
         entities = new HashSet<>();
         this.compressionLevel = compressionLevel;
+        MemoryGovernor.IMP.track(MemoryGovernor.Subsystem.CLIPBOARD, this);
     }
 
     public void convertTilesToIndex() {
@@ -325,6 +341,79 @@ public class MemoryOptimizedClipboard extends FaweClipboard {
         saveAdd = true;
     }
 
+    @Override
+    public void setIds(int index, byte[] ids, int offset, int length) {
+        setRange(this.ids, index, ids, offset, length);
+    }
+
+    @Override
+    public void setDatas(int index, byte[] datas, int offset, int length) {
+        setRange(this.datas, index, datas, offset, length);
+    }
+
+    @Override
+    public void setAdds(int index, byte[] add, int offset, int length) {
+        synchronized (this) {
+            if (this.add == null) {
+                this.add = new byte[1 + (volume >> BLOCK_SHIFT)][];
+            }
+        }
+        byte[] nibbles = new byte[length << 1];
+        for (int i = 0, j = 0; i < length; i++) {
+            int value = add[offset + i];
+            nibbles[j++] = (byte) (value & 0x0F);
+            nibbles[j++] = (byte) ((value & 0xF0) >> 4);
+        }
+        setRange(this.add, index, nibbles, 0, nibbles.length);
+    }
+
+    /**
+     * Write raw values straight into the compressed blocks
+     * - Bypasses the last block cache, so this shouldn't be mixed with the single value setters
+     * - Only touches the blocks in range, so calls for different blocks can run concurrently
+     */
+    private void setRange(byte[][] blocks, int index, byte[] values, int offset, int length) {
+        while (length > 0) {
+            int i = index >> BLOCK_SHIFT;
+            int localIndex = index & BLOCK_MASK;
+            int amount = Math.min(length, BLOCK_SIZE - localIndex);
+            byte[] compressed = blocks[i];
+            if (compressed == null && isEmpty(values, offset, amount)) {
+                // Nothing to write
+            } else if (compressionLevel == 0) {
+                // Uncompressed blocks are stored as is
+                byte[] block = compressed != null ? compressed : (blocks[i] = new byte[BLOCK_SIZE]);
+                System.arraycopy(values, offset, block, localIndex, amount);
+            } else {
+                byte[] block = blockStore.get();
+                if (compressed != null) {
+                    MainUtil.decompress(compressed, block, BLOCK_SIZE, compressionLevel);
+                } else {
+                    Arrays.fill(block, (byte) 0);
+                }
+                System.arraycopy(values, offset, block, localIndex, amount);
+                blocks[i] = MainUtil.compress(block, compressedStore.get(), compressionLevel);
+            }
+            index += amount;
+            offset += amount;
+            length -= amount;
+        }
+    }
+
+    private static boolean isEmpty(byte[] values, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (values[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getConcurrentAlignment() {
+        return BLOCK_SIZE;
+    }
+
     @Override
     public void streamIds(NBTStreamer.ByteReader task) {
         int index = 0;
@@ -464,6 +553,27 @@ public class MemoryOptimizedClipboard extends FaweClipboard {
         return total;
     }
 
+    /**
+     * @return the estimated bytes used (without compressing the blocks being modified, unlike {@link #size()})
+     */
+    public long getSizeInMemory() {
+        long total = buffer.length;
+        for (byte[][] arrays : new byte[][][]{ids, datas, add}) {
+            if (arrays != null) {
+                for (byte[] array : arrays) {
+                    if (array != null) {
+                        total += array.length;
+                    }
+                }
+            }
+        }
+        if (lastIds != null) total += lastIds.length;
+        if (lastDatas != null) total += lastDatas.length;
+        if (lastAdd != null) total += lastAdd.length;
+        if (biomes != null) total += biomes.length;
+        return total;
+    }
+
     @Override
     public boolean setTile(int x, int y, int z, CompoundTag tag) {
         nbtMapLoc.put(new IntegerTrio(x, y, z), tag);
@@ -457,6 +457,14 @@ public class ClipboardRemapper {
         return remapIds[id];
     }
 
+    public boolean hasRemapCombined(int combined) {
+        return remap[combined];
+    }
+
+    public int remapCombined(int combined) {
+        return remap[combined] ? remapCombined[combined] : combined;
+    }
+
     public int remapId(int id) {
         if (remapAllIds[id]) {
             return remapCombined[id << 4] >> 4;
@@ -0,0 +1,62 @@
+package com.boydti.fawe.object.collection;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size bit set which can be written by multiple threads<br>
+ * - Bits are set with an atomic or, so concurrent writers never lose a bit<br>
+ * - {@link #getAndClear()} takes the bits set so far, a bit set at the same time is kept for the next call
+ */
+public class AtomicBitSet {
+    private final int size;
+    private final AtomicLongArray words;
+
+    public AtomicBitSet(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >> 6);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void set(int index) {
+        int wordIndex = index >> 6;
+        long bit = 1L << index;
+        while (true) {
+            long word = words.get(wordIndex);
+            if ((word & bit) != 0 || words.compareAndSet(wordIndex, word, word | bit)) {
+                return;
+            }
+        }
+    }
+
+    public boolean get(int index) {
+        return (words.get(index >> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Set every bit
+     */
+    public void setAll() {
+        for (int i = 0; i < words.length(); i++) {
+            int remaining = size - (i << 6);
+            words.set(i, remaining >= 64 ? -1L : (1L << remaining) - 1);
+        }
+    }
+
+    /**
+     * Clear the bits which are set, returning them
+     * @return the bits which were set
+     */
+    public BitSet getAndClear() {
+        long[] snapshot = new long[words.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            if (words.get(i) != 0) {
+                snapshot[i] = words.getAndSet(i, 0);
+            }
+        }
+        return BitSet.valueOf(snapshot);
+    }
+}
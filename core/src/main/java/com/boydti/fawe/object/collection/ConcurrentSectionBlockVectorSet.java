@@ -0,0 +1,114 @@
+package com.boydti.fawe.object.collection;
+
+import com.boydti.fawe.util.MathMan;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe variant of the {@link SectionBlockVectorSet}
+ * - Each 16x16x16 chunk section is a 4096 bit AtomicLongArray
+ * - Sections are allocated up front (see {@link #allocate(int, int, int)}), so the map is only read while threads add positions
+ * - {@link #add(int, int, int)} is an atomic test-and-set, so exactly one thread will claim a position
+ */
+public class ConcurrentSectionBlockVectorSet {
+    private final Long2ObjectOpenHashMap<AtomicLongArray> sections = new Long2ObjectOpenHashMap<>();
+
+    private static long getKey(int x, int y, int z) {
+        return MathMan.tripleWorldCoord(x >> 4, y >> 4, z >> 4);
+    }
+
+    private static int getIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    /**
+     * Allocate a chunk section, so positions in it can be added
+     * - Not thread safe, must be called before other threads use this set
+     * @param sectionX the chunk x
+     * @param sectionY the section index (y >> 4)
+     * @param sectionZ the chunk z
+     */
+    public void allocate(int sectionX, int sectionY, int sectionZ) {
+        long key = MathMan.tripleWorldCoord(sectionX, sectionY, sectionZ);
+        if (!sections.containsKey(key)) {
+            sections.put(key, new AtomicLongArray(64));
+        }
+    }
+
+    public boolean isEmpty() {
+        for (AtomicLongArray section : sections.values()) {
+            for (int i = 0; i < 64; i++) {
+                if (section.get(i) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        AtomicLongArray section = sections.get(getKey(x, y, z));
+        if (section == null) {
+            return false;
+        }
+        int index = getIndex(x, y, z);
+        return (section.get(index >> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Add a position to this set
+     * @param x
+     * @param y
+     * @param z
+     * @return true if this call added the position, false if it was already present
+     * @throws IllegalStateException if the section of the position was not allocated
+     */
+    public boolean add(int x, int y, int z) {
+        AtomicLongArray section = sections.get(getKey(x, y, z));
+        if (section == null) {
+            throw new IllegalStateException("Section not allocated: " + (x >> 4) + "," + (y >> 4) + "," + (z >> 4));
+        }
+        int index = getIndex(x, y, z);
+        int wordIndex = index >> 6;
+        long bit = 1L << index;
+        while (true) {
+            long word = section.get(wordIndex);
+            if ((word & bit) != 0) {
+                return false;
+            }
+            if (section.compareAndSet(wordIndex, word, word | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Copy every position into a non concurrent set
+     * - Should not be called while other threads are adding positions
+     * @param set
+     */
+    public void addTo(SectionBlockVectorSet set) {
+        for (Long2ObjectMap.Entry<AtomicLongArray> entry : sections.long2ObjectEntrySet()) {
+            long key = entry.getLongKey();
+            int bx = (int) MathMan.untripleWorldCoordX(key) << 4;
+            int by = (int) MathMan.untripleWorldCoordY(key) << 4;
+            int bz = (int) MathMan.untripleWorldCoordZ(key) << 4;
+            AtomicLongArray section = entry.getValue();
+            for (int i = 0; i < 64; i++) {
+                long word = section.get(i);
+                int y = by + (i >> 2);
+                int z = bz + ((i & 3) << 2);
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    set.add(bx + (bit & 15), y, z + (bit >> 4));
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        sections.clear();
+    }
+}
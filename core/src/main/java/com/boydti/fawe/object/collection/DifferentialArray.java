@@ -52,6 +52,23 @@ public final class DifferentialArray<T> implements DifferentialCollection<T> {
         }
     }
 
+    /**
+     * Create a differential array with existing (unflushed) changes
+     * @param array
+     * @param changes the changes, in the format returned by {@link #getChanges()}
+     */
+    public DifferentialArray(T array, T changes) {
+        this(array);
+        checkArgument(array.getClass() == changes.getClass() && Array.getLength(changes) == length, "Changes must match the data");
+        this.changes = changes;
+        if (changes instanceof byte[]) {
+            changesBytes = (byte[]) changes;
+        } else if (changes instanceof char[]) {
+            changesChars = (char[]) changes;
+        }
+        this.changed = true;
+    }
+
     public void record(Runnable task) {
         if (changes == null) {
             if (data instanceof byte[]) {
@@ -200,6 +217,13 @@ public final class DifferentialArray<T> implements DifferentialCollection<T> {
         return changed;
     }
 
+    /**
+     * @return the changes since the last flush (old - new for each index), or null
+     */
+    public T getChanges() {
+        return changed ? changes : null;
+    }
+
     @Override
     public T get() {
         return data;
@@ -4,6 +4,7 @@ import com.boydti.fawe.object.FaweInputStream;
 import com.boydti.fawe.object.FaweOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Array;
+import javax.annotation.Nullable;
 
 /**
  * Records changes made through the {@link #set(int, int, int, char)} method<br/>
@@ -15,6 +16,7 @@ public final class DifferentialBlockBuffer implements DifferentialCollection<cha
     private final int t1, t2;
     private char[][][][][] data;
     private char[][][][][] changes;
+    private AtomicBitSet dirtyChunks;
 
     public DifferentialBlockBuffer(int width, int length) {
         this.width = width;
@@ -23,6 +25,14 @@ public final class DifferentialBlockBuffer implements DifferentialCollection<cha
         this.t2 = (width + 15) >> 4;
     }
 
+    /**
+     * Mark the chunk of each block which is set (bit = chunkZ * chunksX + chunkX)
+     * @param dirtyChunks the set to mark, or null to stop tracking
+     */
+    public void setDirtyChunks(@Nullable AtomicBitSet dirtyChunks) {
+        this.dirtyChunks = dirtyChunks;
+    }
+
     @Override
     public char[][][][][] get() {
         return data;
@@ -122,6 +132,9 @@ public final class DifferentialBlockBuffer implements DifferentialCollection<cha
         int localZ = z & 15;
         int chunkX = x >> 4;
         int chunkZ = z >> 4;
+        if (dirtyChunks != null) {
+            dirtyChunks.set(chunkZ * t2 + chunkX);
+        }
         if (data == null) {
             data = new char[t1][][][][];
             changes = new char[0][][][][];
@@ -0,0 +1,358 @@
+package com.boydti.fawe.object.collection;
+
+import com.boydti.fawe.util.MathMan;
+import com.sk89q.worldedit.MutableBlockVector;
+import com.sk89q.worldedit.Vector;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The SectionBlockVectorSet is a CPU optimized Set for storing dense groups of BlockVectors (e.g. flood fill frontiers)
+ * - Internally it uses a map of Section->long[64] where each 16x16x16 chunk section is a flat 4096 bit bitmap
+ * - The last accessed section is cached, so neighbouring lookups rarely touch the map
+ * - Iteration walks set bits a word at a time and does not allocate (see {@link #forEach(BlockVisitor)})
+ * - All BlockVectors must be a valid world coordinate: y=[0,255],x=[-30000000,30000000],z=[-30000000,30000000]
+ * - This will use 512 bytes per touched section, so prefer the {@link BlockVectorSet} for sparse data
+ * - Extends the BlockVectorSet so it can be used where one is expected (e.g. {@code BreadthFirstSearch#getVisited()})
+ */
+public class SectionBlockVectorSet extends BlockVectorSet {
+    private final Long2ObjectOpenHashMap<long[]> sections = new Long2ObjectOpenHashMap<>();
+
+    private long lastKey = Long.MIN_VALUE;
+    private long[] lastSection;
+
+    public interface BlockVisitor {
+        void run(int x, int y, int z);
+    }
+
+    private static long getKey(int x, int y, int z) {
+        return MathMan.tripleWorldCoord(x >> 4, y >> 4, z >> 4);
+    }
+
+    private static int getIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    private long[] getSection(long key) {
+        if (key == lastKey) {
+            return lastSection;
+        }
+        long[] section = sections.get(key);
+        lastKey = key;
+        lastSection = section;
+        return section;
+    }
+
+    private long[] getOrCreateSection(long key) {
+        long[] section = getSection(key);
+        if (section == null) {
+            section = new long[64];
+            sections.put(key, section);
+            lastSection = section;
+        }
+        return section;
+    }
+
+    private void removeSection(long key) {
+        sections.remove(key);
+        if (key == lastKey) {
+            lastSection = null;
+        }
+    }
+
+    private static boolean isEmpty(long[] section) {
+        for (long word : section) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (long[] section : sections.values()) {
+            for (long word : section) {
+                size += Long.bitCount(word);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (long[] section : sections.values()) {
+            if (!isEmpty(section)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Vector get(int index) {
+        int count = 0;
+        for (Long2ObjectMap.Entry<long[]> entry : sections.long2ObjectEntrySet()) {
+            long[] section = entry.getValue();
+            for (int i = 0; i < section.length; i++) {
+                long word = section[i];
+                int bits = Long.bitCount(word);
+                if (count + bits > index) {
+                    for (int j = index - count; j > 0; j--) {
+                        word &= word - 1;
+                    }
+                    long key = entry.getLongKey();
+                    int bit = (i << 6) + Long.numberOfTrailingZeros(word);
+                    return MutableBlockVector.get(
+                            ((int) MathMan.untripleWorldCoordX(key) << 4) + (bit & 15),
+                            ((int) MathMan.untripleWorldCoordY(key) << 4) + (bit >> 8),
+                            ((int) MathMan.untripleWorldCoordZ(key) << 4) + ((bit >> 4) & 15));
+                }
+                count += bits;
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        long[] section = getSection(getKey(x, y, z));
+        if (section == null) {
+            return false;
+        }
+        int index = getIndex(x, y, z);
+        return (section[index >> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof Vector) {
+            Vector v = (Vector) o;
+            return contains(v.getBlockX(), v.getBlockY(), v.getBlockZ());
+        }
+        return false;
+    }
+
+    public boolean add(int x, int y, int z) {
+        long[] section = getOrCreateSection(getKey(x, y, z));
+        int index = getIndex(x, y, z);
+        int wordIndex = index >> 6;
+        long word = section[wordIndex];
+        long bit = 1L << index;
+        if ((word & bit) != 0) {
+            return false;
+        }
+        section[wordIndex] = word | bit;
+        return true;
+    }
+
+    @Override
+    public boolean add(Vector vector) {
+        return add(vector.getBlockX(), vector.getBlockY(), vector.getBlockZ());
+    }
+
+    public boolean remove(int x, int y, int z) {
+        long key = getKey(x, y, z);
+        long[] section = getSection(key);
+        if (section == null) {
+            return false;
+        }
+        int index = getIndex(x, y, z);
+        int wordIndex = index >> 6;
+        long word = section[wordIndex];
+        long bit = 1L << index;
+        if ((word & bit) == 0) {
+            return false;
+        }
+        section[wordIndex] = word & ~bit;
+        if (section[wordIndex] == 0 && isEmpty(section)) {
+            removeSection(key);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o instanceof Vector) {
+            Vector v = (Vector) o;
+            return remove(v.getBlockX(), v.getBlockY(), v.getBlockZ());
+        }
+        return false;
+    }
+
+    /**
+     * Check a position without using the section cache<br>
+     * - Safe to call from multiple threads as long as the set is not being modified
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean containsConcurrent(int x, int y, int z) {
+        long[] section = sections.get(getKey(x, y, z));
+        if (section == null) {
+            return false;
+        }
+        int index = getIndex(x, y, z);
+        return (section[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Visit every position in this set without allocating a vector per entry
+     * - The set must not be modified while it is being visited
+     * @param visitor
+     */
+    public void forEach(BlockVisitor visitor) {
+        for (Long2ObjectMap.Entry<long[]> entry : sections.long2ObjectEntrySet()) {
+            forEach(entry.getLongKey(), entry.getValue(), visitor);
+        }
+    }
+
+    /**
+     * Visit every position within a single chunk section
+     * - Safe to call from multiple threads as long as the set is not being modified
+     * @param sectionX the chunk x
+     * @param sectionY the section index (y >> 4)
+     * @param sectionZ the chunk z
+     * @param visitor
+     */
+    public void forEach(int sectionX, int sectionY, int sectionZ, BlockVisitor visitor) {
+        long key = MathMan.tripleWorldCoord(sectionX, sectionY, sectionZ);
+        long[] section = sections.get(key);
+        if (section != null) {
+            forEach(key, section, visitor);
+        }
+    }
+
+    private static void forEach(long key, long[] section, BlockVisitor visitor) {
+        int bx = (int) MathMan.untripleWorldCoordX(key) << 4;
+        int by = (int) MathMan.untripleWorldCoordY(key) << 4;
+        int bz = (int) MathMan.untripleWorldCoordZ(key) << 4;
+        for (int i = 0; i < section.length; i++) {
+            long word = section[i];
+            if (word == 0) {
+                continue;
+            }
+            // Each word is 4 rows of x for a fixed y and 4 consecutive z
+            int y = by + (i >> 2);
+            int z = bz + ((i & 3) << 2);
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                visitor.run(bx + (bit & 15), y, z + (bit >> 4));
+            }
+        }
+    }
+
+    /**
+     * Visit each chunk section which has at least one position in this set
+     * @param visitor receives (chunkX, sectionY, chunkZ)
+     */
+    public void forEachSection(BlockVisitor visitor) {
+        for (long key : sections.keySet()) {
+            visitor.run((int) MathMan.untripleWorldCoordX(key), (int) MathMan.untripleWorldCoordY(key), (int) MathMan.untripleWorldCoordZ(key));
+        }
+    }
+
+    @Override
+    public Iterator<Vector> iterator() {
+        final ObjectIterator<Long2ObjectMap.Entry<long[]>> entries = sections.long2ObjectEntrySet().iterator();
+        return new Iterator<Vector>() {
+            private final MutableBlockVector mutable = new MutableBlockVector();
+            private long[] section;
+            private int bx, by, bz;
+            private int wordIndex = 64;
+            private long word;
+            private int previous = -1;
+            private long[] previousSection;
+
+            private boolean advance() {
+                while (word == 0) {
+                    if (++wordIndex >= 64) {
+                        if (!entries.hasNext()) {
+                            return false;
+                        }
+                        Long2ObjectMap.Entry<long[]> entry = entries.next();
+                        long key = entry.getLongKey();
+                        section = entry.getValue();
+                        bx = (int) MathMan.untripleWorldCoordX(key) << 4;
+                        by = (int) MathMan.untripleWorldCoordY(key) << 4;
+                        bz = (int) MathMan.untripleWorldCoordZ(key) << 4;
+                        wordIndex = 0;
+                    }
+                    word = section[wordIndex];
+                }
+                return true;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return advance();
+            }
+
+            @Override
+            public Vector next() {
+                if (!advance()) {
+                    throw new NoSuchElementException("End of iterator");
+                }
+                int bit = Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                previous = (wordIndex << 6) + bit;
+                previousSection = section;
+                return mutable.setComponents(bx + (bit & 15), by + (wordIndex >> 2), bz + ((wordIndex & 3) << 2) + (bit >> 4));
+            }
+
+            @Override
+            public void remove() {
+                if (previous == -1) {
+                    throw new IllegalStateException();
+                }
+                previousSection[previous >> 6] &= ~(1L << previous);
+                previous = -1;
+                if (previousSection == section && word == 0 && isEmpty(section)) {
+                    entries.remove();
+                    lastKey = Long.MIN_VALUE;
+                    lastSection = null;
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        for (Object o : c) {
+            if (!contains(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Vector> c) {
+        boolean result = false;
+        for (Vector v : c) {
+            result |= add(v);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean result = false;
+        for (Object o : c) {
+            result |= remove(o);
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        sections.clear();
+        lastKey = Long.MIN_VALUE;
+        lastSection = null;
+    }
+}
@@ -0,0 +1,584 @@
+package com.boydti.fawe.object.collection;
+
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweOutputStream;
+import com.boydti.fawe.object.change.StreamChange;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A width x length byte or char layer, indexed by (z * width + x)<br/>
+ * - Without a file, this is a single {@link DifferentialArray} on the heap<br/>
+ * - With a file, the layer is split into 512x512 tiles (aligned to region files), which are read from disk when used.
+ * At most maxTiles are kept on the heap, the least recently used tile is written back when another is loaded<br/>
+ * - Each tile is a {@link DifferentialArray}, so changes are recorded per tile. Unflushed changes of an unloaded tile
+ * are kept in a second file.<br/>
+ * - Loading and evicting tiles is synchronized. The last used tile is accessed without the lock, but it's pinned while
+ * in use, so it can't be evicted under another thread<br/>
+ * - As with a heap layer, sets aren't synchronized with each other
+ */
+public final class TiledDifferentialArray implements StreamChange, Closeable {
+    public static final int TILE_BITS = 9;
+    public static final int TILE_SIZE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final int TILE_AREA = TILE_SIZE * TILE_SIZE;
+
+    private final int width;
+    private final int chunksX, chunksZ;
+    private final boolean chars;
+    private final int defaultValue;
+
+    // Heap mode
+    private final DifferentialArray single;
+
+    // Tiled mode
+    private final int tilesX;
+    private final int maxTiles;
+    private final long tileBytes;
+    private final Tile[] tiles;
+    private final long[] lastUsed;
+    private final boolean[] written;
+    private final boolean[] dirty;
+    private final boolean[] spilled;
+    private final File file;
+    private final File changesFile;
+    private RandomAccessFile dataRaf;
+    private RandomAccessFile changesRaf;
+    // Tile reads and writes go through this buffer (only used while synchronized)
+    private ByteBuffer ioBuffer;
+    private int loaded;
+    private long clock;
+    private volatile Tile last;
+
+    private AtomicBitSet dirtyChunks;
+
+    /**
+     * @param width
+     * @param length
+     * @param chars        if this is a char layer (otherwise byte)
+     * @param defaultValue the initial value of every index
+     * @param file         the file to store tiles in, or null to keep the layer on the heap
+     * @param maxTiles     the maximum number of tiles on the heap
+     */
+    public TiledDifferentialArray(int width, int length, boolean chars, int defaultValue, @Nullable File file, int maxTiles) {
+        this.width = width;
+        this.chunksX = (width + 15) >> 4;
+        this.chunksZ = (length + 15) >> 4;
+        this.chars = chars;
+        this.defaultValue = defaultValue;
+        this.file = file;
+        if (file == null) {
+            int area = width * length;
+            single = chars ? new DifferentialArray(new char[area]) : new DifferentialArray(new byte[area]);
+            if (defaultValue != 0) {
+                fill(single.get(), defaultValue);
+            }
+            tilesX = 0;
+            this.maxTiles = 0;
+            tileBytes = 0;
+            tiles = null;
+            lastUsed = null;
+            written = dirty = spilled = null;
+            changesFile = null;
+        } else {
+            single = null;
+            tilesX = (width + TILE_MASK) >> TILE_BITS;
+            int tilesZ = (length + TILE_MASK) >> TILE_BITS;
+            int numTiles = tilesX * tilesZ;
+            this.maxTiles = Math.max(1, maxTiles);
+            tileBytes = chars ? TILE_AREA << 1 : TILE_AREA;
+            tiles = new Tile[numTiles];
+            lastUsed = new long[numTiles];
+            written = new boolean[numTiles];
+            dirty = new boolean[numTiles];
+            spilled = new boolean[numTiles];
+            changesFile = new File(file.getPath() + ".changes");
+            file.getParentFile().mkdirs();
+            file.deleteOnExit();
+            changesFile.deleteOnExit();
+        }
+    }
+
+    public boolean isTiled() {
+        return single == null;
+    }
+
+    /**
+     * Mark the chunk of each index which is set (bit = chunkZ * chunksX + chunkX)
+     * @param dirtyChunks the set to mark, or null to stop tracking
+     */
+    public void setDirtyChunks(@Nullable AtomicBitSet dirtyChunks) {
+        this.dirtyChunks = dirtyChunks;
+    }
+
+    private void markDirty(int x, int z) {
+        dirtyChunks.set((z >> 4) * chunksX + (x >> 4));
+    }
+
+    private Object newTileArray() {
+        return chars ? new char[TILE_AREA] : new byte[TILE_AREA];
+    }
+
+    private void fill(Object array, int value) {
+        if (chars) {
+            Arrays.fill((char[]) array, (char) value);
+        } else {
+            Arrays.fill((byte[]) array, (byte) value);
+        }
+    }
+
+    private ByteBuffer getBuffer() {
+        if (ioBuffer == null) {
+            ioBuffer = ByteBuffer.allocateDirect((int) tileBytes);
+        }
+        ioBuffer.clear();
+        return ioBuffer;
+    }
+
+    private void read(RandomAccessFile raf, int tile, Object array) throws IOException {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer buffer = getBuffer();
+        long pos = tile * tileBytes;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                throw new EOFException("Tile " + tile + " of " + file);
+            }
+        }
+        buffer.flip();
+        if (chars) {
+            buffer.asCharBuffer().get((char[]) array);
+        } else {
+            buffer.get((byte[]) array);
+        }
+    }
+
+    private void write(RandomAccessFile raf, int tile, Object array) throws IOException {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer buffer = getBuffer();
+        if (chars) {
+            buffer.asCharBuffer().put((char[]) array);
+        } else {
+            buffer.put((byte[]) array);
+        }
+        // The whole buffer is the tile (the char view doesn't move the position)
+        buffer.clear();
+        long pos = tile * tileBytes;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, pos + buffer.position());
+        }
+    }
+
+    /**
+     * A loaded tile, which threads pin while using it without the lock
+     */
+    private static final class Tile {
+        final int index;
+        final DifferentialArray array;
+        final AtomicInteger users = new AtomicInteger();
+        volatile boolean evicted;
+        // If the array has allocated its changes, so it can be set without the lock
+        volatile boolean recording;
+
+        Tile(int index, DifferentialArray array) {
+            this.index = index;
+            this.array = array;
+        }
+
+        /**
+         * @return if the tile can be used (call {@link #unpin()} after), or false if it has been evicted
+         */
+        boolean pin() {
+            users.incrementAndGet();
+            if (evicted) {
+                users.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        void unpin() {
+            users.decrementAndGet();
+        }
+
+        // Only called while synchronized
+        void evict() {
+            evicted = true;
+            while (users.get() != 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * @param set if the tile will be set
+     * @return the last used tile, pinned, or null if it's another tile (or evicted)
+     */
+    private Tile pinLast(int tile, boolean set) {
+        Tile cached = last;
+        if (cached != null && cached.index == tile && (!set || cached.recording) && cached.pin()) {
+            return cached;
+        }
+        return null;
+    }
+
+    // Only called while synchronized
+    private DifferentialArray getTile(int tile) {
+        Tile loadedTile = tiles[tile];
+        if (loadedTile == null) {
+            loadedTile = load(tile);
+        }
+        lastUsed[tile] = clock++;
+        last = loadedTile;
+        return loadedTile.array;
+    }
+
+    private Tile load(int tile) {
+        Tile loadedTile = tiles[tile];
+        if (loadedTile != null) {
+            return loadedTile;
+        }
+        DifferentialArray array;
+        try {
+            if (loaded >= maxTiles) {
+                evict();
+            }
+            Object data = newTileArray();
+            if (written[tile]) {
+                read(getDataFile(), tile, data);
+            } else if (defaultValue != 0) {
+                fill(data, defaultValue);
+            }
+            if (spilled[tile]) {
+                Object changes = newTileArray();
+                read(getChangesFile(), tile, changes);
+                array = new DifferentialArray(data, changes);
+                spilled[tile] = false;
+            } else {
+                array = new DifferentialArray(data);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        loadedTile = new Tile(tile, array);
+        tiles[tile] = loadedTile;
+        loaded++;
+        return loadedTile;
+    }
+
+    private void evict() throws IOException {
+        int oldest = -1;
+        Tile cached = last;
+        // The last tile is used without updating lastUsed, so it's the most recently used
+        int keep = cached != null && loaded > 1 ? cached.index : -1;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null && i != keep && (oldest == -1 || lastUsed[i] < lastUsed[oldest])) {
+                oldest = i;
+            }
+        }
+        if (oldest == -1) {
+            return;
+        }
+        Tile oldestTile = tiles[oldest];
+        if (oldestTile == cached) {
+            last = null;
+        }
+        // Wait for the threads using it, so their sets are written back
+        oldestTile.evict();
+        DifferentialArray array = oldestTile.array;
+        if (dirty[oldest]) {
+            write(getDataFile(), oldest, array.get());
+            written[oldest] = true;
+            dirty[oldest] = false;
+        }
+        Object changes = array.getChanges();
+        if (changes != null) {
+            write(getChangesFile(), oldest, changes);
+            spilled[oldest] = true;
+        }
+        tiles[oldest] = null;
+        loaded--;
+    }
+
+    private RandomAccessFile getDataFile() throws IOException {
+        if (dataRaf == null) {
+            dataRaf = new RandomAccessFile(file, "rw");
+        }
+        return dataRaf;
+    }
+
+    private RandomAccessFile getChangesFile() throws IOException {
+        if (changesRaf == null) {
+            changesRaf = new RandomAccessFile(changesFile, "rw");
+        }
+        return changesRaf;
+    }
+
+    private int getTileIndex(int x, int z) {
+        return (z >> TILE_BITS) * tilesX + (x >> TILE_BITS);
+    }
+
+    private static int getLocalIndex(int x, int z) {
+        return ((z & TILE_MASK) << TILE_BITS) + (x & TILE_MASK);
+    }
+
+    public byte getByte(int index) {
+        if (single != null) {
+            return single.getByte(index);
+        }
+        int z = index / width;
+        int x = index - z * width;
+        int tile = getTileIndex(x, z);
+        Tile cached = pinLast(tile, false);
+        if (cached != null) {
+            try {
+                return cached.array.getByte(getLocalIndex(x, z));
+            } finally {
+                cached.unpin();
+            }
+        }
+        synchronized (this) {
+            return getTile(tile).getByte(getLocalIndex(x, z));
+        }
+    }
+
+    public char getChar(int index) {
+        if (single != null) {
+            return single.getChar(index);
+        }
+        int z = index / width;
+        int x = index - z * width;
+        int tile = getTileIndex(x, z);
+        Tile cached = pinLast(tile, false);
+        if (cached != null) {
+            try {
+                return cached.array.getChar(getLocalIndex(x, z));
+            } finally {
+                cached.unpin();
+            }
+        }
+        synchronized (this) {
+            return getTile(tile).getChar(getLocalIndex(x, z));
+        }
+    }
+
+    public void setByte(int index, byte value) {
+        if (single != null) {
+            single.setByte(index, value);
+            if (dirtyChunks != null) {
+                int z = index / width;
+                markDirty(index - z * width, z);
+            }
+            return;
+        }
+        int z = index / width;
+        int x = index - z * width;
+        if (dirtyChunks != null) markDirty(x, z);
+        int tile = getTileIndex(x, z);
+        Tile cached = pinLast(tile, true);
+        if (cached != null) {
+            try {
+                cached.array.setByte(getLocalIndex(x, z), value);
+                dirty[tile] = true;
+            } finally {
+                cached.unpin();
+            }
+            return;
+        }
+        synchronized (this) {
+            getTile(tile).setByte(getLocalIndex(x, z), value);
+            dirty[tile] = true;
+            tiles[tile].recording = true;
+        }
+    }
+
+    public void setChar(int index, char value) {
+        if (single != null) {
+            single.setChar(index, value);
+            if (dirtyChunks != null) {
+                int z = index / width;
+                markDirty(index - z * width, z);
+            }
+            return;
+        }
+        int z = index / width;
+        int x = index - z * width;
+        if (dirtyChunks != null) markDirty(x, z);
+        int tile = getTileIndex(x, z);
+        Tile cached = pinLast(tile, true);
+        if (cached != null) {
+            try {
+                cached.array.setChar(getLocalIndex(x, z), value);
+                dirty[tile] = true;
+            } finally {
+                cached.unpin();
+            }
+            return;
+        }
+        synchronized (this) {
+            getTile(tile).setChar(getLocalIndex(x, z), value);
+            dirty[tile] = true;
+            tiles[tile].recording = true;
+        }
+    }
+
+    /**
+     * Set every index to a value (recorded as a change)
+     * @param value
+     */
+    public void fill(int value) {
+        if (dirtyChunks != null) {
+            dirtyChunks.setAll();
+        }
+        if (single != null) {
+            fill(single, value);
+            return;
+        }
+        synchronized (this) {
+            for (int tile = 0; tile < tiles.length; tile++) {
+                fill(getTile(tile), value);
+                dirty[tile] = true;
+            }
+        }
+    }
+
+    private void fill(DifferentialArray array, int value) {
+        if (chars) {
+            char[] data = array.getCharArray();
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] != value) array.setChar(i, (char) value);
+            }
+        } else {
+            byte[] data = array.getByteArray();
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] != (byte) value) array.setByte(i, (byte) value);
+            }
+        }
+    }
+
+    private boolean isModified(int tile) {
+        Tile loadedTile = tiles[tile];
+        return spilled[tile] || (loadedTile != null && loadedTile.array.isModified());
+    }
+
+    /**
+     * @return the estimated bytes on the heap (the loaded tiles, or the whole layer if it isn't tiled), doubled if modified
+     */
+    public synchronized long getSizeInMemory() {
+        if (single != null) {
+            long size = (long) (chars ? 2 : 1) * chunksX * chunksZ * 256;
+            return single.isModified() ? size << 1 : size;
+        }
+        return (long) loaded * tileBytes * 2;
+    }
+
+    public boolean isModified() {
+        if (single != null) {
+            return single.isModified();
+        }
+        synchronized (this) {
+            for (int tile = 0; tile < tiles.length; tile++) {
+                if (isModified(tile)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void flushChanges(FaweOutputStream out) throws IOException {
+        if (single != null) {
+            single.flushChanges(out);
+            return;
+        }
+        synchronized (this) {
+            int count = 0;
+            for (int tile = 0; tile < tiles.length; tile++) {
+                if (isModified(tile)) {
+                    count++;
+                }
+            }
+            out.writeVarInt(count);
+            for (int tile = 0; tile < tiles.length && count > 0; tile++) {
+                if (isModified(tile)) {
+                    out.writeVarInt(tile);
+                    getTile(tile).flushChanges(out);
+                    count--;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void undoChanges(FaweInputStream in) throws IOException {
+        if (single != null) {
+            single.undoChanges(in);
+            return;
+        }
+        synchronized (this) {
+            int count = in.readVarInt();
+            for (int i = 0; i < count; i++) {
+                int tile = in.readVarInt();
+                getTile(tile).undoChanges(in);
+                dirty[tile] = true;
+            }
+        }
+    }
+
+    @Override
+    public void redoChanges(FaweInputStream in) throws IOException {
+        if (single != null) {
+            single.redoChanges(in);
+            return;
+        }
+        synchronized (this) {
+            int count = in.readVarInt();
+            for (int i = 0; i < count; i++) {
+                int tile = in.readVarInt();
+                getTile(tile).redoChanges(in);
+                dirty[tile] = true;
+            }
+        }
+    }
+
+    /**
+     * Close and delete the backing files (if tiled)
+     */
+    @Override
+    public synchronized void close() {
+        if (single != null) {
+            return;
+        }
+        last = null;
+        for (Tile loadedTile : tiles) {
+            if (loadedTile != null) {
+                loadedTile.evict();
+            }
+        }
+        Arrays.fill(tiles, null);
+        loaded = 0;
+        ioBuffer = null;
+        try {
+            if (dataRaf != null) {
+                dataRaf.close();
+                dataRaf = null;
+            }
+            if (changesRaf != null) {
+                changesRaf.close();
+                changesRaf = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+        changesFile.delete();
+    }
+}
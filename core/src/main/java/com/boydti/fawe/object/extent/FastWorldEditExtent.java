@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.extent;
 
 import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.object.BlockBatch;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.HasFaweQueue;
 import com.boydti.fawe.util.MainUtil;
@@ -129,6 +130,38 @@ public class FastWorldEditExtent extends AbstractDelegateExtent implements HasFa
         }
     }
 
+    @Override
+    public void getBlocks(BlockBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            batch.setCombined(i, queue.getCombinedId4Data(batch.getX(i), batch.getY(i), batch.getZ(i), 0));
+        }
+    }
+
+    @Override
+    public int setBlocks(BlockBatch batch) throws WorldEditException {
+        int changed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int x = batch.getX(i);
+            int y = batch.getY(i);
+            int z = batch.getZ(i);
+            int combined = batch.getCombined(i);
+            int id = combined >> 4;
+            boolean result;
+            if (FaweCache.hasNBT(id) || id == 65) {
+                // Tiles and rotation fixes
+                result = setBlock(x, y, z, FaweCache.CACHE_BLOCK[combined]);
+            } else if (FaweCache.hasData(id)) {
+                result = queue.setBlock(x, y, z, id, combined & 0xF);
+            } else {
+                result = queue.setBlock(x, y, z, id);
+            }
+            if (result) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
     @Override
     public List<? extends Entity> getEntities() {
         return world.getEntities();
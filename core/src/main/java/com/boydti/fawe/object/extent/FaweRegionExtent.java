@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.extent;
 
 import com.boydti.fawe.config.BBC;
+import com.boydti.fawe.object.BlockBatch;
 import com.boydti.fawe.object.FaweLimit;
 import com.boydti.fawe.util.WEManager;
 import com.sk89q.worldedit.EditSession;
@@ -36,6 +37,19 @@ public abstract class FaweRegionExtent extends ResettableExtent {
 
     public abstract Collection<Region> getRegions();
 
+    /**
+     * Used to check a batch of blocks once, rather than per block
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @param minY
+     * @param maxY
+     * @return if every block of the chunk between minY and maxY is inside (false if unknown)
+     */
+    public boolean containsChunk(int chunkX, int chunkZ, int minY, int maxY) {
+        return false;
+    }
+
     public boolean isGlobal() {
         for (Region region : getRegions()) {
             if (region.isGlobal()) {
@@ -75,6 +89,31 @@ public abstract class FaweRegionExtent extends ResettableExtent {
         return super.setBlock(x, y, z, block);
     }
 
+    @Override
+    public int setBlocks(BlockBatch batch) throws WorldEditException {
+        if (!containsChunk(batch.getChunkX(), batch.getChunkZ(), batch.getMinY(), batch.getMaxY())) {
+            int size = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (contains(batch.getX(i), batch.getY(i), batch.getZ(i))) {
+                    batch.move(i, size++);
+                } else if (!limit.MAX_FAILS()) {
+                    WEManager.IMP.cancelEditSafe(this, BBC.WORLDEDIT_CANCEL_REASON_OUTSIDE_REGION);
+                }
+            }
+            batch.truncate(size);
+        }
+        return setExtentBlocks(batch);
+    }
+
+    @Override
+    public void getBlocks(BlockBatch batch) {
+        if (containsChunk(batch.getChunkX(), batch.getChunkZ(), batch.getMinY(), batch.getMaxY())) {
+            getExtentBlocks(batch);
+        } else {
+            super.getBlocks(batch);
+        }
+    }
+
     @Override
     public boolean setBiome(Vector2D position, BaseBiome biome) {
         if (!contains(position)) {
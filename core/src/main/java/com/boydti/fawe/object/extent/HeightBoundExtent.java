@@ -33,6 +33,11 @@ public class HeightBoundExtent extends FaweRegionExtent {
         return lastResult = (y >= min && y <= max);
     }
 
+    @Override
+    public boolean containsChunk(int chunkX, int chunkZ, int minY, int maxY) {
+        return minY >= min && maxY <= max;
+    }
+
     @Override
     public Collection<Region> getRegions() {
         return Arrays.asList(new RegionWrapper(Integer.MIN_VALUE, Integer.MAX_VALUE, min, max, Integer.MIN_VALUE, Integer.MAX_VALUE));
@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.extent;
 
 import com.boydti.fawe.object.FaweLimit;
+import com.boydti.fawe.object.regions.RegionChunkMap;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.regions.Region;
 import java.util.Arrays;
@@ -8,9 +9,8 @@ import java.util.Collection;
 
 public class MultiRegionExtent extends FaweRegionExtent {
 
-    private Region region;
     private final Region[] regions;
-    private int index;
+    private final RegionChunkMap chunks;
 
     /**
      * Create a new instance.
@@ -19,45 +19,23 @@ public class MultiRegionExtent extends FaweRegionExtent {
      */
     public MultiRegionExtent(Extent extent, FaweLimit limit, Region[] regions) {
         super(extent, limit);
-        this.index = 0;
-        this.region = regions[0];
         this.regions = regions;
+        this.chunks = new RegionChunkMap(regions);
     }
 
     @Override
     public boolean contains(int x, int y, int z) {
-        if (region.contains(x, y, z)) {
-            return true;
-        }
-        for (int i = 0; i < regions.length; i++) {
-            if (i != index) {
-                Region current = regions[i];
-                if (current.contains(x, y, z)) {
-                    region = current;
-                    index = i;
-                    return true;
-                }
-            }
-        }
-        return false;
+        return chunks.contains(x, y, z);
     }
 
     @Override
     public boolean contains(int x, int z) {
-        if (region.contains(x, z)) {
-            return true;
-        }
-        for (int i = 0; i < regions.length; i++) {
-            if (i != index) {
-                Region current = regions[i];
-                if (current.contains(x, z)) {
-                    region = current;
-                    index = i;
-                    return true;
-                }
-            }
-        }
-        return false;
+        return chunks.contains(x, z);
+    }
+
+    @Override
+    public boolean containsChunk(int chunkX, int chunkZ, int minY, int maxY) {
+        return minY >= 0 && maxY <= 255 && chunks.isInside(chunkX, chunkZ);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.extent;
 
 import com.boydti.fawe.config.BBC;
+import com.boydti.fawe.object.BlockBatch;
 import com.boydti.fawe.object.FaweLimit;
 import com.boydti.fawe.object.exception.FaweException;
 import com.sk89q.worldedit.Vector;
@@ -78,6 +79,16 @@ public class NullExtent extends FaweRegionExtent {
         throw new FaweException(reason);
     }
 
+    @Override
+    public int setBlocks(BlockBatch batch) throws WorldEditException {
+        throw new FaweException(reason);
+    }
+
+    @Override
+    public void getBlocks(BlockBatch batch) {
+        throw new FaweException(reason);
+    }
+
     @Override
     public Entity createEntity(final Location arg0, final BaseEntity arg1) {
         throw new FaweException(reason);
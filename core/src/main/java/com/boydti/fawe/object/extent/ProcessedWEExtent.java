@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.extent;
 
 import com.boydti.fawe.config.BBC;
+import com.boydti.fawe.object.BlockBatch;
 import com.boydti.fawe.object.FaweLimit;
 import com.boydti.fawe.util.WEManager;
 import com.sk89q.jnbt.CompoundTag;
@@ -102,6 +103,30 @@ public class ProcessedWEExtent extends AbstractDelegateExtent {
         }
     }
 
+    @Override
+    public int setBlocks(BlockBatch batch) throws WorldEditException {
+        // Batches don't have NBT, so only the changes are limited
+        int allowed = limit.MAX_CHANGES(batch.size());
+        if (allowed < batch.size()) {
+            if (allowed == 0) {
+                WEManager.IMP.cancelEdit(this, BBC.WORLDEDIT_CANCEL_REASON_MAX_CHANGES);
+                return 0;
+            }
+            // Count the part which is allowed. The limit is now used up, so the next change cancels the edit
+            batch.truncate(allowed);
+            return extent.setBlocks(batch);
+        }
+        return extent.setBlocks(batch);
+    }
+
+    @Override
+    public void getBlocks(BlockBatch batch) {
+        if (limit.MAX_CHECKS(batch.size()) < batch.size()) {
+            WEManager.IMP.cancelEditSafe(this, BBC.WORLDEDIT_CANCEL_REASON_MAX_CHECKS);
+        }
+        extent.getBlocks(batch);
+    }
+
     @Override
     public boolean setBiome(final Vector2D position, final BaseBiome biome) {
         if (!limit.MAX_CHANGES()) {
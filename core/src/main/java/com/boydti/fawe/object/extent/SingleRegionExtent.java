@@ -1,7 +1,9 @@
 package com.boydti.fawe.object.extent;
 
 import com.boydti.fawe.object.FaweLimit;
+import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
 import java.util.Arrays;
 import java.util.Collection;
@@ -30,6 +32,21 @@ public class SingleRegionExtent extends FaweRegionExtent {
         return region.contains(x, z);
     }
 
+    @Override
+    public boolean containsChunk(int chunkX, int chunkZ, int minY, int maxY) {
+        if (region.isGlobal()) {
+            return true;
+        }
+        if (!(region instanceof CuboidRegion)) {
+            return false;
+        }
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        int bx = chunkX << 4;
+        int bz = chunkZ << 4;
+        return min.getBlockX() <= bx && max.getBlockX() >= bx + 15 && min.getBlockZ() <= bz && max.getBlockZ() >= bz + 15 && min.getBlockY() <= minY && max.getBlockY() >= maxY;
+    }
+
     @Override
     public Collection<Region> getRegions() {
         return Arrays.asList(region);
@@ -0,0 +1,203 @@
+package com.boydti.fawe.object.io;
+
+import com.boydti.fawe.util.TaskManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InputStream that reads ahead from another stream on an async task (see {@link TaskManager#async(Runnable)})
+ * - Useful to move decompression (e.g. a GZIPInputStream) off the thread which is parsing the data
+ * - At most maxBuffers blocks are read ahead, so memory use is bounded, and the blocks are reused once read
+ * - The task is started on the first read
+ * - Exceptions on the reading thread are thrown to the caller on the next read
+ */
+public final class AsyncBufferedInputStream extends InputStream {
+
+    private static final byte[] EOF = new byte[0];
+
+    private final InputStream in;
+    private final int bufSize;
+    private final ArrayBlockingQueue<byte[]> buffers;
+    // The blocks which have been read, to be filled again
+    private final ArrayBlockingQueue<byte[]> free;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private boolean started;
+    private volatile boolean closed;
+    private volatile Throwable caughtException;
+
+    private byte[] buf;
+    private int pos;
+    private long bytesRead;
+
+    /**
+     * Creates an asynchronous buffered input stream with 64K buffers and 16
+     * maximal buffers.
+     */
+    public AsyncBufferedInputStream(InputStream in) {
+        this(in, 64 * 1024, 16);
+    }
+
+    /**
+     * Creates an asynchronous buffered input stream.
+     *
+     * @param in         the inputstream to read from.
+     * @param bufSize    the buffer size.
+     * @param maxBuffers the number of buffers to read ahead.
+     */
+    public AsyncBufferedInputStream(InputStream in, int bufSize, int maxBuffers) {
+        this.in = in;
+        this.bufSize = bufSize;
+        this.buffers = new ArrayBlockingQueue<>(maxBuffers);
+        this.free = new ArrayBlockingQueue<>(maxBuffers + 1);
+    }
+
+    private void fill() {
+        try {
+            while (!closed) {
+                byte[] block = free.poll();
+                if (block == null) {
+                    block = new byte[bufSize];
+                }
+                int len = 0;
+                while (len < bufSize) {
+                    int read = in.read(block, len, bufSize - len);
+                    if (read == -1) {
+                        break;
+                    }
+                    len += read;
+                }
+                if (len != 0 && !offer(len == bufSize ? block : Arrays.copyOf(block, len))) {
+                    break;
+                }
+                if (len != bufSize) {
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            caughtException = e;
+        }
+        offer(EOF);
+        done.countDown();
+    }
+
+    private boolean offer(byte[] block) {
+        try {
+            while (!buffers.offer(block, 50, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private boolean next() throws IOException {
+        if (buf == EOF) {
+            return false;
+        }
+        if (!started) {
+            started = true;
+            TaskManager.IMP.async(new Runnable() {
+                @Override
+                public void run() {
+                    fill();
+                }
+            });
+        } else if (buf != null && buf.length == bufSize) {
+            free.offer(buf);
+        }
+        try {
+            buf = buffers.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        pos = 0;
+        if (buf == EOF) {
+            if (caughtException != null) {
+                throw new IOException("caught reader to fail reading asynchronously!", caughtException);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (buf == null || pos >= buf.length) {
+            if (!next()) {
+                return -1;
+            }
+        }
+        bytesRead++;
+        return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int total = 0;
+        while (total < len) {
+            if (buf == null || pos >= buf.length) {
+                // Don't block if some data has already been read
+                if ((total != 0 && buffers.isEmpty()) || !next()) {
+                    break;
+                }
+            }
+            int amount = Math.min(len - total, buf.length - pos);
+            System.arraycopy(buf, pos, b, off + total, amount);
+            pos += amount;
+            total += amount;
+        }
+        bytesRead += total;
+        return total == 0 ? -1 : total;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buf == null ? 0 : buf.length - pos;
+    }
+
+    /**
+     * @return the number of bytes returned by this stream so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Stop reading ahead, without closing the underlying stream
+     * - Waits for the read task to finish, so the underlying stream can safely be reused (e.g. reset)
+     */
+    public void cancel() {
+        closed = true;
+        if (started) {
+            buffers.clear();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            buffers.clear();
+        }
+        buf = EOF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cancel();
+        in.close();
+    }
+}
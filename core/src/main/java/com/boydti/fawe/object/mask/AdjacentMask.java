@@ -2,11 +2,13 @@ package com.boydti.fawe.object.mask;
 
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.function.mask.AbstractMask;
+import com.sk89q.worldedit.function.mask.BlockMask;
 import com.sk89q.worldedit.function.mask.Mask;
 
-public class AdjacentMask extends AbstractMask {
+public class AdjacentMask extends AbstractMask implements ResettableMask {
     private final int min, max;
     private final Mask mask;
+    private transient NeighbourCache cache;
 
     public AdjacentMask(Mask mask, int requiredMin, int requiredMax) {
         this.mask = mask;
@@ -14,8 +16,20 @@ public class AdjacentMask extends AbstractMask {
         this.max = requiredMax;
     }
 
+    @Override
+    public void reset() {
+        if (cache != null) {
+            cache.reset();
+        }
+    }
+
     @Override
     public boolean test(Vector v) {
+        if (MaskOptimizer.isTable(mask)) {
+            BlockMask blockMask = (BlockMask) mask;
+            cache = NeighbourCache.get(cache, blockMask.getExtent());
+            return cache.testNeighbours(blockMask.blocks, false, v.getBlockX(), v.getBlockY(), v.getBlockZ(), min, max);
+        }
         int count = 0;
         double x = v.getX();
         double y = v.getY();
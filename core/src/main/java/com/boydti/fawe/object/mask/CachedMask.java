@@ -4,6 +4,7 @@ import com.boydti.fawe.object.collection.LocalBlockVectorSet;
 import com.boydti.fawe.object.function.mask.AbstractDelegateMask;
 import com.sk89q.worldedit.MutableBlockVector;
 import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.function.mask.BlockMask;
 import com.sk89q.worldedit.function.mask.Mask;
 
 public class CachedMask extends AbstractDelegateMask implements ResettableMask {
@@ -11,6 +12,7 @@ public class CachedMask extends AbstractDelegateMask implements ResettableMask {
     private transient MutableBlockVector mutable = new MutableBlockVector();
     private transient LocalBlockVectorSet cache_checked = new LocalBlockVectorSet();
     private transient LocalBlockVectorSet cache_results = new LocalBlockVectorSet();
+    private transient NeighbourCache neighbours;
 
     public CachedMask(Mask mask) {
         super(mask);
@@ -31,6 +33,9 @@ public class CachedMask extends AbstractDelegateMask implements ResettableMask {
         cache_checked = new LocalBlockVectorSet();
         cache_results = new LocalBlockVectorSet();
         resetCache();
+        if (neighbours != null) {
+            neighbours.reset();
+        }
     }
 
     private void resetCache() {
@@ -47,6 +52,13 @@ public class CachedMask extends AbstractDelegateMask implements ResettableMask {
 
     public boolean test(int x, int y, int z) {
         if (y < 0 || y > 255) return getMask().test(mutable.setComponents(x, y, z));
+        Mask mask = getMask();
+        if (MaskOptimizer.isTable(mask)) {
+            // Block masks only depend on the block, which the neighbour cache already has
+            BlockMask blockMask = (BlockMask) mask;
+            neighbours = NeighbourCache.get(neighbours, blockMask.getExtent());
+            return blockMask.blocks[neighbours.getCombined(x, y, z)];
+        }
         if (cache_checked.contains(x, y, z)) {
             return cache_results.contains(x, y, z);
         }
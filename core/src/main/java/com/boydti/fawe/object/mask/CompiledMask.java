@@ -0,0 +1,263 @@
+package com.boydti.fawe.object.mask;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.mask.AbstractMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.mask.Mask2D;
+import com.sk89q.worldedit.function.mask.MaskIntersection2D;
+import com.sk89q.worldedit.function.mask.MaskUnion2D;
+import com.sk89q.worldedit.function.mask.Masks;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A mask tree flattened by the {@link MaskOptimizer}<br>
+ * - Intersections and unions are nodes with an array of children<br>
+ * - Block masks (on the same extent) are merged into a table of combined ids, so each intersection/union reads the block at most once<br>
+ * - Other masks are tested as they are<br>
+ * - Has no state of its own while testing, so it is as reentrant as the masks it contains
+ */
+public class CompiledMask extends AbstractMask {
+    // Named extent/masks so the MaskTraverser updates them
+    private transient Extent extent;
+    private final Collection<Mask> masks;
+    private final Node root;
+
+    CompiledMask(@Nullable Extent extent, Node root, Collection<Mask> masks) {
+        this.extent = extent;
+        this.root = root;
+        this.masks = masks;
+    }
+
+    Extent getExtent() {
+        return extent;
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the masks which aren't compiled into a table
+     */
+    public Collection<Mask> getMasks() {
+        return masks;
+    }
+
+    @Override
+    public boolean test(Vector vector) {
+        return root.test(this, vector);
+    }
+
+    @Nullable
+    @Override
+    public Mask2D toMask2D() {
+        return root.toMask2D();
+    }
+
+    static abstract class Node implements Serializable {
+        abstract boolean test(CompiledMask context, Vector vector);
+
+        /**
+         * @return the 2D variant of this node, or null if it depends on y (e.g. reads blocks)
+         */
+        @Nullable
+        abstract Mask2D toMask2D();
+    }
+
+    @Nullable
+    private static List<Mask2D> toMask2D(Node[] children) {
+        List<Mask2D> list = new ArrayList<>(children.length);
+        for (Node child : children) {
+            Mask2D mask2d = child.toMask2D();
+            if (mask2d == null) {
+                return null;
+            }
+            list.add(mask2d);
+        }
+        return list;
+    }
+
+    static final class And extends Node {
+        final Node[] children;
+
+        And(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean test(CompiledMask context, Vector vector) {
+            for (Node child : children) {
+                if (!child.test(context, vector)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Mask2D toMask2D() {
+            List<Mask2D> list = CompiledMask.toMask2D(children);
+            return list != null ? new MaskIntersection2D(list) : null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof And && Arrays.equals(children, ((And) obj).children);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(children);
+        }
+    }
+
+    static final class Or extends Node {
+        final Node[] children;
+
+        Or(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean test(CompiledMask context, Vector vector) {
+            for (Node child : children) {
+                if (child.test(context, vector)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        Mask2D toMask2D() {
+            List<Mask2D> list = CompiledMask.toMask2D(children);
+            return list != null ? new MaskUnion2D(list) : null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Or && Arrays.equals(children, ((Or) obj).children);
+        }
+
+        @Override
+        public int hashCode() {
+            return -Arrays.hashCode(children);
+        }
+    }
+
+    static final class Not extends Node {
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        boolean test(CompiledMask context, Vector vector) {
+            return !child.test(context, vector);
+        }
+
+        @Override
+        Mask2D toMask2D() {
+            Mask2D mask2d = child.toMask2D();
+            return mask2d != null ? Masks.negate(mask2d) : null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Not && child.equals(((Not) obj).child);
+        }
+
+        @Override
+        public int hashCode() {
+            return ~child.hashCode();
+        }
+    }
+
+    static final class Table extends Node {
+        final boolean[] blocks;
+
+        Table(boolean[] blocks) {
+            this.blocks = blocks;
+        }
+
+        @Override
+        boolean test(CompiledMask context, Vector vector) {
+            return blocks[context.extent.getLazyBlock(vector).getCombined()];
+        }
+
+        @Override
+        Mask2D toMask2D() {
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Table && Arrays.equals(blocks, ((Table) obj).blocks);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(blocks);
+        }
+    }
+
+    static final class Leaf extends Node {
+        final Mask mask;
+
+        Leaf(Mask mask) {
+            this.mask = mask;
+        }
+
+        @Override
+        boolean test(CompiledMask context, Vector vector) {
+            return mask.test(vector);
+        }
+
+        @Override
+        Mask2D toMask2D() {
+            return mask.toMask2D();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Leaf && mask.equals(((Leaf) obj).mask);
+        }
+
+        @Override
+        public int hashCode() {
+            return mask.hashCode();
+        }
+    }
+
+    static final class Constant extends Node {
+        static final Constant TRUE = new Constant(true);
+        static final Constant FALSE = new Constant(false);
+
+        final boolean value;
+
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean test(CompiledMask context, Vector vector) {
+            return value;
+        }
+
+        @Override
+        Mask2D toMask2D() {
+            return value ? Masks.alwaysTrue2D() : Masks.negate(Masks.alwaysTrue2D());
+        }
+
+        private Object readResolve() {
+            return value ? TRUE : FALSE;
+        }
+    }
+}
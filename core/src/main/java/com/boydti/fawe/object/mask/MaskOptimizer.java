@@ -0,0 +1,326 @@
+package com.boydti.fawe.object.mask;
+
+import com.boydti.fawe.object.mask.CompiledMask.And;
+import com.boydti.fawe.object.mask.CompiledMask.Constant;
+import com.boydti.fawe.object.mask.CompiledMask.Leaf;
+import com.boydti.fawe.object.mask.CompiledMask.Node;
+import com.boydti.fawe.object.mask.CompiledMask.Not;
+import com.boydti.fawe.object.mask.CompiledMask.Or;
+import com.boydti.fawe.object.mask.CompiledMask.Table;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.mask.MaskIntersection;
+import com.sk89q.worldedit.function.mask.MaskUnion;
+import com.sk89q.worldedit.function.mask.Masks;
+import com.sk89q.worldedit.function.mask.SolidBlockMask;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Simplifies a mask tree (e.g. from the DefaultMaskParser) into a {@link CompiledMask}:<br>
+ * - Nested intersections/unions are flattened<br>
+ * - Block masks on the same extent are merged into one table (AND for intersections, OR for unions)<br>
+ * - Always true/false masks (and empty/full tables) are folded<br>
+ * - Negations are folded (!!a = a, a negated table is the inverted table), and a child with its negation is absorbing<br>
+ * - Duplicate children are removed (a & a = a), as are absorbed ones (a & (a | b) = a)<br>
+ * - Coordinate masks (x/y/z axis, plane, radius) are tested before anything else in an intersection/union, since they
+ * don't read any blocks. They record the first position tested by the whole mask, rather than the first to reach them<br>
+ * - A mask which can't be simplified is returned as it is
+ */
+public final class MaskOptimizer {
+    private static final int BLOCKS = Character.MAX_VALUE + 1;
+    // The class and field of a mask from Masks.negate
+    private static final Class<?> NEGATED = Masks.negate(Masks.asMask(Masks.alwaysTrue2D())).getClass();
+    private static final Field NEGATED_MASK;
+
+    static {
+        Field field;
+        try {
+            field = NEGATED.getDeclaredField("mask");
+            field.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            field = null;
+        }
+        NEGATED_MASK = field;
+    }
+
+    private Extent extent;
+    private final List<Mask> masks = new ArrayList<>();
+    private boolean changed;
+
+    private MaskOptimizer() {
+    }
+
+    /**
+     * @param mask
+     * @return an equivalent mask, which may be the same one
+     */
+    public static Mask optimize(Mask mask) {
+        if (mask == null) {
+            return null;
+        }
+        MaskOptimizer optimizer = new MaskOptimizer();
+        Node root = optimizer.compile(mask);
+        if (root instanceof Leaf) {
+            return ((Leaf) root).mask;
+        }
+        if (root == Constant.TRUE) {
+            return Masks.alwaysTrue();
+        }
+        if (root == Constant.FALSE) {
+            return Masks.alwaysFalse();
+        }
+        if (root instanceof Table) {
+            if (!optimizer.changed && isTable(mask)) {
+                return mask;
+            }
+            return toBlockMask(optimizer.extent, ((Table) root).blocks);
+        }
+        return new CompiledMask(optimizer.extent, root, Collections.unmodifiableList(optimizer.masks));
+    }
+
+    /**
+     * If a mask only depends on the block at the position (so it has no state, and can be tested from several threads)
+     * @param mask
+     * @return
+     */
+    public static boolean isTable(Mask mask) {
+        // Subclasses of BlockMask (e.g. SolidPlaneMask) may override test
+        Class<?> clazz = mask.getClass();
+        return clazz == BlockMask.class || clazz == SolidBlockMask.class;
+    }
+
+    private static boolean isCoordinate(Node node) {
+        if (node instanceof Not) {
+            return isCoordinate(((Not) node).child);
+        }
+        return node instanceof Leaf && isCoordinateMask(((Leaf) node).mask);
+    }
+
+    private static boolean isCoordinateMask(Mask mask) {
+        return mask instanceof XAxisMask || mask instanceof YAxisMask || mask instanceof ZAxisMask || mask instanceof PlaneMask || mask instanceof RadiusMask;
+    }
+
+    private static BlockMask toBlockMask(Extent extent, boolean[] blocks) {
+        BlockMask mask = new BlockMask(extent);
+        System.arraycopy(blocks, 0, mask.blocks, 0, BLOCKS);
+        for (int i = 0; i < BLOCKS; i++) {
+            if (blocks[i]) {
+                mask.blockIds[i >> 4] = true;
+            }
+        }
+        return mask;
+    }
+
+    private Leaf leaf(Mask mask) {
+        masks.add(mask);
+        return new Leaf(mask);
+    }
+
+    private Node compile(Mask mask) {
+        if (mask == Masks.alwaysTrue()) {
+            return Constant.TRUE;
+        }
+        if (mask == Masks.alwaysFalse()) {
+            return Constant.FALSE;
+        }
+        if (isTable(mask)) {
+            BlockMask blockMask = (BlockMask) mask;
+            if (extent == null) {
+                extent = blockMask.getExtent();
+            }
+            if (blockMask.getExtent() == extent) {
+                return new Table(blockMask.blocks);
+            }
+            return leaf(mask);
+        }
+        if (mask.getClass() == NEGATED && NEGATED_MASK != null) {
+            try {
+                Mask negated = (Mask) NEGATED_MASK.get(mask);
+                changed = true;
+                return not(compile(negated));
+            } catch (IllegalAccessException e) {
+                return leaf(mask);
+            }
+        }
+        if (mask instanceof CompiledMask) {
+            CompiledMask compiled = (CompiledMask) mask;
+            if (extent == null) {
+                extent = compiled.getExtent();
+            }
+            if (compiled.getExtent() == null || compiled.getExtent() == extent) {
+                masks.addAll(compiled.getMasks());
+                return compiled.getRoot();
+            }
+            return leaf(mask);
+        }
+        Class<?> clazz = mask.getClass();
+        if (clazz == MaskIntersection.class || clazz == MaskUnion.class) {
+            boolean and = clazz == MaskIntersection.class;
+            Mask[] children = ((MaskIntersection) mask).getMasksArray();
+            List<Node> nodes = new ArrayList<>(children.length);
+            for (Mask child : children) {
+                nodes.add(compile(child));
+            }
+            changed = true;
+            return and ? and(nodes) : or(nodes);
+        }
+        return leaf(mask);
+    }
+
+    private static Node not(Node node) {
+        if (node == Constant.TRUE) {
+            return Constant.FALSE;
+        }
+        if (node == Constant.FALSE) {
+            return Constant.TRUE;
+        }
+        if (node instanceof Not) {
+            return ((Not) node).child;
+        }
+        if (node instanceof Table) {
+            boolean[] blocks = ((Table) node).blocks;
+            boolean[] inverted = new boolean[BLOCKS];
+            for (int i = 0; i < BLOCKS; i++) {
+                inverted[i] = !blocks[i];
+            }
+            return new Table(inverted);
+        }
+        return new Not(node);
+    }
+
+    private Node and(List<Node> nodes) {
+        return combine(nodes, true);
+    }
+
+    private Node or(List<Node> nodes) {
+        return combine(nodes, false);
+    }
+
+    /**
+     * Combine the children of an intersection (and = true) or union
+     */
+    private Node combine(List<Node> nodes, boolean and) {
+        Constant identity = and ? Constant.TRUE : Constant.FALSE;
+        Constant absorbing = and ? Constant.FALSE : Constant.TRUE;
+        List<Node> coordinates = new ArrayList<>();
+        List<Node> others = new ArrayList<>();
+        boolean[] table = null;
+        int tableIndex = -1;
+        for (Node node : flatten(nodes, and)) {
+            if (node == identity) {
+                continue;
+            }
+            if (node == absorbing) {
+                return absorbing;
+            }
+            if (node instanceof Table) {
+                boolean[] blocks = ((Table) node).blocks;
+                if (table == null) {
+                    table = blocks;
+                    tableIndex = others.size();
+                    others.add(null);
+                } else {
+                    // Merged into a new table, since the original belongs to a mask
+                    boolean[] merged = new boolean[BLOCKS];
+                    for (int i = 0; i < BLOCKS; i++) {
+                        merged[i] = and ? table[i] && blocks[i] : table[i] || blocks[i];
+                    }
+                    table = merged;
+                }
+            } else if (coordinates.contains(node) || others.contains(node)) {
+                continue;
+            } else if (isCoordinate(node)) {
+                coordinates.add(node);
+            } else {
+                others.add(node);
+            }
+        }
+        if (table != null) {
+            Node folded = fold(table);
+            if (folded == absorbing) {
+                return absorbing;
+            }
+            if (folded == identity) {
+                others.remove(tableIndex);
+            } else {
+                others.set(tableIndex, new Table(table));
+            }
+        }
+        List<Node> result = new ArrayList<>(coordinates.size() + others.size());
+        result.addAll(coordinates);
+        result.addAll(others);
+        for (Node node : result) {
+            if (node instanceof Not && result.contains(((Not) node).child)) {
+                return absorbing;
+            }
+        }
+        absorb(result, and);
+        switch (result.size()) {
+            case 0:
+                return identity;
+            case 1:
+                return result.get(0);
+            default:
+                Node[] array = result.toArray(new Node[result.size()]);
+                return and ? new And(array) : new Or(array);
+        }
+    }
+
+    /**
+     * Remove the children absorbed by another child, e.g. (a | b) in a & (a | b)
+     */
+    private static void absorb(List<Node> nodes, boolean and) {
+        for (Iterator<Node> iter = nodes.iterator(); iter.hasNext(); ) {
+            Node node = iter.next();
+            Node[] children;
+            if (and && node instanceof Or) {
+                children = ((Or) node).children;
+            } else if (!and && node instanceof And) {
+                children = ((And) node).children;
+            } else {
+                continue;
+            }
+            for (Node child : children) {
+                if (nodes.contains(child)) {
+                    iter.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    private static List<Node> flatten(List<Node> nodes, boolean and) {
+        List<Node> flat = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            if (and && node instanceof And) {
+                Collections.addAll(flat, ((And) node).children);
+            } else if (!and && node instanceof Or) {
+                Collections.addAll(flat, ((Or) node).children);
+            } else {
+                flat.add(node);
+            }
+        }
+        return flat;
+    }
+
+    /**
+     * @return a constant if the table matches every block or none
+     */
+    private static Node fold(boolean[] table) {
+        boolean any = false;
+        boolean all = true;
+        for (boolean value : table) {
+            any |= value;
+            all &= value;
+            if (any && !all) {
+                return null;
+            }
+        }
+        return any ? Constant.TRUE : Constant.FALSE;
+    }
+}
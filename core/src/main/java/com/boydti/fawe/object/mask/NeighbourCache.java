@@ -0,0 +1,152 @@
+package com.boydti.fawe.object.mask;
+
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import java.util.Arrays;
+
+/**
+ * The combined ids around the positions being tested, for a mask which tests neighbours<br>
+ * - Each mask has its own cache for its extent (see {@link #get(NeighbourCache, Extent)}), so nothing is shared
+ * between extents, operations or threads<br>
+ * - A window of 3 layers (y - 1, y, y + 1) of a chunk plus a 1 block border (18x18)<br>
+ * - Moving up or down a layer shifts the window, so a region scanned by chunk then y (e.g. a CuboidRegion) reads each
+ * block about once, instead of once per neighbour<br>
+ * - Blocks are read when first needed. Positions outside the window move it<br>
+ * - Like the CachedMask, blocks are kept until the mask is reset (i.e. per operation). Reads of the extent don't see
+ * the changes the operation queues, so neither does the cache
+ */
+public final class NeighbourCache {
+    private static final int SIZE = 18;
+    private static final int AREA = SIZE * SIZE;
+    private static final int UNKNOWN = -1;
+
+    private final Extent extent;
+    private int[] below = new int[AREA];
+    private int[] layer = new int[AREA];
+    private int[] above = new int[AREA];
+    private int minX, minZ, y;
+    private boolean empty = true;
+
+    public NeighbourCache(Extent extent) {
+        this.extent = extent;
+    }
+
+    /**
+     * @param cache  the cache of a mask (or null)
+     * @param extent the extent the mask reads blocks from
+     * @return the cache, or a new one if it's for a different extent
+     */
+    public static NeighbourCache get(NeighbourCache cache, Extent extent) {
+        if (cache == null || cache.extent != extent) {
+            return new NeighbourCache(extent);
+        }
+        return cache;
+    }
+
+    /**
+     * Forget every block (e.g. at the start of an operation)
+     */
+    public void reset() {
+        empty = true;
+    }
+
+    private void move(int x, int y, int z) {
+        minX = (x & ~15) - 1;
+        minZ = (z & ~15) - 1;
+        this.y = y;
+        Arrays.fill(below, UNKNOWN);
+        Arrays.fill(layer, UNKNOWN);
+        Arrays.fill(above, UNKNOWN);
+        empty = false;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param z
+     * @return the combined id (id << 4 + data) of the block
+     */
+    public int getCombined(int x, int y, int z) {
+        int rx = x - minX;
+        int rz = z - minZ;
+        if (empty || rx < 0 || rx >= SIZE || rz < 0 || rz >= SIZE) {
+            move(x, y, z);
+            rx = x - minX;
+            rz = z - minZ;
+        } else {
+            int dy = y - this.y;
+            if (dy == 2) {
+                // The scan moved up a layer
+                int[] tmp = below;
+                below = layer;
+                layer = above;
+                above = tmp;
+                Arrays.fill(above, UNKNOWN);
+                this.y++;
+            } else if (dy == -2) {
+                int[] tmp = above;
+                above = layer;
+                layer = below;
+                below = tmp;
+                Arrays.fill(below, UNKNOWN);
+                this.y--;
+            } else if (dy < -1 || dy > 1) {
+                move(x, y, z);
+                rx = x - minX;
+                rz = z - minZ;
+            }
+        }
+        int[] values;
+        switch (y - this.y) {
+            case -1:
+                values = below;
+                break;
+            case 0:
+                values = layer;
+                break;
+            default:
+                values = above;
+                break;
+        }
+        int index = rz * SIZE + rx;
+        int combined = values[index];
+        if (combined == UNKNOWN) {
+            values[index] = combined = extent.getLazyBlock(x, y, z).getCombined();
+        }
+        return combined;
+    }
+
+    /**
+     * Count the neighbours of a position which match a block mask (as the AdjacentMask and WallMask do)
+     *
+     * @param blocks     the blocks of the mask, see {@link BlockMask#blocks}
+     * @param horizontal if only the 4 horizontal neighbours are counted
+     * @param min        the min number of matching neighbours
+     * @param max        the max number of matching neighbours (8 or more stops counting at min)
+     * @return
+     */
+    public boolean testNeighbours(boolean[] blocks, boolean horizontal, int x, int y, int z, int min, int max) {
+        int count = 0;
+        if (blocks[getCombined(x + 1, y, z)] && ++count == min && max >= 8) {
+            return true;
+        }
+        if (blocks[getCombined(x - 1, y, z)] && ++count == min && max >= 8) {
+            return true;
+        }
+        if (!horizontal) {
+            if (blocks[getCombined(x, y + 1, z)] && ++count == min && max >= 8) {
+                return true;
+            }
+            if (blocks[getCombined(x, y - 1, z)] && ++count == min && max >= 8) {
+                return true;
+            }
+        }
+        if (blocks[getCombined(x, y, z + 1)] && ++count == min && max >= 8) {
+            return true;
+        }
+        if (blocks[getCombined(x, y, z - 1)] && ++count == min && max >= 8) {
+            return true;
+        }
+        return count >= min && count <= max;
+    }
+}
@@ -1,7 +1,7 @@
 package com.boydti.fawe.object.regions;
 
 import com.boydti.fawe.object.HasFaweQueue;
-import com.boydti.fawe.object.collection.BlockVectorSet;
+import com.boydti.fawe.object.collection.SectionBlockVectorSet;
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
@@ -19,7 +19,7 @@ import java.util.Iterator;
 public class FuzzyRegion extends AbstractRegion {
 
     private final Mask mask;
-    private BlockVectorSet set = new BlockVectorSet();
+    private SectionBlockVectorSet set = new SectionBlockVectorSet();
     private boolean populated;
     private int minX, minY, minZ, maxX, maxY, maxZ;
     private Extent extent;
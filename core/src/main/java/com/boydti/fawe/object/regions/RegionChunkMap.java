@@ -0,0 +1,221 @@
+package com.boydti.fawe.object.regions;
+
+import com.boydti.fawe.util.MathMan;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classifies chunks against a set of regions, so contains checks don't need to scan every region
+ * - Each chunk is inside (every block allowed), outside (no block allowed) or partial
+ * - A partial chunk has a bitmap of the columns covered by full height cuboids, and the other regions which overlap it
+ * - Chunks are classified when this is created, so it should be created once per edit
+ * - Regions covering too many chunks are classified on access instead
+ * - Thread safe, the map isn't changed after it is created
+ */
+public class RegionChunkMap {
+    private static final int MAX_CLASSIFIED = 1 << 16;
+    private static final Chunk INSIDE = new Chunk(null, new Region[0]);
+    private static final Chunk OUTSIDE = new Chunk(new long[4], new Region[0]);
+
+    private final Region[] regions;
+    private final int[] minX, minZ, maxX, maxZ;
+    private final boolean[] fullColumns;
+    private final boolean global;
+
+    // null = classify on access
+    private final Long2ObjectOpenHashMap<Chunk> chunks;
+    private volatile LastChunk last;
+
+    private static final class Chunk {
+        // null = every column is inside
+        private final long[] columns;
+        private final Region[] regions;
+
+        private Chunk(long[] columns, Region[] regions) {
+            this.columns = columns;
+            this.regions = regions;
+        }
+    }
+
+    private static final class LastChunk {
+        private final long key;
+        private final Chunk chunk;
+
+        private LastChunk(long key, Chunk chunk) {
+            this.key = key;
+            this.chunk = chunk;
+        }
+    }
+
+    public RegionChunkMap(Region[] regions) {
+        this.regions = regions;
+        int len = regions.length;
+        this.minX = new int[len];
+        this.minZ = new int[len];
+        this.maxX = new int[len];
+        this.maxZ = new int[len];
+        this.fullColumns = new boolean[len];
+        boolean global = false;
+        for (int i = 0; i < len; i++) {
+            Region region = regions[i];
+            Vector min = region.getMinimumPoint();
+            Vector max = region.getMaximumPoint();
+            minX[i] = min.getBlockX();
+            minZ[i] = min.getBlockZ();
+            maxX[i] = max.getBlockX();
+            maxZ[i] = max.getBlockZ();
+            // A cuboid which spans the world height contains every block of the columns it covers
+            fullColumns[i] = region instanceof CuboidRegion && min.getBlockY() <= 0 && max.getBlockY() >= 255;
+            global |= region.isGlobal();
+        }
+        this.global = global;
+        this.chunks = global ? null : classifyAll();
+    }
+
+    /**
+     * Classify every chunk which overlaps a region
+     * @return the chunks which aren't outside, or null if there are too many
+     */
+    private Long2ObjectOpenHashMap<Chunk> classifyAll() {
+        long total = 0;
+        for (int i = 0; i < regions.length; i++) {
+            total += (long) ((maxX[i] >> 4) - (minX[i] >> 4) + 1) * ((maxZ[i] >> 4) - (minZ[i] >> 4) + 1);
+        }
+        if (total > MAX_CLASSIFIED) {
+            return null;
+        }
+        Long2ObjectOpenHashMap<Chunk> map = new Long2ObjectOpenHashMap<>((int) total);
+        for (int i = 0; i < regions.length; i++) {
+            for (int cz = minZ[i] >> 4; cz <= maxZ[i] >> 4; cz++) {
+                for (int cx = minX[i] >> 4; cx <= maxX[i] >> 4; cx++) {
+                    long key = MathMan.pairInt(cx, cz);
+                    if (!map.containsKey(key)) {
+                        map.put(key, classify(cx, cz));
+                    }
+                }
+            }
+        }
+        return map;
+    }
+
+    private Chunk getChunk(int cx, int cz) {
+        long key = MathMan.pairInt(cx, cz);
+        LastChunk cached = last;
+        if (cached != null && cached.key == key) {
+            return cached.chunk;
+        }
+        Chunk chunk;
+        if (chunks != null) {
+            chunk = chunks.get(key);
+            if (chunk == null) {
+                chunk = OUTSIDE;
+            }
+        } else {
+            chunk = classify(cx, cz);
+        }
+        last = new LastChunk(key, chunk);
+        return chunk;
+    }
+
+    private Chunk classify(int cx, int cz) {
+        if (global) {
+            return INSIDE;
+        }
+        int bx = cx << 4;
+        int bz = cz << 4;
+        int tx = bx + 15;
+        int tz = bz + 15;
+        long[] columns = null;
+        List<Region> partial = null;
+        for (int i = 0; i < regions.length; i++) {
+            if (maxX[i] < bx || minX[i] > tx || maxZ[i] < bz || minZ[i] > tz) {
+                continue;
+            }
+            if (fullColumns[i]) {
+                if (columns == null) {
+                    columns = new long[4];
+                }
+                int x0 = Math.max(minX[i], bx) & 15;
+                int x1 = Math.min(maxX[i], tx) & 15;
+                int z0 = Math.max(minZ[i], bz) & 15;
+                int z1 = Math.min(maxZ[i], tz) & 15;
+                long row = ((1L << (x1 - x0 + 1)) - 1) << x0;
+                for (int z = z0; z <= z1; z++) {
+                    columns[z >> 2] |= row << ((z & 3) << 4);
+                }
+            } else {
+                if (partial == null) {
+                    partial = new ArrayList<>();
+                }
+                partial.add(regions[i]);
+            }
+        }
+        if (columns != null && columns[0] == -1L && columns[1] == -1L && columns[2] == -1L && columns[3] == -1L) {
+            return INSIDE;
+        }
+        if (columns == null && partial == null) {
+            return OUTSIDE;
+        }
+        return new Chunk(columns != null ? columns : new long[4], partial != null ? partial.toArray(new Region[partial.size()]) : new Region[0]);
+    }
+
+    /**
+     * @return if every block in the chunk is inside the regions
+     */
+    public boolean isInside(int cx, int cz) {
+        return getChunk(cx, cz) == INSIDE;
+    }
+
+    /**
+     * @return if no block in the chunk is inside the regions
+     */
+    public boolean isOutside(int cx, int cz) {
+        return getChunk(cx, cz) == OUTSIDE;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            for (Region region : regions) {
+                if (region.contains(x, y, z)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Chunk chunk = getChunk(x >> 4, z >> 4);
+        if (chunk == INSIDE) {
+            return true;
+        }
+        int index = ((z & 15) << 4) | (x & 15);
+        if ((chunk.columns[index >> 6] & (1L << index)) != 0) {
+            return true;
+        }
+        for (Region region : chunk.regions) {
+            if (region.contains(x, y, z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean contains(int x, int z) {
+        Chunk chunk = getChunk(x >> 4, z >> 4);
+        if (chunk == INSIDE) {
+            return true;
+        }
+        int index = ((z & 15) << 4) | (x & 15);
+        if ((chunk.columns[index >> 6] & (1L << index)) != 0) {
+            return true;
+        }
+        for (Region region : chunk.regions) {
+            if (region.contains(x, z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
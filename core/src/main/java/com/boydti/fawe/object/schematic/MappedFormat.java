@@ -0,0 +1,295 @@
+package com.boydti.fawe.object.schematic;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.jnbt.NBTStreamer;
+import com.boydti.fawe.object.clipboard.DiskOptimizedClipboard;
+import com.boydti.fawe.object.clipboard.FaweClipboard;
+import com.boydti.fawe.object.clipboard.ReadOnlyClipboard;
+import com.boydti.fawe.util.MainUtil;
+import com.google.common.io.ByteStreams;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.DoubleTag;
+import com.sk89q.jnbt.FloatTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.NamedTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.MutableBlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardWriter;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.registry.WorldData;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A clipboard format which can be memory mapped instead of read:
+ * - The start of the file is the DiskOptimizedClipboard layout (header, 2 bytes per block, optional biomes)
+ * - Bytes 0 and 1 of the header are the magic value and flags
+ * - The blocks are followed by a gzipped NBT compound with the origin, tiles and entities
+ * <p>
+ * Loading a file maps the block section copy-on-write, so it is O(1) and the OS page cache is shared
+ * by everyone who has the same file loaded.
+ */
+public class MappedFormat implements ClipboardReader, ClipboardWriter {
+    private static final int MAGIC = 0xFA;
+    private static final int FLAG_BIOMES = 1;
+
+    private File file;
+    private InputStream in;
+    private OutputStream out;
+
+    public MappedFormat(File file) {
+        this.file = file;
+    }
+
+    public MappedFormat(InputStream in) {
+        this.in = in;
+    }
+
+    public MappedFormat(OutputStream out) {
+        this.out = out;
+    }
+
+    public static boolean isFormat(File file) {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return dis.readUnsignedByte() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Clipboard read(WorldData data) throws IOException {
+        return read(data, UUID.randomUUID());
+    }
+
+    public Clipboard read(WorldData worldData, UUID clipboardId) throws IOException {
+        boolean temporary = file == null;
+        if (temporary) {
+            // Not a file (e.g. a download), so it has to be copied somewhere it can be mapped
+            file = MainUtil.getFile(Fawe.imp() != null ? Fawe.imp().getDirectory() : new File("."), Settings.IMP.PATHS.CLIPBOARD + File.separator + clipboardId + ".mapped");
+            file.getParentFile().mkdirs();
+            file.deleteOnExit();
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                ByteStreams.copy(in, fos);
+            }
+        }
+        int width, height, length;
+        boolean hasBiomes;
+        CompoundTag tag;
+        try {
+            int flags;
+            try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+                if (dis.readUnsignedByte() != MAGIC) {
+                    throw new IOException("Not a mapped clipboard: " + file);
+                }
+                flags = dis.readUnsignedByte();
+                width = dis.readChar();
+                height = dis.readChar();
+                length = dis.readChar();
+            }
+            hasBiomes = (flags & FLAG_BIOMES) != 0;
+            long blocksEnd = DiskOptimizedClipboard.HEADER_SIZE + ((long) width * height * length << 1) + (hasBiomes ? width * length : 0);
+
+            try (FileInputStream fis = new FileInputStream(file)) {
+                fis.getChannel().position(blocksEnd);
+                NBTInputStream nbtIn = new NBTInputStream(new BufferedInputStream(new GZIPInputStream(fis)));
+                NamedTag namedTag = nbtIn.readNamedTag();
+                tag = (CompoundTag) namedTag.getTag();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (temporary) {
+                file.delete();
+            }
+            throw e;
+        }
+
+        DiskOptimizedClipboard fc = new DiskOptimizedClipboard(file, hasBiomes);
+        fc.setDeleteOnClose(temporary);
+        try {
+            Vector min = new Vector(tag.getInt("WEOriginX"), tag.getInt("WEOriginY"), tag.getInt("WEOriginZ"));
+            Vector offset = new Vector(tag.getInt("WEOffsetX"), tag.getInt("WEOffsetY"), tag.getInt("WEOffsetZ"));
+            CuboidRegion region = new CuboidRegion(min, min.add(width, height, length).subtract(Vector.ONE));
+            BlockArrayClipboard clipboard = new BlockArrayClipboard(region, fc);
+            clipboard.setOrigin(min.subtract(offset));
+            for (Tag tile : tag.getList("TileEntities")) {
+                CompoundTag compound = (CompoundTag) tile;
+                fc.setTile(compound.getInt("x"), compound.getInt("y"), compound.getInt("z"), compound);
+            }
+            for (Tag entity : tag.getList("Entities")) {
+                CompoundTag compound = (CompoundTag) entity;
+                String id = compound.getString("id");
+                if (id.isEmpty()) {
+                    continue;
+                }
+                ListTag positionTag = compound.getListTag("Pos");
+                ListTag directionTag = compound.getListTag("Rotation");
+                BaseEntity state = new BaseEntity(id, compound);
+                fc.createEntity(clipboard, positionTag.asDouble(0), positionTag.asDouble(1), positionTag.asDouble(2), (float) directionTag.asDouble(0), (float) directionTag.asDouble(1), state);
+            }
+            return clipboard;
+        } catch (Throwable e) {
+            fc.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(final Clipboard clipboard, WorldData worldData) throws IOException {
+        Region region = clipboard.getRegion();
+        final Vector min = region.getMinimumPoint();
+        Vector origin = clipboard.getOrigin();
+        final int width = region.getWidth();
+        final int height = region.getHeight();
+        final int length = region.getLength();
+        if (width > Character.MAX_VALUE || height > Character.MAX_VALUE || length > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Region too large for a mapped clipboard");
+        }
+        FaweClipboard fc = clipboard instanceof BlockArrayClipboard ? ((BlockArrayClipboard) clipboard).IMP : null;
+        boolean hasBiomes = fc != null && !(fc instanceof ReadOnlyClipboard) && fc.hasBiomes();
+
+        final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        dos.writeByte(MAGIC);
+        dos.writeByte(hasBiomes ? FLAG_BIOMES : 0);
+        dos.writeChar(width);
+        dos.writeChar(height);
+        dos.writeChar(length);
+        Vector relative = origin.subtract(min);
+        dos.writeShort(relative.getBlockX());
+        dos.writeShort(relative.getBlockY());
+        dos.writeShort(relative.getBlockZ());
+
+        final List<Tag> tiles = new ArrayList<>();
+        if (fc != null && !(fc instanceof ReadOnlyClipboard)) {
+            // Index ordered (y, z, x), same as the mapped layout
+            fc.forEach(new FaweClipboard.BlockReader() {
+                @Override
+                public void run(int x, int y, int z, BaseBlock block) {
+                    try {
+                        dos.writeChar(FaweCache.getCombined(block));
+                        CompoundTag nbt = block.getNbtData();
+                        if (nbt != null) {
+                            tiles.add(withPosition(nbt, x, y, z));
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, true);
+        } else {
+            MutableBlockVector mutable = new MutableBlockVector();
+            for (int y = 0; y < height; y++) {
+                for (int z = 0; z < length; z++) {
+                    for (int x = 0; x < width; x++) {
+                        BaseBlock block = clipboard.getBlock(mutable.setComponents(min.getBlockX() + x, min.getBlockY() + y, min.getBlockZ() + z));
+                        dos.writeChar(FaweCache.getCombined(block));
+                        CompoundTag nbt = block.getNbtData();
+                        if (nbt != null) {
+                            tiles.add(withPosition(nbt, x, y, z));
+                        }
+                    }
+                }
+            }
+        }
+        if (hasBiomes) {
+            fc.streamBiomes(new NBTStreamer.ByteReader() {
+                @Override
+                public void run(int index, int byteValue) {
+                    try {
+                        dos.writeByte(byteValue);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        Map<String, Tag> values = new HashMap<>();
+        values.put("WEOriginX", new IntTag(min.getBlockX()));
+        values.put("WEOriginY", new IntTag(min.getBlockY()));
+        values.put("WEOriginZ", new IntTag(min.getBlockZ()));
+        Vector offset = min.subtract(origin);
+        values.put("WEOffsetX", new IntTag(offset.getBlockX()));
+        values.put("WEOffsetY", new IntTag(offset.getBlockY()));
+        values.put("WEOffsetZ", new IntTag(offset.getBlockZ()));
+        values.put("TileEntities", new ListTag(CompoundTag.class, tiles));
+        List<Tag> entities = new ArrayList<>();
+        for (Entity entity : clipboard.getEntities()) {
+            BaseEntity state = entity.getState();
+            if (state != null) {
+                Map<String, Tag> entityValues = new HashMap<>();
+                CompoundTag rawTag = state.getNbtData();
+                if (rawTag != null) {
+                    entityValues.putAll(rawTag.getValue());
+                }
+                entityValues.put("id", new StringTag(state.getTypeId()));
+                Vector pos = entity.getLocation().toVector();
+                List<DoubleTag> posList = new ArrayList<>();
+                posList.add(new DoubleTag(pos.getX()));
+                posList.add(new DoubleTag(pos.getY()));
+                posList.add(new DoubleTag(pos.getZ()));
+                entityValues.put("Pos", new ListTag(DoubleTag.class, posList));
+                List<FloatTag> rotation = new ArrayList<>();
+                rotation.add(new FloatTag(entity.getLocation().getYaw()));
+                rotation.add(new FloatTag(entity.getLocation().getPitch()));
+                entityValues.put("Rotation", new ListTag(FloatTag.class, rotation));
+                entities.add(new CompoundTag(entityValues));
+            }
+        }
+        values.put("Entities", new ListTag(CompoundTag.class, entities));
+        dos.flush();
+
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        NBTOutputStream nbtOut = new NBTOutputStream(new BufferedOutputStream(gzip));
+        nbtOut.writeNamedTag("Clipboard", new CompoundTag(values));
+        nbtOut.flush();
+        gzip.finish();
+        out.flush();
+    }
+
+    private static CompoundTag withPosition(CompoundTag nbt, int x, int y, int z) {
+        Map<String, Tag> values = new HashMap<>(nbt.getValue());
+        values.put("x", new IntTag(x));
+        values.put("y", new IntTag(y));
+        values.put("z", new IntTag(z));
+        return new CompoundTag(values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+        if (out != null) {
+            out.close();
+        }
+    }
+}
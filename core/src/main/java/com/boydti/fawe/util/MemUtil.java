@@ -1,6 +1,5 @@
 package com.boydti.fawe.util;
 
-import com.boydti.fawe.config.Settings;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -17,11 +16,15 @@ public class MemUtil {
         return memory.get();
     }
 
+    /**
+     * Check the memory again, rather than relying on the last notification<br>
+     * - The {@link MemoryGovernor} measures the heap after collection, so this doesn't need to call System.gc()
+     *
+     * @return
+     */
     public static boolean isMemoryLimitedSlow() {
         if (memory.get()) {
-            System.gc();
-            System.gc();
-            calculateMemory();
+            MemoryGovernor.IMP.update();
             return memory.get();
         }
         return false;
@@ -36,19 +39,15 @@ public class MemUtil {
         return Runtime.getRuntime().maxMemory() - getUsedBytes();
     }
 
+    /**
+     * @return the percentage of the heap which is free, or Integer.MAX_VALUE if memory isn't limited
+     * @see MemoryGovernor#update()
+     */
     public static int calculateMemory() {
-        final long heapSize = Runtime.getRuntime().totalMemory();
-        final long heapMaxSize = Runtime.getRuntime().maxMemory();
-        if (heapSize < heapMaxSize) {
+        if (MemoryGovernor.IMP.update() != MemoryGovernor.Pressure.CRITICAL) {
             return Integer.MAX_VALUE;
         }
-        final long heapFreeSize = Runtime.getRuntime().freeMemory();
-        final int size = (int) ((heapFreeSize * 100) / heapMaxSize);
-        if (size > (100 - Settings.IMP.MAX_MEMORY_PERCENT)) {
-            memoryPlentifulTask();
-            return Integer.MAX_VALUE;
-        }
-        return size;
+        return 100 - MemoryGovernor.IMP.getUsedPercent();
     }
 
     private static Queue<Runnable> memoryLimitedTasks = new ConcurrentLinkedQueue<>();
@@ -65,8 +64,6 @@ public class MemUtil {
     }
 
     public static void memoryLimitedTask() {
-        System.gc();
-        System.gc();
         for (Runnable task : memoryLimitedTasks) {
             task.run();
         }
@@ -0,0 +1,335 @@
+package com.boydti.fawe.util;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.example.SectionSnapshotCache;
+import com.boydti.fawe.jnbt.anvil.HeightMapMCAGenerator;
+import com.boydti.fawe.object.FaweQueue;
+import com.boydti.fawe.object.changeset.FaweStreamChangeSet;
+import com.boydti.fawe.object.changeset.HistoryCache;
+import com.boydti.fawe.object.clipboard.MemoryOptimizedClipboard;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Watches the heap after each garbage collection, and applies back-pressure as it fills up<br>
+ * - Uses the collection usage of the tenured pool (i.e. live objects) rather than the free memory, which includes garbage,
+ * so there's no need to call System.gc() to find out if memory is low<br>
+ * - The JVM notifies the governor when the first threshold is crossed, after which it's updated each tick until the
+ * pressure drops again<br>
+ * - The pressure is graduated (see {@link Pressure}), each level adding to the actions of the level below<br>
+ * - The memory held by each subsystem (queued chunks, clipboards, history, CFI) is estimated on request, see {@link #getUsage()}
+ */
+public class MemoryGovernor {
+
+    public static final MemoryGovernor IMP = new MemoryGovernor();
+
+    /**
+     * A rough estimate of the memory used by a queued chunk (a few sections of blocks)
+     */
+    private static final long CHUNK_BYTES = 32768;
+
+    public enum Pressure {
+        /**
+         * Nothing to do
+         */
+        NONE,
+        /**
+         * Producers (async edits) are slowed down when they start a new chunk
+         */
+        ELEVATED,
+        /**
+         * Cached history is spilled to disk, shared chunk reads are discarded and queued chunks are flushed without waiting
+         */
+        HIGH,
+        /**
+         * Edits which check the memory are cancelled, and with PREVENT_CRASHES, queues are cleared when nearly full
+         */
+        CRITICAL
+    }
+
+    public enum Mode {
+        /**
+         * MAX_MEMORY_PERCENT is disabled
+         */
+        DISABLED,
+        /**
+         * The JVM notifies the governor when the tenured pool crosses the threshold
+         */
+        LISTENING,
+        /**
+         * No memory pool supports collection thresholds, so the heap is checked each tick
+         */
+        POLLING
+    }
+
+    public enum Subsystem {
+        QUEUE,
+        CLIPBOARD,
+        HISTORY,
+        CFI
+    }
+
+    private final Map<Subsystem, Set<Object>> tracked = new EnumMap<>(Subsystem.class);
+
+    private MemoryPoolMXBean pool;
+    private volatile Pressure pressure = Pressure.NONE;
+    private volatile int usedPercent;
+
+    private MemoryGovernor() {
+        for (Subsystem subsystem : Subsystem.values()) {
+            tracked.put(subsystem, Collections.newSetFromMap(new WeakHashMap<Object, Boolean>()));
+        }
+    }
+
+    /**
+     * Register the thresholds and the listener for the tenured pool
+     *
+     * @return how the heap is watched
+     */
+    public synchronized Mode setup() {
+        int max = Settings.IMP.MAX_MEMORY_PERCENT;
+        if (max < 1 || max > 99) {
+            return Mode.DISABLED;
+        }
+        // The tenured (old) generation is the largest heap pool supporting collection thresholds
+        MemoryPoolMXBean tenured = null;
+        for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (mp.getType() == MemoryType.HEAP && mp.isCollectionUsageThresholdSupported() && mp.getUsage().getMax() > 0) {
+                if (tenured == null || mp.getUsage().getMax() > tenured.getUsage().getMax()) {
+                    tenured = mp;
+                }
+            }
+        }
+        if (tenured == null) {
+            return Mode.POLLING;
+        }
+        tenured.setCollectionUsageThreshold((tenured.getUsage().getMax() * getThreshold(Pressure.ELEVATED)) / 100);
+        this.pool = tenured;
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener(new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                    update();
+                }
+            }
+        }, null, null);
+        return Mode.LISTENING;
+    }
+
+    /**
+     * @param pressure
+     * @return the percentage of the heap (after collection) at which the pressure starts
+     */
+    public int getThreshold(Pressure pressure) {
+        int max = Settings.IMP.MAX_MEMORY_PERCENT;
+        switch (pressure) {
+            case ELEVATED:
+                return Math.max(1, max - 20);
+            case HIGH:
+                return Math.max(1, max - 10);
+            case CRITICAL:
+                return max;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return if the JVM notifies the governor (otherwise it needs to be updated each tick)
+     */
+    public boolean isListening() {
+        return pool != null;
+    }
+
+    public Pressure getPressure() {
+        return pressure;
+    }
+
+    /**
+     * @return the percentage of the heap used, as of the last update
+     */
+    public int getUsedPercent() {
+        return usedPercent;
+    }
+
+    /**
+     * Recalculate the pressure (cheap, it doesn't trigger a collection)
+     *
+     * @return the current pressure
+     */
+    public Pressure update() {
+        int max = Settings.IMP.MAX_MEMORY_PERCENT;
+        if (max < 1 || max > 99) {
+            return pressure;
+        }
+        usedPercent = calculateUsedPercent();
+        Pressure next = Pressure.NONE;
+        for (Pressure level : Pressure.values()) {
+            if (level != Pressure.NONE && usedPercent >= getThreshold(level)) {
+                next = level;
+            }
+        }
+        setPressure(next);
+        return next;
+    }
+
+    private int calculateUsedPercent() {
+        MemoryPoolMXBean pool = this.pool;
+        if (pool != null) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && usage.getMax() > 0) {
+                return (int) ((usage.getUsed() * 100) / usage.getMax());
+            }
+        }
+        // Without collection usage, the heap is only considered full once it can't grow any more
+        Runtime runtime = Runtime.getRuntime();
+        if (runtime.totalMemory() < runtime.maxMemory()) {
+            return 0;
+        }
+        return (int) (((runtime.totalMemory() - runtime.freeMemory()) * 100) / runtime.maxMemory());
+    }
+
+    private synchronized void setPressure(Pressure next) {
+        Pressure previous = this.pressure;
+        if (previous == next) {
+            return;
+        }
+        this.pressure = next;
+        if (next.compareTo(previous) > 0) {
+            Fawe.debug("Memory pressure " + next + " (" + usedPercent + "% used after GC): " + getUsage());
+        }
+        if (next.compareTo(Pressure.HIGH) >= 0 && previous.compareTo(Pressure.HIGH) < 0) {
+            HistoryCache.IMP.evictAll();
+            SectionSnapshotCache.IMP.clear();
+        }
+        if (next == Pressure.CRITICAL) {
+            MemUtil.memoryLimitedTask();
+        } else if (previous == Pressure.CRITICAL) {
+            MemUtil.memoryPlentifulTask();
+        }
+    }
+
+    /**
+     * Slow down the current thread according to the pressure<br>
+     * - Called by producers (e.g. when a queue starts a new chunk), so the queue can catch up<br>
+     * - Must not be called on the main thread, which the queue runs on
+     */
+    public void throttle() {
+        Pressure pressure = this.pressure;
+        if (pressure == Pressure.NONE) {
+            return;
+        }
+        try {
+            switch (pressure) {
+                case ELEVATED:
+                    Thread.sleep(1);
+                    break;
+                case HIGH:
+                    Thread.sleep(5);
+                    break;
+                case CRITICAL:
+                    Thread.sleep(20);
+                    break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Include an object in the usage of a subsystem (until it's garbage collected)
+     *
+     * @param subsystem
+     * @param object    a clipboard, change set or generator
+     */
+    public void track(Subsystem subsystem, Object object) {
+        Set<Object> set = tracked.get(subsystem);
+        synchronized (set) {
+            set.add(object);
+        }
+    }
+
+    public void untrack(Subsystem subsystem, Object object) {
+        Set<Object> set = tracked.get(subsystem);
+        synchronized (set) {
+            set.remove(object);
+        }
+    }
+
+    /**
+     * @return the estimated bytes held by each subsystem
+     */
+    public Map<Subsystem, Long> getUsage() {
+        Map<Subsystem, Long> usage = new EnumMap<>(Subsystem.class);
+        for (Subsystem subsystem : Subsystem.values()) {
+            usage.put(subsystem, getUsage(subsystem));
+        }
+        return usage;
+    }
+
+    /**
+     * @param subsystem
+     * @return the estimated bytes held by the subsystem
+     */
+    public long getUsage(Subsystem subsystem) {
+        long total = 0;
+        if (subsystem == Subsystem.QUEUE) {
+            for (FaweQueue queue : SetQueue.IMP.getAllQueues()) {
+                total += queue.size() * CHUNK_BYTES;
+            }
+        }
+        List<Object> objects;
+        Set<Object> set = tracked.get(subsystem);
+        synchronized (set) {
+            objects = new ArrayList<>(set);
+        }
+        for (Object object : objects) {
+            try {
+                total += sizeOf(object);
+            } catch (Throwable ignore) {
+                // Modified concurrently, it's only an estimate
+            }
+        }
+        return total;
+    }
+
+    private long sizeOf(Object object) {
+        if (object instanceof HeightMapMCAGenerator) {
+            return ((HeightMapMCAGenerator) object).getSizeInMemory();
+        }
+        if (object instanceof MemoryOptimizedClipboard) {
+            return ((MemoryOptimizedClipboard) object).getSizeInMemory();
+        }
+        if (object instanceof FaweStreamChangeSet) {
+            return ((FaweStreamChangeSet) object).getSizeInMemory();
+        }
+        if (object instanceof FaweQueue) {
+            return ((FaweQueue) object).size() * CHUNK_BYTES;
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("MemoryGovernor{pressure=").append(pressure).append(", used=").append(usedPercent).append('%');
+        for (Map.Entry<Subsystem, Long> entry : getUsage().entrySet()) {
+            result.append(", ").append(entry.getKey().name().toLowerCase()).append('=').append(entry.getValue() >> 20).append("MB");
+        }
+        return result.append('}').toString();
+    }
+}
@@ -81,6 +81,20 @@ public class SetQueue {
             public void run() {
                 try {
                     long now = System.currentTimeMillis();
+                    MemoryGovernor governor = MemoryGovernor.IMP;
+                    if (governor.getPressure() != MemoryGovernor.Pressure.NONE || !governor.isListening()) {
+                        MemoryGovernor.Pressure pressure = governor.update();
+                        if (pressure == MemoryGovernor.Pressure.CRITICAL) {
+                            allocate = Math.max(5, allocate - 1);
+                            if (governor.getUsedPercent() >= 99 && Settings.IMP.PREVENT_CRASHES) {
+                                for (FaweQueue queue : getAllQueues()) {
+                                    queue.saveMemory();
+                                }
+                                return;
+                            }
+                        }
+                    }
+
                     boolean empty = (inactiveQueues.isEmpty() && activeQueues.isEmpty());
                     boolean emptyTasks = tasks.isEmpty();
                     if (emptyTasks && empty) {
@@ -133,25 +147,6 @@ public class SetQueue {
                         return;
                     }
 
-                    if (!MemUtil.isMemoryFree()) {
-                        final int mem = MemUtil.calculateMemory();
-                        if (mem != Integer.MAX_VALUE) {
-                            allocate = Math.max(5, allocate - 1);
-                            if ((mem <= 1) && Settings.IMP.PREVENT_CRASHES) {
-                                for (FaweQueue queue : getAllQueues()) {
-                                    queue.saveMemory();
-                                }
-                                return;
-                            }
-                            if (SetQueue.this.forceChunkSet()) {
-                                System.gc();
-                            } else {
-                                SetQueue.this.runEmptyTasks();
-                            }
-                            return;
-                        }
-                    }
-
                     FaweQueue queue = getNextQueue();
                     if (queue == null) {
                         return;
@@ -321,7 +316,7 @@ public class SetQueue {
                     if (firstNonEmpty == null) {
                         firstNonEmpty = queue;
                     }
-                    if (total > Settings.IMP.QUEUE.TARGET_SIZE) {
+                    if (total > Settings.IMP.QUEUE.TARGET_SIZE || MemoryGovernor.IMP.getPressure().compareTo(MemoryGovernor.Pressure.HIGH) >= 0) {
                         firstNonEmpty.setModified(now);
                         return firstNonEmpty;
                     }
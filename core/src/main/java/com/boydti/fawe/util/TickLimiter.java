@@ -0,0 +1,403 @@
+package com.boydti.fawe.util;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+/**
+ * Platform independent tick limiter, driven by the platform's event listeners (e.g. the Bukkit ChunkListener)<br>
+ * - Each chunk has sliding window counters (one bucket per tick, over the interval) for physics time, falling blocks
+ * and item spawns<br>
+ * - Physics time is sampled: every {@link #SAMPLE}th event is timed until the next event, and that duration is charged
+ * (SAMPLE times) to the chunk of the timed event. Time between ticks, or spent on other events, isn't charged<br>
+ * - The time until the next event may include other work (e.g. entities or other plugins), so a timed event is charged
+ * at most 1 / {@link #MIN_SAMPLES} of the limit<br>
+ * - A chunk exceeding a limit throttles it and the chunks around it (every event is cancelled) for an interval<br>
+ * - Not thread safe, events are expected on the main thread<br>
+ * - The {@link Clock} can be replaced to drive the limiter with a simulated event stream
+ */
+public class TickLimiter {
+
+    /**
+     * The number of physics events per timed event
+     */
+    public static final int SAMPLE = 64;
+
+    /**
+     * The number of timed events a chunk needs (at least) to exceed the physics limit
+     */
+    public static final int MIN_SAMPLES = 4;
+
+    public enum Decision {
+        /**
+         * Let the event happen
+         */
+        ALLOW,
+        /**
+         * Cancel the event
+         */
+        CANCEL,
+        /**
+         * Cancel the event, the chunk has just exceeded a limit (the platform may log or clean up)
+         */
+        TRIP
+    }
+
+    public interface Clock {
+        /**
+         * @return the current server tick
+         */
+        long getTick();
+
+        long nanoTime();
+
+        double getTPS();
+    }
+
+    /**
+     * The clock of the {@link FaweTimer}
+     */
+    public static final Clock SERVER = new Clock() {
+        @Override
+        public long getTick() {
+            return Fawe.get().getTimer().getTick();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public double getTPS() {
+            return Fawe.get().getTimer().getTPS();
+        }
+    };
+
+    private final Clock clock;
+    private final int window;
+    private final long physicsLimit;
+    private final long maxCharge;
+    private final int fallingLimit;
+    private final int itemLimit;
+
+    private final Long2ObjectOpenHashMap<Counter> counters = new Long2ObjectOpenHashMap<>();
+    private long lastPair = Long.MIN_VALUE;
+    private Counter lastCounter;
+
+    private long tick = Long.MIN_VALUE;
+    private long nextPrune;
+    private long nextLog;
+
+    // The physics events since the last timed event
+    private int events;
+    // If an event is being timed, its chunk, and when it started
+    private boolean sampling;
+    private int sampleX, sampleZ;
+    private long sampleStart;
+
+    public TickLimiter() {
+        this(SERVER, Settings.IMP.TICK_LIMITER.INTERVAL, Settings.IMP.TICK_LIMITER.PHYSICS_MS, Settings.IMP.TICK_LIMITER.FALLING, Settings.IMP.TICK_LIMITER.ITEMS);
+    }
+
+    /**
+     * @param clock      the time source
+     * @param interval   the length of the window in ticks
+     * @param physicsMs  the max physics time per chunk, per interval
+     * @param falling    the max falling blocks per chunk, per interval
+     * @param items      the max item spawns per chunk, per interval
+     */
+    public TickLimiter(Clock clock, int interval, int physicsMs, int falling, int items) {
+        this.clock = clock;
+        this.window = Math.max(1, interval);
+        this.physicsLimit = physicsMs * 1000000L;
+        this.maxCharge = physicsLimit / MIN_SAMPLES;
+        this.fallingLimit = falling;
+        this.itemLimit = items;
+    }
+
+    /**
+     * A block physics update
+     *
+     * @param cx the chunk x
+     * @param cz the chunk z
+     * @return
+     */
+    public Decision onPhysics(int cx, int cz) {
+        updateTick();
+        if (sampling) {
+            // The timed event ended when this one started
+            sampling = false;
+            long elapsed = Math.min(maxCharge, (clock.nanoTime() - sampleStart) * SAMPLE);
+            if (charge(getCounter(sampleX, sampleZ), elapsed)) {
+                if (sampleX == cx && sampleZ == cz) {
+                    return Decision.TRIP;
+                }
+                if (shouldLog()) {
+                    Fawe.debug("[FAWE `tick-limiter`] Detected and cancelled physics lag source at chunk " + sampleX + "," + sampleZ);
+                }
+            }
+        }
+        // Chunks are only counted once they're charged
+        Counter counter = findCounter(cx, cz);
+        if (counter != null && counter.throttledUntil > tick) {
+            // Throttled events are cheap, so they aren't timed
+            return Decision.CANCEL;
+        }
+        if (++events >= SAMPLE) {
+            events = 0;
+            sampling = true;
+            sampleX = cx;
+            sampleZ = cz;
+            sampleStart = clock.nanoTime();
+        }
+        return Decision.ALLOW;
+    }
+
+    /**
+     * Charge physics time to a chunk
+     *
+     * @return if the chunk exceeded the limit (and is now throttled)
+     */
+    private boolean charge(Counter counter, long elapsed) {
+        advance(counter);
+        counter.physics[counter.bucket] += elapsed;
+        counter.physicsTotal += elapsed;
+        if (counter.physicsTotal > physicsLimit) {
+            trip(counter);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Something other than physics happened (e.g. another block event), so the event being timed (if any) isn't
+     * charged
+     */
+    public void interrupt() {
+        sampling = false;
+    }
+
+    /**
+     * An entity changing a block (e.g. a falling block landing or starting to fall)
+     *
+     * @param cx           the chunk x
+     * @param cz           the chunk z
+     * @param fallingBlock if the entity is a falling block
+     * @return
+     */
+    public Decision onFalling(int cx, int cz, boolean fallingBlock) {
+        updateTick();
+        Counter counter = getCounter(cx, cz);
+        if (counter.throttledUntil > tick || counter.fallingTotal >= fallingLimit) {
+            return Decision.CANCEL;
+        }
+        if (fallingBlock) {
+            counter.falling[counter.bucket]++;
+            if (++counter.fallingTotal >= fallingLimit) {
+                // Only cancel falling blocks when it's lagging
+                if (clock.getTPS() < 18) {
+                    trip(counter);
+                    return Decision.TRIP;
+                }
+                counter.clearFalling();
+            }
+        }
+        return Decision.ALLOW;
+    }
+
+    /**
+     * An item spawning
+     *
+     * @param cx the chunk x
+     * @param cz the chunk z
+     * @return
+     */
+    public Decision onItemSpawn(int cx, int cz) {
+        updateTick();
+        Counter counter = getCounter(cx, cz);
+        if (counter.throttledUntil > tick || counter.itemsTotal >= itemLimit) {
+            return Decision.CANCEL;
+        }
+        counter.items[counter.bucket]++;
+        if (++counter.itemsTotal >= itemLimit) {
+            trip(counter);
+            return Decision.TRIP;
+        }
+        return Decision.ALLOW;
+    }
+
+    /**
+     * @param cx
+     * @param cz
+     * @return if every event in the chunk is being cancelled
+     */
+    public boolean isThrottled(int cx, int cz) {
+        updateTick();
+        Counter counter = counters.get(MathMan.pairInt(cx, cz));
+        return counter != null && counter.throttledUntil > tick;
+    }
+
+    /**
+     * Rate limit the messages about detected lag sources (one per second)
+     *
+     * @return if the platform should log the lag source
+     */
+    public boolean shouldLog() {
+        if (tick >= nextLog) {
+            nextLog = tick + 20;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of chunks being counted
+     */
+    public int size() {
+        return counters.size();
+    }
+
+    private void trip(Counter counter) {
+        for (int ocx = -1; ocx <= 1; ocx++) {
+            for (int ocz = -1; ocz <= 1; ocz++) {
+                Counter near = ocx == 0 && ocz == 0 ? counter : getCounter(counter.x + ocx, counter.z + ocz);
+                near.throttledUntil = tick + window;
+            }
+        }
+    }
+
+    private void updateTick() {
+        long now = clock.getTick();
+        if (now == tick) {
+            return;
+        }
+        tick = now;
+        // The time between ticks isn't physics
+        sampling = false;
+        if (now >= nextPrune) {
+            nextPrune = now + window;
+            prune();
+        }
+    }
+
+    /**
+     * Remove the chunks which have been idle for a whole window
+     */
+    private void prune() {
+        ObjectIterator<Long2ObjectMap.Entry<Counter>> iter = counters.long2ObjectEntrySet().fastIterator();
+        while (iter.hasNext()) {
+            Counter counter = iter.next().getValue();
+            if (tick - counter.tick >= window && counter.throttledUntil <= tick) {
+                iter.remove();
+            }
+        }
+        lastPair = Long.MIN_VALUE;
+        lastCounter = null;
+    }
+
+    private Counter getCounter(int cx, int cz) {
+        Counter counter = findCounter(cx, cz);
+        if (counter == null) {
+            long pair = MathMan.pairInt(cx, cz);
+            counter = new Counter(cx, cz, window, tick);
+            counters.put(pair, counter);
+            lastPair = pair;
+            lastCounter = counter;
+        }
+        return counter;
+    }
+
+    /**
+     * @param cx
+     * @param cz
+     * @return the counter of a chunk, or null if the chunk isn't being counted
+     */
+    private Counter findCounter(int cx, int cz) {
+        long pair = MathMan.pairInt(cx, cz);
+        Counter counter;
+        if (pair == lastPair) {
+            counter = lastCounter;
+        } else {
+            counter = counters.get(pair);
+            if (counter == null) {
+                return null;
+            }
+            lastPair = pair;
+            lastCounter = counter;
+        }
+        advance(counter);
+        return counter;
+    }
+
+    /**
+     * Move the window of a counter to the current tick, clearing the buckets which fell out of it
+     */
+    private void advance(Counter counter) {
+        long last = counter.tick;
+        if (last == tick) {
+            return;
+        }
+        counter.tick = tick;
+        if (tick - last >= window || tick < last) {
+            counter.clear();
+        } else {
+            for (long t = last + 1; t <= tick; t++) {
+                counter.clearBucket((int) (t % window));
+            }
+        }
+        counter.bucket = (int) (tick % window);
+    }
+
+    private static final class Counter {
+        final int x, z;
+        final long[] physics;
+        final int[] falling;
+        final int[] items;
+        long physicsTotal;
+        int fallingTotal;
+        int itemsTotal;
+        long tick;
+        int bucket;
+        long throttledUntil = Long.MIN_VALUE;
+
+        Counter(int x, int z, int window, long tick) {
+            this.x = x;
+            this.z = z;
+            this.physics = new long[window];
+            this.falling = new int[window];
+            this.items = new int[window];
+            this.tick = tick;
+            this.bucket = (int) (tick % window);
+        }
+
+        void clearBucket(int index) {
+            physicsTotal -= physics[index];
+            fallingTotal -= falling[index];
+            itemsTotal -= items[index];
+            physics[index] = 0;
+            falling[index] = 0;
+            items[index] = 0;
+        }
+
+        void clearFalling() {
+            for (int i = 0; i < falling.length; i++) {
+                falling[i] = 0;
+            }
+            fallingTotal = 0;
+        }
+
+        void clear() {
+            for (int i = 0; i < physics.length; i++) {
+                physics[i] = 0;
+                falling[i] = 0;
+                items[i] = 0;
+            }
+            physicsTotal = 0;
+            fallingTotal = 0;
+            itemsTotal = 0;
+        }
+    }
+}
@@ -172,6 +172,16 @@ public final class NBTInputStream implements Closeable {
                     is.skipBytes(length);
                     return;
                 }
+                if (reader instanceof NBTStreamer.ByteArrayReader) {
+                    NBTStreamer.ByteArrayReader arrayReader = (NBTStreamer.ByteArrayReader) reader;
+                    int chunkSize = arrayReader.getChunkSize();
+                    for (int i = 0; i < length; i += chunkSize) {
+                        byte[] chunk = new byte[Math.min(chunkSize, length - i)];
+                        is.readFully(chunk);
+                        arrayReader.run(i, chunk);
+                    }
+                    return;
+                }
                 if (reader instanceof NBTStreamer.ByteReader) {
                     NBTStreamer.ByteReader byteReader = (NBTStreamer.ByteReader) reader;
                     int i = 0;
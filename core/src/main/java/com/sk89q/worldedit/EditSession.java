@@ -1614,7 +1614,22 @@ public class EditSession extends AbstractDelegateExtent implements HasFaweQueue,
             return changes = queue.setBlocks((CuboidRegion) region, block.getId(), block.getData());
         }
         try {
-            if (hasExtraExtents()) {
+            if (!block.hasNbtData() && !wrapped && getMask() == null && getSourceMask() == null) {
+                // Set a chunk at a time, so the limit, region and history checks are done per chunk
+                BlockBatch batch = new BlockBatch();
+                int combined = block.getCombined();
+                for (BlockVector pos : region) {
+                    int x = pos.getBlockX();
+                    int y = pos.getBlockY();
+                    int z = pos.getBlockZ();
+                    if (!batch.add(x, y, z, combined)) {
+                        this.changes += this.extent.setBlocks(batch);
+                        batch.clear();
+                        batch.add(x, y, z, combined);
+                    }
+                }
+                this.changes += this.extent.setBlocks(batch);
+            } else if (hasExtraExtents()) {
                 RegionVisitor visitor = new RegionVisitor(region, new BlockReplace(extent, (block)), this);
                 Operations.completeBlindly(visitor);
                 this.changes += visitor.getAffected();
@@ -2794,14 +2809,10 @@ public class EditSession extends AbstractDelegateExtent implements HasFaweQueue,
                     }
                 }
             } else {
-                MutableBlockVector mutable = new MutableBlockVector(minX, minY, minZ);
-                for (int x = minX; x <= maxX; ++x) {
-                    for (int y = minY; y <= maxY; ++y) {
-                        for (int z = minZ; z <= maxZ; ++z) {
-                            int id = getBlock(x, y, z).getId();
-                            counter[id]++;
-                        }
-                    }
+                int[] combinedCounter = new int[Character.MAX_VALUE + 1];
+                countBlocks(region, combinedCounter);
+                for (int i = 0; i < combinedCounter.length; i++) {
+                    counter[i >> 4] += combinedCounter[i];
                 }
             }
 
@@ -2824,6 +2835,33 @@ public class EditSession extends AbstractDelegateExtent implements HasFaweQueue,
         return distribution;
     }
 
+    /**
+     * Count each combined id in the region, getting the blocks a chunk at a time
+     *
+     * @param region
+     * @param counter the count of each combined id
+     */
+    private void countBlocks(final Region region, int[] counter) {
+        BlockBatch batch = new BlockBatch();
+        for (BlockVector pos : region) {
+            int x = pos.getBlockX();
+            int y = pos.getBlockY();
+            int z = pos.getBlockZ();
+            if (!batch.add(x, y, z, 0)) {
+                this.extent.getBlocks(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    counter[batch.getCombined(i)]++;
+                }
+                batch.clear();
+                batch.add(x, y, z, 0);
+            }
+        }
+        this.extent.getBlocks(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            counter[batch.getCombined(i)]++;
+        }
+    }
+
     /**
      * Get the block distribution (with data values) inside a region.
      *
@@ -2854,14 +2892,7 @@ public class EditSession extends AbstractDelegateExtent implements HasFaweQueue,
                     }
                 }
             } else {
-                for (int x = minX; x <= maxX; ++x) {
-                    for (int y = minY; y <= maxY; ++y) {
-                        for (int z = minZ; z <= maxZ; ++z) {
-                            final BaseBlock blk = getBlock(x, y, z);
-                            counter[FaweCache.getCombined(blk)]++;
-                        }
-                    }
-                }
+                countBlocks(region, counter);
             }
         } else {
             for (final Vector pt : region) {
@@ -29,6 +29,8 @@ import com.boydti.fawe.object.FawePlayer;
 import com.boydti.fawe.object.changeset.AnvilHistory;
 import com.boydti.fawe.object.changeset.DiskStorageHistory;
 import com.boydti.fawe.object.changeset.FaweChangeSet;
+import com.boydti.fawe.object.changeset.HistoryCache;
+import com.boydti.fawe.object.changeset.MemoryOptimizedHistory;
 import com.boydti.fawe.object.collection.SparseBitSet;
 import com.boydti.fawe.object.extent.ResettableExtent;
 import com.boydti.fawe.util.EditSessionBuilder;
@@ -196,7 +198,7 @@ public class LocalSession {
             this.uuid = uuid;
             // Save history
             saveHistoryNegativeIndex(uuid, currentWorld);
-            history.clear();
+            clearHistoryList();
             currentWorld = world;
             // Load history
             if (loadHistoryChangeSets(uuid, currentWorld)) {
@@ -353,12 +355,26 @@ public class LocalSession {
      * Clear history.
      */
     public void clearHistory() {
-        history.clear();
+        clearHistoryList();
         historyNegativeIndex = 0;
         historySize = 0;
         currentWorld = null;
     }
 
+    /**
+     * Clear the history list, releasing any in-memory history from the global {@link HistoryCache}
+     */
+    private void clearHistoryList() {
+        synchronized (history) {
+            for (Object item : history) {
+                if (item instanceof MemoryOptimizedHistory) {
+                    ((MemoryOptimizedHistory) item).delete();
+                }
+            }
+            history.clear();
+        }
+    }
+
     /**
      * Remember an edit session for the undo history. If the history maximum
      * size is reached, old edit sessions will be discarded.
@@ -375,6 +391,7 @@ public class LocalSession {
         if (o instanceof FaweChangeSet) {
             FaweChangeSet cs = (FaweChangeSet) o;
             cs.close();
+            HistoryCache.IMP.touch(cs);
             return cs;
         }
         if (o instanceof Integer) {
@@ -412,12 +429,18 @@ public class LocalSession {
                         oldChangeSet = getChangeSet(item);
                     }
                     historySize -= MainUtil.getSize(oldChangeSet);
+                    if (oldChangeSet instanceof MemoryOptimizedHistory) {
+                        oldChangeSet.delete();
+                    }
                     iter.remove();
                 }
             }
         }
         historySize += MainUtil.getSize(changeSet);
         history.add(changeSet);
+        if (changeSet instanceof MemoryOptimizedHistory) {
+            HistoryCache.IMP.add((MemoryOptimizedHistory) changeSet);
+        }
         if (getHistoryNegativeIndex() != 0) {
             setDirty();
             historyNegativeIndex = 0;
@@ -471,6 +494,9 @@ public class LocalSession {
                         oldChangeSet = getChangeSet(item);
                     }
                     historySize -= MainUtil.getSize(oldChangeSet);
+                    if (oldChangeSet instanceof MemoryOptimizedHistory) {
+                        oldChangeSet.delete();
+                    }
                     iter.remove();
                 }
             }
@@ -486,6 +512,9 @@ public class LocalSession {
         } else {
             history.add(0, changeSet);
         }
+        if (changeSet instanceof MemoryOptimizedHistory) {
+            HistoryCache.IMP.add((MemoryOptimizedHistory) changeSet);
+        }
         while (((!Settings.IMP.HISTORY.USE_DISK && history.size() > MAX_HISTORY_SIZE) || (historySize >> 20) > limitMb) && history.size() > 1) {
             FaweChangeSet item = (FaweChangeSet) history.remove(0);
             item.delete();
@@ -112,6 +112,7 @@ public class HistoryCommands extends MethodCommands {
                                         if (summary != null) {
                                             rollback.setDimensions(new Vector(summary.minX, 0, summary.minZ), new Vector(summary.maxX, 255, summary.maxZ));
                                             rollback.setTime(historyFile.lastModified());
+                                            rollback.setBlockCount(summary.getSize());
                                             RollbackDatabase db = DBHandler.IMP.getDatabase(world);
                                             db.logEdit(rollback);
                                             player.print(BBC.getPrefix() + "Logging: " + historyFile);
@@ -2,6 +2,7 @@ package com.sk89q.worldedit.extension.factory;
 
 import com.boydti.fawe.command.FaweParser;
 import com.boydti.fawe.config.BBC;
+import com.boydti.fawe.object.mask.MaskOptimizer;
 import com.boydti.fawe.util.StringMan;
 import com.sk89q.minecraft.util.commands.CommandLocals;
 import com.sk89q.worldedit.WorldEdit;
@@ -167,9 +168,9 @@ public class DefaultMaskParser extends FaweParser<Mask> {
         if (union.isEmpty()) {
             return null;
         } else if (union.size() == 1) {
-            return union.get(0);
+            return MaskOptimizer.optimize(union.get(0));
         } else {
-            return new MaskUnion(union);
+            return MaskOptimizer.optimize(new MaskUnion(union));
         }
     }
 
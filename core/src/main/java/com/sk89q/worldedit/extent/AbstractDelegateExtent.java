@@ -19,6 +19,8 @@
 
 package com.sk89q.worldedit.extent;
 
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.object.BlockBatch;
 import com.boydti.fawe.object.extent.LightingExtent;
 import com.sk89q.worldedit.MutableBlockVector;
 import com.sk89q.worldedit.Vector;
@@ -147,6 +149,74 @@ public class AbstractDelegateExtent implements LightingExtent {
         return extent.setBlock(location, block);
     }
 
+    /**
+     * Set a batch of blocks within one chunk<br>
+     * - FAWE extents override this to do their checks once per batch (limits, regions, history), then pass it on<br>
+     * - By default each block is set with {@link #setBlock(int, int, int, BaseBlock)}, so extents which only
+     * override the single block methods still see every block<br>
+     * - Entries which aren't passed on may be removed from the batch
+     *
+     * @param batch the blocks to set
+     * @return the number of blocks changed
+     * @throws WorldEditException
+     */
+    public int setBlocks(BlockBatch batch) throws WorldEditException {
+        int changed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (setBlock(batch.getX(i), batch.getY(i), batch.getZ(i), FaweCache.CACHE_BLOCK[batch.getCombined(i)])) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Get a batch of blocks within one chunk (the combined id of each entry is set)<br>
+     * - By default each block is fetched with {@link #getLazyBlock(int, int, int)} (without NBT)
+     *
+     * @param batch the blocks to get
+     */
+    public void getBlocks(BlockBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            batch.setCombined(i, getLazyBlock(batch.getX(i), batch.getY(i), batch.getZ(i)).getCombined());
+        }
+    }
+
+    /**
+     * Pass a batch to the delegate extent (per block if the delegate doesn't support batches)
+     *
+     * @param batch
+     * @return the number of blocks changed
+     * @throws WorldEditException
+     */
+    protected int setExtentBlocks(BlockBatch batch) throws WorldEditException {
+        if (extent instanceof AbstractDelegateExtent) {
+            return ((AbstractDelegateExtent) extent).setBlocks(batch);
+        }
+        int changed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (extent.setBlock(batch.getX(i), batch.getY(i), batch.getZ(i), FaweCache.CACHE_BLOCK[batch.getCombined(i)])) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Get a batch from the delegate extent (per block if the delegate doesn't support batches)
+     *
+     * @param batch
+     */
+    protected void getExtentBlocks(BlockBatch batch) {
+        if (extent instanceof AbstractDelegateExtent) {
+            ((AbstractDelegateExtent) extent).getBlocks(batch);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.setCombined(i, extent.getLazyBlock(batch.getX(i), batch.getY(i), batch.getZ(i)).getCombined());
+        }
+    }
+
     @Override
     @Nullable
     public Entity createEntity(Location location, BaseEntity entity) {
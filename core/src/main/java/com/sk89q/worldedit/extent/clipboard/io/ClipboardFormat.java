@@ -31,10 +31,12 @@ import com.boydti.fawe.object.clipboard.IClipboardFormat;
 import com.boydti.fawe.object.clipboard.LazyClipboardHolder;
 import com.boydti.fawe.object.clipboard.MultiClipboardHolder;
 import com.boydti.fawe.object.clipboard.URIClipboardHolder;
+import com.boydti.fawe.object.io.AsyncBufferedInputStream;
 import com.boydti.fawe.object.io.FastByteArrayOutputStream;
 import com.boydti.fawe.object.io.PGZIPOutputStream;
 import com.boydti.fawe.object.io.ResettableFileInputStream;
 import com.boydti.fawe.object.schematic.FaweFormat;
+import com.boydti.fawe.object.schematic.MappedFormat;
 import com.boydti.fawe.object.schematic.PNGWriter;
 import com.boydti.fawe.object.schematic.Schematic;
 import com.boydti.fawe.object.schematic.StructureFormat;
@@ -98,9 +100,16 @@ public enum ClipboardFormat {
                 inputStream = new ResettableFileInputStream((FileInputStream) inputStream);
             }
             BufferedInputStream buffered = new BufferedInputStream(inputStream);
-            NBTInputStream nbtStream = new NBTInputStream(new BufferedInputStream(new GZIPInputStream(buffered)));
+            InputStream gzip = new GZIPInputStream(buffered);
+            AsyncBufferedInputStream async = null;
+            if (Settings.IMP.CLIPBOARD.PARALLEL_LOAD) {
+                // Inflate on another thread while this one decodes
+                gzip = async = new AsyncBufferedInputStream(gzip);
+            }
+            NBTInputStream nbtStream = new NBTInputStream(new BufferedInputStream(gzip));
             SchematicReader input = new SchematicReader(nbtStream);
             input.setUnderlyingStream(inputStream);
+            input.setAsyncStream(async);
             return input;
         }
 
@@ -259,6 +268,33 @@ public enum ClipboardFormat {
         public DiskOptimizedClipboard createUncompressedReadWrite(int width, int height, int length, File file) {
             return new DiskOptimizedClipboard(width, height, length, file);
         }
+    }),
+
+    /**
+     * The mapped format:
+     * - DiskOptimizedClipboard layout followed by the tiles and entities
+     * - Loading a file maps it (copy-on-write) instead of reading it
+     */
+    MAPPED(new AbstractClipboardFormat("MAPPED", "mapped", "mmap") {
+        @Override
+        public ClipboardReader getReader(InputStream inputStream) throws IOException {
+            return new MappedFormat(inputStream);
+        }
+
+        @Override
+        public ClipboardWriter getWriter(OutputStream outputStream) throws IOException {
+            return new MappedFormat(outputStream);
+        }
+
+        @Override
+        public boolean isFormat(File file) {
+            return file.getName().endsWith(".mapped") && MappedFormat.isFormat(file);
+        }
+
+        @Override
+        public String getExtension() {
+            return "mapped";
+        }
     }),;
 
     private static final Map<String, ClipboardFormat> aliasMap;
@@ -482,6 +518,9 @@ public enum ClipboardFormat {
     }
 
     public Schematic load(File file) throws IOException {
+        if (this == MAPPED) {
+            return new Schematic(new MappedFormat(file).read(null));
+        }
         return load(new FileInputStream(file));
     }
 
@@ -20,8 +20,10 @@
 package com.sk89q.worldedit.extent.clipboard.io;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.jnbt.CorruptSchematicStreamer;
 import com.boydti.fawe.jnbt.SchematicStreamer;
+import com.boydti.fawe.object.io.AsyncBufferedInputStream;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.Tag;
@@ -43,8 +45,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class SchematicReader implements ClipboardReader {
 
     private static final Logger log = Logger.getLogger(SchematicReader.class.getCanonicalName());
+    private static final long REPORT_THROUGHPUT_BYTES = 16 << 20;
     private NBTInputStream inputStream;
     private InputStream rootStream;
+    private AsyncBufferedInputStream asyncStream;
 
     /**
      * Create a new instance.
@@ -60,6 +64,17 @@ public class SchematicReader implements ClipboardReader {
         this.rootStream = in;
     }
 
+    /**
+     * Set the stream which inflates the schematic on another thread (if any)
+     * - It is stopped before falling back to the corrupt schematic reader
+     * - Used to report the load throughput, see {@link Settings.CLIPBOARD#DEBUG_LOAD}
+     *
+     * @param in
+     */
+    public void setAsyncStream(@Nullable AsyncBufferedInputStream in) {
+        this.asyncStream = in;
+    }
+
     @Override
     public Clipboard read(WorldData data) throws IOException {
         return read(data, UUID.randomUUID());
@@ -67,10 +82,22 @@ public class SchematicReader implements ClipboardReader {
 
     public Clipboard read(WorldData data, final UUID clipboardId) throws IOException {
         try {
-            return new SchematicStreamer(inputStream, clipboardId).getClipboard();
+            long start = System.nanoTime();
+            Clipboard clipboard = new SchematicStreamer(inputStream, clipboardId).getClipboard();
+            if (asyncStream != null && Settings.IMP.CLIPBOARD.DEBUG_LOAD) {
+                long bytes = asyncStream.getBytesRead();
+                if (bytes >= REPORT_THROUGHPUT_BYTES) {
+                    long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+                    Fawe.debug("Loaded " + (bytes >> 20) + "MB schematic in " + ms + "ms (" + (bytes * 1000 / ms >> 20) + "MB/s)");
+                }
+            }
+            return clipboard;
         } catch (Exception e) {
             Fawe.debug("Input is corrupt!");
             e.printStackTrace();
+            if (asyncStream != null) {
+                asyncStream.cancel();
+            }
             return new CorruptSchematicStreamer(rootStream, clipboardId).recover();
         }
     }
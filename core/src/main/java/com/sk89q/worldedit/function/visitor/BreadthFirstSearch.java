@@ -7,6 +7,9 @@ import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.HasFaweQueue;
 import com.boydti.fawe.object.IntegerTrio;
 import com.boydti.fawe.object.collection.BlockVectorSet;
+import com.boydti.fawe.object.collection.ConcurrentSectionBlockVectorSet;
+import com.boydti.fawe.object.collection.SectionBlockVectorSet;
+import com.boydti.fawe.util.TaskManager;
 import com.sk89q.worldedit.MutableBlockVector;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.WorldEditException;
@@ -19,6 +22,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public abstract class BreadthFirstSearch implements Operation {
 
@@ -58,11 +63,12 @@ public abstract class BreadthFirstSearch implements Operation {
     private List<Vector> directions = new ArrayList<>();
     private BlockVectorSet visited;
     private final MappedFaweQueue mFaweQueue;
-    private BlockVectorSet queue;
+    private SectionBlockVectorSet queue;
     private int currentDepth = 0;
     private final int maxDepth;
     private int affected = 0;
     private int maxBranch = Integer.MAX_VALUE;
+    private boolean parallel = false;
 
     public BreadthFirstSearch(final RegionFunction function) {
         this(function, Integer.MAX_VALUE);
@@ -75,8 +81,8 @@ public abstract class BreadthFirstSearch implements Operation {
     public BreadthFirstSearch(final RegionFunction function, int maxDepth, HasFaweQueue faweQueue) {
         FaweQueue fq = faweQueue != null ? faweQueue.getQueue() : null;
         this.mFaweQueue = fq instanceof MappedFaweQueue ? (MappedFaweQueue) fq : null;
-        this.queue = new BlockVectorSet();
-        this.visited = new BlockVectorSet();
+        this.queue = new SectionBlockVectorSet();
+        this.visited = new SectionBlockVectorSet();
         this.function = function;
         this.directions.addAll(Arrays.asList(DEFAULT_DIRECTIONS));
         this.maxDepth = maxDepth;
@@ -115,6 +121,9 @@ public abstract class BreadthFirstSearch implements Operation {
         affected = 0;
     }
 
+    /**
+     * @param set the visited blocks, a {@link SectionBlockVectorSet} is required to expand in parallel
+     */
     public void setVisited(BlockVectorSet set) {
         this.visited = set;
     }
@@ -131,13 +140,30 @@ public abstract class BreadthFirstSearch implements Operation {
         this.maxBranch = maxBranch;
     }
 
+    /**
+     * Expand each depth layer on the public ForkJoinPool<br>
+     * - The frontier is split by chunk section and neighbours are claimed atomically, so maxDepth and maxBranch still apply<br>
+     * - The function is applied to a whole layer on the calling thread before that layer is expanded<br>
+     * - Only layers of at least PARALLEL_VISITOR_THRESHOLD blocks are expanded in parallel<br>
+     * - Only enable this if {@link #isVisitable(Vector, Vector)} is safe to call from multiple threads
+     *
+     * @param parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
         MutableBlockVector mutable = new MutableBlockVector();
         MutableBlockVector mutable2 = new MutableBlockVector();
         boolean shouldTrim = false;
         IntegerTrio[] dirs = getIntDirections();
-        BlockVectorSet tempQueue = new BlockVectorSet();
+        SectionBlockVectorSet tempQueue = new SectionBlockVectorSet();
         BlockVectorSet chunkLoadSet = new BlockVectorSet();
         for (currentDepth = 0; !queue.isEmpty() && currentDepth <= maxDepth; currentDepth++) {
             if (mFaweQueue != null && Settings.IMP.QUEUE.PRELOAD_CHUNKS > 1) {
@@ -162,24 +188,31 @@ public abstract class BreadthFirstSearch implements Operation {
                     mFaweQueue.queueChunkLoad(chunk.getBlockX(), chunk.getBlockZ());
                 }
             }
-            for (Vector from : queue) {
-                if (function.apply(from)) affected++;
-                for (int i = 0, j = 0; i < dirs.length && j < maxBranch; i++) {
-                    IntegerTrio direction = dirs[i];
-                    int y = from.getBlockY() + direction.y;
-                    if (y < 0 || y >= 256) {
-                        continue;
-                    }
-                    int x = from.getBlockX() + direction.x;
-                    int z = from.getBlockZ() + direction.z;
-                    if (!visited.contains(x, y, z)) {
-                        mutable2.mutX(x);
-                        mutable2.mutY(y);
-                        mutable2.mutZ(z);
-                        if (isVisitable(from, mutable2)) {
-                            j++;
-                            visited.add(x, y, z);
-                            tempQueue.add(x, y, z);
+            if (parallel && currentDepth != maxDepth && visited instanceof SectionBlockVectorSet && queue.size() >= Settings.IMP.EXPERIMENTAL.PARALLEL_VISITOR_THRESHOLD) {
+                for (Vector from : queue) {
+                    if (function.apply(from)) affected++;
+                }
+                expandParallel(dirs, tempQueue);
+            } else {
+                for (Vector from : queue) {
+                    if (function.apply(from)) affected++;
+                    for (int i = 0, j = 0; i < dirs.length && j < maxBranch; i++) {
+                        IntegerTrio direction = dirs[i];
+                        int y = from.getBlockY() + direction.y;
+                        if (y < 0 || y >= 256) {
+                            continue;
+                        }
+                        int x = from.getBlockX() + direction.x;
+                        int z = from.getBlockZ() + direction.z;
+                        if (!visited.contains(x, y, z)) {
+                            mutable2.mutX(x);
+                            mutable2.mutY(y);
+                            mutable2.mutZ(z);
+                            if (isVisitable(from, mutable2)) {
+                                j++;
+                                visited.add(x, y, z);
+                                tempQueue.add(x, y, z);
+                            }
                         }
                     }
                 }
@@ -188,7 +221,7 @@ public abstract class BreadthFirstSearch implements Operation {
                 break;
             }
             int size = queue.size();
-            BlockVectorSet tmp = queue;
+            SectionBlockVectorSet tmp = queue;
             queue = tempQueue;
             tmp.clear();
             chunkLoadSet.clear();
@@ -198,6 +231,59 @@ public abstract class BreadthFirstSearch implements Operation {
         return null;
     }
 
+    private void expandParallel(final IntegerTrio[] dirs, SectionBlockVectorSet nextQueue) {
+        final SectionBlockVectorSet frontier = queue;
+        final SectionBlockVectorSet visited = (SectionBlockVectorSet) this.visited;
+        final ConcurrentSectionBlockVectorSet claimed = new ConcurrentSectionBlockVectorSet();
+        // Allocate every section a neighbour can be in, so the tasks only read the section map
+        frontier.forEachSection((sectionX, sectionY, sectionZ) -> {
+            int bx = sectionX << 4;
+            int by = sectionY << 4;
+            int bz = sectionZ << 4;
+            for (IntegerTrio direction : dirs) {
+                for (int y = (by + direction.y) >> 4; y <= (by + 15 + direction.y) >> 4; y++) {
+                    if (y < 0 || y > 15) {
+                        continue;
+                    }
+                    for (int x = (bx + direction.x) >> 4; x <= (bx + 15 + direction.x) >> 4; x++) {
+                        for (int z = (bz + direction.z) >> 4; z <= (bz + 15 + direction.z) >> 4; z++) {
+                            claimed.allocate(x, y, z);
+                        }
+                    }
+                }
+            }
+        });
+        final ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        frontier.forEachSection((sectionX, sectionY, sectionZ) -> tasks.add(pool.submit(() -> {
+            MutableBlockVector from = new MutableBlockVector();
+            MutableBlockVector to = new MutableBlockVector();
+            frontier.forEach(sectionX, sectionY, sectionZ, (x, y, z) -> {
+                from.setComponents(x, y, z);
+                for (int i = 0, j = 0; i < dirs.length && j < maxBranch; i++) {
+                    IntegerTrio direction = dirs[i];
+                    int ny = y + direction.y;
+                    if (ny < 0 || ny >= 256) {
+                        continue;
+                    }
+                    int nx = x + direction.x;
+                    int nz = z + direction.z;
+                    if (!visited.containsConcurrent(nx, ny, nz) && !claimed.contains(nx, ny, nz)) {
+                        to.setComponents(nx, ny, nz);
+                        if (isVisitable(from, to) && claimed.add(nx, ny, nz)) {
+                            j++;
+                        }
+                    }
+                }
+            });
+        })));
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        claimed.addTo(visited);
+        claimed.addTo(nextQueue);
+    }
+
     public int getDepth() {
         return currentDepth;
     }
@@ -19,7 +19,9 @@
 
 package com.sk89q.worldedit.function.visitor;
 
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.object.HasFaweQueue;
+import com.boydti.fawe.object.mask.MaskOptimizer;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.function.RegionFunction;
 import com.sk89q.worldedit.function.mask.Mask;
@@ -55,6 +57,21 @@ public class RecursiveVisitor extends BreadthFirstSearch {
         this.mask = mask;
     }
 
+    /**
+     * Expand large layers in parallel if {@link Settings.EXPERIMENTAL#PARALLEL_VISITORS} is enabled and the mask allows it<br>
+     * - The mask must keep no state, i.e. a block mask (see {@link MaskOptimizer#isTable(Mask)})<br>
+     * - The caller must know that the extent the mask reads supports concurrent reads, that the function is thread safe,
+     * and that the function may be applied to a whole layer before it's expanded
+     *
+     * @param concurrentReads if the extent read by the mask can be read from several threads
+     * @return if the search is parallel
+     */
+    public boolean setParallelIfSafe(boolean concurrentReads) {
+        boolean parallel = concurrentReads && Settings.IMP.EXPERIMENTAL.PARALLEL_VISITORS && MaskOptimizer.isTable(mask);
+        setParallel(parallel);
+        return parallel;
+    }
+
     @Override
     public boolean isVisitable(final Vector from, final Vector to) {
         return this.mask.test(to);
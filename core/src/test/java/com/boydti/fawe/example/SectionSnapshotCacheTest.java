@@ -0,0 +1,158 @@
+package com.boydti.fawe.example;
+
+import com.boydti.fawe.config.Settings;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SectionSnapshotCacheTest {
+    private static final String WORLD = "world";
+
+    private final SectionSnapshotCache cache = SectionSnapshotCache.IMP;
+    private int readCacheMs;
+
+    @Before
+    public void setUp() {
+        readCacheMs = Settings.IMP.QUEUE.READ_CACHE_MS;
+        Settings.IMP.QUEUE.READ_CACHE_MS = 60000;
+        cache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        Settings.IMP.QUEUE.READ_CACHE_MS = readCacheMs;
+        cache.clear();
+    }
+
+    /**
+     * Read a block as MappedFaweQueue#getCombinedId4Data does: from the snapshot, else from the world and then stored
+     */
+    private int read(SectionSnapshotCache.Snapshot snapshot, AtomicIntegerArray world, int index) {
+        int combined = snapshot.get(index & 15, index >> 8, (index >> 4) & 15);
+        if (combined != -1) {
+            return combined;
+        }
+        combined = world.get(index);
+        snapshot.set(index & 15, index >> 8, (index >> 4) & 15, combined);
+        return combined;
+    }
+
+    @Test
+    public void versionInvalidation() {
+        SectionSnapshotCache.Snapshot snapshot = cache.get(WORLD, 2, 3, -4);
+        assertSame(snapshot, cache.get(WORLD, 2, 3, -4));
+        snapshot.set(1, 50, 2, 16);
+        assertEquals(16, snapshot.get(1, 50, 2));
+        assertEquals(-1, snapshot.get(1, 51, 2));
+
+        // Other chunks and worlds keep their snapshots
+        SectionSnapshotCache.Snapshot other = cache.get(WORLD, 3, 3, -4);
+        SectionSnapshotCache.Snapshot otherWorld = cache.get("other", 2, 3, -4);
+        cache.invalidate(WORLD, 2, -4);
+        assertFalse(snapshot.isValid());
+        assertTrue(other.isValid());
+        assertTrue(otherWorld.isValid());
+
+        SectionSnapshotCache.Snapshot next = cache.get(WORLD, 2, 3, -4);
+        assertNotSame(snapshot, next);
+        assertTrue(next.isValid());
+        assertEquals(-1, next.get(1, 50, 2));
+        assertSame(other, cache.get(WORLD, 3, 3, -4));
+    }
+
+    @Test
+    public void expiry() {
+        SectionSnapshotCache.Snapshot snapshot = cache.get(WORLD, 0, 0, 0);
+        long now = System.currentTimeMillis();
+        assertFalse(snapshot.isExpired(now));
+        assertTrue(snapshot.isExpired(now + 60001));
+
+        Settings.IMP.QUEUE.READ_CACHE_MS = 1;
+        cache.clear();
+        snapshot = cache.get(WORLD, 0, 0, 0);
+        assertTrue(snapshot.isExpired(System.currentTimeMillis() + 1));
+    }
+
+    @Test
+    public void readDuringSet() {
+        AtomicIntegerArray world = new AtomicIntegerArray(4096);
+        world.set(7, 16);
+        // An async read which takes its snapshot, then reads the old block from the world
+        SectionSnapshotCache.Snapshot before = cache.get(WORLD, 0, 0, 0);
+        int stale = world.get(7);
+
+        // start: the chunk is about to be set
+        cache.invalidate(WORLD, 0, 0);
+        // A read while the chunk is being set sees the old block
+        SectionSnapshotCache.Snapshot during = cache.get(WORLD, 0, 0, 0);
+        assertEquals(16, read(during, world, 7));
+        world.set(7, 32);
+        // The first read stores the old block late
+        before.set(7, 0, 0, stale);
+        // end: the chunk has been set
+        cache.invalidate(WORLD, 0, 0);
+
+        assertFalse(before.isValid());
+        assertFalse(during.isValid());
+        assertEquals(32, read(cache.get(WORLD, 0, 0, 0), world, 7));
+    }
+
+    @Test
+    public void concurrentReadsAndSets() throws Exception {
+        final AtomicIntegerArray world = new AtomicIntegerArray(4096);
+        final AtomicBoolean done = new AtomicBoolean();
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    int index = offset;
+                    while (!done.get()) {
+                        SectionSnapshotCache.Snapshot snapshot = cache.get(WORLD, 0, 0, 0);
+                        for (int i = 0; i < 64; i++) {
+                            index = (index + 61) & 4095;
+                            if (snapshot.isValid()) {
+                                read(snapshot, world, index);
+                            }
+                        }
+                    }
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                for (int value = 1; value <= 2000; value++) {
+                    cache.invalidate(WORLD, 0, 0);
+                    for (int i = value & 7; i < 4096; i += 8) {
+                        world.set(i, value);
+                    }
+                    cache.invalidate(WORLD, 0, 0);
+                }
+                done.set(true);
+            }));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Once the sets have ended, no stale block is read through the cache
+        SectionSnapshotCache.Snapshot snapshot = cache.get(WORLD, 0, 0, 0);
+        for (int i = 0; i < 4096; i++) {
+            assertEquals("index " + i, world.get(i), read(snapshot, world, i));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.config.Settings;
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MCAFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private boolean writeAhead;
+
+    @Before
+    public void setUp() {
+        writeAhead = Settings.IMP.EXPERIMENTAL.ANVIL_WRITE_AHEAD;
+        Settings.IMP.EXPERIMENTAL.ANVIL_WRITE_AHEAD = true;
+    }
+
+    @After
+    public void tearDown() {
+        Settings.IMP.EXPERIMENTAL.ANVIL_WRITE_AHEAD = writeAhead;
+    }
+
+    @Test
+    public void readAfterWriteAhead() throws IOException {
+        File file = folder.newFile("r.0.0.mca");
+        MCAFile mca = new MCAFile(null, file);
+        mca.init();
+        mca.setChunk(new MCAChunk(null, 1, 2));
+        assertTrue(mca.flush(null));
+
+        // The write ahead replaced the file, so it's opened again to read the chunk
+        int offset = mca.getOffset(1, 2);
+        assertNotEquals(0, offset);
+        assertNotNull(mca.getChunkCompressedBytes(offset));
+
+        // And to write it again
+        mca.setChunk(new MCAChunk(null, 3, 4));
+        assertTrue(mca.flush(null));
+        assertNotEquals(0, mca.getOffset(3, 4));
+        assertNotNull(mca.getChunkCompressedBytes(mca.getOffset(1, 2)));
+        assertTrue(mca.close(null));
+    }
+}
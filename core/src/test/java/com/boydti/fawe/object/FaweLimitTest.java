@@ -0,0 +1,86 @@
+package com.boydti.fawe.object;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FaweLimitTest {
+
+    private static FaweLimit changes(int max) {
+        FaweLimit limit = new FaweLimit();
+        limit.MAX_CHANGES = max;
+        limit.MAX_CHECKS = max;
+        return limit;
+    }
+
+    /**
+     * Take the amount one at a time, as the per block path does
+     */
+    private static int takeSingle(FaweLimit limit, int amount) {
+        int allowed = 0;
+        for (int i = 0; i < amount; i++) {
+            if (!limit.MAX_CHANGES()) {
+                break;
+            }
+            allowed++;
+        }
+        return allowed;
+    }
+
+    private static void assertLikeSingle(int max, int... amounts) {
+        FaweLimit batch = changes(max);
+        FaweLimit single = changes(max);
+        for (int amount : amounts) {
+            assertEquals(takeSingle(single, amount), batch.MAX_CHANGES(amount));
+            assertEquals(single.MAX_CHANGES, batch.MAX_CHANGES);
+        }
+    }
+
+    @Test
+    public void belowLimit() {
+        FaweLimit limit = changes(10);
+        assertEquals(4, limit.MAX_CHANGES(4));
+        assertEquals(6, limit.MAX_CHANGES);
+        assertEquals(4, limit.MAX_CHECKS(4));
+        assertEquals(6, limit.MAX_CHECKS);
+        assertLikeSingle(10, 4, 5);
+    }
+
+    @Test
+    public void atLimit() {
+        FaweLimit limit = changes(10);
+        assertEquals(10, limit.MAX_CHANGES(10));
+        assertEquals(0, limit.MAX_CHANGES);
+        // The next change is refused
+        assertEquals(0, limit.MAX_CHANGES(1));
+        assertEquals(-1, limit.MAX_CHANGES);
+        assertLikeSingle(10, 10, 1);
+    }
+
+    @Test
+    public void aboveLimit() {
+        FaweLimit limit = changes(10);
+        assertEquals(10, limit.MAX_CHANGES(11));
+        // Used up, as if the 11th change was refused
+        assertEquals(-1, limit.MAX_CHANGES);
+        assertEquals(0, limit.MAX_CHANGES(5));
+        assertEquals(10, limit.MAX_CHECKS(25));
+        assertEquals(-1, limit.MAX_CHECKS);
+        assertLikeSingle(10, 11, 5);
+        assertLikeSingle(10, 3, 9, 2);
+    }
+
+    @Test
+    public void emptyLimit() {
+        FaweLimit limit = changes(0);
+        assertEquals(0, limit.MAX_CHANGES(3));
+        assertLikeSingle(0, 3, 0, 1);
+    }
+
+    @Test
+    public void unlimited() {
+        assertEquals(Integer.MAX_VALUE, FaweLimit.MAX.MAX_CHANGES(Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE, FaweLimit.MAX.MAX_CHANGES);
+        assertEquals(5, FaweLimit.MAX.MAX_CHECKS(5));
+    }
+}
@@ -0,0 +1,199 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.example.CharFaweChunk;
+import com.boydti.fawe.object.FaweChunk;
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweQueue;
+import com.boydti.fawe.object.change.MutableBlockChange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FaweStreamChangeSetTest {
+    private static final int LAYERS = 16;
+
+    private boolean storeRedo;
+    private boolean smallEdits;
+
+    @Before
+    public void setUp() {
+        storeRedo = Settings.IMP.HISTORY.STORE_REDO;
+        smallEdits = Settings.IMP.HISTORY.SMALL_EDITS;
+    }
+
+    @After
+    public void tearDown() {
+        Settings.IMP.HISTORY.STORE_REDO = storeRedo;
+        Settings.IMP.HISTORY.SMALL_EDITS = smallEdits;
+    }
+
+    private static class TestChunk extends CharFaweChunk<Void, FaweQueue> {
+        TestChunk(int x, int z) {
+            super(null, x, z);
+        }
+
+        @Override
+        public Void getNewChunk() {
+            return null;
+        }
+
+        @Override
+        public CharFaweChunk<Void, FaweQueue> copy(boolean shallow) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FaweChunk call() {
+            return this;
+        }
+    }
+
+    /**
+     * A change set which adds each block change itself (so chunk diffs aren't encoded in advance)
+     */
+    private static class UnencodedHistory extends MemoryOptimizedHistory {
+        UnencodedHistory() {
+            super("world");
+        }
+
+        @Override
+        public void add(int x, int y, int z, int combinedFrom, int combinedTo) {
+            super.add(x, y, z, combinedFrom, combinedTo);
+        }
+    }
+
+    /**
+     * The changes to a chunk: a random previous chunk, with some of its blocks (and some air) set
+     */
+    private static ChunkDiff diff(Random random, int cx, int cz) {
+        TestChunk previous = new TestChunk(cx, cz);
+        TestChunk next = new TestChunk(cx, cz);
+        for (int i = 0; i < 3000; i++) {
+            int x = random.nextInt(16);
+            int y = random.nextInt(256);
+            int z = random.nextInt(16);
+            previous.setBlock(x, y, z, random.nextInt(200), random.nextInt(16));
+        }
+        for (int i = 0; i < 2000; i++) {
+            int x = random.nextInt(16);
+            int y = random.nextInt(256);
+            int z = random.nextInt(16);
+            if (random.nextInt(4) == 0) {
+                next.setBlock(x, y, z, 0, 0);
+            } else {
+                next.setBlock(x, y, z, 1 + random.nextInt(200), random.nextInt(16));
+            }
+        }
+        return new ChunkDiff(previous, next, LAYERS);
+    }
+
+    private static void add(FaweStreamChangeSet changeSet, List<ChunkDiff> diffs) throws IOException {
+        for (ChunkDiff diff : diffs) {
+            changeSet.encodeChunkDiff(diff);
+            synchronized (changeSet) {
+                changeSet.addBlockChanges(diff);
+            }
+        }
+        changeSet.close();
+    }
+
+    private static byte[] readBlocks(FaweStreamChangeSet changeSet) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FaweInputStream in = changeSet.getBlockIS()) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertChanges(List<ChunkDiff> diffs, FaweStreamChangeSet changeSet, boolean redo) throws IOException {
+        Iterator<MutableBlockChange> iter = changeSet.getBlockIterator(redo);
+        for (ChunkDiff diff : diffs) {
+            for (int i = 0; i < diff.size(); i++) {
+                assertTrue(iter.hasNext());
+                MutableBlockChange change = iter.next();
+                int combined = redo ? diff.getCombinedTo(i) : diff.getCombinedFrom(i);
+                assertEquals(diff.getX(i), change.x);
+                assertEquals(diff.getY(i), change.y);
+                assertEquals(diff.getZ(i), change.z);
+                assertEquals(combined >> 4, change.id);
+                assertEquals(combined & 15, change.data);
+            }
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    private void assertEncodedMatches(boolean storeRedo, boolean smallEdits, int mode) throws IOException {
+        Settings.IMP.HISTORY.STORE_REDO = storeRedo;
+        Settings.IMP.HISTORY.SMALL_EDITS = smallEdits;
+        Random random = new Random(mode);
+        List<ChunkDiff> diffs = new ArrayList<>();
+        diffs.add(diff(random, 3, -2));
+        diffs.add(diff(random, -5, 7));
+        // The same chunk again
+        diffs.add(diff(random, 3, -2));
+
+        MemoryOptimizedHistory encoded = new MemoryOptimizedHistory("world");
+        add(encoded, diffs);
+        for (ChunkDiff diff : diffs) {
+            assertNotNull(diff.getEncoded());
+            diff.setEncoded(null);
+        }
+        UnencodedHistory unencoded = new UnencodedHistory();
+        add(unencoded, diffs);
+        for (ChunkDiff diff : diffs) {
+            assertNull(diff.getEncoded());
+        }
+
+        int size = 0;
+        for (ChunkDiff diff : diffs) {
+            size += diff.size();
+        }
+        assertEquals(size, encoded.size());
+        assertEquals(size, unencoded.size());
+        byte[] blocks = readBlocks(unencoded);
+        assertArrayEquals(blocks, readBlocks(encoded));
+
+        assertChanges(diffs, encoded, false);
+        if (storeRedo) {
+            assertChanges(diffs, encoded, true);
+        }
+    }
+
+    @Test
+    public void smallUndo() throws IOException {
+        assertEncodedMatches(false, true, 1);
+    }
+
+    @Test
+    public void undo() throws IOException {
+        assertEncodedMatches(false, false, 2);
+    }
+
+    @Test
+    public void redo() throws IOException {
+        assertEncodedMatches(true, false, 3);
+    }
+
+    @Test
+    public void smallRedo() throws IOException {
+        assertEncodedMatches(true, true, 4);
+    }
+}
@@ -0,0 +1,173 @@
+package com.boydti.fawe.object.clipboard;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.schematic.MappedFormat;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiskOptimizedClipboardTest {
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 3;
+    private static final int LENGTH = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String clipboardPath;
+
+    @Before
+    public void setUp() {
+        // Copies made when resizing go to the clipboard directory
+        clipboardPath = Settings.IMP.PATHS.CLIPBOARD;
+        Settings.IMP.PATHS.CLIPBOARD = new File(folder.getRoot(), "clipboard").getAbsolutePath();
+    }
+
+    @After
+    public void tearDown() {
+        Settings.IMP.PATHS.CLIPBOARD = clipboardPath;
+    }
+
+    private static int blockId(int x, int y, int z) {
+        return 1 + x + (z << 2) + (y << 4);
+    }
+
+    /**
+     * Save a clipboard with a different block at each position in the mapped format
+     */
+    private File save() throws IOException {
+        DiskOptimizedClipboard source = new DiskOptimizedClipboard(WIDTH, HEIGHT, LENGTH, folder.newFile("source.bd"));
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int z = 0; z < LENGTH; z++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    source.setBlock(x, y, z, new BaseBlock(blockId(x, y, z)));
+                }
+            }
+        }
+        BlockArrayClipboard clipboard = new BlockArrayClipboard(new CuboidRegion(Vector.ZERO, new Vector(WIDTH - 1, HEIGHT - 1, LENGTH - 1)), source);
+        File file = new File(folder.getRoot(), "saved.mapped");
+        try (MappedFormat format = new MappedFormat(new FileOutputStream(file))) {
+            format.write(clipboard, null);
+        }
+        source.close();
+        return file;
+    }
+
+    private static DiskOptimizedClipboard read(MappedFormat format) throws IOException {
+        BlockArrayClipboard clipboard = (BlockArrayClipboard) format.read(null);
+        return (DiskOptimizedClipboard) clipboard.IMP;
+    }
+
+    private static void assertBlocks(DiskOptimizedClipboard clipboard) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int z = 0; z < LENGTH; z++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals(blockId(x, y, z), clipboard.getBlock(x, y, z).getId());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readMapped() throws IOException {
+        File file = save();
+        DiskOptimizedClipboard clipboard = read(new MappedFormat(file));
+        assertTrue(clipboard.isMapped());
+        assertEquals(file, clipboard.getFile());
+        assertBlocks(clipboard);
+        clipboard.close();
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void resizeCopiesMappedClipboard() throws IOException {
+        File file = save();
+        byte[] saved = Files.readAllBytes(file.toPath());
+        DiskOptimizedClipboard clipboard = read(new MappedFormat(file));
+        clipboard.setBlock(0, 0, 0, new BaseBlock(100));
+
+        clipboard.setDimensions(new Vector(WIDTH, HEIGHT + 2, LENGTH));
+        assertFalse(clipboard.isMapped());
+        assertNotEquals(file, clipboard.getFile());
+        // The private change is kept, and the new layers can be written
+        assertEquals(100, clipboard.getBlock(0, 0, 0).getId());
+        assertEquals(blockId(1, 2, 3), clipboard.getBlock(1, 2, 3).getId());
+        clipboard.setBlock(3, HEIGHT + 1, 4, new BaseBlock(7));
+        assertEquals(7, clipboard.getBlock(3, HEIGHT + 1, 4).getId());
+        File copy = clipboard.getFile();
+        clipboard.close();
+
+        assertTrue(copy.exists());
+        assertArrayEquals(saved, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void biomesCopyMappedClipboard() throws IOException {
+        File file = save();
+        byte[] saved = Files.readAllBytes(file.toPath());
+        DiskOptimizedClipboard clipboard = read(new MappedFormat(file));
+        assertFalse(clipboard.hasBiomes());
+        assertTrue(clipboard.setBiome(1, 2, 5));
+        assertFalse(clipboard.isMapped());
+        assertEquals(5, clipboard.getBiome(1, 2).getId());
+        assertBlocks(clipboard);
+        clipboard.close();
+        assertArrayEquals(saved, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void closeKeepsPermissions() throws IOException {
+        File file = save();
+        assertTrue(file.setWritable(false));
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file.toPath());
+        DiskOptimizedClipboard clipboard = read(new MappedFormat(file));
+        assertBlocks(clipboard);
+        clipboard.close();
+        assertEquals(permissions, Files.getPosixFilePermissions(file.toPath()));
+    }
+
+    @Test
+    public void streamCopyDeletedOnClose() throws IOException {
+        byte[] saved = Files.readAllBytes(save().toPath());
+        DiskOptimizedClipboard clipboard = read(new MappedFormat(new ByteArrayInputStream(saved)));
+        File copy = clipboard.getFile();
+        assertTrue(clipboard.isMapped());
+        assertTrue(copy.exists());
+        assertBlocks(clipboard);
+        clipboard.close();
+        assertFalse(copy.exists());
+    }
+
+    @Test
+    public void invalidStreamDeleted() throws IOException {
+        byte[] invalid = new byte[64];
+        Arrays.fill(invalid, (byte) 1);
+        File directory = new File(Settings.IMP.PATHS.CLIPBOARD);
+        try {
+            new MappedFormat(new ByteArrayInputStream(invalid)).read(null);
+        } catch (IOException expected) {
+        }
+        String[] files = directory.list();
+        assertEquals(0, files == null ? 0 : files.length);
+    }
+}
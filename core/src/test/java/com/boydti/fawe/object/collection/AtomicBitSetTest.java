@@ -0,0 +1,62 @@
+package com.boydti.fawe.object.collection;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AtomicBitSetTest {
+
+    @Test
+    public void setAndClear() {
+        AtomicBitSet set = new AtomicBitSet(130);
+        set.set(0);
+        set.set(64);
+        set.set(129);
+        assertTrue(set.get(64));
+        assertFalse(set.get(63));
+        BitSet bits = set.getAndClear();
+        assertEquals(3, bits.cardinality());
+        assertTrue(bits.get(129));
+        assertTrue(set.getAndClear().isEmpty());
+
+        set.setAll();
+        bits = set.getAndClear();
+        assertEquals(130, bits.cardinality());
+        assertEquals(130, bits.length());
+    }
+
+    @Test
+    public void concurrentSetsAreNotLost() throws InterruptedException {
+        final int size = 4096;
+        final AtomicBitSet set = new AtomicBitSet(size);
+        final AtomicBoolean done = new AtomicBoolean();
+        final BitSet taken = new BitSet();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                taken.or(set.getAndClear());
+            }
+        });
+        reader.start();
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int offset = t;
+            writers[t] = new Thread(() -> {
+                for (int i = offset; i < size; i += writers.length) {
+                    set.set(i);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        done.set(true);
+        reader.join();
+        taken.or(set.getAndClear());
+        assertEquals(size, taken.cardinality());
+    }
+}
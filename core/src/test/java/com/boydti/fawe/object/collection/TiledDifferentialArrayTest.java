@@ -0,0 +1,164 @@
+package com.boydti.fawe.object.collection;
+
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TiledDifferentialArrayTest {
+    // 3 x 2 tiles, with room for 2 on the heap
+    private static final int WIDTH = TiledDifferentialArray.TILE_SIZE * 2 + 100;
+    private static final int LENGTH = TiledDifferentialArray.TILE_SIZE + 50;
+    private static final int AREA = WIDTH * LENGTH;
+    private static final int MAX_TILES = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TiledDifferentialArray create(boolean chars, int defaultValue) throws IOException {
+        File file = new File(folder.getRoot(), chars ? "chars.bin" : "bytes.bin");
+        TiledDifferentialArray array = new TiledDifferentialArray(WIDTH, LENGTH, chars, defaultValue, file, MAX_TILES);
+        assertTrue(array.isTiled());
+        return array;
+    }
+
+    private static int[] randomValues(long seed, int max) {
+        Random random = new Random(seed);
+        int[] values = new int[AREA];
+        for (int i = 0; i < AREA; i++) {
+            values[i] = random.nextInt(max);
+        }
+        return values;
+    }
+
+    private static void assertBytes(TiledDifferentialArray array, int[] expected) {
+        // Column by column, so the tiles are loaded again after being evicted
+        for (int x = 0; x < WIDTH; x += 7) {
+            for (int z = 0; z < LENGTH; z++) {
+                int index = z * WIDTH + x;
+                assertEquals("index " + index, (byte) expected[index], array.getByte(index));
+            }
+        }
+        for (int i = 0; i < AREA; i++) {
+            assertEquals("index " + i, (byte) expected[i], array.getByte(i));
+        }
+    }
+
+    private static void assertChars(TiledDifferentialArray array, int[] expected) {
+        for (int i = AREA - 1; i >= 0; i--) {
+            assertEquals("index " + i, (char) expected[i], array.getChar(i));
+        }
+    }
+
+    private static byte[] flush(TiledDifferentialArray array) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FaweOutputStream out = new FaweOutputStream(bytes);
+        array.flushChanges(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static FaweInputStream read(byte[] changes) {
+        return new FaweInputStream(new ByteArrayInputStream(changes));
+    }
+
+    @Test
+    public void setAndGetAcrossEvictedTiles() throws IOException {
+        TiledDifferentialArray array = create(false, 3);
+        int[] initial = new int[AREA];
+        Arrays.fill(initial, 3);
+        assertBytes(array, initial);
+
+        int[] values = randomValues(1, 256);
+        for (int i = 0; i < AREA; i++) {
+            array.setByte(i, (byte) values[i]);
+        }
+        assertTrue(array.isModified());
+        assertBytes(array, values);
+        array.close();
+    }
+
+    @Test
+    public void undoAndRedoAfterEviction() throws IOException {
+        TiledDifferentialArray array = create(true, 0);
+        int[] first = randomValues(2, 65536);
+        // Column by column, so tiles with changes are evicted while being written
+        for (int x = 0; x < WIDTH; x++) {
+            for (int z = 0; z < LENGTH; z++) {
+                int index = z * WIDTH + x;
+                array.setChar(index, (char) first[index]);
+            }
+        }
+        byte[] firstChanges = flush(array);
+
+        int[] second = first.clone();
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            int index = random.nextInt(AREA);
+            second[index] = random.nextInt(65536);
+            array.setChar(index, (char) second[index]);
+        }
+        byte[] secondChanges = flush(array);
+        assertChars(array, second);
+
+        array.undoChanges(read(secondChanges));
+        assertChars(array, first);
+        array.undoChanges(read(firstChanges));
+        assertChars(array, new int[AREA]);
+
+        array.redoChanges(read(firstChanges));
+        assertChars(array, first);
+        array.redoChanges(read(secondChanges));
+        assertChars(array, second);
+        array.close();
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final TiledDifferentialArray array = create(false, 0);
+        final int[] values = randomValues(4, 256);
+        final int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    // Interleaved indexes, so the threads use (and evict) the same tiles
+                    for (int i = offset; i < AREA; i += threads) {
+                        array.setByte(i, (byte) values[i]);
+                        if ((i & 4095) < threads) {
+                            // Load a distant tile, so the ones being written are evicted
+                            array.getByte(AREA - 1 - i);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertBytes(array, values);
+        byte[] changes = flush(array);
+        array.undoChanges(read(changes));
+        assertBytes(array, new int[AREA]);
+        array.close();
+    }
+}
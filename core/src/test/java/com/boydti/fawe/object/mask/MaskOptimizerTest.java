@@ -0,0 +1,178 @@
+package com.boydti.fawe.object.mask;
+
+import com.boydti.fawe.FaweCache;
+import com.sk89q.worldedit.MutableBlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.extent.AbstractDelegateExtent;
+import com.sk89q.worldedit.extent.NullExtent;
+import com.sk89q.worldedit.function.mask.AbstractMask;
+import com.sk89q.worldedit.function.mask.AbstractMask2D;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.mask.Mask2D;
+import com.sk89q.worldedit.function.mask.MaskIntersection;
+import com.sk89q.worldedit.function.mask.MaskUnion;
+import com.sk89q.worldedit.function.mask.Masks;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MaskOptimizerTest {
+    private static final int STONE = 1;
+    private static final int DIRT = 3;
+
+    /**
+     * Stone, dirt and air in a pattern which depends on every coordinate
+     */
+    private static class TestExtent extends AbstractDelegateExtent {
+        TestExtent() {
+            super(new NullExtent());
+        }
+
+        @Override
+        public BaseBlock getLazyBlock(int x, int y, int z) {
+            int id = new int[] { 0, STONE, DIRT }[Math.floorMod(x + 2 * y + 3 * z, 3)];
+            return FaweCache.getBlock(id, 0);
+        }
+
+        @Override
+        public BaseBlock getLazyBlock(Vector position) {
+            return getLazyBlock(position.getBlockX(), position.getBlockY(), position.getBlockZ());
+        }
+
+        @Override
+        public BaseBlock getBlock(Vector position) {
+            return getLazyBlock(position);
+        }
+    }
+
+    private final TestExtent extent = new TestExtent();
+    private final Mask stone = new BlockMask(extent, new BaseBlock(STONE));
+    private final Mask dirt = new BlockMask(extent, new BaseBlock(DIRT));
+    private final Mask even = column((x, z) -> ((x ^ z) & 1) == 0);
+    private final Mask positive = column((x, z) -> x + z > 0);
+
+    private interface ColumnTest {
+        boolean test(int x, int z);
+    }
+
+    /**
+     * A mask which only depends on the column, so it has a 2D variant
+     */
+    private static Mask column(ColumnTest test) {
+        Mask2D mask2d = new AbstractMask2D() {
+            @Override
+            public boolean test(Vector2D vector) {
+                return test.test(vector.getBlockX(), vector.getBlockZ());
+            }
+        };
+        return new AbstractMask() {
+            @Override
+            public boolean test(Vector vector) {
+                return test.test(vector.getBlockX(), vector.getBlockZ());
+            }
+
+            @Override
+            public Mask2D toMask2D() {
+                return mask2d;
+            }
+        };
+    }
+
+    private static void assertEquivalent(Mask expected, Mask actual) {
+        MutableBlockVector pos = new MutableBlockVector();
+        for (int x = -4; x < 4; x++) {
+            for (int y = 0; y < 6; y++) {
+                for (int z = -4; z < 4; z++) {
+                    pos.setComponents(x, y, z);
+                    assertEquals(x + "," + y + "," + z, expected.test(pos), actual.test(pos));
+                }
+            }
+        }
+    }
+
+    private static Mask assertOptimized(Mask mask) {
+        Mask optimized = MaskOptimizer.optimize(mask);
+        assertEquivalent(mask, optimized);
+        return optimized;
+    }
+
+    @Test
+    public void duplicates() {
+        Mask optimized = assertOptimized(new MaskIntersection(even, new MaskIntersection(even, positive)));
+        CompiledMask.Node root = ((CompiledMask) optimized).getRoot();
+        assertTrue(root instanceof CompiledMask.And);
+        assertEquals(2, ((CompiledMask.And) root).children.length);
+
+        optimized = assertOptimized(new MaskUnion(stone, new MaskUnion(stone, dirt)));
+        assertTrue(MaskOptimizer.isTable(optimized));
+    }
+
+    @Test
+    public void absorption() {
+        assertSame(even, assertOptimized(new MaskIntersection(even, new MaskUnion(even, positive))));
+        assertSame(even, assertOptimized(new MaskUnion(even, new MaskIntersection(even, positive))));
+        // Tables are merged first, stone & (stone | dirt) = stone
+        Mask optimized = assertOptimized(new MaskIntersection(stone, new MaskUnion(stone, dirt)));
+        assertTrue(MaskOptimizer.isTable(optimized));
+    }
+
+    @Test
+    public void negation() {
+        assertSame(even, assertOptimized(Masks.negate(Masks.negate(even))));
+        assertTrue(MaskOptimizer.isTable(assertOptimized(Masks.negate(stone))));
+        assertSame(Masks.alwaysFalse(), assertOptimized(new MaskIntersection(even, Masks.negate(even))));
+        assertSame(Masks.alwaysTrue(), assertOptimized(new MaskUnion(even, Masks.negate(even))));
+        assertSame(Masks.alwaysFalse(), assertOptimized(new MaskIntersection(stone, Masks.negate(stone))));
+        assertSame(Masks.alwaysTrue(), assertOptimized(new MaskUnion(Masks.negate(stone), stone)));
+        assertOptimized(new MaskIntersection(Masks.negate(even), new MaskUnion(stone, positive)));
+    }
+
+    @Test
+    public void toMask2D() {
+        Mask optimized = assertOptimized(new MaskUnion(new MaskIntersection(even, positive), Masks.negate(positive)));
+        assertTrue(optimized instanceof CompiledMask);
+        Mask2D mask2d = optimized.toMask2D();
+        assertNotNull(mask2d);
+        MutableBlockVector pos = new MutableBlockVector();
+        for (int x = -4; x < 4; x++) {
+            for (int z = -4; z < 4; z++) {
+                assertEquals(optimized.test(pos.setComponents(x, 0, z)), mask2d.test(new Vector2D(x, z)));
+            }
+        }
+        // Block masks depend on y
+        assertNull(MaskOptimizer.optimize(new MaskUnion(even, stone)).toMask2D());
+    }
+
+    @Test
+    public void reentrant() {
+        // A mask which tests the compiled mask at another position while being tested
+        Mask[] compiled = new Mask[1];
+        Mask nested = new AbstractMask() {
+            @Override
+            public boolean test(Vector vector) {
+                if (vector.getBlockY() > 0) {
+                    return compiled[0].test(vector.subtract(0, 1, 0));
+                }
+                return true;
+            }
+        };
+        Mask mask = new MaskIntersection(new MaskUnion(stone, dirt), nested, new MaskUnion(stone, Masks.negate(even)));
+        compiled[0] = MaskOptimizer.optimize(mask);
+        assertTrue(compiled[0] instanceof CompiledMask);
+        Mask expected = new AbstractMask() {
+            @Override
+            public boolean test(Vector vector) {
+                boolean below = vector.getBlockY() <= 0 || test(vector.subtract(0, 1, 0));
+                return (stone.test(vector) || dirt.test(vector)) && below && (stone.test(vector) || !even.test(vector));
+            }
+        };
+        assertEquivalent(expected, compiled[0]);
+    }
+}
@@ -0,0 +1,170 @@
+package com.boydti.fawe.object.mask;
+
+import com.boydti.fawe.FaweCache;
+import com.sk89q.worldedit.MutableBlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.extent.AbstractDelegateExtent;
+import com.sk89q.worldedit.extent.NullExtent;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NeighbourCacheTest {
+    private static final int SIZE = 40;
+    private static final int STONE = 1;
+    private static final int DIRT = 3;
+
+    /**
+     * A random mix of stone, dirt and air (air outside the volume)
+     */
+    private static class TestExtent extends AbstractDelegateExtent {
+        final int[] ids = new int[SIZE * SIZE * SIZE];
+
+        TestExtent(long seed) {
+            super(new NullExtent());
+            Random random = new Random(seed);
+            int[] choices = { 0, STONE, DIRT };
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = choices[random.nextInt(3)];
+            }
+        }
+
+        int getId(int x, int y, int z) {
+            // Offset, so negative coordinates and several chunks are used
+            x += 20;
+            z += 20;
+            if (x < 0 || y < 0 || z < 0 || x >= SIZE || y >= SIZE || z >= SIZE) {
+                return 0;
+            }
+            return ids[(y * SIZE + z) * SIZE + x];
+        }
+
+        void setId(int x, int y, int z, int id) {
+            ids[(y * SIZE + z + 20) * SIZE + x + 20] = id;
+        }
+
+        @Override
+        public BaseBlock getLazyBlock(int x, int y, int z) {
+            return FaweCache.getBlock(getId(x, y, z), 0);
+        }
+
+        @Override
+        public BaseBlock getLazyBlock(Vector position) {
+            return getLazyBlock(position.getBlockX(), position.getBlockY(), position.getBlockZ());
+        }
+    }
+
+    private static int countNeighbours(TestExtent extent, int id, boolean horizontal, int x, int y, int z) {
+        int count = 0;
+        if (extent.getId(x + 1, y, z) == id) count++;
+        if (extent.getId(x - 1, y, z) == id) count++;
+        if (extent.getId(x, y, z + 1) == id) count++;
+        if (extent.getId(x, y, z - 1) == id) count++;
+        if (!horizontal) {
+            if (extent.getId(x, y + 1, z) == id) count++;
+            if (extent.getId(x, y - 1, z) == id) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Test every position, by chunk then y as a region is usually scanned, then in a random order
+     */
+    private static void assertMask(TestExtent extent, Mask mask, boolean horizontal, int min, int max) {
+        MutableBlockVector pos = new MutableBlockVector();
+        for (int cx = -2; cx < 2; cx++) {
+            for (int cz = -2; cz < 2; cz++) {
+                for (int y = 1; y < SIZE - 1; y++) {
+                    for (int x = cx << 4; x < (cx + 1) << 4; x++) {
+                        for (int z = cz << 4; z < (cz + 1) << 4; z++) {
+                            assertPosition(extent, mask, horizontal, min, max, pos, x, y, z);
+                        }
+                    }
+                }
+            }
+        }
+        Random random = new Random(min * 31 + max);
+        for (int i = 0; i < 20000; i++) {
+            assertPosition(extent, mask, horizontal, min, max, pos, random.nextInt(SIZE) - 20, random.nextInt(SIZE - 2) + 1, random.nextInt(SIZE) - 20);
+        }
+    }
+
+    private static void assertPosition(TestExtent extent, Mask mask, boolean horizontal, int min, int max, MutableBlockVector pos, int x, int y, int z) {
+        int count = countNeighbours(extent, STONE, horizontal, x, y, z);
+        boolean expected = count >= min && count <= max;
+        pos.setComponents(x, y, z);
+        assertEquals(x + "," + y + "," + z, expected, mask.test(pos));
+    }
+
+    @Test
+    public void adjacentMask() {
+        TestExtent extent = new TestExtent(1);
+        int[][] ranges = { { 1, 8 }, { 2, 3 }, { 0, 0 }, { 6, 6 }, { 1, 1 } };
+        for (int[] range : ranges) {
+            AdjacentMask mask = new AdjacentMask(new BlockMask(extent, new BaseBlock(STONE)), range[0], range[1]);
+            assertMask(extent, mask, false, range[0], range[1]);
+        }
+    }
+
+    @Test
+    public void wallMask() {
+        TestExtent extent = new TestExtent(2);
+        int[][] ranges = { { 1, 8 }, { 2, 2 }, { 0, 1 }, { 4, 4 } };
+        for (int[] range : ranges) {
+            WallMask mask = new WallMask(new BlockMask(extent, new BaseBlock(STONE)), range[0], range[1]);
+            assertMask(extent, mask, true, range[0], range[1]);
+        }
+    }
+
+    @Test
+    public void cachedMask() {
+        TestExtent extent = new TestExtent(3);
+        CachedMask mask = new CachedMask(new BlockMask(extent, new BaseBlock(DIRT)));
+        MutableBlockVector pos = new MutableBlockVector();
+        Random random = new Random(4);
+        for (int i = 0; i < 50000; i++) {
+            int x = random.nextInt(SIZE) - 20;
+            int y = random.nextInt(SIZE);
+            int z = random.nextInt(SIZE) - 20;
+            assertEquals(extent.getId(x, y, z) == DIRT, mask.test(pos.setComponents(x, y, z)));
+        }
+    }
+
+    @Test
+    public void masksDontShareExtents() {
+        // The same masks on two extents, tested alternately
+        TestExtent extent1 = new TestExtent(5);
+        TestExtent extent2 = new TestExtent(6);
+        AdjacentMask mask1 = new AdjacentMask(new BlockMask(extent1, new BaseBlock(STONE)), 2, 4);
+        AdjacentMask mask2 = new AdjacentMask(new BlockMask(extent2, new BaseBlock(STONE)), 2, 4);
+        MutableBlockVector pos = new MutableBlockVector();
+        for (int y = 1; y < SIZE - 1; y++) {
+            for (int x = -20; x < 20; x++) {
+                for (int z = -20; z < 20; z++) {
+                    assertPosition(extent1, mask1, false, 2, 4, pos, x, y, z);
+                    assertPosition(extent2, mask2, false, 2, 4, pos, x, y, z);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void resetReadsChanges() {
+        TestExtent extent = new TestExtent(7);
+        AdjacentMask mask = new AdjacentMask(new BlockMask(extent, new BaseBlock(STONE)), 6, 6);
+        MutableBlockVector pos = new MutableBlockVector(0, 10, 0);
+        extent.setId(1, 10, 0, 0);
+        assertEquals(false, mask.test(pos));
+        int[][] offsets = { { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 }, { 0, 0, 1 }, { 0, 0, -1 } };
+        for (int[] offset : offsets) {
+            extent.setId(offset[0], 10 + offset[1], offset[2], STONE);
+        }
+        // The next operation resets its masks, and sees the changes
+        mask.reset();
+        assertEquals(true, mask.test(pos.setComponents(0, 10, 0)));
+    }
+}
@@ -0,0 +1,88 @@
+package com.boydti.fawe.object.regions;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegionChunkMapTest {
+
+    private static Region[] regions(int size) {
+        return new Region[] {
+                // Full height, so classified by column
+                new CuboidRegion(new Vector(-20, 0, -20), new Vector(size, 255, 40)),
+                // Partial height, so tested per block
+                new CuboidRegion(new Vector(30, 10, -50), new Vector(70, 20, -5)),
+        };
+    }
+
+    private static boolean contains(Region[] regions, int x, int y, int z) {
+        for (Region region : regions) {
+            if (region.contains(x, y, z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertMatches(RegionChunkMap map, Region[] regions, int offset, int step) {
+        for (int x = -64 + offset; x < 96; x += step) {
+            for (int z = -64; z < 64; z += 3) {
+                for (int y = 0; y < 256; y += 5) {
+                    assertEquals(x + "," + y + "," + z, contains(regions, x, y, z), map.contains(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void classifiedUpFront() {
+        Region[] regions = regions(50);
+        RegionChunkMap map = new RegionChunkMap(regions);
+        assertMatches(map, regions, 0, 1);
+        assertTrue(map.isInside(0, 0));
+        assertTrue(map.isOutside(-10, -10));
+        assertFalse(map.isInside(3, -1));
+        assertFalse(map.isOutside(3, -1));
+    }
+
+    @Test
+    public void classifiedOnAccess() {
+        // Too many chunks to classify up front
+        Region[] regions = regions(1 << 14);
+        RegionChunkMap map = new RegionChunkMap(regions);
+        assertMatches(map, regions, 0, 1);
+        assertTrue(map.isInside(100, 0));
+        assertTrue(map.isOutside(-10, -10));
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final Region[] regions = regions(50);
+        final RegionChunkMap map = new RegionChunkMap(regions);
+        final int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                // Interleaved columns, so the threads keep replacing the last chunk
+                futures.add(executor.submit(() -> assertMatches(map, regions, offset, threads)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.boydti.fawe.util;
+
+import com.boydti.fawe.util.TickLimiter.Decision;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TickLimiterTest {
+    private static final int INTERVAL = 20;
+    private static final int PHYSICS_MS = 100;
+    private static final int FALLING = 10;
+    private static final int ITEMS = 10;
+    private static final long MS = 1000000L;
+
+    private static class FakeClock implements TickLimiter.Clock {
+        long tick;
+        long nanoTime;
+        double tps = 20;
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanoTime;
+        }
+
+        @Override
+        public double getTPS() {
+            return tps;
+        }
+    }
+
+    private FakeClock clock;
+    private TickLimiter limiter;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        limiter = new TickLimiter(clock, INTERVAL, PHYSICS_MS, FALLING, ITEMS);
+    }
+
+    /**
+     * Physics events in a chunk, each taking the given time
+     *
+     * @return the decision for each event
+     */
+    private Decision[] physics(int cx, int cz, int amount, long nanos) {
+        Decision[] decisions = new Decision[amount];
+        for (int i = 0; i < amount; i++) {
+            decisions[i] = limiter.onPhysics(cx, cz);
+            clock.nanoTime += nanos;
+        }
+        return decisions;
+    }
+
+    private static int count(Decision[] decisions, Decision decision) {
+        int count = 0;
+        for (Decision value : decisions) {
+            if (value == decision) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void cheapPhysicsIsAllowed() {
+        for (int t = 0; t < INTERVAL * 3; t++) {
+            clock.tick = t;
+            Decision[] decisions = physics(0, 0, 1000, 1000);
+            assertEquals(1000, count(decisions, Decision.ALLOW));
+        }
+        assertFalse(limiter.isThrottled(0, 0));
+    }
+
+    @Test
+    public void slowPhysicsTrips() {
+        // 1ms per event, so each timed event is charged a quarter of the limit, and the fifth one exceeds it
+        int trip = TickLimiter.SAMPLE * (TickLimiter.MIN_SAMPLES + 1);
+        Decision[] decisions = physics(0, 0, trip + 1, MS);
+        assertEquals(Decision.TRIP, decisions[trip]);
+        assertEquals(trip, count(decisions, Decision.ALLOW));
+        assertTrue(limiter.isThrottled(0, 0));
+        // The chunks around it are throttled as well
+        assertTrue(limiter.isThrottled(1, 1));
+        assertTrue(limiter.isThrottled(-1, 0));
+        assertFalse(limiter.isThrottled(2, 0));
+        assertEquals(Decision.CANCEL, limiter.onPhysics(0, 1));
+        assertEquals(Decision.ALLOW, limiter.onPhysics(5, 5));
+
+        // Throttled until the interval has passed
+        clock.tick = INTERVAL - 1;
+        assertTrue(limiter.isThrottled(0, 0));
+        clock.tick = INTERVAL;
+        assertFalse(limiter.isThrottled(0, 0));
+        assertEquals(Decision.ALLOW, limiter.onPhysics(0, 0));
+    }
+
+    @Test
+    public void timeBetweenChunksIsNotCharged() {
+        // Cheap events in chunk A, then a long pause (not physics) before the events move to chunk B
+        for (int t = 0; t < INTERVAL; t++) {
+            clock.tick = t;
+            physics(0, 0, 10, 1000);
+            clock.nanoTime += 500 * MS;
+            physics(10, 10, 10, 1000);
+        }
+        assertFalse(limiter.isThrottled(0, 0));
+        assertFalse(limiter.isThrottled(10, 10));
+    }
+
+    @Test
+    public void timedEventIsChargedToItsChunk() {
+        // Each timed event is in chunk A and takes 2ms, then the events move to chunk B
+        int events = 0;
+        for (int i = 0; i <= TickLimiter.MIN_SAMPLES; i++) {
+            events = timeNext(0, 0, events, 2 * MS);
+            assertEquals(Decision.ALLOW, limiter.onPhysics(10, 10));
+            events++;
+        }
+        assertTrue(limiter.isThrottled(0, 0));
+        assertFalse(limiter.isThrottled(10, 10));
+    }
+
+    @Test
+    public void singlePauseIsCapped() {
+        // Other work (not physics) right after a timed event is charged at most a quarter of the limit
+        int events = 0;
+        for (int i = 0; i < TickLimiter.MIN_SAMPLES; i++) {
+            events = timeNext(0, 0, events, 1000 * MS);
+            assertEquals(Decision.ALLOW, limiter.onPhysics(0, 0));
+            events++;
+        }
+        assertFalse(limiter.isThrottled(0, 0));
+    }
+
+    @Test
+    public void onlyChargedChunksAreCounted() {
+        // A timed event is charged to its chunk once it ends
+        physics(0, 0, TickLimiter.SAMPLE, 1000);
+        assertEquals(0, limiter.size());
+        limiter.onPhysics(1, 1);
+        assertEquals(1, limiter.size());
+        // Physics spread over many chunks, only the chunks of timed events are counted
+        for (int i = 0; i < TickLimiter.SAMPLE * 10; i++) {
+            assertEquals(Decision.ALLOW, limiter.onPhysics(i, -i));
+            clock.nanoTime += 1000;
+        }
+        assertEquals(11, limiter.size());
+    }
+
+    @Test
+    public void tickAndInterruptEndTiming() {
+        physics(0, 0, TickLimiter.SAMPLE, 0);
+        // The time until the next tick isn't physics
+        clock.nanoTime += 1000 * MS;
+        clock.tick++;
+        assertEquals(Decision.ALLOW, limiter.onPhysics(0, 0));
+        assertFalse(limiter.isThrottled(0, 0));
+
+        physics(0, 0, TickLimiter.SAMPLE, 0);
+        // Neither is the time spent on other events
+        limiter.interrupt();
+        clock.nanoTime += 1000 * MS;
+        assertEquals(Decision.ALLOW, limiter.onPhysics(0, 0));
+        assertFalse(limiter.isThrottled(0, 0));
+    }
+
+    @Test
+    public void slidingWindow() {
+        // Charged the limit every interval (MIN_SAMPLES capped events), which doesn't exceed it
+        int events = 0;
+        for (int t = 0; t < INTERVAL * 4; t += INTERVAL) {
+            clock.tick = t;
+            for (int i = 0; i < TickLimiter.MIN_SAMPLES; i++) {
+                events = timeNext(0, 0, events, MS);
+                // Ends the timed event
+                limiter.onPhysics(5, 5);
+                events++;
+            }
+            assertFalse(limiter.isThrottled(0, 0));
+        }
+        // One more in the same window exceeds it
+        clock.tick++;
+        timeNext(0, 0, events, MS);
+        limiter.onPhysics(5, 5);
+        assertTrue(limiter.isThrottled(0, 0));
+    }
+
+    /**
+     * Cheap events in a chunk, up to the next timed event, which takes the given time
+     *
+     * @param events the events since the last timed event
+     * @return the events since the last timed event (0)
+     */
+    private int timeNext(int cx, int cz, int events, long nanos) {
+        for (; events < TickLimiter.SAMPLE - 1; events++) {
+            limiter.onPhysics(cx, cz);
+        }
+        limiter.onPhysics(cx, cz);
+        clock.nanoTime += nanos;
+        return 0;
+    }
+
+    @Test
+    public void itemLimit() {
+        for (int i = 0; i < ITEMS - 1; i++) {
+            assertEquals(Decision.ALLOW, limiter.onItemSpawn(0, 0));
+        }
+        assertEquals(Decision.TRIP, limiter.onItemSpawn(0, 0));
+        assertEquals(Decision.CANCEL, limiter.onItemSpawn(0, 0));
+        clock.tick = INTERVAL;
+        assertEquals(Decision.ALLOW, limiter.onItemSpawn(0, 0));
+    }
+
+    @Test
+    public void fallingOnlyTripsWhenLagging() {
+        for (int i = 0; i < FALLING * 3; i++) {
+            assertEquals(Decision.ALLOW, limiter.onFalling(0, 0, true));
+        }
+        clock.tps = 15;
+        for (int i = 0; i < FALLING - 1; i++) {
+            assertEquals(Decision.ALLOW, limiter.onFalling(0, 0, true));
+        }
+        assertEquals(Decision.TRIP, limiter.onFalling(0, 0, true));
+        assertEquals(Decision.CANCEL, limiter.onFalling(0, 0, false));
+    }
+}
@@ -0,0 +1,193 @@
+package com.sk89q.worldedit.function.visitor;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.collection.BlockVectorSet;
+import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.TaskManager;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.extent.NullExtent;
+import com.sk89q.worldedit.function.RegionFunction;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import com.sk89q.worldedit.function.mask.Masks;
+import com.sk89q.worldedit.function.operation.Operations;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BreadthFirstSearchTest {
+    private static final int SIZE = 96;
+    private static TaskManager previous;
+    private static int previousThreshold;
+
+    @BeforeClass
+    public static void setUp() {
+        previous = TaskManager.IMP;
+        previousThreshold = Settings.IMP.EXPERIMENTAL.PARALLEL_VISITOR_THRESHOLD;
+        // Expand every layer in parallel
+        Settings.IMP.EXPERIMENTAL.PARALLEL_VISITOR_THRESHOLD = 0;
+        if (TaskManager.IMP == null) {
+            TaskManager.IMP = new TaskManager() {
+                @Override
+                public int repeat(Runnable r, int interval) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int repeatAsync(Runnable r, int interval) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void async(Runnable r) {
+                    r.run();
+                }
+
+                @Override
+                public void task(Runnable r) {
+                    r.run();
+                }
+
+                @Override
+                public void later(Runnable r, int delay) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void laterAsync(Runnable r, int delay) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void cancel(int task) {
+                }
+            };
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        TaskManager.IMP = previous;
+        Settings.IMP.EXPERIMENTAL.PARALLEL_VISITOR_THRESHOLD = previousThreshold;
+    }
+
+    /**
+     * A random cave-like volume, which crosses many chunk sections
+     */
+    private static boolean[] randomVolume(long seed) {
+        Random random = new Random(seed);
+        boolean[] solid = new boolean[SIZE * SIZE * SIZE];
+        for (int i = 0; i < solid.length; i++) {
+            solid[i] = random.nextInt(100) < 65;
+        }
+        return solid;
+    }
+
+    private static LongOpenHashSet search(final boolean[] solid, boolean parallel, int maxDepth, boolean diagonal) throws Exception {
+        return search(solid, parallel, maxDepth, diagonal, null);
+    }
+
+    private static LongOpenHashSet search(final boolean[] solid, boolean parallel, int maxDepth, boolean diagonal, BlockVectorSet visited) throws Exception {
+        final LongOpenHashSet applied = new LongOpenHashSet();
+        RegionFunction function = new RegionFunction() {
+            @Override
+            public boolean apply(Vector position) {
+                assertTrue(applied.add(MathMan.tripleWorldCoord(position.getBlockX(), position.getBlockY(), position.getBlockZ())));
+                return true;
+            }
+        };
+        BreadthFirstSearch search = new BreadthFirstSearch(function, maxDepth) {
+            @Override
+            public boolean isVisitable(Vector from, Vector to) {
+                // Offset from the origin, so negative coordinates are used
+                int x = to.getBlockX() + 40;
+                int y = to.getBlockY();
+                int z = to.getBlockZ() + 40;
+                if (x < 0 || y < 0 || z < 0 || x >= SIZE || y >= SIZE || z >= SIZE) {
+                    return false;
+                }
+                return solid[(y * SIZE + z) * SIZE + x];
+            }
+        };
+        if (diagonal) {
+            search.setDirections(Arrays.asList(BreadthFirstSearch.DIAGONAL_DIRECTIONS));
+        }
+        if (visited != null) {
+            search.setVisited(visited);
+        }
+        search.setParallel(parallel);
+        search.visit(new Vector(8, 48, 8));
+        Operations.completeBlindly(search);
+        assertEquals(applied.size(), search.getAffected());
+        return applied;
+    }
+
+    @Test
+    public void parallelVisitsSameBlocks() throws Exception {
+        boolean[] solid = randomVolume(1);
+        LongOpenHashSet serial = search(solid, false, Integer.MAX_VALUE, false);
+        assertTrue(serial.size() > 10000);
+        assertEquals(serial, search(solid, true, Integer.MAX_VALUE, false));
+    }
+
+    @Test
+    public void parallelRespectsMaxDepth() throws Exception {
+        boolean[] solid = randomVolume(2);
+        for (int depth : new int[] { 0, 1, 5, 20 }) {
+            assertEquals(search(solid, false, depth, false), search(solid, true, depth, false));
+        }
+    }
+
+    @Test
+    public void parallelDiagonal() throws Exception {
+        boolean[] solid = randomVolume(3);
+        assertEquals(search(solid, false, 30, true), search(solid, true, 30, true));
+    }
+
+    @Test
+    public void plainVisitedSet() throws Exception {
+        boolean[] solid = randomVolume(4);
+        // Searches with a BlockVectorSet (which isn't concurrent) are expanded serially
+        BlockVectorSet visited = new BlockVectorSet();
+        LongOpenHashSet applied = search(solid, true, Integer.MAX_VALUE, false, visited);
+        assertEquals(search(solid, false, Integer.MAX_VALUE, false), applied);
+        assertEquals(applied.size(), visited.size());
+    }
+
+    @Test
+    public void recursiveVisitorOptsIn() {
+        boolean enabled = Settings.IMP.EXPERIMENTAL.PARALLEL_VISITORS;
+        Settings.IMP.EXPERIMENTAL.PARALLEL_VISITORS = true;
+        try {
+            RegionFunction function = new RegionFunction() {
+                @Override
+                public boolean apply(Vector position) {
+                    return true;
+                }
+            };
+            RecursiveVisitor visitor = new RecursiveVisitor(new BlockMask(new NullExtent(), new BaseBlock(1)), function);
+            // Never parallel unless the caller asks
+            assertFalse(visitor.isParallel());
+            assertFalse(visitor.setParallelIfSafe(false));
+            assertTrue(visitor.setParallelIfSafe(true));
+            assertTrue(visitor.isParallel());
+            // Other masks may keep state
+            visitor = new RecursiveVisitor(Masks.negate(new BlockMask(new NullExtent(), new BaseBlock(1))), function);
+            assertFalse(visitor.setParallelIfSafe(true));
+            assertFalse(visitor.isParallel());
+
+            Settings.IMP.EXPERIMENTAL.PARALLEL_VISITORS = false;
+            visitor = new RecursiveVisitor(new BlockMask(new NullExtent(), new BaseBlock(1)), function);
+            assertFalse(visitor.setParallelIfSafe(true));
+        } finally {
+            Settings.IMP.EXPERIMENTAL.PARALLEL_VISITORS = enabled;
+        }
+    }
+}
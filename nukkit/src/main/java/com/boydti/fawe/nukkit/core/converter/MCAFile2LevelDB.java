@@ -8,8 +8,6 @@ import com.boydti.fawe.jnbt.anvil.MCAFilter;
 import com.boydti.fawe.jnbt.anvil.MCAQueue;
 import com.boydti.fawe.jnbt.anvil.filters.DelegateMCAFilter;
 import com.boydti.fawe.jnbt.anvil.filters.RemapFilter;
-import com.boydti.fawe.object.FaweInputStream;
-import com.boydti.fawe.object.FaweOutputStream;
 import com.boydti.fawe.object.clipboard.remap.ClipboardRemapper;
 import com.boydti.fawe.object.io.LittleEndianOutputStream;
 import com.boydti.fawe.object.number.MutableLong;
@@ -17,8 +15,6 @@ import com.boydti.fawe.util.MainUtil;
 import com.boydti.fawe.util.MemUtil;
 import com.boydti.fawe.util.ReflectionUtils;
 import com.boydti.fawe.util.StringMan;
-import com.github.luben.zstd.ZstdInputStream;
-import com.github.luben.zstd.ZstdOutputStream;
 import com.sk89q.jnbt.ByteTag;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.FloatTag;
@@ -33,11 +29,7 @@ import com.sk89q.jnbt.StringTag;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BaseItem;
 import com.sk89q.worldedit.world.registry.BundledBlockData;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.Closeable;
 import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
@@ -45,6 +37,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -55,22 +49,32 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.zip.GZIPInputStream;
-import net.jpountz.lz4.LZ4BlockInputStream;
-import net.jpountz.lz4.LZ4BlockOutputStream;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.impl.Iq80DBFactory;
 
 public class MCAFile2LevelDB extends MapConverter {
     private final byte[] VERSION = new byte[] { 4 };
     private final byte[] COMPLETE_STATE = new byte[] { 2, 0, 0, 0 };
 
+    // Chunks being encoded, and encoded chunks waiting to be written (bounds the memory used by the pipeline)
+    private static final int MAX_ENCODING_CHUNKS = 256;
+    private static final int MAX_QUEUED_CHUNKS = 512;
+    // The maximum size of a WriteBatch
+    private static final long MAX_BATCH_BYTES = 64 << 20;
+    private static final KeyValue[] END = new KeyValue[0];
+
     private final DB db;
     private final ClipboardRemapper remapper;
     private final ForkJoinPool pool;
@@ -78,6 +82,24 @@ public class MCAFile2LevelDB extends MapConverter {
     private LongAdder submittedChunks = new LongAdder();
     private LongAdder submittedFiles = new LongAdder();
 
+    /*
+     * The conversion is a pipeline with bounded queues between each stage:
+     *  - read + decode: the MCAQueue reads and remaps each region file
+     *  - encode: chunks are converted to key/values on the pool (at most MAX_ENCODING_CHUNKS at a time)
+     *  - write: a single thread sorts the key/values and inserts them in WriteBatches
+     * Each stage blocks when the next is full, so memory doesn't depend on the world size
+     */
+    private final Semaphore encodingChunks = new Semaphore(MAX_ENCODING_CHUNKS);
+    private final BlockingQueue<KeyValue[]> writeQueue = new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS);
+    private final Thread writer;
+    // The first error of the encode or write stage, the conversion is aborted and it's thrown from close()
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    private final LongAdder encodedChunks = new LongAdder();
+    private final LongAdder writtenKeys = new LongAdder();
+    private final LongAdder writtenBytes = new LongAdder();
+    private final LongAdder writtenBatches = new LongAdder();
+
     private LongAdder totalOperations = new LongAdder();
     private long estimatedOperations;
 
@@ -123,10 +145,113 @@ public class MCAFile2LevelDB extends MapConverter {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        this.writer = new Thread(this::writeBatches, "FAWE LevelDB writer");
+        this.writer.start();
+    }
+
+    private static final class KeyValue implements Comparable<KeyValue> {
+        private final byte[] key;
+        private final byte[] value;
+
+        private KeyValue(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        // Same order as the LevelDB bytewise comparator
+        @Override
+        public int compareTo(KeyValue other) {
+            byte[] a = key;
+            byte[] b = other.key;
+            int len = Math.min(a.length, b.length);
+            for (int i = 0; i < len; i++) {
+                int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (diff != 0) return diff;
+            }
+            return a.length - b.length;
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (error.compareAndSet(null, e)) {
+            e.printStackTrace();
+        }
+    }
+
+    private void checkError() throws IOException {
+        Throwable e = error.get();
+        if (e != null) {
+            throw new IOException("Conversion failed", e);
+        }
+    }
+
+    private void enqueue(KeyValue[] entries) throws IOException {
+        try {
+            while (!writeQueue.offer(entries, 1, TimeUnit.SECONDS)) {
+                checkError();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private void writeBatches() {
+        List<KeyValue> batch = new ArrayList<>();
+        try {
+            boolean end = false;
+            while (!end) {
+                KeyValue[] entries = writeQueue.take();
+                long bytes = 0;
+                while (true) {
+                    if (entries == END) {
+                        end = true;
+                        break;
+                    }
+                    for (KeyValue entry : entries) {
+                        batch.add(entry);
+                        bytes += entry.key.length + entry.value.length;
+                    }
+                    if (bytes >= MAX_BATCH_BYTES || (entries = writeQueue.poll()) == null) {
+                        break;
+                    }
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                // Stable sort, so the last value for a key is still written last
+                Collections.sort(batch);
+                try (WriteBatch writeBatch = db.createWriteBatch()) {
+                    for (KeyValue entry : batch) {
+                        writeBatch.put(entry.key, entry.value);
+                    }
+                    db.write(writeBatch);
+                }
+                writtenKeys.add(batch.size());
+                writtenBytes.add(bytes);
+                writtenBatches.increment();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Aborted by close(), after the encoding failed
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * @return the number of chunks, keys and MB written, and the chunks per second
+     */
+    public String getThroughput() {
+        long seconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+        long chunks = encodedChunks.longValue();
+        return chunks + " chunks, " + writtenKeys.longValue() + " keys, " + (writtenBytes.longValue() >> 20) + "MB in " + writtenBatches.longValue() + " batches (" + (chunks / seconds) + " chunks/s)";
     }
 
     private double lastPercent;
     private double lastTimeRatio;
+    // The queue of the dimension being converted
+    private volatile MCAQueue queue;
 
     private void resetProgress(int estimatedOperations) {
         startTime = System.currentTimeMillis();
@@ -162,7 +287,11 @@ public class MCAFile2LevelDB extends MapConverter {
         } else {
             timeRemaining = ((long) totalTime >> 4) - timeSpent;
         }
-        String msg = MainUtil.secToTime((long) (timeRemaining / 1000));
+        String msg = MainUtil.secToTime((long) (timeRemaining / 1000)) + " - " + (encodedChunks.longValue() * 1000 / Math.max(1, timeSpent)) + " chunks/s";
+        MCAQueue queue = this.queue;
+        if (queue != null) {
+            msg += " - " + queue.getFilterStatistics();
+        }
         app.setProgress(msg, (int) percent);
     }
 
@@ -171,17 +300,20 @@ public class MCAFile2LevelDB extends MapConverter {
         filter.setDimension(dimension);
 
         DelegateMCAFilter<MutableLong> delegate = new DelegateMCAFilter<MutableLong>(filter) {
+            @Override
+            public boolean appliesFile(Path path, BasicFileAttributes attr) {
+                // Skip the remaining files once the conversion has failed
+                return error.get() == null && super.appliesFile(path, attr);
+            }
+
             @Override
             public void finishFile(MCAFile file, MutableLong cache) {
+                boolean remap = !file.getFile().getName().endsWith(".mcapm");
                 for (int x = 0; x < 32; x++) {
                     for (int z = 0; z < 32; z++) {
                         MCAChunk chunk = file.getCachedChunk(x, z);
                         if (chunk != null) {
-                            try {
-                                write(chunk, !file.getFile().getName().endsWith(".mcapm"), dimension);
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
+                            submit(chunk, remap, dimension);
                         }
                     }
                 }
@@ -189,9 +321,6 @@ public class MCAFile2LevelDB extends MapConverter {
 
                 progress(1);
                 submittedFiles.increment();
-                if ((submittedFiles.longValue() & 7) == 0) {
-//                    flush();
-                }
             }
         };
         return delegate;
@@ -246,6 +375,7 @@ public class MCAFile2LevelDB extends MapConverter {
 
                 DelegateMCAFilter filter = toFilter(dimIds[i]);
                 MCAQueue queue = new MCAQueue(null, source, true);
+                this.queue = queue;
 
                 Comparator<File> seqUnsPos = new Comparator<File>() {
                     @Override
@@ -284,14 +414,22 @@ public class MCAFile2LevelDB extends MapConverter {
             CompoundTag portalData = new CompoundTag(Collections.singletonMap("PortalRecords", new ListTag(CompoundTag.class, portals)));
             CompoundTag portalsTag = new CompoundTag(Collections.singletonMap("data", portalData));
             try {
-                db.put("portals".getBytes(), write(Arrays.asList(portalsTag)));
+                enqueue(new KeyValue[] { new KeyValue("portals".getBytes(), write(Arrays.asList(portalsTag))) });
             } catch (IOException e) {
-                e.printStackTrace();
+                fail(e);
             }
         }
 
         app.setTitle("Writing converted data...");
-        close();
+        try {
+            close();
+        } catch (Throwable e) {
+            progressThread.interrupt();
+            app.setProgress("Failed", 0);
+            app.setTitle(null);
+            throw e;
+        }
+        Fawe.debugPlain(" - " + getThroughput());
         progressThread.interrupt();
         app.setProgress("Done", 0);
         app.setTitle(null);
@@ -311,29 +449,41 @@ public class MCAFile2LevelDB extends MapConverter {
         app.prompt("Compaction complete!");
     }
 
+    /**
+     * Wait for the chunks to be encoded and written, then close the database
+     *
+     * @throws RuntimeException if a chunk could not be encoded or written
+     */
     @Override
     public synchronized void close() {
+        if (closed == (closed = true)) return;
         try {
-            if (closed == (closed = true)) return;
-
             Fawe.debugPlain("Collecting threads");
             pool.shutdown();
             pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
 
-            resetProgress(cache.size());
-            ArrayList<FileCache> files = new ArrayList<>(cache.values());
-            Collections.sort(files);
-            for (FileCache file : files) {
-                file.close();
-                progress(1);
+            // Write the remaining batches
+            if (error.get() == null) {
+                enqueue(END);
+            } else {
+                writer.interrupt();
             }
-
-            Fawe.debugPlain("Closing");
+            writer.join();
+        } catch (Throwable e) {
+            fail(e);
+            writer.interrupt();
+        }
+        Fawe.debugPlain("Closing");
+        try {
             db.close();
-            Fawe.debugPlain("Done! (but still compacting)");
         } catch (Throwable e) {
-            e.printStackTrace();
+            fail(e);
+        }
+        Throwable e = error.get();
+        if (e != null) {
+            throw new RuntimeException("Conversion failed", e);
         }
+        Fawe.debugPlain("Done! (but still compacting)");
     }
 
     public synchronized void compact() {
@@ -410,25 +560,41 @@ public class MCAFile2LevelDB extends MapConverter {
         }
     }
 
+    /**
+     * Encode a chunk on the pool and queue it to be written<br>
+     * - Blocks while MAX_ENCODING_CHUNKS chunks are being encoded
+     */
+    private void submit(MCAChunk chunk, boolean remap, int dim) {
+        if (error.get() != null) {
+            return;
+        }
+        try {
+            encodingChunks.acquire();
+        } catch (InterruptedException e) {
+            // Abort the conversion, rather than silently dropping the chunk
+            Thread.currentThread().interrupt();
+            fail(e);
+            throw new RuntimeException(e);
+        }
+        pool.submit(() -> {
+            try {
+                write(chunk, remap, dim);
+            } catch (Throwable e) {
+                fail(e);
+            } finally {
+                encodingChunks.release();
+            }
+        });
+    }
+
+    /**
+     * Encode a chunk and queue it to be written<br>
+     * - Blocks while the write queue is full
+     */
     public void write(MCAChunk chunk, boolean remap, int dim) throws IOException {
         submittedChunks.add(1);
-        long numChunks = submittedChunks.longValue();
-        if ((numChunks & 1023) == 0) {
-            long queued = pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
-            if (queued > 127) {
-                System.gc();
-                while (queued > 64) {
-                    try {
-                        Thread.sleep(5);
-                        queued = pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
-                    } catch (InterruptedException e) {
-                        break;
-                    }
-                }
-            }
-        }
+        List<KeyValue> entries = new ArrayList<>();
         try {
-            FileCache cached = getFileCache(chunk, dim);
             { // Data2D
                 ByteBuffer data2d = ByteBuffer.wrap(new byte[512 + 256]);
                 int[] heightMap = chunk.getHeightMapArray();
@@ -438,7 +604,7 @@ public class MCAFile2LevelDB extends MapConverter {
                 if (chunk.biomes != null) {
                     System.arraycopy(chunk.biomes, 0, data2d.array(), 512, 256);
                 }
-                cached.update(getKey(chunk, Tag.Data2D, dim), data2d.array());
+                entries.add(new KeyValue(getKey(chunk, Tag.Data2D, dim), data2d.array()));
             }
 
             { // SubChunkPrefix
@@ -469,7 +635,7 @@ public class MCAFile2LevelDB extends MapConverter {
                                 System.arraycopy(blockLight, 0, value, 1 + 4096 + 2048 + 2048, blockLight.length);
                             }
                         }
-                        cached.update(key, value);
+                        entries.add(new KeyValue(key, value));
                     }
                 }
             }
@@ -502,7 +668,7 @@ public class MCAFile2LevelDB extends MapConverter {
 
                         tiles.add(tag);
                     }
-                    cached.update(getKey(chunk, Tag.BlockEntity, dim), write(tiles));
+                    entries.add(new KeyValue(getKey(chunk, Tag.BlockEntity, dim), write(tiles)));
                 }
 
                 // Entity
@@ -512,102 +678,25 @@ public class MCAFile2LevelDB extends MapConverter {
                         transform(chunk, tag, true);
                         entities.add(tag);
                     }
-                    cached.update(getKey(chunk, Tag.Entity, dim), write(entities));
+                    entries.add(new KeyValue(getKey(chunk, Tag.Entity, dim), write(entities)));
                 }
 
                 // PendingTicks
                 if (tickList != null) {
                     HashMap<String, com.sk89q.jnbt.Tag> root = new HashMap<String, com.sk89q.jnbt.Tag>();
                     root.put("tickList", new ListTag(CompoundTag.class, tickList));
-                    cached.update(getKey(chunk, Tag.PendingTicks, dim), write(Arrays.asList(new CompoundTag(root))));
+                    entries.add(new KeyValue(getKey(chunk, Tag.PendingTicks, dim), write(Arrays.asList(new CompoundTag(root)))));
                 }
             }
 
-            cached.update(getKey(chunk, Tag.FinalizedState, dim), COMPLETE_STATE);
+            entries.add(new KeyValue(getKey(chunk, Tag.FinalizedState, dim), COMPLETE_STATE));
 
-            cached.update(getKey(chunk, Tag.Version, dim), VERSION);
+            entries.add(new KeyValue(getKey(chunk, Tag.Version, dim), VERSION));
         } catch (Throwable e) {
             e.printStackTrace();
         }
-    }
-
-    private byte[] last;
-
-    private class FileCache implements Comparable<FileCache>, Closeable {
-        private FaweOutputStream os;
-        private final File file;
-        private int id;
-        int numKeys = 0;
-
-        public FileCache(int id) throws IOException {
-            this.id = id;
-            this.file = new File(getFolderTo() + File.separator + "cache" + File.separator + Integer.toHexString(id));
-        }
-
-        public void update(byte[] key, byte[] value) throws IOException {
-            numKeys++;
-            try {
-                updateUnsafe(key, value);
-            } catch (NullPointerException e) {
-                file.getParentFile().mkdirs();
-                file.createNewFile();
-                this.os = new FaweOutputStream(new BufferedOutputStream(new ZstdOutputStream(new LZ4BlockOutputStream(new FileOutputStream(file)))));
-                updateUnsafe(key, value);
-            }
-        }
-
-        private void updateUnsafe(byte[] key, byte[] value) throws IOException {
-            os.writeVarInt(key.length);
-            os.write(key);
-            os.writeVarInt(value.length);
-            os.write(value);
-        }
-
-        @Override
-        public void close() throws IOException {
-            try {
-                this.os.close();
-
-                FaweInputStream in = new FaweInputStream(new ZstdInputStream(new LZ4BlockInputStream(new BufferedInputStream(new FileInputStream(file)))));
-                for (int i = 0; i < numKeys; i++) {
-                    int len = in.readVarInt();
-                    byte[] key = new byte[len];
-                    in.readFully(key);
-
-                    len = in.readVarInt();
-                    byte[] value = new byte[len];
-                    in.readFully(value);
-                    db.put(key, value);
-                }
-                in.close();
-                file.delete();
-            } catch (Throwable e) {
-                e.printStackTrace();
-                throw e;
-            }
-        }
-
-        @Override
-        public int compareTo(FileCache other) {
-            return Integer.compareUnsigned(this.id, other.id);
-        }
-    }
-
-    private Int2ObjectOpenHashMap<FileCache> cache = new Int2ObjectOpenHashMap<>();
-
-    private FileCache getFileCache(MCAChunk chunk, int dim) throws IOException {
-        synchronized (cache) {
-            int key = (chunk.getX() & 0xFFFFFF);
-            if (dim == 0) {
-//                key += 0xFFFFFFF;
-            }
-            FileCache cached = cache.get(key);
-            if (cached == null) {
-                cached = new FileCache(key);
-                cache.put(key, cached);
-            }
-            return cached;
-        }
+        encodedChunks.increment();
+        enqueue(entries.toArray(new KeyValue[entries.size()]));
     }
 
     private void copySection(byte[] src, byte[] dest, int destPos) {